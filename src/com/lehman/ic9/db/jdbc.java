@@ -22,7 +22,6 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Savepoint;
@@ -56,6 +55,18 @@ public class jdbc
 	private String userName = null;
 	private String password = null;
 	
+	/** Default number of prepared statements cached per connection. */
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+	
+	/** Prepared statement cache. */
+	private jdbcStatementCache stmtCache = new jdbcStatementCache(DEFAULT_STATEMENT_CACHE_SIZE);
+	
+	/** Connection pool to borrow the connection from or null. */
+	private jdbcPool pool = null;
+	
+	/** Set row fields by index as well as by column name. */
+	private boolean indexKeys = true;
+	
 	/**
 	 * Object constructor takes connection information and creates 
 	 * a new JDBC object.
@@ -491,11 +502,60 @@ public class jdbc
 	}
 
 	/**
-	 * Attempts to establish the database connection.
+	 * Sets whether rows returned from select queries and cursors have 
+	 * each field set by index as well as by column name. Turning this 
+	 * off halves the number of keys set on each row for large selects.
+	 * @param IndexKeys is a boolean with true to set index keys and 
+	 * false for column names only.
+	 */
+	public void setIndexKeys(boolean IndexKeys)
+	{
+		this.indexKeys = IndexKeys;
+	}
+	
+	/**
+	 * Gets whether rows have each field set by index as well as by 
+	 * column name.
+	 * @return A boolean with true for index keys and false for not.
+	 */
+	public boolean getIndexKeys()
+	{
+		return this.indexKeys;
+	}
+	
+	/**
+	 * Sets the connection pool to use. When set, connect() borrows 
+	 * a connection from the pool and disconnect() returns it.
+	 * @param Pool is a jdbcPool object.
+	 */
+	public void setPool(jdbcPool Pool)
+	{
+		this.pool = Pool;
+	}
+	
+	/**
+	 * Gets the connection pool or null if not set.
+	 * @return A jdbcPool object or null.
+	 */
+	public jdbcPool getPool()
+	{
+		return this.pool;
+	}
+	
+	/**
+	 * Attempts to establish the database connection. If a pool is 
+	 * set the connection is borrowed from the pool.
 	 * @throws ic9exception Exception
 	 */
 	public void connect() throws ic9exception
 	{
+		if(this.pool != null)
+		{
+			this.con = this.pool.borrow();
+			this.connected = true;
+			return;
+		}
+		
 		try
 		{
 			// register the driver
@@ -517,7 +577,47 @@ public class jdbc
 	}
 	
 	/**
-	 * Disconnects from the database.
+	 * Sets the max number of prepared statements cached for this 
+	 * connection. Statements used by selectQuery, updateQuery and 
+	 * updateBatch are cached by SQL text so that queries that are run 
+	 * often aren't prepared again each time. Cached statements are 
+	 * closed on disconnect.
+	 * @param Size is an int with the max number of statements. Set to 
+	 * 0 to disable the cache.
+	 */
+	public void setStatementCacheSize(int Size)
+	{
+		this.stmtCache.setMaxSize(Size);
+	}
+	
+	/**
+	 * Gets the prepared statement cache information as a Javascript 
+	 * object with maxSize, size, hits and misses.
+	 * @return A Javascript object with the cache information.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	public Map<String, Object> getStatementCacheInfo() throws NoSuchMethodException, ScriptException
+	{
+		Map<String, Object> jsobj = this.eng.newObj();
+		jsobj.put("maxSize", this.stmtCache.getMaxSize());
+		jsobj.put("size", this.stmtCache.size());
+		jsobj.put("hits", (double)this.stmtCache.getHits());
+		jsobj.put("misses", (double)this.stmtCache.getMisses());
+		return jsobj;
+	}
+	
+	/**
+	 * Closes and removes all cached prepared statements.
+	 */
+	public void clearStatementCache()
+	{
+		this.stmtCache.clear();
+	}
+	
+	/**
+	 * Disconnects from the database. If the connection was borrowed 
+	 * from a pool it's returned to the pool instead of closed.
 	 * @throws ic9exception Exception
 	 */
 	public void disconnect() throws ic9exception
@@ -525,7 +625,13 @@ public class jdbc
 		if(this.connected)
 		{
 			this.connected = false;
-			if(this.con != null)
+			this.stmtCache.clear();
+			if(this.con != null && this.pool != null)
+			{
+				this.pool.release(this.con);
+				this.con = null;
+			}
+			else if(this.con != null)
 			{
 				try
 				{
@@ -810,29 +916,15 @@ public class jdbc
 			if(this.con == null) throw new ic9exception("jdbc.selectQueryRaw(): Connector is null.");
 			
 			Statement stmt = this.con.createStatement();
-			ResultSet rs = stmt.executeQuery(QueryString);
-			ResultSetMetaData rsmd = rs.getMetaData();
-			
-			int ccount = rsmd.getColumnCount();
-			
-			@SuppressWarnings("unchecked")
-			Map<String, Object> tbl = (Map<String, Object>) this.eng.newList();
-	        while (rs.next())
-	        {
-	        	Map<String, Object> row = this.eng.newObj();
-	        	for(int i = 1; i < ccount + 1; i++)
-	        	{
-		            String colName = rsmd.getColumnName(i);
-		            int colType = rsmd.getColumnType(i);
-		            Object field = this.getField(rs, i, colType);
-		            
-		            row.put(colName, field);	// Set by name
-		            row.put("" + (i - 1), field);		// And by index
-	        	}
-	        	this.eng.invokeMethod(tbl, "push", row);
-	        }
-			
-			return tbl;
+			try
+			{
+				ResultSet rs = stmt.executeQuery(QueryString);
+				return new jdbcRowBuilder(this, this.eng, rs.getMetaData(), this.indexKeys).buildAll(rs);
+			}
+			finally
+			{
+				stmt.close();
+			}
 		}
 		catch (SQLException e)
 		{
@@ -856,10 +948,12 @@ public class jdbc
 	public Map<String, Object> selectQuery(String QueryString, Map<String, Object> ParamsList) throws NoSuchMethodException, ScriptException, ic9exception
 	{
 		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean done = false;
 		try
 		{
 			if(this.con == null) throw new ic9exception("jdbc.selectQuery(): Connector is null.");
-			stmt = this.con.prepareStatement(QueryString);
+			stmt = this.stmtCache.acquire(this.con, QueryString);
 			
 			Long plen = ic9util.getLength(ParamsList);
 			for(int i = 0; i < plen; i++)
@@ -868,28 +962,9 @@ public class jdbc
 				this.statementAddField(stmt, i+1, field);
 			}
 			
-			ResultSet rs = stmt.executeQuery();
-			ResultSetMetaData rsmd = rs.getMetaData();
-			
-			int ccount = rsmd.getColumnCount();
-			
-			@SuppressWarnings("unchecked")
-			Map<String, Object> tbl = (Map<String, Object>) this.eng.newList();
-	        while (rs.next())
-	        {
-	        	Map<String, Object> row = this.eng.newObj();
-	        	for(int i = 1; i < ccount + 1; i++)
-	        	{
-		            String colName = rsmd.getColumnName(i);
-		            int colType = rsmd.getColumnType(i);
-		            Object field = this.getField(rs, i, colType);
-		            
-		            row.put(colName, field);			// Set by name
-		            row.put("" + (i - 1), field);		// And by index
-	        	}
-	        	this.eng.invokeMethod(tbl, "push", row);
-	        }
-			
+			rs = stmt.executeQuery();
+			Map<String, Object> tbl = new jdbcRowBuilder(this, this.eng, rs.getMetaData(), this.indexKeys).buildAll(rs);
+			done = true;
 			return tbl;
 		}
 		catch (SQLException e)
@@ -898,8 +973,70 @@ public class jdbc
 		}
 		finally
 		{
+			if(rs != null)
+				try { rs.close(); } catch (SQLException e) { }
+			// Only reuse the statement if the call succeeded, it may have pending parameters or batches otherwise.
+			if(stmt != null)
+			{
+				if(done) this.stmtCache.release(QueryString, stmt);
+				else this.stmtCache.discard(stmt);
+			}
+		}
+	}
+	
+	/**
+	 * Makes a SELECT query with the provided query string and parameter 
+	 * list and returns the result by column instead of by row. Each column 
+	 * is read into a single primitive array (int[], long[], double[] or 
+	 * boolean[]) or String[] with a BitSet marking the null values. This 
+	 * uses much less memory than a list of row objects for large numeric 
+	 * results. See jdbcColumnSet for the type mapping.
+	 * @param QueryString is a String with the query to execute.
+	 * @param ParamsList is a Javascript list of parameters to use in the prepared 
+	 * statement query.
+	 * @return A Javascript object with names, rowCount, columns, nulls and types.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public Map<String, Object> selectColumns(String QueryString, Map<String, Object> ParamsList) throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean done = false;
+		try
+		{
+			if(this.con == null) throw new ic9exception("jdbc.selectColumns(): Connector is null.");
+			stmt = this.stmtCache.acquire(this.con, QueryString);
+			
+			Long plen = ic9util.getLength(ParamsList);
+			for(int i = 0; i < plen; i++)
+			{
+				Object field = this.eng.invokeMethod(ParamsList, "get", i);
+				this.statementAddField(stmt, i+1, field);
+			}
+			
+			rs = stmt.executeQuery();
+			jdbcColumnSet cols = new jdbcColumnSet(rs.getMetaData());
+			cols.read(rs);
+			Map<String, Object> ret = cols.toJs(this.eng);
+			done = true;
+			return ret;
+		}
+		catch (SQLException e)
+		{
+			throw new ic9exception("jdbc.selectColumns(): SQL exception. " + e.getMessage());
+		}
+		finally
+		{
+			if(rs != null)
+				try { rs.close(); } catch (SQLException e) { }
+			// Only reuse the statement if the call succeeded, it may have pending parameters or batches otherwise.
 			if(stmt != null)
-				try { stmt.close(); } catch (SQLException e) { }
+			{
+				if(done) this.stmtCache.release(QueryString, stmt);
+				else this.stmtCache.discard(stmt);
+			}
 		}
 	}
 	
@@ -917,11 +1054,12 @@ public class jdbc
 	public void updateQuery(String QueryString, Map<String, Object> ParamsList) throws NoSuchMethodException, ScriptException, ic9exception
 	{
 		PreparedStatement stmt = null;
+		boolean done = false;
 		
 		try
 		{
 			if(this.con == null) throw new ic9exception("jdbc.updateQuery(): Connector is null.");
-			stmt = this.con.prepareStatement(QueryString);
+			stmt = this.stmtCache.acquire(this.con, QueryString);
 			
 			Long plen = ic9util.getLength(ParamsList);
 			for(int i = 0; i < plen; i++)
@@ -931,6 +1069,7 @@ public class jdbc
 			}
 			
 			stmt.executeUpdate();
+			done = true;
 		}
 		catch (SQLException e)
 		{
@@ -938,8 +1077,100 @@ public class jdbc
 		}
 		finally
 		{
+			// Only reuse the statement if the call succeeded, it may have pending parameters or batches otherwise.
+			if(stmt != null)
+			{
+				if(done) this.stmtCache.release(QueryString, stmt);
+				else this.stmtCache.discard(stmt);
+			}
+		}
+	}
+	
+	/**
+	 * Makes a batch of UPDATE queries with the provided query string and 
+	 * list of parameter lists. A single prepared statement is used for the 
+	 * whole batch and rows are sent to the database with executeBatch each 
+	 * time BatchSize rows have been added. Turning off auto commit and 
+	 * committing after the batch is usually much faster than committing 
+	 * every row.
+	 * @param QueryString is a String with the query to execute.
+	 * @param BatchList is a Javascript list of parameter lists. One 
+	 * parameter list for each row.
+	 * @param BatchSize is an int with the number of rows to send to the 
+	 * database at a time. If 0 or less all rows are sent at once.
+	 * @return A Javascript list with the update count for each row.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public Object updateBatch(String QueryString, Map<String, Object> BatchList, int BatchSize) throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		PreparedStatement stmt = null;
+		Object counts = this.eng.newList();
+		boolean done = false;
+		
+		try
+		{
+			if(this.con == null) throw new ic9exception("jdbc.updateBatch(): Connector is null.");
+			stmt = this.stmtCache.acquire(this.con, QueryString);
+			
+			Long blen = ic9util.getLength(BatchList);
+			int pending = 0;
+			for(int i = 0; i < blen; i++)
+			{
+				@SuppressWarnings("unchecked")
+				Map<String, Object> ParamsList = (Map<String, Object>)this.eng.invokeMethod(BatchList, "get", i);
+				
+				Long plen = ic9util.getLength(ParamsList);
+				for(int j = 0; j < plen; j++)
+				{
+					Object field = this.eng.invokeMethod(ParamsList, "get", j);
+					this.statementAddField(stmt, j+1, field);
+				}
+				stmt.addBatch();
+				pending++;
+				
+				if(BatchSize > 0 && pending >= BatchSize)
+				{
+					this.addBatchCounts(counts, stmt.executeBatch());
+					pending = 0;
+				}
+			}
+			
+			if(pending > 0)
+				this.addBatchCounts(counts, stmt.executeBatch());
+			
+			done = true;
+			return counts;
+		}
+		catch (SQLException e)
+		{
+			throw new ic9exception("jdbc.updateBatch(): SQL exception. " + e.getMessage());
+		}
+		finally
+		{
+			// Only reuse the statement if the call succeeded, it may have pending parameters or batches otherwise.
 			if(stmt != null)
-				try { stmt.close(); } catch (SQLException e) { }
+			{
+				if(done) this.stmtCache.release(QueryString, stmt);
+				else this.stmtCache.discard(stmt);
+			}
+		}
+	}
+	
+	/**
+	 * Pushes the update counts returned from executeBatch onto the 
+	 * provided Javascript list.
+	 * @param Counts is the Javascript list to add to.
+	 * @param Res is an array of ints with the update counts.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	private void addBatchCounts(Object Counts, int[] Res) throws NoSuchMethodException, ScriptException
+	{
+		for(int cnt : Res)
+		{
+			this.eng.invokeMethod(Counts, "push", cnt);
 		}
 	}
 	
@@ -965,15 +1196,92 @@ public class jdbc
 	}
 	
 	/**
-	 * Private method that takes a result set object with column index and 
-	 * column type and converts it to a native Java object.
+	 * Opens a forward only, read only cursor for the provided SELECT query and 
+	 * parameter list. Rows are fetched from the database in batches of the 
+	 * provided fetch size as the cursor is read, so large results can be 
+	 * processed in constant memory. The cursor must be closed if it isn't 
+	 * read to the end. Note that some drivers only stream results when auto 
+	 * commit is off. (PostgreSQL for example.)
+	 * @param QueryString is a String with the query to execute.
+	 * @param ParamsList is a Javascript list of parameters to use in the prepared 
+	 * statement query.
+	 * @param FetchSize is an int with the number of rows to fetch at a time.
+	 * @return A new jdbcCursor object.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public jdbcCursor openCursor(String QueryString, Map<String, Object> ParamsList, int FetchSize) throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		PreparedStatement stmt = null;
+		try
+		{
+			if(this.con == null) throw new ic9exception("jdbc.openCursor(): Connector is null.");
+			stmt = this.con.prepareStatement(QueryString, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if(FetchSize > 0) stmt.setFetchSize(FetchSize);
+			
+			Long plen = ic9util.getLength(ParamsList);
+			for(int i = 0; i < plen; i++)
+			{
+				Object field = this.eng.invokeMethod(ParamsList, "get", i);
+				this.statementAddField(stmt, i+1, field);
+			}
+			
+			return new jdbcCursor(this, this.eng, stmt, stmt.executeQuery());
+		}
+		catch (SQLException e)
+		{
+			if(stmt != null)
+				try { stmt.close(); } catch (SQLException ex) { }
+			throw new ic9exception("jdbc.openCursor(): SQL exception. " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Makes a SELECT query with the provided query string and parameter list and 
+	 * calls the provided callback for each row as it's read from the database. The 
+	 * callback is called with the row object and the row index. If the callback 
+	 * returns false no more rows are read.
+	 * @param QueryString is a String with the query to execute.
+	 * @param ParamsList is a Javascript list of parameters to use in the prepared 
+	 * statement query.
+	 * @param RowCallback is a Javascript function to call for each row.
+	 * @param FetchSize is an int with the number of rows to fetch at a time.
+	 * @return A long with the number of rows read.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public long queryEach(String QueryString, Map<String, Object> ParamsList, Map<String, Object> RowCallback, int FetchSize) throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		jdbcCursor cur = this.openCursor(QueryString, ParamsList, FetchSize);
+		try
+		{
+			Map<String, Object> row = null;
+			while((row = cur.next()) != null)
+			{
+				// Index is passed as a double so that it's a Javascript number.
+				Object ret = this.eng.invokeMethod(RowCallback, "call", null, row, (double)(cur.getRowCount() - 1));
+				if(ret instanceof Boolean && !((Boolean)ret)) break;
+			}
+			return cur.getRowCount();
+		}
+		finally
+		{
+			cur.close();
+		}
+	}
+	
+	/**
+	 * Takes a result set object with column index and column type and 
+	 * converts it to a native Java object.
 	 * @param rs is a ResultSet object.
 	 * @param colIndex is an int with the column index.
 	 * @param colType is an int with the column type.
 	 * @return A Java Object with the field data.
 	 * @throws ic9exception Exception
 	 */
-	private Object getField(ResultSet rs, int colIndex, int colType) throws ic9exception
+	Object getField(ResultSet rs, int colIndex, int colType) throws ic9exception
 	{
 	    Timestamp ts;
 	    BigDecimal bd;
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.db;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import com.lehman.ic9.ic9engine;
+
+/**
+ * Class jdbcColumnSet reads a result set into one primitive array per
+ * column instead of one object per row. Integer columns are read into
+ * int[] (or long[] for BIGINT), floating point and decimal columns into
+ * double[], boolean columns into boolean[], date and time columns into
+ * double[] with the milliseconds since epoch and everything else into
+ * String[]. Null values are tracked in a BitSet for each column.
+ * @author Austin Lehman
+ */
+public class jdbcColumnSet
+{
+	/** Initial array capacity. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** Column kinds. */
+	private static final int KIND_INT = 0;
+	private static final int KIND_LONG = 1;
+	private static final int KIND_DOUBLE = 2;
+	private static final int KIND_BOOLEAN = 3;
+	private static final int KIND_DATE = 4;
+	private static final int KIND_STRING = 5;
+
+	/** Kind names returned in types. */
+	private static final String[] KIND_NAMES = { "int", "long", "double", "boolean", "date", "string" };
+
+	private String[] names = null;
+	private int[] kinds = null;
+	private Object[] data = null;
+	private BitSet[] nulls = null;
+
+	private int rowCount = 0;
+	private int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * Default constructor takes the result set meta data and creates
+	 * the column arrays.
+	 * @param Rsmd is the ResultSetMetaData of the result set.
+	 * @throws SQLException Exception
+	 */
+	public jdbcColumnSet(ResultSetMetaData Rsmd) throws SQLException
+	{
+		int ccount = Rsmd.getColumnCount();
+		this.names = new String[ccount];
+		this.kinds = new int[ccount];
+		this.data = new Object[ccount];
+		this.nulls = new BitSet[ccount];
+		for(int i = 0; i < ccount; i++)
+		{
+			this.names[i] = Rsmd.getColumnName(i + 1);
+			this.kinds[i] = getKind(Rsmd.getColumnType(i + 1));
+			this.data[i] = newArray(this.kinds[i], this.capacity);
+			this.nulls[i] = new BitSet();
+		}
+	}
+
+	/**
+	 * Reads all remaining rows of the provided result set into the
+	 * column arrays.
+	 * @param Rs is the ResultSet to read.
+	 * @throws SQLException Exception
+	 */
+	public void read(ResultSet Rs) throws SQLException
+	{
+		while(Rs.next())
+		{
+			if(this.rowCount == this.capacity) this.resize(this.capacity * 2);
+
+			int r = this.rowCount;
+			for(int i = 0; i < this.names.length; i++)
+			{
+				int c = i + 1;
+				switch(this.kinds[i])
+				{
+					case KIND_INT:
+						((int[])this.data[i])[r] = Rs.getInt(c);
+						break;
+					case KIND_LONG:
+						((long[])this.data[i])[r] = Rs.getLong(c);
+						break;
+					case KIND_DOUBLE:
+						((double[])this.data[i])[r] = Rs.getDouble(c);
+						break;
+					case KIND_BOOLEAN:
+						((boolean[])this.data[i])[r] = Rs.getBoolean(c);
+						break;
+					case KIND_DATE:
+						Timestamp ts = Rs.getTimestamp(c);
+						if(ts != null) ((double[])this.data[i])[r] = ts.getTime();
+						break;
+					default:
+						((String[])this.data[i])[r] = Rs.getString(c);
+						break;
+				}
+				if(Rs.wasNull()) this.nulls[i].set(r);
+			}
+			this.rowCount++;
+		}
+		this.resize(this.rowCount);
+	}
+
+	/**
+	 * Gets the result as a Javascript object with names (list of column
+	 * names), rowCount, columns (column arrays by name), nulls (null
+	 * BitSet by name) and types (column kind by name).
+	 * @param Eng is the ic9engine to create the objects in.
+	 * @return A Javascript object with the result columns.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	public Map<String, Object> toJs(ic9engine Eng) throws NoSuchMethodException, ScriptException
+	{
+		Map<String, Object> ret = Eng.newObj();
+		Object jnames = Eng.newList();
+		Map<String, Object> columns = Eng.newObj();
+		Map<String, Object> jnulls = Eng.newObj();
+		Map<String, Object> types = Eng.newObj();
+		for(int i = 0; i < this.names.length; i++)
+		{
+			Eng.invokeMethod(jnames, "push", this.names[i]);
+			columns.put(this.names[i], this.data[i]);
+			jnulls.put(this.names[i], this.nulls[i]);
+			types.put(this.names[i], KIND_NAMES[this.kinds[i]]);
+		}
+		ret.put("names", jnames);
+		ret.put("rowCount", this.rowCount);
+		ret.put("columns", columns);
+		ret.put("nulls", jnulls);
+		ret.put("types", types);
+		return ret;
+	}
+
+	/**
+	 * Resizes all column arrays to the provided capacity.
+	 * @param Capacity is an int with the new capacity.
+	 */
+	private void resize(int Capacity)
+	{
+		for(int i = 0; i < this.data.length; i++)
+		{
+			switch(this.kinds[i])
+			{
+				case KIND_INT:
+					this.data[i] = Arrays.copyOf((int[])this.data[i], Capacity);
+					break;
+				case KIND_LONG:
+					this.data[i] = Arrays.copyOf((long[])this.data[i], Capacity);
+					break;
+				case KIND_DOUBLE:
+				case KIND_DATE:
+					this.data[i] = Arrays.copyOf((double[])this.data[i], Capacity);
+					break;
+				case KIND_BOOLEAN:
+					this.data[i] = Arrays.copyOf((boolean[])this.data[i], Capacity);
+					break;
+				default:
+					this.data[i] = Arrays.copyOf((String[])this.data[i], Capacity);
+					break;
+			}
+		}
+		this.capacity = Capacity;
+	}
+
+	/**
+	 * Gets the column kind for the provided java.sql.Types type.
+	 * @param ColType is an int with the column type.
+	 * @return An int with the column kind.
+	 */
+	private static int getKind(int ColType)
+	{
+		switch(ColType)
+		{
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return KIND_INT;
+			case Types.BIGINT:
+				return KIND_LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return KIND_DOUBLE;
+			case Types.BIT:
+			case Types.BOOLEAN:
+				return KIND_BOOLEAN;
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				return KIND_DATE;
+			default:
+				return KIND_STRING;
+		}
+	}
+
+	/**
+	 * Creates a new column array for the provided column kind.
+	 * @param Kind is an int with the column kind.
+	 * @param Capacity is an int with the array size.
+	 * @return A new primitive or String array.
+	 */
+	private static Object newArray(int Kind, int Capacity)
+	{
+		switch(Kind)
+		{
+			case KIND_INT:
+				return new int[Capacity];
+			case KIND_LONG:
+				return new long[Capacity];
+			case KIND_DOUBLE:
+			case KIND_DATE:
+				return new double[Capacity];
+			case KIND_BOOLEAN:
+				return new boolean[Capacity];
+			default:
+				return new String[Capacity];
+		}
+	}
+}
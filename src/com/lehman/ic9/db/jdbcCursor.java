@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import com.lehman.ic9.ic9engine;
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class jdbcCursor implements a forward only cursor over the results
+ * of a SELECT query. Rows are read from the result set one at a time
+ * as next() is called so that only the rows the driver has fetched
+ * are held in memory.
+ * @author Austin Lehman
+ */
+public class jdbcCursor
+{
+	private PreparedStatement stmt = null;
+	private ResultSet rs = null;
+
+	/** Builds the row objects. Column info is read once when opened. */
+	private jdbcRowBuilder rowBuilder = null;
+
+	/** Number of rows read so far. */
+	private long rowCount = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor takes the jdbc object, engine and the executed statement
+	 * and result set. This is called from jdbc.openCursor().
+	 * @param Db is the jdbc object.
+	 * @param Eng is the ic9engine to create the row objects in.
+	 * @param Stmt is the PreparedStatement that was executed.
+	 * @param Rs is the ResultSet to read from.
+	 * @throws SQLException Exception
+	 * @throws ic9exception Exception
+	 */
+	public jdbcCursor(jdbc Db, ic9engine Eng, PreparedStatement Stmt, ResultSet Rs) throws SQLException, ic9exception
+	{
+		this.stmt = Stmt;
+		this.rs = Rs;
+		try
+		{
+			this.rowBuilder = new jdbcRowBuilder(Db, Eng, this.rs.getMetaData(), Db.getIndexKeys());
+		}
+		catch (ic9exception e)
+		{
+			this.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the next row as a Javascript object or null if there are
+	 * no more rows. The cursor is closed once the last row has been
+	 * read.
+	 * @return A Javascript object with the row or null.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	public Map<String, Object> next() throws ic9exception, NoSuchMethodException, ScriptException
+	{
+		if(this.closed) return null;
+		try
+		{
+			if(!this.rs.next())
+			{
+				this.close();
+				return null;
+			}
+			this.rowCount++;
+			return this.rowBuilder.build(this.rs);
+		}
+		catch (SQLException e)
+		{
+			this.close();
+			throw new ic9exception("jdbcCursor.next(): SQL exception. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the number of rows read so far.
+	 * @return A long with the number of rows read.
+	 */
+	public long getRowCount()
+	{
+		return this.rowCount;
+	}
+
+	/**
+	 * Gets the column names of the result set.
+	 * @return An array of Strings with the column names.
+	 */
+	public String[] getColumnNames()
+	{
+		return this.rowBuilder.getColumnNames();
+	}
+
+	/**
+	 * Checks to see if the cursor is closed.
+	 * @return A boolean with true for closed and false for not.
+	 */
+	public boolean isClosed()
+	{
+		return this.closed;
+	}
+
+	/**
+	 * Closes the result set and statement. It's safe to call this
+	 * more than once.
+	 */
+	public void close()
+	{
+		if(!this.closed)
+		{
+			this.closed = true;
+			try { this.rs.close(); } catch (SQLException e) { }
+			try { this.stmt.close(); } catch (SQLException e) { }
+		}
+	}
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class jdbcPool implements a bounded pool of JDBC connections that
+ * can be shared by scripts and request threads. Connections are
+ * borrowed with borrow() and returned with release(). The pool keeps
+ * at least minSize connections open, never opens more than maxSize,
+ * closes connections that have been idle longer than the idle timeout
+ * and validates connections with isValid() before handing them out.
+ * If leak detection is on, connections held longer than the leak
+ * timeout are reported on stderr with the stack of the borrower.
+ * <br><br>
+ * Pools can be registered by name so that other engines in the same
+ * JVM (httpServer engine pool handlers for example) can get the same
+ * pool with getPool().
+ * @author Austin Lehman
+ */
+public class jdbcPool
+{
+	/** Registered pools by name. */
+	private static Map<String, jdbcPool> pools = new ConcurrentHashMap<String, jdbcPool>();
+
+	private String driver = "";
+	private String url = "";
+	private String userName = null;
+	private String password = null;
+
+	/** Pool settings. Timeouts are in milliseconds. */
+	private int minSize = 1;
+	private int maxSize = 10;
+	private long idleTimeout = 600000;
+	private long borrowTimeout = 30000;
+	private long leakTimeout = 0;
+	private int validationTimeout = 5;
+
+	/** Idle connections, most recently used first. */
+	private LinkedBlockingDeque<pooledConnection> idle = new LinkedBlockingDeque<pooledConnection>();
+
+	/** Connections that are borrowed. */
+	private Map<Connection, pooledConnection> active = new ConcurrentHashMap<Connection, pooledConnection>();
+
+	/** Limits the number of borrowed connections to maxSize. */
+	private volatile Semaphore permits = null;
+
+	/**
+	 * Number of open connections, idle, borrowed or being opened. Checked
+	 * against maxSize by both fill() and borrow().
+	 */
+	private final AtomicInteger opened = new AtomicInteger(0);
+
+	/** Runs idle eviction and leak detection. */
+	private Timer maintTimer = null;
+
+	private volatile boolean started = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Single pooled connection with its usage times.
+	 */
+	private static class pooledConnection
+	{
+		public Connection con = null;
+		public long lastUsed = 0;
+		public long borrowed = 0;
+		public Throwable borrowStack = null;
+		public boolean leakReported = false;
+
+		public pooledConnection(Connection Con)
+		{
+			this.con = Con;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Object constructor takes connection information and creates
+	 * a new pool. Connections aren't opened until start() or the
+	 * first borrow() is called.
+	 * @param Driver is a String with the JDBC driver.
+	 * @param Url is a String with the database url to connect to.
+	 * @param UserName is a String with the user name to connect with.
+	 * @param Password is a String with the password to connect with.
+	 */
+	public jdbcPool(String Driver, String Url, String UserName, String Password)
+	{
+		this.driver = Driver;
+		this.url = Url;
+		this.userName = UserName;
+		this.password = Password;
+	}
+
+	/**
+	 * Registers the provided pool with the provided name so that it can
+	 * be found with getPool() from any engine in the JVM. If a pool is
+	 * already registered with the name it's replaced.
+	 * @param Name is a String with the pool name.
+	 * @param Pool is the jdbcPool to register.
+	 */
+	public static void registerPool(String Name, jdbcPool Pool)
+	{
+		pools.put(Name, Pool);
+	}
+
+	/**
+	 * Gets the pool registered with the provided name.
+	 * @param Name is a String with the pool name.
+	 * @return A jdbcPool object or null if not found.
+	 */
+	public static jdbcPool getPool(String Name)
+	{
+		return pools.get(Name);
+	}
+
+	/**
+	 * Removes the pool registered with the provided name. This
+	 * doesn't close the pool.
+	 * @param Name is a String with the pool name.
+	 */
+	public static void unregisterPool(String Name)
+	{
+		pools.remove(Name);
+	}
+
+	/**
+	 * Gets the JDBC driver.
+	 * @return A String with the JDBC driver.
+	 */
+	public String getDriver()
+	{
+		return this.driver;
+	}
+
+	/**
+	 * Gets the connection URL.
+	 * @return A String with the connection URL.
+	 */
+	public String getUrl()
+	{
+		return this.url;
+	}
+
+	/**
+	 * Gets the connection user name.
+	 * @return A String with the connection user name.
+	 */
+	public String getUserName()
+	{
+		return this.userName;
+	}
+
+	/**
+	 * Gets the connection password.
+	 * @return A String with the connection password.
+	 */
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	/**
+	 * Gets the min number of connections to keep open.
+	 * @return An int with the min pool size.
+	 */
+	public int getMinSize()
+	{
+		return this.minSize;
+	}
+
+	/**
+	 * Gets the max number of connections that can be open.
+	 * @return An int with the max pool size.
+	 */
+	public int getMaxSize()
+	{
+		return this.maxSize;
+	}
+
+	/**
+	 * Gets the idle timeout.
+	 * @return A long with the idle timeout in milliseconds.
+	 */
+	public long getIdleTimeout()
+	{
+		return this.idleTimeout;
+	}
+
+	/**
+	 * Gets the borrow timeout.
+	 * @return A long with the borrow timeout in milliseconds.
+	 */
+	public long getBorrowTimeout()
+	{
+		return this.borrowTimeout;
+	}
+
+	/**
+	 * Gets the leak detection timeout.
+	 * @return A long with the leak timeout in milliseconds.
+	 */
+	public long getLeakTimeout()
+	{
+		return this.leakTimeout;
+	}
+
+	/**
+	 * Gets the validation timeout.
+	 * @return An int with the validation timeout in seconds.
+	 */
+	public int getValidationTimeout()
+	{
+		return this.validationTimeout;
+	}
+
+	/**
+	 * Sets the min number of connections to keep open.
+	 * @param MinSize is an int with the min pool size.
+	 * @throws ic9exception Exception
+	 */
+	public void setMinSize(int MinSize) throws ic9exception
+	{
+		this.checkNotStarted("setMinSize");
+		this.minSize = MinSize > 0 ? MinSize : 0;
+	}
+
+	/**
+	 * Sets the max number of connections that can be open.
+	 * @param MaxSize is an int with the max pool size.
+	 * @throws ic9exception Exception
+	 */
+	public void setMaxSize(int MaxSize) throws ic9exception
+	{
+		this.checkNotStarted("setMaxSize");
+		if(MaxSize < 1) throw new ic9exception("jdbcPool.setMaxSize(): Max size must be at least 1.");
+		this.maxSize = MaxSize;
+	}
+
+	/**
+	 * Sets the number of milliseconds a connection can be idle before
+	 * it's closed. Connections aren't evicted below the min size.
+	 * @param IdleTimeout is a long with the idle timeout in milliseconds.
+	 * Set to 0 to never evict idle connections.
+	 * @throws ic9exception Exception
+	 */
+	public void setIdleTimeout(long IdleTimeout) throws ic9exception
+	{
+		this.checkNotStarted("setIdleTimeout");
+		this.idleTimeout = IdleTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds borrow() waits for a connection
+	 * when all connections are in use.
+	 * @param BorrowTimeout is a long with the borrow timeout in milliseconds.
+	 */
+	public void setBorrowTimeout(long BorrowTimeout)
+	{
+		this.borrowTimeout = BorrowTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds a connection can be borrowed
+	 * before it's reported as a possible leak.
+	 * @param LeakTimeout is a long with the leak timeout in milliseconds.
+	 * Set to 0 to turn off leak detection.
+	 * @throws ic9exception Exception
+	 */
+	public void setLeakTimeout(long LeakTimeout) throws ic9exception
+	{
+		this.checkNotStarted("setLeakTimeout");
+		this.leakTimeout = LeakTimeout;
+	}
+
+	/**
+	 * Sets the number of seconds to wait for isValid() when validating
+	 * a connection.
+	 * @param ValidationTimeout is an int with the timeout in seconds.
+	 */
+	public void setValidationTimeout(int ValidationTimeout)
+	{
+		this.validationTimeout = ValidationTimeout;
+	}
+
+	/**
+	 * Opens the min number of connections and starts the maintenance
+	 * timer. This is called from borrow() if the pool hasn't been
+	 * started yet.
+	 * @throws ic9exception Exception
+	 */
+	public synchronized void start() throws ic9exception
+	{
+		if(this.closed) throw new ic9exception("jdbcPool.start(): Pool is closed.");
+		if(this.started) return;
+
+		try
+		{
+			Class.forName(this.driver);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new ic9exception("jdbcPool.start(): Couldn't instantiate driver. " + e.getMessage());
+		}
+
+		if(this.minSize > this.maxSize) throw new ic9exception("jdbcPool.start(): Min size can't be larger than max size.");
+		this.permits = new Semaphore(this.maxSize, true);
+		this.fill();
+
+		long period = this.getMaintPeriod();
+		if(period > 0)
+		{
+			this.maintTimer = new Timer("jdbcPool", true);
+			this.maintTimer.schedule(new TimerTask() {
+				@Override
+				public void run() { maintain(); }
+			}, period, period);
+		}
+		this.started = true;
+	}
+
+	/**
+	 * Borrows a connection from the pool. If all connections are in use
+	 * this waits up to the borrow timeout for one to be released.
+	 * @return A Connection object.
+	 * @throws ic9exception Exception
+	 */
+	public Connection borrow() throws ic9exception
+	{
+		if(!this.started) this.start();
+		if(this.closed) throw new ic9exception("jdbcPool.borrow(): Pool is closed.");
+
+		try
+		{
+			if(!this.permits.tryAcquire(this.borrowTimeout, TimeUnit.MILLISECONDS))
+				throw new ic9exception("jdbcPool.borrow(): Timed out after " + this.borrowTimeout + "ms waiting for a connection.");
+		}
+		catch (InterruptedException e)
+		{
+			throw new ic9exception("jdbcPool.borrow(): Interrupted waiting for a connection.");
+		}
+
+		try
+		{
+			pooledConnection pc = this.take();
+			pc.borrowed = System.currentTimeMillis();
+			pc.leakReported = false;
+			pc.borrowStack = this.leakTimeout > 0 ? new Throwable("Connection borrowed here") : null;
+			this.active.put(pc.con, pc);
+			return pc.con;
+		}
+		catch (ic9exception e)
+		{
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Takes a valid idle connection or opens a new one if the number of
+	 * open connections is under maxSize. If it isn't, a connection is
+	 * being opened by fill() and this waits for it to become idle. The
+	 * caller must hold a permit.
+	 * @return A pooledConnection object.
+	 * @throws ic9exception Exception
+	 */
+	private pooledConnection take() throws ic9exception
+	{
+		long deadline = System.currentTimeMillis() + this.borrowTimeout;
+		while(true)
+		{
+			pooledConnection pc = this.idle.pollFirst();
+			if(pc == null && this.reserve(this.maxSize))
+			{
+				try
+				{
+					return new pooledConnection(this.open());
+				}
+				catch (ic9exception e)
+				{
+					this.opened.decrementAndGet();
+					throw e;
+				}
+			}
+
+			if(pc == null)
+			{
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0) throw new ic9exception("jdbcPool.borrow(): Timed out after " + this.borrowTimeout + "ms waiting for a connection.");
+				try
+				{
+					pc = this.idle.pollFirst(Math.min(wait, 10), TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					throw new ic9exception("jdbcPool.borrow(): Interrupted waiting for a connection.");
+				}
+			}
+
+			if(pc != null)
+			{
+				if(this.isValid(pc.con)) return pc;
+				this.discard(pc.con);
+			}
+		}
+	}
+
+	/**
+	 * Returns the provided connection to the pool. Any open transaction
+	 * is rolled back and auto commit is turned back on. If the pool is
+	 * closed or the connection is broken it's closed instead.
+	 * @param Con is the Connection to return.
+	 */
+	public void release(Connection Con)
+	{
+		pooledConnection pc = this.active.remove(Con);
+		if(pc == null) return;
+
+		boolean keep = !this.closed;
+		try
+		{
+			if(Con.isClosed()) keep = false;
+			else if(!Con.getAutoCommit())
+			{
+				Con.rollback();
+				Con.setAutoCommit(true);
+			}
+		}
+		catch (SQLException e)
+		{
+			keep = false;
+		}
+
+		if(keep)
+		{
+			pc.lastUsed = System.currentTimeMillis();
+			pc.borrowStack = null;
+			this.idle.offerFirst(pc);
+		}
+		else
+		{
+			this.discard(Con);
+		}
+		this.permits.release();
+	}
+
+	/**
+	 * Closes the pool. Idle connections are closed now and borrowed
+	 * connections are closed when they are released. The pool is
+	 * also removed from the registry.
+	 */
+	public synchronized void close()
+	{
+		this.closed = true;
+		if(this.maintTimer != null) this.maintTimer.cancel();
+
+		pooledConnection pc = null;
+		while((pc = this.idle.pollFirst()) != null)
+		{
+			this.discard(pc.con);
+		}
+
+		Iterator<Map.Entry<String, jdbcPool>> it = pools.entrySet().iterator();
+		while(it.hasNext())
+		{
+			if(it.next().getValue() == this) it.remove();
+		}
+	}
+
+	/**
+	 * Checks to see if the pool is closed.
+	 * @return A boolean with true for closed and false for not.
+	 */
+	public boolean isClosed()
+	{
+		return this.closed;
+	}
+
+	/**
+	 * Gets the number of idle connections.
+	 * @return An int with the number of idle connections.
+	 */
+	public int getIdle()
+	{
+		return this.idle.size();
+	}
+
+	/**
+	 * Gets the number of borrowed connections.
+	 * @return An int with the number of borrowed connections.
+	 */
+	public int getActive()
+	{
+		return this.active.size();
+	}
+
+	/**
+	 * Gets the number of open connections, including ones being opened.
+	 * @return An int with the number of open connections.
+	 */
+	public int getOpen()
+	{
+		return this.opened.get();
+	}
+
+	/**
+	 * Gets the number of threads waiting for a connection.
+	 * @return An int with the number of waiting threads.
+	 */
+	public int getWaiting()
+	{
+		return this.permits != null ? this.permits.getQueueLength() : 0;
+	}
+
+	/**
+	 * Closes idle connections past the idle timeout, opens connections
+	 * up to the min size and reports possible leaks. This is run from
+	 * the maintenance timer.
+	 */
+	void maintain()
+	{
+		if(this.closed) return;
+		long now = System.currentTimeMillis();
+
+		if(this.idleTimeout > 0)
+		{
+			Iterator<pooledConnection> it = this.idle.descendingIterator();
+			while(it.hasNext() && this.opened.get() > this.minSize)
+			{
+				pooledConnection pc = it.next();
+				if(now - pc.lastUsed > this.idleTimeout && this.idle.removeFirstOccurrence(pc))
+				{
+					this.discard(pc.con);
+				}
+			}
+		}
+
+		try { this.fill(); }
+		catch (ic9exception e) { System.err.println("jdbcPool.maintain(): " + e.getMessage()); }
+
+		if(this.leakTimeout > 0)
+		{
+			for(pooledConnection pc : this.active.values())
+			{
+				if(!pc.leakReported && now - pc.borrowed > this.leakTimeout)
+				{
+					pc.leakReported = true;
+					System.err.println("jdbcPool.maintain(): Possible connection leak, connection has been borrowed for " + (now - pc.borrowed) + "ms.");
+					if(pc.borrowStack != null) pc.borrowStack.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens connections until the pool has at least min size connections.
+	 * @throws ic9exception Exception
+	 */
+	private synchronized void fill() throws ic9exception
+	{
+		while(!this.closed && this.reserve(this.minSize))
+		{
+			try
+			{
+				this.idle.offerLast(new pooledConnection(this.open()));
+			}
+			catch (ic9exception e)
+			{
+				this.opened.decrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Counts a connection about to be opened if the number of open
+	 * connections is under the provided limit.
+	 * @param Limit is an int with the limit.
+	 * @return A boolean with true if counted and false if at the limit.
+	 */
+	private boolean reserve(int Limit)
+	{
+		while(true)
+		{
+			int cur = this.opened.get();
+			if(cur >= Limit || cur >= this.maxSize) return false;
+			if(this.opened.compareAndSet(cur, cur + 1)) return true;
+		}
+	}
+
+	/**
+	 * Closes the provided pool connection and stops counting it.
+	 * @param Con is the Connection to close.
+	 */
+	private void discard(Connection Con)
+	{
+		closeQuietly(Con);
+		this.opened.decrementAndGet();
+	}
+
+	/**
+	 * Opens a new connection with DriverManager.
+	 * @return A new Connection object.
+	 * @throws ic9exception Exception
+	 */
+	private Connection open() throws ic9exception
+	{
+		try
+		{
+			if(this.userName != null && this.password != null) return DriverManager.getConnection(this.url, this.userName, this.password);
+			else if(this.userName != null) return DriverManager.getConnection(this.url, this.userName, "");
+			else return DriverManager.getConnection(this.url);
+		}
+		catch (SQLException e)
+		{
+			throw new ic9exception("jdbcPool.open(): Failed to establish connection. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Validates the provided connection with isValid().
+	 * @param Con is the Connection to validate.
+	 * @return A boolean with true if valid and false if not.
+	 */
+	private boolean isValid(Connection Con)
+	{
+		try
+		{
+			return Con.isValid(this.validationTimeout);
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+		catch (AbstractMethodError e)
+		{
+			// Old drivers don't implement isValid.
+			return true;
+		}
+	}
+
+	/**
+	 * Gets the maintenance timer period from the idle and leak timeouts.
+	 * @return A long with the period in milliseconds or 0 for none.
+	 */
+	private long getMaintPeriod()
+	{
+		long period = 30000;
+		if(this.idleTimeout > 0) period = Math.min(period, this.idleTimeout);
+		if(this.leakTimeout > 0) period = Math.min(period, this.leakTimeout);
+		return Math.max(period, 100);
+	}
+
+	/**
+	 * Throws an exception if the pool has been started.
+	 * @param Method is a String with the calling method name.
+	 * @throws ic9exception Exception
+	 */
+	private void checkNotStarted(String Method) throws ic9exception
+	{
+		if(this.started) throw new ic9exception("jdbcPool." + Method + "(): Pool is already started.");
+	}
+
+	/**
+	 * Closes the provided connection ignoring any exception.
+	 * @param Con is the Connection to close.
+	 */
+	private static void closeQuietly(Connection Con)
+	{
+		try { Con.close(); } catch (SQLException e) { }
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.db;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import com.lehman.ic9.ic9engine;
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class jdbcRowBuilder builds Javascript row objects from a result set.
+ * The column names, types and index keys are read from the result set
+ * meta data once, and rows and lists are created directly with the
+ * global Object and Array constructors instead of calling script
+ * functions through Invocable for each row.
+ * @author Austin Lehman
+ */
+public class jdbcRowBuilder
+{
+	private jdbc db = null;
+
+	/** Global Object and Array constructors. */
+	private ScriptObjectMirror objCtor = null;
+	private ScriptObjectMirror arrCtor = null;
+
+	private String[] colNames = null;
+	private String[] idxKeys = null;
+	private int[] colTypes = null;
+
+	/**
+	 * Default constructor takes the jdbc object, engine and result set
+	 * meta data.
+	 * @param Db is the jdbc object used to read fields.
+	 * @param Eng is the ic9engine to create the objects in.
+	 * @param Rsmd is the ResultSetMetaData of the result set.
+	 * @param IndexKeys is a boolean with true to set each field by index
+	 * as well as by column name.
+	 * @throws SQLException Exception
+	 * @throws ic9exception Exception
+	 */
+	public jdbcRowBuilder(jdbc Db, ic9engine Eng, ResultSetMetaData Rsmd, boolean IndexKeys) throws SQLException, ic9exception
+	{
+		this.db = Db;
+
+		Object octor = Eng.get("Object");
+		Object actor = Eng.get("Array");
+		if(!(octor instanceof ScriptObjectMirror) || !(actor instanceof ScriptObjectMirror))
+			throw new ic9exception("jdbcRowBuilder(): Couldn't get global Object and Array constructors.");
+		this.objCtor = (ScriptObjectMirror)octor;
+		this.arrCtor = (ScriptObjectMirror)actor;
+
+		int ccount = Rsmd.getColumnCount();
+		this.colNames = new String[ccount];
+		this.colTypes = new int[ccount];
+		if(IndexKeys) this.idxKeys = new String[ccount];
+		for(int i = 0; i < ccount; i++)
+		{
+			this.colNames[i] = Rsmd.getColumnName(i + 1);
+			this.colTypes[i] = Rsmd.getColumnType(i + 1);
+			if(IndexKeys) this.idxKeys[i] = String.valueOf(i);
+		}
+	}
+
+	/**
+	 * Creates a new empty Javascript list.
+	 * @return A ScriptObjectMirror with the new list.
+	 */
+	public ScriptObjectMirror newList()
+	{
+		return (ScriptObjectMirror)this.arrCtor.newObject();
+	}
+
+	/**
+	 * Builds a Javascript row object from the current row of the provided
+	 * result set.
+	 * @param Rs is the ResultSet positioned on the row.
+	 * @return A ScriptObjectMirror with the row object.
+	 * @throws SQLException Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public ScriptObjectMirror build(ResultSet Rs) throws SQLException, NoSuchMethodException, ScriptException, ic9exception
+	{
+		ScriptObjectMirror row = (ScriptObjectMirror)this.objCtor.newObject();
+		for(int i = 0; i < this.colNames.length; i++)
+		{
+			Object field = this.db.getField(Rs, i + 1, this.colTypes[i]);
+			row.put(this.colNames[i], field);						// Set by name
+			if(this.idxKeys != null) row.put(this.idxKeys[i], field);	// And by index
+		}
+		return row;
+	}
+
+	/**
+	 * Reads all remaining rows of the provided result set into a new
+	 * Javascript list.
+	 * @param Rs is the ResultSet to read.
+	 * @return A ScriptObjectMirror with the list of rows.
+	 * @throws SQLException Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public ScriptObjectMirror buildAll(ResultSet Rs) throws SQLException, NoSuchMethodException, ScriptException, ic9exception
+	{
+		ScriptObjectMirror tbl = this.newList();
+		int index = 0;
+		while(Rs.next())
+		{
+			tbl.setSlot(index++, this.build(Rs));
+		}
+		return tbl;
+	}
+
+	/**
+	 * Gets the column names.
+	 * @return An array of Strings with the column names.
+	 */
+	public String[] getColumnNames()
+	{
+		return this.colNames;
+	}
+
+	/**
+	 * Gets the column types.
+	 * @return An array of ints with the java.sql.Types column types.
+	 */
+	public int[] getColumnTypes()
+	{
+		return this.colTypes;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class jdbcStatementCache is a least recently used cache of prepared
+ * statements for a single jdbc connection keyed on the SQL text. A
+ * statement is taken out of the cache with acquire() while it's in use
+ * and put back with release() so that the same query can be run again
+ * while another instance of it is still open. (From a queryEach callback
+ * for example.) When the cache is full the least recently used statement
+ * is closed.
+ * @author Austin Lehman
+ */
+public class jdbcStatementCache
+{
+	/** Max number of cached statements. 0 disables the cache. */
+	private int maxSize = 0;
+
+	/** Cached statements by SQL text in access order. */
+	private LinkedHashMap<String, PreparedStatement> stmts = null;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Default constructor takes the max number of statements to cache.
+	 * @param MaxSize is an int with the max cache size. If 0 or less
+	 * statements aren't cached.
+	 */
+	public jdbcStatementCache(int MaxSize)
+	{
+		this.maxSize = MaxSize > 0 ? MaxSize : 0;
+		this.stmts = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Gets a prepared statement for the provided SQL text. If one is
+	 * cached it's removed from the cache and returned, otherwise a new
+	 * one is prepared on the provided connection.
+	 * @param Con is the Connection to prepare the statement on.
+	 * @param Sql is a String with the SQL text.
+	 * @return A PreparedStatement object.
+	 * @throws SQLException Exception
+	 */
+	public synchronized PreparedStatement acquire(Connection Con, String Sql) throws SQLException
+	{
+		PreparedStatement stmt = this.stmts.remove(Sql);
+		if(stmt != null)
+		{
+			this.hits++;
+			return stmt;
+		}
+		this.misses++;
+		return Con.prepareStatement(Sql);
+	}
+
+	/**
+	 * Puts the provided statement back into the cache after clearing
+	 * its parameters and batch. If the cache is disabled or already
+	 * holds a statement for the SQL text, the statement is closed
+	 * instead. If the cache is full the least recently used statement
+	 * is closed.
+	 * @param Sql is a String with the SQL text.
+	 * @param Stmt is the PreparedStatement to release.
+	 */
+	public synchronized void release(String Sql, PreparedStatement Stmt)
+	{
+		if(this.maxSize == 0 || this.stmts.containsKey(Sql))
+		{
+			close(Stmt);
+			return;
+		}
+
+		try
+		{
+			Stmt.clearParameters();
+			Stmt.clearBatch();
+		}
+		catch (SQLException e)
+		{
+			close(Stmt);
+			return;
+		}
+
+		this.stmts.put(Sql, Stmt);
+		this.trim();
+	}
+
+	/**
+	 * Closes the provided statement without caching it. This is
+	 * called when the statement threw an exception.
+	 * @param Stmt is the PreparedStatement to close.
+	 */
+	public void discard(PreparedStatement Stmt)
+	{
+		close(Stmt);
+	}
+
+	/**
+	 * Closes and removes all cached statements. This is called from
+	 * jdbc.disconnect() since statements belong to the connection.
+	 */
+	public synchronized void clear()
+	{
+		for(PreparedStatement stmt : this.stmts.values())
+		{
+			close(stmt);
+		}
+		this.stmts.clear();
+	}
+
+	/**
+	 * Sets the max number of cached statements. If the cache holds more
+	 * than the new size, the least recently used statements are closed.
+	 * @param MaxSize is an int with the max cache size. If 0 or less
+	 * statements aren't cached.
+	 */
+	public synchronized void setMaxSize(int MaxSize)
+	{
+		this.maxSize = MaxSize > 0 ? MaxSize : 0;
+		this.trim();
+	}
+
+	/**
+	 * Gets the max number of cached statements.
+	 * @return An int with the max cache size.
+	 */
+	public synchronized int getMaxSize()
+	{
+		return this.maxSize;
+	}
+
+	/**
+	 * Gets the number of statements currently cached.
+	 * @return An int with the number of cached statements.
+	 */
+	public synchronized int size()
+	{
+		return this.stmts.size();
+	}
+
+	/**
+	 * Gets the number of cache hits.
+	 * @return A long with the number of hits.
+	 */
+	public synchronized long getHits()
+	{
+		return this.hits;
+	}
+
+	/**
+	 * Gets the number of cache misses.
+	 * @return A long with the number of misses.
+	 */
+	public synchronized long getMisses()
+	{
+		return this.misses;
+	}
+
+	/**
+	 * Closes the least recently used statements until the cache
+	 * is within the max size.
+	 */
+	private void trim()
+	{
+		Iterator<Map.Entry<String, PreparedStatement>> it = this.stmts.entrySet().iterator();
+		while(this.stmts.size() > this.maxSize && it.hasNext())
+		{
+			close(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Closes the provided statement ignoring any exception.
+	 * @param Stmt is the PreparedStatement to close.
+	 */
+	private static void close(PreparedStatement Stmt)
+	{
+		try { Stmt.close(); } catch (SQLException e) { }
+	}
+}
@@ -80,7 +80,7 @@ public class environment
     		
     		if(file.exists(currentFile))
             {
-                this.eng.eval(FileName, file.read(currentFile));
+                this.eng.eval(FileName, scriptCache.getInstance().read(currentFile));
                 this.includes.add(FileName);
             }
     		else if (this.foundInLocalIpm(localIpmPath, FileName)) {
@@ -88,12 +88,12 @@ public class environment
     		}
     		else if(file.exists(stdJsLib))
     		{
-    			this.eng.eval(FileName, file.read(stdJsLib));
+    			this.eng.eval(FileName, scriptCache.getInstance().read(stdJsLib));
     			this.includes.add(FileName);
     		}
     		else if(file.exists(jsLib))
     		{
-    			this.eng.eval(FileName, file.read(jsLib));
+    			this.eng.eval(FileName, scriptCache.getInstance().read(jsLib));
     			this.includes.add(FileName);
     		}
     		else
@@ -127,7 +127,7 @@ public class environment
     	        for (String dirName : lst.keySet()) {
     	            String testFile = localIpmPath + "/" + dirName + "/" + IncludeFile;
     	                if (file.exists(testFile) && file.isFile(testFile)) {
-    	                    this.eng.eval(testFile, file.read(testFile));
+    	                    this.eng.eval(testFile, scriptCache.getInstance().read(testFile));
     	                    this.includes.add(IncludeFile);
     	                    found = true;
     	                    break;
@@ -199,6 +199,7 @@ public class ic9Main
 		rstr += "Options:\n";
 		rstr += "\t-d\tRuns in debug mode and outputs all resource loading to stdout.\n";
 		rstr += "\t-t\tRuns a test() function as the entry point.\n";
+		rstr += "\t-Dic9.codeCache=<dir>\tStores compiled scripts in the provided directory for reuse.\n";
 		System.out.println(rstr);
 	}
 }
@@ -18,6 +18,7 @@ package com.lehman.ic9;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.script.Invocable;
 import javax.script.ScriptContext;
@@ -46,6 +47,9 @@ public class ic9engine
 	// Is it a *nix environment. If windows, a check is done for $SHELL.
 	private boolean isNixEnv = true;
 	
+	// Held while a callback from another thread runs in the engine.
+	private final ReentrantLock lock = new ReentrantLock();
+	
 	/**
 	 * Default constructor.
 	 * @throws ScriptException Script exception.
@@ -71,8 +75,8 @@ public class ic9engine
 		// Setup env.
 		this.env = new environment(this);
 		
-		// Create the JS engine.
-		this.eng = this.fact.getScriptEngine(Args);
+		// Create the JS engine. Adds code cache options if enabled.
+		this.eng = this.fact.getScriptEngine(scriptCache.getEngineArgs(Args));
 		this.init();
 	}
 	
@@ -290,6 +294,35 @@ public class ic9engine
 	 */
 	public environment getEnv() { return this.env; }
 	
+	/**
+	 * Gets the engine lock. Code that calls into the engine from a 
+	 * thread it doesn't own, such as a callback run once an async 
+	 * operation completes, holds this lock while it runs so that it 
+	 * doesn't run in the engine at the same time as other such code.
+	 * @return A ReentrantLock object.
+	 */
+	public ReentrantLock getLock() { return this.lock; }
+	
+	/**
+	 * Wraps the provided task so that it runs while holding the 
+	 * engine lock. (See getLock.)
+	 * @param Task is the Runnable to wrap.
+	 * @return A new Runnable object.
+	 */
+	public Runnable locked(final Runnable Task)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				lock.lock();
+				try { Task.run(); }
+				finally { lock.unlock(); }
+			}
+		};
+	}
+	
 	/**
 	 * Shortcut that invokes the test function available within 
 	 * the global scope. This is used to run a test from the command 
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpAccessLog is the httpServer access log. Jetty calls log() 
+ * once each request is complete, including static and async requests. 
+ * The entry is put in a lock free ring buffer and a background writer 
+ * thread formats and writes the entries in batches, so the request 
+ * thread never does file IO or waits on a lock. If the ring buffer is 
+ * full the entry is dropped and counted rather than slowing down 
+ * requests.
+ * 
+ * Lines are written in the NCSA combined format followed by the request 
+ * time in milliseconds, or as one JSON object per line. The file is 
+ * rotated when it reaches the max size or when the day changes. A file 
+ * rotated because the day changed is renamed with its day appended as 
+ * 'yyyyMMdd', and one rotated on size with the rotation time appended 
+ * as 'yyyyMMdd-HHmmss'. The oldest rotated files are removed beyond the 
+ * max number of files. Only files named like that are removed.
+ * @author Austin Lehman
+ */
+public class httpAccessLog implements RequestLog
+{
+	/**
+	 * Defines the line formats.
+	 */
+	public enum logFormat
+	{
+		NCSA,
+		JSON
+	}
+	
+	/**
+	 * Class entry holds the fields of a request captured on the request thread.
+	 */
+	private static class entry
+	{
+		public long time = 0;
+		public long duration = 0;
+		public String remote = null;
+		public String user = null;
+		public String method = null;
+		public String uri = null;
+		public String protocol = null;
+		public int status = 0;
+		public long bytes = 0;
+		public String referer = null;
+		public String userAgent = null;
+	}
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** Log settings. */
+	private File file = null;
+	private logFormat format = logFormat.NCSA;
+	private long maxSize = 0;
+	private boolean daily = true;
+	private int maxFiles = 0;
+	private long flushInterval = 500;
+	
+	/** Ring buffer. Producers claim a sequence with a CAS on head and the writer advances tail. */
+	private AtomicReferenceArray<entry> ring = null;
+	private int mask = 0;
+	private AtomicLong head = new AtomicLong(0);
+	private AtomicLong tail = new AtomicLong(0);
+	
+	/** Counters. */
+	private AtomicLong written = new AtomicLong(0);
+	private AtomicLong dropped = new AtomicLong(0);
+	private AtomicLong rotations = new AtomicLong(0);
+	
+	/** Writer state used only on the writer thread. */
+	private Thread writer = null;
+	private volatile boolean running = false;
+	private OutputStream out = null;
+	private long fileSize = 0;
+	private String fileDay = null;
+	private SimpleDateFormat ncsaDate = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+	private SimpleDateFormat isoDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+	private SimpleDateFormat dayDate = new SimpleDateFormat("yyyyMMdd", Locale.US);
+	private SimpleDateFormat rotateDate = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US);
+	
+	/**
+	 * Default constructor takes the log settings.
+	 * @param FileName is a String with the log file name.
+	 * @param Format is a logFormat with the line format.
+	 * @param MaxSize is a long with the size in bytes to rotate the file at 
+	 * or 0 to not rotate on size.
+	 * @param Daily is a boolean with true to rotate the file when the day changes.
+	 * @param MaxFiles is an int with the number of rotated files to keep or 
+	 * 0 to keep all of them.
+	 * @param BufferSize is an int with the number of entries the ring buffer 
+	 * holds. It's rounded up to a power of two.
+	 */
+	public httpAccessLog(String FileName, logFormat Format, long MaxSize, boolean Daily, int MaxFiles, int BufferSize)
+	{
+		this.file = new File(FileName).getAbsoluteFile();
+		this.format = Format;
+		this.maxSize = MaxSize;
+		this.daily = Daily;
+		this.maxFiles = MaxFiles;
+		
+		int cap = 1;
+		while(cap < Math.max(BufferSize, 2)) cap <<= 1;
+		this.ring = new AtomicReferenceArray<entry>(cap);
+		this.mask = cap - 1;
+	}
+	
+	/**
+	 * Sets the max milliseconds an entry waits in the ring buffer before 
+	 * it's written.
+	 * @param FlushInterval is a long with the milliseconds.
+	 */
+	public void setFlushInterval(long FlushInterval)
+	{
+		this.flushInterval = Math.max(1, FlushInterval);
+	}
+	
+	/**
+	 * Opens the log file and starts the writer thread.
+	 * @throws ic9exception Exception
+	 */
+	public synchronized void start() throws ic9exception
+	{
+		if(this.running) return;
+		try { this.open(); }
+		catch (IOException e) { throw new ic9exception("httpAccessLog.start(): Failed to open '" + this.file.getPath() + "': " + e.getMessage()); }
+		
+		this.running = true;
+		this.writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeLoop();
+			}
+		}, "httpAccessLog");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * Stops the writer thread once the queued entries are written and 
+	 * closes the log file.
+	 */
+	public void stop()
+	{
+		Thread w;
+		synchronized(this)
+		{
+			if(!this.running) return;
+			this.running = false;
+			w = this.writer;
+		}
+		LockSupport.unpark(w);
+		try { w.join(10000); }
+		catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+	}
+	
+	/**
+	 * Captures the request and queues it. Called by Jetty on the request 
+	 * thread once the request is complete.
+	 * @param Req is the Request.
+	 * @param Res is the Response.
+	 */
+	@Override
+	public void log(Request Req, Response Res)
+	{
+		entry e = new entry();
+		e.time = Req.getTimeStamp();
+		e.duration = System.currentTimeMillis() - e.time;
+		e.remote = Req.getRemoteAddr();
+		e.user = Req.getRemoteUser();
+		e.method = Req.getMethod();
+		e.uri = Req.getQueryString() != null ? Req.getRequestURI() + "?" + Req.getQueryString() : Req.getRequestURI();
+		e.protocol = Req.getProtocol();
+		MetaData.Response md = Res.getCommittedMetaData();
+		e.status = md != null ? md.getStatus() : Res.getStatus();
+		e.bytes = Res.getHttpChannel().getBytesWritten();
+		e.referer = Req.getHeader("Referer");
+		e.userAgent = Req.getHeader("User-Agent");
+		
+		long h;
+		do
+		{
+			h = this.head.get();
+			if(h - this.tail.get() >= this.ring.length())
+			{
+				this.dropped.incrementAndGet();
+				return;
+			}
+		}
+		while(!this.head.compareAndSet(h, h + 1));
+		this.ring.set((int)(h & this.mask), e);
+	}
+	
+	/**
+	 * Gets the number of entries written.
+	 * @return A long with the number of entries.
+	 */
+	public long getWritten()
+	{
+		return this.written.get();
+	}
+	
+	/**
+	 * Gets the number of entries dropped because the ring buffer was full.
+	 * @return A long with the number of entries.
+	 */
+	public long getDropped()
+	{
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Gets the number of entries waiting to be written.
+	 * @return A long with the number of entries.
+	 */
+	public long getPending()
+	{
+		return this.head.get() - this.tail.get();
+	}
+	
+	/**
+	 * Gets the number of times the file was rotated.
+	 * @return A long with the number of rotations.
+	 */
+	public long getRotations()
+	{
+		return this.rotations.get();
+	}
+	
+	/**
+	 * Gets the log file name.
+	 * @return A String with the file name.
+	 */
+	public String getFileName()
+	{
+		return this.file.getPath();
+	}
+	
+	/**
+	 * Writer thread loop. Writes all published entries as one batch and 
+	 * then waits for the flush interval.
+	 */
+	private void writeLoop()
+	{
+		StringBuilder sb = new StringBuilder(64 * 1024);
+		while(true)
+		{
+			boolean stopping = !this.running;
+			long t = this.tail.get();
+			int count = 0;
+			entry e;
+			while((e = this.ring.get((int)(t & this.mask))) != null)
+			{
+				this.ring.set((int)(t & this.mask), null);
+				t++;
+				this.tail.lazySet(t);
+				
+				if(this.needsRotate(e.time, sb.length()))
+				{
+					this.writeBatch(sb, true);
+					this.rotate(e.time);
+				}
+				if(this.format == logFormat.JSON) this.formatJson(sb, e);
+				else this.formatNcsa(sb, e);
+				count++;
+				
+				if(sb.length() >= 60 * 1024) this.writeBatch(sb, false);
+			}
+			this.writeBatch(sb, true);
+			this.written.addAndGet(count);
+			
+			if(stopping && this.head.get() == this.tail.get()) break;
+			if(count == 0) LockSupport.parkNanos(this.flushInterval * 1000000L);
+		}
+		
+		try { if(this.out != null) this.out.close(); }
+		catch (IOException ex) { System.err.println("httpAccessLog.writeLoop(): " + ex.getMessage()); }
+		this.out = null;
+	}
+	
+	/**
+	 * Writes the provided batch to the file and clears it.
+	 * @param Sb is the StringBuilder with the batch.
+	 * @param Flush is a boolean with true to flush the file.
+	 */
+	private void writeBatch(StringBuilder Sb, boolean Flush)
+	{
+		try
+		{
+			if(Sb.length() > 0)
+			{
+				byte[] data = Sb.toString().getBytes(UTF8);
+				Sb.setLength(0);
+				this.out.write(data);
+				this.fileSize += data.length;
+			}
+			if(Flush) this.out.flush();
+		}
+		catch (IOException e)
+		{
+			Sb.setLength(0);
+			System.err.println("httpAccessLog.writeBatch(): " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Checks if the file is over the max size or the day has changed.
+	 * @param Time is a long with the time of the next entry.
+	 * @param Pending is an int with the number of characters in the batch.
+	 * @return A boolean with true if the file needs to be rotated.
+	 */
+	private boolean needsRotate(long Time, int Pending)
+	{
+		if(this.maxSize > 0 && this.fileSize + Pending >= this.maxSize) return true;
+		return this.daily && !this.dayDate.format(new Date(Time)).equals(this.fileDay);
+	}
+	
+	/**
+	 * Renames the file, removes the oldest rotated files and opens a new 
+	 * file. If the day changed the file's day is appended, otherwise the 
+	 * rotation time. An empty file is kept and only its day is updated.
+	 * @param Time is a long with the time of the next entry.
+	 */
+	private void rotate(long Time)
+	{
+		String day = this.dayDate.format(new Date(Time));
+		if(this.fileSize == 0)
+		{
+			this.fileDay = day;
+			return;
+		}
+		
+		try
+		{
+			this.out.close();
+			String suffix = this.daily && !day.equals(this.fileDay) ? this.fileDay : this.rotateDate.format(new Date(Time));
+			String base = this.file.getPath() + "." + suffix;
+			File dest = new File(base);
+			for(int i = 1; dest.exists(); i++) dest = new File(base + "-" + i);
+			if(!this.file.renameTo(dest)) System.err.println("httpAccessLog.rotate(): Failed to rename '" + this.file.getPath() + "'.");
+			this.rotations.incrementAndGet();
+			this.removeOldFiles();
+			this.open();
+		}
+		catch (IOException e) { System.err.println("httpAccessLog.rotate(): " + e.getMessage()); }
+	}
+	
+	/**
+	 * Opens the log file for appending.
+	 * @throws IOException Exception
+	 */
+	private void open() throws IOException
+	{
+		File dir = this.file.getParentFile();
+		if(dir != null && !dir.exists()) dir.mkdirs();
+		this.out = new FileOutputStream(this.file, true);
+		this.fileSize = this.file.length();
+		this.fileDay = this.dayDate.format(new Date(this.file.exists() && this.fileSize > 0 ? this.file.lastModified() : System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Removes the oldest rotated files beyond the max number of files. 
+	 * Rotated files are the ones named as the file followed by a day or 
+	 * rotation time and an optional counter, so other files that start 
+	 * with the file name are left alone. A file rotated on a new day sorts 
+	 * before that day's size rotations by name, so they're ordered by 
+	 * last modified time.
+	 */
+	private void removeOldFiles()
+	{
+		if(this.maxFiles <= 0) return;
+		File dir = this.file.getParentFile();
+		String[] names = dir != null ? dir.list() : null;
+		if(names == null) return;
+		
+		Pattern rotatedName = Pattern.compile(Pattern.quote(this.file.getName()) + "\\.\\d{8}(-\\d{6})?(-\\d+)?");
+		List<File> rotated = new ArrayList<File>();
+		for(String name : names) if(rotatedName.matcher(name).matches()) rotated.add(new File(dir, name));
+		Collections.sort(rotated, new Comparator<File>()
+		{
+			@Override
+			public int compare(File A, File B)
+			{
+				int ret = Long.compare(A.lastModified(), B.lastModified());
+				return ret != 0 ? ret : A.getName().compareTo(B.getName());
+			}
+		});
+		for(int i = 0; i < rotated.size() - this.maxFiles; i++) rotated.get(i).delete();
+	}
+	
+	/**
+	 * Formats an entry in the NCSA combined format followed by the request 
+	 * time in milliseconds.
+	 * @param Sb is the StringBuilder to append to.
+	 * @param E is the entry.
+	 */
+	private void formatNcsa(StringBuilder Sb, entry E)
+	{
+		Sb.append(E.remote != null ? E.remote : "-").append(" - ");
+		Sb.append(E.user != null ? E.user : "-");
+		Sb.append(" [").append(this.ncsaDate.format(new Date(E.time))).append("] \"");
+		Sb.append(E.method).append(" ").append(E.uri).append(" ").append(E.protocol).append("\" ");
+		Sb.append(E.status).append(" ").append(E.bytes > 0 ? String.valueOf(E.bytes) : "-").append(" \"");
+		Sb.append(E.referer != null ? E.referer.replace("\"", "\\\"") : "-").append("\" \"");
+		Sb.append(E.userAgent != null ? E.userAgent.replace("\"", "\\\"") : "-").append("\" ");
+		Sb.append(E.duration).append("\n");
+	}
+	
+	/**
+	 * Formats an entry as a JSON object on one line.
+	 * @param Sb is the StringBuilder to append to.
+	 * @param E is the entry.
+	 */
+	private void formatJson(StringBuilder Sb, entry E)
+	{
+		Sb.append("{\"time\":");
+		jsonString(Sb, this.isoDate.format(new Date(E.time)));
+		Sb.append(",\"remote\":");
+		jsonString(Sb, E.remote);
+		Sb.append(",\"user\":");
+		jsonString(Sb, E.user);
+		Sb.append(",\"method\":");
+		jsonString(Sb, E.method);
+		Sb.append(",\"uri\":");
+		jsonString(Sb, E.uri);
+		Sb.append(",\"protocol\":");
+		jsonString(Sb, E.protocol);
+		Sb.append(",\"status\":").append(E.status);
+		Sb.append(",\"bytes\":").append(E.bytes);
+		Sb.append(",\"duration\":").append(E.duration);
+		Sb.append(",\"referer\":");
+		jsonString(Sb, E.referer);
+		Sb.append(",\"userAgent\":");
+		jsonString(Sb, E.userAgent);
+		Sb.append("}\n");
+	}
+	
+	/**
+	 * Appends the provided string as a JSON string or null.
+	 * @param Sb is the StringBuilder to append to.
+	 * @param Str is the String or null.
+	 */
+	private static void jsonString(StringBuilder Sb, String Str)
+	{
+		if(Str == null)
+		{
+			Sb.append("null");
+			return;
+		}
+		Sb.append('"');
+		for(int i = 0; i < Str.length(); i++)
+		{
+			char c = Str.charAt(i);
+			switch(c)
+			{
+				case '"': Sb.append("\\\""); break;
+				case '\\': Sb.append("\\\\"); break;
+				case '\n': Sb.append("\\n"); break;
+				case '\r': Sb.append("\\r"); break;
+				case '\t': Sb.append("\\t"); break;
+				default:
+					if(c < 0x20) Sb.append(String.format("\\u%04x", (int)c));
+					else Sb.append(c);
+			}
+		}
+		Sb.append('"');
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class httpAsync holds the executors that run async httpClient
+ * requests. The shared executor has a fixed number of worker threads
+ * which is the max number of requests in flight at once for the JVM.
+ * Requests past that wait in the executor queue. HttpClient.all()
+ * creates its own executor with the requested concurrency and shuts
+ * it down when done.
+ * @author Austin Lehman
+ */
+public class httpAsync
+{
+	/** Default number of shared worker threads. */
+	public static final int DEFAULT_CONCURRENCY = 16;
+
+	/** Shared executor. */
+	private static ExecutorService executor = null;
+
+	/** Number of shared worker threads. */
+	private static int concurrency = DEFAULT_CONCURRENCY;
+
+	/** Scheduler for retry delays. */
+	private static ScheduledExecutorService scheduler = null;
+	
+	/** Worker thread count used for thread names. */
+	private static AtomicInteger threadCount = new AtomicInteger(0);
+
+	/**
+	 * Gets the shared executor, creating it on first use.
+	 * @return An ExecutorService object.
+	 */
+	public static synchronized ExecutorService getExecutor()
+	{
+		if(executor == null)
+		{
+			executor = newExecutor(concurrency);
+		}
+		return executor;
+	}
+
+	/**
+	 * Gets the scheduler used to wait before async retries, creating it on 
+	 * first use. It only submits the next attempt to an executor so a 
+	 * single thread is enough.
+	 * @return A ScheduledExecutorService object.
+	 */
+	public static synchronized ScheduledExecutorService getScheduler()
+	{
+		if(scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable R)
+				{
+					Thread t = new Thread(R, "httpAsync-scheduler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * Sets the number of shared worker threads. If the shared executor
+	 * is running it's shut down after its queued requests complete and
+	 * a new one is created on next use.
+	 * @param Concurrency is an int with the number of worker threads.
+	 */
+	public static synchronized void setConcurrency(int Concurrency)
+	{
+		concurrency = Concurrency > 0 ? Concurrency : DEFAULT_CONCURRENCY;
+		if(executor != null)
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Gets the number of shared worker threads.
+	 * @return An int with the number of worker threads.
+	 */
+	public static synchronized int getConcurrency()
+	{
+		return concurrency;
+	}
+
+	/**
+	 * Creates a new executor with the provided number of daemon worker
+	 * threads.
+	 * @param Concurrency is an int with the number of worker threads.
+	 * @return A new ExecutorService object.
+	 */
+	public static ExecutorService newExecutor(int Concurrency)
+	{
+		return Executors.newFixedThreadPool(Concurrency > 0 ? Concurrency : DEFAULT_CONCURRENCY, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable R)
+			{
+				Thread t = new Thread(R, "httpAsync-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Interface httpBodyHandler is implemented to read a httpClient
+ * response body as it streams in instead of buffering it in memory.
+ * @author Austin Lehman
+ */
+public interface httpBodyHandler
+{
+	/**
+	 * Called with the response body stream once the status line and
+	 * headers have been read.
+	 * @param Resp is the httpClientResponse with the status and headers set.
+	 * @param Is is the InputStream with the response body.
+	 * @return A boolean with true if the rest of the body can be read so the
+	 * connection can be reused, or false to abort the connection.
+	 * @throws IOException Exception
+	 * @throws ic9exception Exception
+	 */
+	public boolean handle(httpClientResponse Resp, InputStream Is) throws IOException, ic9exception;
+}
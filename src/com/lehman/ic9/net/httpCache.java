@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.impl.client.cache.CacheConfig;
+
+/**
+ * Class httpCache holds the process wide HTTP response cache used by
+ * httpClient objects that have caching turned on. Responses are cached
+ * as allowed by their Cache-Control and Expires headers, and stale
+ * entries with an ETag or Last-Modified validator are revalidated with
+ * a conditional GET so that an unchanged resource comes back as a 304
+ * instead of the full body. The cache keeps counts of hits, misses and
+ * revalidations.
+ * @author Austin Lehman
+ */
+public class httpCache
+{
+	/** httpCache instance. */
+	private static httpCache instance = null;
+
+	/** Cache settings. */
+	private int maxEntries = 1000;
+	private long maxMemory = 64L * 1024 * 1024;
+	private long maxObjectSize = 1024 * 1024;
+	private File cacheDir = null;
+	private long maxDiskSize = 256L * 1024 * 1024;
+	private boolean sharedCache = false;
+	private boolean heuristicCaching = false;
+
+	/** Cache storage. */
+	private httpCacheStorage storage = null;
+
+	/** Cache counters. */
+	private AtomicLong hits = new AtomicLong(0);
+	private AtomicLong misses = new AtomicLong(0);
+	private AtomicLong validated = new AtomicLong(0);
+	private AtomicLong moduleResponses = new AtomicLong(0);
+
+	/**
+	 * Constructor is protected and exists to defeat instantiation.
+	 */
+	protected httpCache() { }
+
+	/**
+	 * Gets an instance of the httpCache object. If the
+	 * instance doesn't exist it is created. This method is
+	 * synchronized so as not to allow 2 instances of the
+	 * object to be created.
+	 * @return The instance of httpCache.
+	 */
+	public static synchronized httpCache getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new httpCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the cache storage, creating it on first use.
+	 * @return A httpCacheStorage object.
+	 */
+	public synchronized httpCacheStorage getStorage()
+	{
+		if(this.storage == null)
+		{
+			this.storage = new httpCacheStorage(this.maxEntries, this.maxMemory, this.cacheDir, this.maxDiskSize);
+		}
+		return this.storage;
+	}
+
+	/**
+	 * Gets a new cache config with the current settings.
+	 * @return A CacheConfig object.
+	 */
+	public synchronized CacheConfig getCacheConfig()
+	{
+		return CacheConfig.custom()
+				.setMaxCacheEntries(this.maxEntries)
+				.setMaxObjectSize(this.maxObjectSize)
+				.setSharedCache(this.sharedCache)
+				.setHeuristicCachingEnabled(this.heuristicCaching)
+				.build();
+	}
+
+	/**
+	 * Sets the max number of entries held in memory.
+	 * @param MaxEntries is an int with the max number of entries.
+	 */
+	public synchronized void setMaxEntries(int MaxEntries)
+	{
+		this.maxEntries = MaxEntries;
+		if(this.storage != null) this.storage.setMaxEntries(MaxEntries);
+	}
+
+	/**
+	 * Gets the max number of entries held in memory.
+	 * @return An int with the max number of entries.
+	 */
+	public synchronized int getMaxEntries()
+	{
+		return this.maxEntries;
+	}
+
+	/**
+	 * Sets the max estimated bytes of the entries held in memory.
+	 * @param MaxMemory is a long with the max bytes or 0 for no limit.
+	 */
+	public synchronized void setMaxMemory(long MaxMemory)
+	{
+		this.maxMemory = MaxMemory;
+		if(this.storage != null) this.storage.setMaxMemory(MaxMemory);
+	}
+
+	/**
+	 * Gets the max estimated bytes of the entries held in memory.
+	 * @return A long with the max bytes or 0 for no limit.
+	 */
+	public synchronized long getMaxMemory()
+	{
+		return this.maxMemory;
+	}
+
+	/**
+	 * Sets the max bytes of the entry files in the cache directory.
+	 * Least recently used files past the max are deleted.
+	 * @param MaxDiskSize is a long with the max bytes or 0 for no limit.
+	 */
+	public synchronized void setMaxDiskSize(long MaxDiskSize)
+	{
+		this.maxDiskSize = MaxDiskSize;
+		if(this.storage != null) this.storage.setMaxDiskSize(MaxDiskSize);
+	}
+
+	/**
+	 * Gets the max bytes of the entry files in the cache directory.
+	 * @return A long with the max bytes or 0 for no limit.
+	 */
+	public synchronized long getMaxDiskSize()
+	{
+		return this.maxDiskSize;
+	}
+
+	/**
+	 * Sets the max size in bytes of a response body that will be cached.
+	 * This only applies to clients built after it's set.
+	 * @param MaxObjectSize is a long with the max size in bytes.
+	 */
+	public synchronized void setMaxObjectSize(long MaxObjectSize)
+	{
+		this.maxObjectSize = MaxObjectSize;
+	}
+
+	/**
+	 * Gets the max size in bytes of a response body that will be cached.
+	 * @return A long with the max size in bytes.
+	 */
+	public synchronized long getMaxObjectSize()
+	{
+		return this.maxObjectSize;
+	}
+
+	/**
+	 * Sets the directory to write cache entries to so that they are kept
+	 * across restarts. If set to null the cache is memory only. Changing
+	 * the directory drops the current in memory entries.
+	 * @param CacheDir is a String with the directory path or null.
+	 */
+	public synchronized void setCacheDir(String CacheDir)
+	{
+		this.cacheDir = CacheDir != null ? new File(CacheDir) : null;
+		this.storage = null;
+	}
+
+	/**
+	 * Gets the cache directory.
+	 * @return A String with the cache directory or null if memory only.
+	 */
+	public synchronized String getCacheDir()
+	{
+		return this.cacheDir != null ? this.cacheDir.getPath() : null;
+	}
+
+	/**
+	 * Sets whether the cache behaves as a shared cache. A shared cache
+	 * doesn't store responses marked private or responses to requests with
+	 * an Authorization header. The default is false since the cache belongs
+	 * to this process. This only applies to clients built after it's set.
+	 * @param SharedCache is a boolean with true for a shared cache.
+	 */
+	public synchronized void setSharedCache(boolean SharedCache)
+	{
+		this.sharedCache = SharedCache;
+	}
+
+	/**
+	 * Gets whether the cache behaves as a shared cache.
+	 * @return A boolean with true for a shared cache.
+	 */
+	public synchronized boolean getSharedCache()
+	{
+		return this.sharedCache;
+	}
+
+	/**
+	 * Sets whether responses without explicit freshness information are
+	 * given a heuristic lifetime based on Last-Modified. The default is
+	 * false. This only applies to clients built after it's set.
+	 * @param HeuristicCaching is a boolean with true to enable.
+	 */
+	public synchronized void setHeuristicCaching(boolean HeuristicCaching)
+	{
+		this.heuristicCaching = HeuristicCaching;
+	}
+
+	/**
+	 * Gets whether heuristic caching is enabled.
+	 * @return A boolean with true if enabled.
+	 */
+	public synchronized boolean getHeuristicCaching()
+	{
+		return this.heuristicCaching;
+	}
+
+	/**
+	 * Counts the cache status of a response.
+	 * @param Status is the CacheResponseStatus of the response.
+	 */
+	public void record(CacheResponseStatus Status)
+	{
+		if(Status == null) return;
+		switch(Status)
+		{
+			case CACHE_HIT: this.hits.incrementAndGet(); break;
+			case CACHE_MISS: this.misses.incrementAndGet(); break;
+			case VALIDATED: this.validated.incrementAndGet(); break;
+			case CACHE_MODULE_RESPONSE: this.moduleResponses.incrementAndGet(); break;
+		}
+	}
+
+	/**
+	 * Gets the number of responses served from the cache without
+	 * contacting the server.
+	 * @return A long with the number of hits.
+	 */
+	public long getHits()
+	{
+		return this.hits.get();
+	}
+
+	/**
+	 * Gets the number of responses that weren't in the cache.
+	 * @return A long with the number of misses.
+	 */
+	public long getMisses()
+	{
+		return this.misses.get();
+	}
+
+	/**
+	 * Gets the number of responses served from the cache after the server
+	 * confirmed with a 304 that the entry is unchanged.
+	 * @return A long with the number of revalidations.
+	 */
+	public long getValidated()
+	{
+		return this.validated.get();
+	}
+
+	/**
+	 * Gets the number of responses generated by the cache itself such as
+	 * a 504 for an only-if-cached request that isn't cached.
+	 * @return A long with the number of cache module responses.
+	 */
+	public long getModuleResponses()
+	{
+		return this.moduleResponses.get();
+	}
+
+	/**
+	 * Gets the number of entries held in memory.
+	 * @return An int with the number of entries.
+	 */
+	public synchronized int getSize()
+	{
+		return this.storage != null ? this.storage.size() : 0;
+	}
+
+	/**
+	 * Gets the estimated bytes of the entries held in memory.
+	 * @return A long with the number of bytes.
+	 */
+	public synchronized long getMemoryBytes()
+	{
+		return this.storage != null ? this.storage.getMemoryBytes() : 0;
+	}
+
+	/**
+	 * Gets the bytes of the entry files in the cache directory.
+	 * @return A long with the number of bytes.
+	 */
+	public synchronized long getDiskBytes()
+	{
+		return this.storage != null ? this.storage.getDiskBytes() : 0;
+	}
+
+	/**
+	 * Removes all cache entries and resets the counters.
+	 */
+	public synchronized void clear()
+	{
+		if(this.storage != null) this.storage.clear();
+		this.hits.set(0);
+		this.misses.set(0);
+		this.validated.set(0);
+		this.moduleResponses.set(0);
+	}
+}
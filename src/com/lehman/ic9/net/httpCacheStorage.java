@@ -0,0 +1,535 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.impl.client.cache.DefaultHttpCacheEntrySerializer;
+
+import com.lehman.ic9.common.hex;
+
+/**
+ * Class httpCacheStorage stores cached HTTP responses for httpCache.
+ * Entries are held in a size bounded LRU map in memory. The memory is
+ * bounded by both the number of entries and their estimated size in
+ * bytes. If a cache directory is set entries are also written to disk
+ * so that they survive a restart, and entries that have been pushed
+ * out of memory are read back from disk. The disk cache is bounded by
+ * the total size of the entry files, pruning the least recently used
+ * files first. File modification times are updated on reads so the
+ * LRU order is kept across restarts.
+ * @author Austin Lehman
+ */
+public class httpCacheStorage implements HttpCacheStorage
+{
+	/** File extension of cache entry files. */
+	private static final String ENTRY_EXT = ".entry";
+
+	/** Estimated bytes of an entry not counting headers and body. */
+	private static final long ENTRY_OVERHEAD = 512;
+
+	/** Max number of entries in memory. */
+	private int maxEntries = 1000;
+
+	/** Max estimated bytes of the entries in memory or 0 for no limit. */
+	private long maxMemory = 0;
+
+	/** Estimated bytes of the entries in memory. */
+	private long memoryBytes = 0;
+
+	/** Cache directory or null for memory only. */
+	private File cacheDir = null;
+
+	/** Max bytes of the entry files on disk or 0 for no limit. */
+	private long maxDiskSize = 0;
+
+	/** In memory entries in access order. */
+	private LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<String, HttpCacheEntry>(16, 0.75f, true);
+
+	/** Entry file sizes by file name in access order. Also the lock for diskBytes. */
+	private LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	/** Bytes of the entry files on disk. */
+	private long diskBytes = 0;
+
+	/** Entry serializer for the disk cache. */
+	private DefaultHttpCacheEntrySerializer serializer = new DefaultHttpCacheEntrySerializer();
+
+	/**
+	 * Default constructor takes the memory and disk limits and the cache
+	 * directory. Entry files already in the cache directory are indexed
+	 * oldest first by modification time.
+	 * @param MaxEntries is an int with the max number of entries in memory.
+	 * @param MaxMemory is a long with the max estimated bytes of the
+	 * entries in memory or 0 for no limit.
+	 * @param CacheDir is a File with the cache directory or null for
+	 * memory only.
+	 * @param MaxDiskSize is a long with the max bytes of the entry files
+	 * on disk or 0 for no limit.
+	 */
+	public httpCacheStorage(int MaxEntries, long MaxMemory, File CacheDir, long MaxDiskSize)
+	{
+		this.maxEntries = MaxEntries;
+		this.maxMemory = MaxMemory;
+		this.cacheDir = CacheDir;
+		this.maxDiskSize = MaxDiskSize;
+		if(this.cacheDir != null)
+		{
+			this.cacheDir.mkdirs();
+			this.loadIndex();
+		}
+	}
+
+	/**
+	 * Stores the provided entry.
+	 * @param Key is a String with the cache key.
+	 * @param Entry is the HttpCacheEntry to store.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void putEntry(String Key, HttpCacheEntry Entry) throws IOException
+	{
+		synchronized(this)
+		{
+			this.putMemory(Key, Entry);
+		}
+		this.writeEntry(Key, Entry);
+	}
+
+	/**
+	 * Gets the entry with the provided key from memory or from disk.
+	 * @param Key is a String with the cache key.
+	 * @return A HttpCacheEntry or null if not found.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public HttpCacheEntry getEntry(String Key) throws IOException
+	{
+		synchronized(this)
+		{
+			HttpCacheEntry ent = this.entries.get(Key);
+			if(ent != null) return ent;
+		}
+
+		HttpCacheEntry ent = this.readEntry(Key);
+		if(ent != null)
+		{
+			synchronized(this)
+			{
+				this.putMemory(Key, ent);
+			}
+		}
+		return ent;
+	}
+
+	/**
+	 * Removes the entry with the provided key.
+	 * @param Key is a String with the cache key.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void removeEntry(String Key) throws IOException
+	{
+		synchronized(this)
+		{
+			this.removeMemory(Key);
+		}
+		this.deleteEntry(Key);
+	}
+
+	/**
+	 * Updates the entry with the provided key using the callback.
+	 * @param Key is a String with the cache key.
+	 * @param Callback is a HttpCacheUpdateCallback that returns the new entry.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void updateEntry(String Key, HttpCacheUpdateCallback Callback) throws IOException
+	{
+		HttpCacheEntry ent = null;
+		synchronized(this)
+		{
+			ent = Callback.update(this.getEntry(Key));
+			if(ent != null) this.putMemory(Key, ent);
+			else this.removeMemory(Key);
+		}
+		if(ent != null) this.writeEntry(Key, ent);
+		else this.deleteEntry(Key);
+	}
+
+	/**
+	 * Sets the max number of entries held in memory. Least recently used
+	 * entries past the max are dropped from memory.
+	 * @param MaxEntries is an int with the max number of entries.
+	 */
+	public synchronized void setMaxEntries(int MaxEntries)
+	{
+		this.maxEntries = MaxEntries;
+		this.trimMemory();
+	}
+
+	/**
+	 * Sets the max estimated bytes of the entries held in memory. Least
+	 * recently used entries past the max are dropped from memory.
+	 * @param MaxMemory is a long with the max bytes or 0 for no limit.
+	 */
+	public synchronized void setMaxMemory(long MaxMemory)
+	{
+		this.maxMemory = MaxMemory;
+		this.trimMemory();
+	}
+
+	/**
+	 * Sets the max bytes of the entry files in the cache directory. Least
+	 * recently used files past the max are deleted.
+	 * @param MaxDiskSize is a long with the max bytes or 0 for no limit.
+	 */
+	public void setMaxDiskSize(long MaxDiskSize)
+	{
+		synchronized(this.files)
+		{
+			this.maxDiskSize = MaxDiskSize;
+			this.pruneDisk(null);
+		}
+	}
+
+	/**
+	 * Gets the number of entries held in memory.
+	 * @return An int with the number of entries.
+	 */
+	public synchronized int size()
+	{
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets the estimated bytes of the entries held in memory.
+	 * @return A long with the number of bytes.
+	 */
+	public synchronized long getMemoryBytes()
+	{
+		return this.memoryBytes;
+	}
+
+	/**
+	 * Gets the number of entry files in the cache directory.
+	 * @return An int with the number of files.
+	 */
+	public int getDiskEntries()
+	{
+		synchronized(this.files)
+		{
+			return this.files.size();
+		}
+	}
+
+	/**
+	 * Gets the bytes of the entry files in the cache directory.
+	 * @return A long with the number of bytes.
+	 */
+	public long getDiskBytes()
+	{
+		synchronized(this.files)
+		{
+			return this.diskBytes;
+		}
+	}
+
+	/**
+	 * Gets the cache directory.
+	 * @return A File with the cache directory or null for memory only.
+	 */
+	public File getCacheDir()
+	{
+		return this.cacheDir;
+	}
+
+	/**
+	 * Removes all entries from memory and from the cache directory.
+	 */
+	public synchronized void clear()
+	{
+		this.entries.clear();
+		this.memoryBytes = 0;
+		if(this.cacheDir != null)
+		{
+			synchronized(this.files)
+			{
+				File[] list = this.cacheDir.listFiles();
+				if(list != null)
+				{
+					for(File f : list)
+					{
+						if(f.getName().endsWith(ENTRY_EXT)) f.delete();
+					}
+				}
+				this.files.clear();
+				this.diskBytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * Puts the entry in memory and drops least recently used entries
+	 * past the limits. Must be called holding the object lock.
+	 * @param Key is a String with the cache key.
+	 * @param Entry is the HttpCacheEntry to put.
+	 */
+	private void putMemory(String Key, HttpCacheEntry Entry)
+	{
+		HttpCacheEntry old = this.entries.put(Key, Entry);
+		if(old != null) this.memoryBytes -= sizeOf(old);
+		this.memoryBytes += sizeOf(Entry);
+		this.trimMemory();
+	}
+
+	/**
+	 * Removes the entry from memory. Must be called holding the object lock.
+	 * @param Key is a String with the cache key.
+	 */
+	private void removeMemory(String Key)
+	{
+		HttpCacheEntry old = this.entries.remove(Key);
+		if(old != null) this.memoryBytes -= sizeOf(old);
+	}
+
+	/**
+	 * Drops least recently used entries from memory while there are more
+	 * than the max entries or more than the max memory bytes. Must be
+	 * called holding the object lock.
+	 */
+	private void trimMemory()
+	{
+		Iterator<Map.Entry<String, HttpCacheEntry>> it = this.entries.entrySet().iterator();
+		while(it.hasNext() && (this.entries.size() > this.maxEntries || (this.maxMemory > 0 && this.memoryBytes > this.maxMemory)))
+		{
+			this.memoryBytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Gets the estimated bytes of the provided entry in memory. This is
+	 * the body length plus the header characters and a fixed overhead.
+	 * @param Entry is the HttpCacheEntry.
+	 * @return A long with the estimated bytes.
+	 */
+	private static long sizeOf(HttpCacheEntry Entry)
+	{
+		long size = ENTRY_OVERHEAD;
+		Resource res = Entry.getResource();
+		if(res != null) size += res.length();
+		for(Header h : Entry.getAllHeaders())
+		{
+			size += 2 * (h.getName().length() + h.getValue().length());
+		}
+		return size;
+	}
+
+	/**
+	 * Builds the index of the entry files in the cache directory, oldest
+	 * first, and prunes it to the max disk size. Temp files left by an
+	 * interrupted write are deleted.
+	 */
+	private void loadIndex()
+	{
+		File[] list = this.cacheDir.listFiles();
+		if(list == null) return;
+
+		Arrays.sort(list, new Comparator<File>()
+		{
+			@Override
+			public int compare(File A, File B)
+			{
+				long a = A.lastModified(), b = B.lastModified();
+				return a < b ? -1 : (a > b ? 1 : 0);
+			}
+		});
+
+		synchronized(this.files)
+		{
+			for(File f : list)
+			{
+				if(f.getName().endsWith(ENTRY_EXT))
+				{
+					long len = f.length();
+					this.files.put(f.getName(), len);
+					this.diskBytes += len;
+				}
+				else if(f.getName().endsWith(".tmp"))
+				{
+					f.delete();
+				}
+			}
+			this.pruneDisk(null);
+		}
+	}
+
+	/**
+	 * Deletes least recently used entry files while the files take more
+	 * than the max disk size. Must be called holding the files lock.
+	 * @param Keep is a String with the name of a file not to delete or null.
+	 */
+	private void pruneDisk(String Keep)
+	{
+		if(this.maxDiskSize <= 0) return;
+		Iterator<Map.Entry<String, Long>> it = this.files.entrySet().iterator();
+		while(it.hasNext() && this.diskBytes > this.maxDiskSize)
+		{
+			Map.Entry<String, Long> ent = it.next();
+			if(ent.getKey().equals(Keep)) continue;
+			new File(this.cacheDir, ent.getKey()).delete();
+			this.diskBytes -= ent.getValue();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Writes the entry to the cache directory if set. The entry is written
+	 * to a temp file first and then moved into place so readers never see
+	 * a partial entry. Least recently used files are then pruned.
+	 * @param Key is a String with the cache key.
+	 * @param Entry is the HttpCacheEntry to write.
+	 * @throws IOException Exception
+	 */
+	private void writeEntry(String Key, HttpCacheEntry Entry) throws IOException
+	{
+		if(this.cacheDir == null) return;
+
+		File f = this.getEntryFile(Key);
+		File tmp = File.createTempFile(f.getName(), ".tmp", this.cacheDir);
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+		try
+		{
+			this.serializer.writeTo(Entry, os);
+		}
+		finally
+		{
+			os.close();
+		}
+
+		synchronized(this.files)
+		{
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			long len = f.length();
+			Long old = this.files.put(f.getName(), len);
+			this.diskBytes += len - (old != null ? old : 0);
+			this.pruneDisk(f.getName());
+		}
+	}
+
+	/**
+	 * Reads the entry from the cache directory if set. Entries that can't
+	 * be read are deleted.
+	 * @param Key is a String with the cache key.
+	 * @return A HttpCacheEntry or null if not found.
+	 */
+	private HttpCacheEntry readEntry(String Key)
+	{
+		if(this.cacheDir == null) return null;
+
+		File f = this.getEntryFile(Key);
+		if(!f.exists()) return null;
+
+		InputStream is = null;
+		try
+		{
+			is = new BufferedInputStream(new FileInputStream(f));
+			HttpCacheEntry ent = this.serializer.readFrom(is);
+			synchronized(this.files)
+			{
+				// Moves the file to the most recently used end.
+				if(this.files.get(f.getName()) != null) f.setLastModified(System.currentTimeMillis());
+			}
+			return ent;
+		}
+		catch (IOException e)
+		{
+			this.deleteFile(f);
+			return null;
+		}
+		finally
+		{
+			if(is != null)
+			{
+				try { is.close(); }
+				catch (IOException e) { }
+			}
+		}
+	}
+
+	/**
+	 * Deletes the entry file of the provided key if the cache directory is set.
+	 * @param Key is a String with the cache key.
+	 */
+	private void deleteEntry(String Key)
+	{
+		if(this.cacheDir != null) this.deleteFile(this.getEntryFile(Key));
+	}
+
+	/**
+	 * Deletes the provided entry file and removes it from the index.
+	 * @param F is the File to delete.
+	 */
+	private void deleteFile(File F)
+	{
+		synchronized(this.files)
+		{
+			F.delete();
+			Long old = this.files.remove(F.getName());
+			if(old != null) this.diskBytes -= old;
+		}
+	}
+
+	/**
+	 * Gets the file for the provided cache key. The file name is the
+	 * SHA-1 hash of the key.
+	 * @param Key is a String with the cache key.
+	 * @return A File object.
+	 */
+	private File getEntryFile(String Key)
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return new File(this.cacheDir, hex.encode(md.digest(Key.getBytes(StandardCharsets.UTF_8))) + ENTRY_EXT);
+		}
+		catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+	}
+}
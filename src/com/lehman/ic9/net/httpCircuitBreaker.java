@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class httpCircuitBreaker tracks failures for a single host and stops
+ * requests to it once it's failing. After the failure threshold of
+ * consecutive failures the breaker opens and requests fail right away
+ * without contacting the host. Once the open timeout has passed the
+ * breaker is half open and lets a limited number of trial requests
+ * through. A successful trial closes the breaker and a failed one opens
+ * it again. Connect and IO failures and 5xx responses count as failures.
+ *
+ * Breakers are kept per host in a process wide registry so they are
+ * shared by all httpClient objects that have the circuit breaker turned on.
+ * @author Austin Lehman
+ */
+public class httpCircuitBreaker
+{
+	/**
+	 * Defines the breaker states.
+	 */
+	public enum breakerState
+	{
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	/** Breakers by host. */
+	private static ConcurrentHashMap<String, httpCircuitBreaker> breakers = new ConcurrentHashMap<String, httpCircuitBreaker>();
+
+	/** Default settings for new breakers. */
+	private static int defaultFailureThreshold = 5;
+	private static long defaultOpenTimeout = 30000;
+	private static int defaultHalfOpenRequests = 1;
+
+	/** Host name and port. */
+	private String host = "";
+
+	/** Breaker settings. */
+	private int failureThreshold = 5;
+	private long openTimeout = 30000;
+	private int halfOpenRequests = 1;
+
+	/** Breaker state. */
+	private breakerState state = breakerState.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt = 0;
+	private int halfOpenInFlight = 0;
+
+	/** Breaker counters. */
+	private long successes = 0;
+	private long failures = 0;
+	private long rejected = 0;
+	private long opened = 0;
+
+	/**
+	 * Default constructor takes the host and the settings.
+	 * @param Host is a String with the host name and port.
+	 * @param FailureThreshold is an int with the consecutive failures that
+	 * open the breaker.
+	 * @param OpenTimeout is a long with the milliseconds the breaker stays open.
+	 * @param HalfOpenRequests is an int with the number of trial requests
+	 * allowed when half open.
+	 */
+	public httpCircuitBreaker(String Host, int FailureThreshold, long OpenTimeout, int HalfOpenRequests)
+	{
+		this.host = Host;
+		this.failureThreshold = FailureThreshold;
+		this.openTimeout = OpenTimeout;
+		this.halfOpenRequests = HalfOpenRequests;
+	}
+
+	/**
+	 * Gets the breaker for the provided host, creating it with the default
+	 * settings if it doesn't exist.
+	 * @param Host is a String with the host name and port.
+	 * @return A httpCircuitBreaker object.
+	 */
+	public static httpCircuitBreaker get(String Host)
+	{
+		httpCircuitBreaker cb = breakers.get(Host);
+		if(cb == null)
+		{
+			synchronized(httpCircuitBreaker.class)
+			{
+				httpCircuitBreaker ncb = new httpCircuitBreaker(Host, defaultFailureThreshold, defaultOpenTimeout, defaultHalfOpenRequests);
+				cb = breakers.putIfAbsent(Host, ncb);
+				if(cb == null) cb = ncb;
+			}
+		}
+		return cb;
+	}
+
+	/**
+	 * Sets the default settings for breakers created after this call and
+	 * updates the existing breakers.
+	 * @param FailureThreshold is an int with the consecutive failures that
+	 * open the breaker.
+	 * @param OpenTimeout is a long with the milliseconds the breaker stays open.
+	 * @param HalfOpenRequests is an int with the number of trial requests
+	 * allowed when half open.
+	 */
+	public static synchronized void configure(int FailureThreshold, long OpenTimeout, int HalfOpenRequests)
+	{
+		defaultFailureThreshold = FailureThreshold;
+		defaultOpenTimeout = OpenTimeout;
+		defaultHalfOpenRequests = HalfOpenRequests;
+		for(httpCircuitBreaker cb : breakers.values())
+		{
+			synchronized(cb)
+			{
+				cb.failureThreshold = FailureThreshold;
+				cb.openTimeout = OpenTimeout;
+				cb.halfOpenRequests = HalfOpenRequests;
+			}
+		}
+	}
+
+	/**
+	 * Gets all the breakers.
+	 * @return A List of httpCircuitBreaker objects.
+	 */
+	public static List<httpCircuitBreaker> getBreakers()
+	{
+		return new ArrayList<httpCircuitBreaker>(breakers.values());
+	}
+
+	/**
+	 * Removes all the breakers.
+	 */
+	public static void reset()
+	{
+		breakers.clear();
+	}
+
+	/**
+	 * Checks if a request is allowed. If the breaker is open and the open
+	 * timeout has passed it moves to half open. Every allowed request must
+	 * be followed by a call to recordSuccess or recordFailure.
+	 * @return A boolean with true if allowed and false if rejected.
+	 */
+	public synchronized boolean allowRequest()
+	{
+		if(this.state == breakerState.OPEN && System.currentTimeMillis() - this.openedAt >= this.openTimeout)
+		{
+			this.state = breakerState.HALF_OPEN;
+			this.halfOpenInFlight = 0;
+		}
+
+		if(this.state == breakerState.CLOSED) return true;
+		if(this.state == breakerState.HALF_OPEN && this.halfOpenInFlight < this.halfOpenRequests)
+		{
+			this.halfOpenInFlight++;
+			return true;
+		}
+
+		this.rejected++;
+		return false;
+	}
+
+	/**
+	 * Records a successful request. A success when half open closes the breaker.
+	 */
+	public synchronized void recordSuccess()
+	{
+		this.successes++;
+		this.consecutiveFailures = 0;
+		if(this.state == breakerState.HALF_OPEN)
+		{
+			this.state = breakerState.CLOSED;
+			this.halfOpenInFlight = 0;
+		}
+	}
+
+	/**
+	 * Records a failed request. A failure when half open or reaching the
+	 * failure threshold opens the breaker.
+	 */
+	public synchronized void recordFailure()
+	{
+		this.failures++;
+		this.consecutiveFailures++;
+		if(this.state == breakerState.HALF_OPEN || (this.state == breakerState.CLOSED && this.consecutiveFailures >= this.failureThreshold))
+		{
+			this.state = breakerState.OPEN;
+			this.openedAt = System.currentTimeMillis();
+			this.halfOpenInFlight = 0;
+			this.opened++;
+		}
+	}
+
+	/**
+	 * Gets the host name and port.
+	 * @return A String with the host.
+	 */
+	public String getHost()
+	{
+		return this.host;
+	}
+
+	/**
+	 * Gets the breaker state.
+	 * @return A breakerState with the state.
+	 */
+	public synchronized breakerState getState()
+	{
+		return this.state;
+	}
+
+	/**
+	 * Gets the number of successful requests.
+	 * @return A long with the number of successes.
+	 */
+	public synchronized long getSuccesses()
+	{
+		return this.successes;
+	}
+
+	/**
+	 * Gets the number of failed requests.
+	 * @return A long with the number of failures.
+	 */
+	public synchronized long getFailures()
+	{
+		return this.failures;
+	}
+
+	/**
+	 * Gets the number of requests rejected while the breaker was open.
+	 * @return A long with the number of rejected requests.
+	 */
+	public synchronized long getRejected()
+	{
+		return this.rejected;
+	}
+
+	/**
+	 * Gets the number of times the breaker has opened.
+	 * @return A long with the number of times opened.
+	 */
+	public synchronized long getOpened()
+	{
+		return this.opened;
+	}
+}
@@ -16,25 +16,37 @@
 
 package com.lehman.ic9.net;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.script.ScriptException;
 
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpRequest;
@@ -44,6 +56,7 @@ import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.cache.HttpCacheContext;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
@@ -62,6 +75,7 @@ import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.ByteArrayBody;
@@ -72,6 +86,7 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.cache.CachingHttpClients;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpConnectionParams;
@@ -82,6 +97,7 @@ import org.apache.http.util.EntityUtils;
 import com.lehman.ic9.ic9engine;
 import com.lehman.ic9.ic9exception;
 import com.lehman.ic9.ic9util;
+import com.lehman.ic9.common.hex;
 
 /**
  * HTTP client class implements a HTTP client managing 
@@ -127,6 +143,9 @@ public class httpClient
 	}
 	
 	private CookieStore cs = null;
+	
+	/** JS cookie list handed to the script or null if not read since the last request. */
+	private Object jsCookies = null;
 	private CredentialsProvider cp = null;
 	private Builder rcb = null;
 	
@@ -145,6 +164,24 @@ public class httpClient
 	/** Allow self signed certificates. */
 	private boolean allowSelfSigned = false;
 	
+	/** Use the process wide pooled connection manager. */
+	private boolean sharedPool = false;
+	
+	/** Request compressed responses and decompress them. */
+	private boolean contentCompression = true;
+	
+	/** Use the process wide response cache. */
+	private boolean cache = false;
+	
+	/** Retry policy or null to not retry. */
+	private httpRetryPolicy retryPolicy = null;
+	
+	/** Use the per host circuit breaker. */
+	private boolean circuitBreaker = false;
+	
+	/** Buffer size used to read response bodies. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
 	/**
 	 * Default constructor takes the reference to the script engine to reference 
 	 * later and the request URL string.
@@ -389,6 +426,173 @@ public class httpClient
         return this.performRequest(false, httpReqType.DELETE);
     }
 	
+    /**
+     * Performs a HTTP GET call and streams the response body straight to 
+     * the provided file instead of reading it into memory. The body is 
+     * written to DestPath + '.part' and renamed to DestPath once it's 
+     * complete. The file is only written for 2xx responses. The returned 
+     * response object has 'file' set to the file path, 'bytes' set to 
+     * the number of bytes written and if a checksum algorithm is provided 
+     * 'checksum' set to the hex encoded digest of the body.
+     * @param DestPath is a String with the file to write.
+     * @param ChecksumAlg is a String with the MessageDigest algorithm to 
+     * compute while writing (such as 'SHA-256' or 'MD5') or null for none.
+     * @return A Javascript object with the response.
+     * @throws ic9exception Exception
+     * @throws NoSuchMethodException Exception
+     * @throws ScriptException Exception
+     */
+    public Map<String,Object> download(String DestPath, String ChecksumAlg) throws ic9exception, NoSuchMethodException, ScriptException
+    {
+        final File dest = new File(DestPath);
+        final File part = new File(DestPath + ".part");
+        final MessageDigest md;
+        try { md = ChecksumAlg != null ? MessageDigest.getInstance(ChecksumAlg) : null; }
+        catch (NoSuchAlgorithmException e) { throw new ic9exception("httpClient.download(): No such checksum algorithm '" + ChecksumAlg + "'."); }
+        
+        final long[] written = { -1 };
+        httpBodyHandler handler = new httpBodyHandler()
+        {
+            @Override
+            public boolean handle(httpClientResponse Resp, InputStream Is) throws IOException, ic9exception
+            {
+                int status = Resp.statusLine.getStatusCode();
+                if(status < 200 || status > 299) return true;
+                
+                FileOutputStream fos = new FileOutputStream(part);
+                FileChannel fc = fos.getChannel();
+                try
+                {
+                    byte[] buff = new byte[BUFFER_SIZE];
+                    long total = 0;
+                    int read = -1;
+                    while((read = Is.read(buff)) != -1)
+                    {
+                        if(md != null) md.update(buff, 0, read);
+                        ByteBuffer bb = ByteBuffer.wrap(buff, 0, read);
+                        while(bb.hasRemaining()) fc.write(bb);
+                        total += read;
+                    }
+                    fc.force(false);
+                    written[0] = total;
+                }
+                finally
+                {
+                    fc.close();
+                    fos.close();
+                }
+                return true;
+            }
+        };
+        
+        HttpRequestBase httpReq = this.prepareRequest(httpReqType.GET);
+        httpClientResponse resp = null;
+        try
+        {
+            resp = this.executeRequest(httpReq, handler);
+        }
+        finally
+        {
+            if(written[0] < 0 && part.exists()) part.delete();
+        }
+        
+        Map<String,Object> ret = this.getResponseObj(resp, false);
+        if(written[0] >= 0)
+        {
+            try { Files.move(part.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING); }
+            catch (IOException e) { throw new ic9exception("httpClient.download(): Failed to move downloaded file to '" + DestPath + "'. " + e.getMessage()); }
+            ret.put("file", dest.getPath());
+            ret.put("bytes", (double)written[0]);
+            if(md != null) ret.put("checksum", hex.encode(md.digest()));
+        }
+        return ret;
+    }
+    
+    /**
+     * Performs a HTTP GET call and calls the provided callback with each 
+     * chunk of the response body as it's read instead of reading the whole 
+     * body into memory. The callback is called with a Buffer object with 
+     * the chunk data and the offset of the chunk in the body. If the 
+     * callback returns false no more of the body is read. The returned 
+     * response object has 'bytes' set to the number of bytes read.
+     * @param Callback is a Javascript function to call for each chunk.
+     * @param ChunkSize is an int with the max chunk size in bytes.
+     * @return A Javascript object with the response.
+     * @throws ic9exception Exception
+     * @throws NoSuchMethodException Exception
+     * @throws ScriptException Exception
+     */
+    public Map<String,Object> getChunked(final Object Callback, int ChunkSize) throws ic9exception, NoSuchMethodException, ScriptException
+    {
+        final int csize = ChunkSize > 0 ? ChunkSize : BUFFER_SIZE;
+        final long[] total = { 0 };
+        httpBodyHandler handler = new httpBodyHandler()
+        {
+            @Override
+            public boolean handle(httpClientResponse Resp, InputStream Is) throws IOException, ic9exception
+            {
+                byte[] buff = new byte[csize];
+                int read = -1;
+                try
+                {
+                    while((read = readFully(Is, buff)) > 0)
+                    {
+                        Map<String,Object> chunk = eng.newObj("Buffer");
+                        chunk.put("data", read == buff.length ? buff.clone() : Arrays.copyOf(buff, read));
+                        Object ret = eng.invokeMethod(Callback, "call", null, chunk, (double)total[0]);
+                        total[0] += read;
+                        if(ret instanceof Boolean && !((Boolean)ret)) return false;
+                    }
+                    return true;
+                }
+                catch (NoSuchMethodException e) { throw new ic9exception("httpClient.getChunked(): No such method exception. " + e.getMessage()); }
+                catch (ScriptException e) { throw new ic9exception("httpClient.getChunked(): Script exception. " + e.getMessage()); }
+            }
+        };
+        
+        HttpRequestBase httpReq = this.prepareRequest(httpReqType.GET);
+        httpClientResponse resp = this.executeRequest(httpReq, handler);
+        Map<String,Object> ret = this.getResponseObj(resp, false);
+        ret.put("bytes", (double)total[0]);
+        return ret;
+    }
+    
+    /**
+     * Starts a HTTP request on a worker thread and returns a future for the 
+     * result. Async requests use the connection manager of the client, which 
+     * is thread safe but allows two connections per host unless the shared 
+     * pool is set with setSharedPool. Headers, cookies and the request body are 
+     * read when the request is started and the Javascript response object is 
+     * created when the result is read from the future.
+     * @param Method is a String with the request method. (GET, POST, PUT or DELETE)
+     * @param GetString is a boolean with true to get the content as a String 
+     * and false for a Buffer.
+     * @param PostTypeStr A String with the post type for POST and PUT requests 
+     * or null. (See postString for details.)
+     * @param Obj Is an Object with the POST or PUT data or null.
+     * @param ContentType is a String with the request content type or null.
+     * @param Exec is the ExecutorService to run the request on or null for 
+     * the shared async executor.
+     * @return A httpFuture object.
+     * @throws ic9exception Exception
+     * @throws NoSuchMethodException Exception
+     * @throws ScriptException Exception
+     */
+    public httpFuture requestAsync(String Method, boolean GetString, String PostTypeStr, Object Obj, String ContentType, ExecutorService Exec) throws ic9exception, NoSuchMethodException, ScriptException
+    {
+        httpReqType reqType = null;
+        try { reqType = httpReqType.valueOf(Method.toUpperCase()); }
+        catch (IllegalArgumentException e) { throw new ic9exception("httpClient.requestAsync(): Unexpected method '" + Method + "', expecting 'GET', 'POST', 'PUT' or 'DELETE'."); }
+        
+        if(reqType == httpReqType.POST || reqType == httpReqType.PUT)
+        {
+            try { this.setPostInfo(PostTypeStr, Obj, ContentType); }
+            catch (UnsupportedEncodingException e) { throw new ic9exception("httpClient.requestAsync(): Unsupported encoding exception. " + e.getMessage()); }
+        }
+        
+        return this.performRequestAsync(GetString, reqType, Exec);
+    }
+	
 	/*
 	 * GETTERS
 	 */
@@ -407,9 +611,11 @@ public class httpClient
 	 * @return A list of JS cookie objects.
 	 * @throws NoSuchMethodException Exception
 	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
 	 */
- 	public Object getCookies() throws NoSuchMethodException, ScriptException
+ 	public Object getCookies() throws NoSuchMethodException, ScriptException, ic9exception
 	{
+		this.syncCookies();
 		Object ret = this.eng.newList();
 		List<Cookie> cookies = this.cs.getCookies();
 		for(Cookie c : cookies)
@@ -419,6 +625,47 @@ public class httpClient
 		return ret;
 	}
 	
+	/**
+	 * Gets the list of 'cookie' objects backing the Javascript cookies 
+	 * property. The list is only built from the cookie store when the 
+	 * script reads it. Since the script may change the list, it's 
+	 * copied back to the cookie store before the next request and 
+	 * built again on the next read.
+	 * @return A list of JS cookie objects.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public Object getCookieList() throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		if(this.jsCookies == null) this.jsCookies = this.getCookies();
+		return this.jsCookies;
+	}
+	
+	/**
+	 * Sets the list of 'cookie' objects backing the Javascript cookies 
+	 * property. The list replaces the cookies in the cookie store before 
+	 * the next request.
+	 * @param CookieList is a list of JS cookie objects.
+	 */
+	public void setCookieList(Object CookieList)
+	{
+		this.jsCookies = CookieList;
+	}
+	
+	/**
+	 * Adds the provided Javascript cookie object to the cookie store.
+	 * @param CookieObj is a JS cookie object.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	public void addCookie(Map<String, Object> CookieObj) throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		this.syncCookies();
+		this.cs.addCookie(this.setApacheCookie(CookieObj));
+	}
+	
 	/**
 	 * Gets a bool with the flag for accept self signed certificates.
 	 * @return A bool with the accept self-signed cert flag.
@@ -546,14 +793,16 @@ public class httpClient
 	}
 	
 	/**
-	 * Adds the provided cookie to the provided cookies object.
+	 * Adds the provided cookie to the cookie store.
 	 * @param C is an Apache Cookie object to add.
 	 * @throws NoSuchMethodException Exception
 	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
 	 */
-	public void setCookie(Cookie C) throws NoSuchMethodException, ScriptException
+	public void setCookie(Cookie C) throws NoSuchMethodException, ScriptException, ic9exception
 	{
-		this.eng.invokeMethod(this.jsobj.get("cookies"), "push", this.getApacheCookie(C));
+		this.syncCookies();
+		this.cs.addCookie(C);
 	}
 	
 	/**
@@ -640,6 +889,108 @@ public class httpClient
 		this.rcb.setRelativeRedirectsAllowed(RelativeRedirectsAllowed);
 	}
 	
+	/**
+	 * Sets whether the client uses the process wide pooled connection 
+	 * manager. When set, keep alive connections are reused across 
+	 * httpClient instances, engines and threads. This must be set 
+	 * before the first request.
+	 * @param SharedPool is a boolean with true to use the shared pool.
+	 */
+	public void setSharedPool(boolean SharedPool)
+	{
+		this.sharedPool = SharedPool;
+	}
+	
+	/**
+	 * Gets whether the client uses the process wide pooled connection 
+	 * manager.
+	 * @return A boolean with true if using the shared pool.
+	 */
+	public boolean getSharedPool()
+	{
+		return this.sharedPool;
+	}
+	
+	/**
+	 * Sets the retry policy for failed requests. (See httpRetryPolicy.)
+	 * @param RetryPolicy is a httpRetryPolicy or null to not retry.
+	 */
+	public void setRetryPolicy(httpRetryPolicy RetryPolicy)
+	{
+		this.retryPolicy = RetryPolicy;
+	}
+	
+	/**
+	 * Gets the retry policy for failed requests.
+	 * @return A httpRetryPolicy or null if not set.
+	 */
+	public httpRetryPolicy getRetryPolicy()
+	{
+		return this.retryPolicy;
+	}
+	
+	/**
+	 * Sets whether requests go through the per host circuit breaker. (See 
+	 * httpCircuitBreaker.) When the breaker for the host is open requests 
+	 * fail right away with an exception.
+	 * @param CircuitBreaker is a boolean with true to use the circuit breaker.
+	 */
+	public void setCircuitBreaker(boolean CircuitBreaker)
+	{
+		this.circuitBreaker = CircuitBreaker;
+	}
+	
+	/**
+	 * Gets whether requests go through the per host circuit breaker.
+	 * @return A boolean with true if using the circuit breaker.
+	 */
+	public boolean getCircuitBreaker()
+	{
+		return this.circuitBreaker;
+	}
+	
+	/**
+	 * Sets whether the client uses the process wide response cache. (See 
+	 * httpCache.) This must be set before the first request.
+	 * @param Cache is a boolean with true to use the cache.
+	 */
+	public void setCache(boolean Cache)
+	{
+		this.cache = Cache;
+	}
+	
+	/**
+	 * Gets whether the client uses the process wide response cache.
+	 * @return A boolean with true if using the cache.
+	 */
+	public boolean getCache()
+	{
+		return this.cache;
+	}
+	
+	/**
+	 * Sets whether the client requests compressed responses with the 
+	 * Accept-Encoding header and transparently decompresses gzip and 
+	 * deflate response bodies. This is on by default. When a body is 
+	 * decompressed the Content-Encoding and Content-Length headers are 
+	 * removed from the response.
+	 * @param ContentCompression is a boolean with true to enable and false 
+	 * to disable.
+	 */
+	public void setContentCompression(boolean ContentCompression)
+	{
+		this.contentCompression = ContentCompression;
+	}
+	
+	/**
+	 * Gets whether the client requests and decompresses compressed responses.
+	 * @return A boolean with true if enabled and false if not.
+	 */
+	public boolean getContentCompression()
+	{
+		return this.contentCompression;
+	}
+	
 	/**
 	 * Sets the socket timeout in milliseconds.
 	 * @param Timeout is an int with the timeout.
@@ -652,6 +1003,29 @@ public class httpClient
 	/*
 	 * Private methods.
 	 */
+	/**
+	 * Replaces the cookies in the cookie store with the Javascript cookie 
+	 * list if the script has read or set it since the last request.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 * @throws ic9exception Exception
+	 */
+	private void syncCookies() throws NoSuchMethodException, ScriptException, ic9exception
+	{
+		if(this.jsCookies == null) return;
+		ScriptObjectMirror jscookies = (ScriptObjectMirror) this.jsCookies;
+		this.jsCookies = null;
+		
+		this.cs.clear();
+		int len = ((Number)jscookies.getMember("length")).intValue();
+		for(int i = 0; i < len; i++)
+		{
+			@SuppressWarnings("unchecked")
+			Map<String, Object> cobj = (Map<String, Object>)jscookies.getSlot(i);
+			this.cs.addCookie(this.setApacheCookie(cobj));
+		}
+	}
+	
 	/**
 	 * Build client method is used initialize the HTTP client and is 
 	 * called from perform request.
@@ -660,15 +1034,30 @@ public class httpClient
 	 * @throws KeyStoreException Exception
 	 * @throws KeyManagementException Exception
 	 * @throws AuthenticationException Exception
+	 * @throws ic9exception Exception
 	 */
-	private void buildClient(HttpRequest httpGet) throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException, AuthenticationException
+	private void buildClient(HttpRequest httpGet) throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException, AuthenticationException, ic9exception
 	{
-		this.hcb = HttpClients.custom();
+		if(this.cache)
+		{
+			httpCache hc = httpCache.getInstance();
+			this.hcb = CachingHttpClients.custom()
+					.setCacheConfig(hc.getCacheConfig())
+					.setHttpCacheStorage(hc.getStorage());
+		}
+		else this.hcb = HttpClients.custom();
 		this.hcb.setDefaultCookieStore(this.cs);
 		this.hcb.setDefaultCredentialsProvider(this.cp);
 		this.hcb.setDefaultRequestConfig(this.rcb.build());
+		if(!this.contentCompression) this.hcb.disableContentCompression();
 		
-		if(this.allowSelfSigned)
+		if(this.sharedPool)
+		{
+			// SSL and socket settings belong to the shared manager.
+			this.hcb.setConnectionManager(httpConnectionPool.getInstance().getManager(this.allowSelfSigned));
+			this.hcb.setConnectionManagerShared(true);
+		}
+		else if(this.allowSelfSigned)
 		{
 			SSLContextBuilder sslBuilder = new SSLContextBuilder();
 			sslBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
@@ -678,7 +1067,7 @@ public class httpClient
 		
 		this.buildAuth(httpGet);
 		
-		if (this.tcpNoDelay) {
+		if (this.tcpNoDelay && !this.sharedPool) {
             SocketConfig socketConfig = SocketConfig.custom().setTcpNoDelay(true).build();
             this.hcb.setDefaultSocketConfig(socketConfig);
         }
@@ -708,7 +1097,7 @@ public class httpClient
 	 * Performs the actual HTTP request. This method is called from the GET and POST 
 	 * methods. 
 	 * @param getString is a boolean flag with true for string and false for binary.
-	 * @param post is a boolean flag with true for post and false for get.
+	 * @param reqType is a httpReqType with the request method.
 	 * @return A Javascript object with the results of the request.
 	 * @throws ic9exception Exception
 	 * @throws NoSuchMethodException Exception
@@ -716,28 +1105,54 @@ public class httpClient
 	 */
 	private Map<String,Object> performRequest(boolean getString, httpReqType reqType) throws ic9exception, NoSuchMethodException, ScriptException
 	{
-		Map<String,Object> ret = this.eng.newObj(null);
+		HttpRequestBase httpReq = this.prepareRequest(reqType);
+		httpClientResponse resp = this.executeRequest(httpReq, null);
+		return this.getResponseObj(resp, getString);
+	}
+	
+	/**
+	 * Performs the HTTP request on the shared async executor and returns 
+	 * a future for the result. The request is prepared on the calling 
+	 * thread and the Javascript response object is created when the 
+	 * result is read from the future.
+	 * @param getString is a boolean flag with true for string and false for binary.
+	 * @param reqType is a httpReqType with the request method.
+	 * @param Exec is the ExecutorService to run the request on or null 
+	 * for the shared async executor.
+	 * @return A httpFuture object.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	private httpFuture performRequestAsync(boolean getString, httpReqType reqType, ExecutorService Exec) throws ic9exception, NoSuchMethodException, ScriptException
+	{
+		// The cookie store is thread safe so the request updates it directly.
+		HttpRequestBase httpReq = this.prepareRequest(reqType);
 		
+		ExecutorService exec = Exec != null ? Exec : httpAsync.getExecutor();
+		return new httpFuture(this, new httpRetryFuture(this, httpReq, exec).start(), getString);
+	}
+	
+	/**
+	 * Creates the HTTP request with the headers, body and credentials set and 
+	 * sets the cookies from the Javascript object. This must be called on the 
+	 * script thread.
+	 * @param reqType is a httpReqType with the request method.
+	 * @return A HttpRequestBase object with the request.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	private HttpRequestBase prepareRequest(httpReqType reqType) throws ic9exception, NoSuchMethodException, ScriptException
+	{
 		HttpRequestBase httpReq = null;
 		if(reqType == httpReqType.GET) httpReq = new HttpGet(this.u.toString());
 		else if (reqType == httpReqType.POST) httpReq = new HttpPost(this.u.toString());
 		else if (reqType == httpReqType.PUT) httpReq = new HttpPut(this.u.toString());
 		else if (reqType == httpReqType.DELETE) httpReq = new HttpDelete(this.u.toString());
 		
-		// Set cookies from JS object.
-		this.cs.clear();
-		Object[] jscookies = (Object[]) this.eng.getJavaArray(this.jsobj.get("cookies"));
-		for(Object tobj : jscookies)
-		{
-			@SuppressWarnings("unchecked")
-			Map<String, Object> cobj = (Map<String, Object>)tobj;
-			this.cs.addCookie(this.setApacheCookie(cobj));
-		}
-		
-		HttpClientContext ctx = HttpClientContext.create();
-		ctx.setCookieStore(this.cs);
-		ctx.setCredentialsProvider(this.cp);
-		ctx.setRequestConfig(this.rcb.build());
+		// Pick up changes to a cookie list the script has read.
+		this.syncCookies();
 		
 		// Set headers.
         @SuppressWarnings("unchecked")
@@ -748,54 +1163,215 @@ public class httpClient
             httpReq.addHeader(key, val);
         }
         
-		CloseableHttpResponse resp = null;
 		try
-		{	
+		{
 			if (this.cli == null)
 			{
 			    this.buildClient(httpReq);
 			}
 			if(reqType == httpReqType.POST && this.respEnt != null) ((HttpPost)httpReq).setEntity(this.respEnt);
 			else if (reqType == httpReqType.PUT && this.respEnt != null) ((HttpPut)httpReq).setEntity(this.respEnt);
+		}
+		catch (KeyManagementException e) { throw new ic9exception("httpClient.prepareRequest(): Key management exception. " + e.getMessage()); }
+		catch (NoSuchAlgorithmException e) { throw new ic9exception("httpClient.prepareRequest(): No such algorithm exception. " + e.getMessage()); }
+		catch (KeyStoreException e) { throw new ic9exception("httpClient.prepareRequest(): Key store exception. " + e.getMessage()); }
+		catch (AuthenticationException e) { throw new ic9exception("httpClient.prepareRequest(): Authentication exception. " + e.getMessage()); }
+		finally
+		{
+			// Reset credentials
+			if(this.creds != null) { this.creds = null; this.atype = authType.NONE; }
+			if(reqType == httpReqType.POST || reqType == httpReqType.PUT) this.respEnt = null;
+		}
+		
+		return httpReq;
+	}
+	
+	/**
+	 * Executes the provided request and reads the response, retrying as 
+	 * allowed by the retry policy. The calling thread sleeps between 
+	 * retries. This doesn't touch any script objects so it can be called 
+	 * from any thread.
+	 * @param httpReq is the HttpRequestBase to execute.
+	 * @param Handler is a httpBodyHandler to stream the body to or null 
+	 * to read the body into memory.
+	 * @return A httpClientResponse object with the response.
+	 * @throws ic9exception Exception
+	 */
+	private httpClientResponse executeRequest(HttpRequestBase httpReq, httpBodyHandler Handler) throws ic9exception
+	{
+		for(int attempt = 0; ; attempt++)
+		{
+			httpClientResponse ret = this.tryRequest(httpReq, Handler, attempt);
+			if(ret.retryDelay < 0) return ret;
+			
+			try { Thread.sleep(ret.retryDelay); }
+			catch (InterruptedException e) { throw new ic9exception("httpClient.performRequest(): Interrupted waiting to retry."); }
+			httpReq.reset();
+		}
+	}
+	
+	/**
+	 * Makes a single attempt of the provided request. If the attempt failed 
+	 * and can be retried, the returned response has the retry delay set and 
+	 * no body. Otherwise the body is read or passed to the handler. This 
+	 * doesn't touch any script objects so it can be called from any thread.
+	 * @param httpReq is the HttpRequestBase to execute.
+	 * @param Handler is a httpBodyHandler to stream the body to or null 
+	 * to read the body into memory.
+	 * @param Attempt is an int with the attempt number starting at 0.
+	 * @return A httpClientResponse object with the response.
+	 * @throws ic9exception Exception
+	 */
+	httpClientResponse tryRequest(HttpRequestBase httpReq, httpBodyHandler Handler, int Attempt) throws ic9exception
+	{
+		httpClientResponse ret = new httpClientResponse();
+		httpRetryPolicy rp = this.retryPolicy;
+		if(rp != null && Attempt == 0) httpRetryPolicy.recordRequest();
+		
+		httpCircuitBreaker cb = null;
+		if(this.circuitBreaker)
+		{
+			cb = httpCircuitBreaker.get(getHostKey(httpReq));
+			if(!cb.allowRequest()) throw new ic9exception("httpClient.performRequest(): Circuit breaker is open for host '" + cb.getHost() + "'.");
+		}
+		
+		boolean bodyStarted = false;
+		boolean recorded = false;
+		HttpClientContext ctx = this.cache ? HttpCacheContext.create() : HttpClientContext.create();
+		ctx.setCookieStore(this.cs);
+		ctx.setCredentialsProvider(this.cp);
+		ctx.setRequestConfig(this.rcb.build());
+		
+		CloseableHttpResponse resp = null;
+		try
+		{	
 			resp = this.cli.execute(httpReq, ctx);
 			
-			HttpEntity ent = resp.getEntity();
+			ret.locale = resp.getLocale();
+			ret.protocol = resp.getProtocolVersion();
+			ret.statusLine = resp.getStatusLine();
+			ret.headers = resp.getAllHeaders();
 			
-			this.getResponseInfo(ret, resp);
+			int status = ret.statusLine.getStatusCode();
+			if(cb != null)
+			{
+				if(status >= 500) cb.recordFailure();
+				else cb.recordSuccess();
+				recorded = true;
+			}
 			
+			if(rp != null && rp.canRetry(httpReq.getMethod(), status, Attempt) && httpRetryPolicy.acquireRetry())
+			{
+				EntityUtils.consume(resp.getEntity());
+				ret.retryDelay = rp.getDelay(Attempt, getRetryAfter(resp));
+				return ret;
+			}
+			
+			if(this.cache)
+			{
+				ret.cacheStatus = ((HttpCacheContext)ctx).getCacheResponseStatus();
+				httpCache.getInstance().record(ret.cacheStatus);
+			}
+			
+			HttpEntity ent = resp.getEntity();
 			if (ent != null) {
-    			if(getString) ret.put("content", this.getContentString(ent.getContent()));
-    			else
-    			{
-    				Map<String,Object> obj = this.eng.newObj("Buffer");
-    				obj.put("data", this.getContentBinary(ent.getContent()));
-    				ret.put("content", obj);
-    			}
-    			
-    			EntityUtils.consume(ent);
+				if(Handler == null)
+				{
+					ret.charset = getCharset(ent);
+					ret.body = this.getContentBinary(ent.getContent(), ent.getContentLength());
+					EntityUtils.consume(ent);
+				}
+				else
+				{
+					bodyStarted = true;
+					if(Handler.handle(ret, ent.getContent())) EntityUtils.consume(ent);
+					else httpReq.abort();
+				}
 			}
 		}
 		catch (ClientProtocolException e) { throw new ic9exception("httpClient.performRequest(): Client protocol exception. " + e.getMessage()); }
-		catch (IOException e) { throw new ic9exception("httpClient.performRequest(): IO exception. " + e.getMessage()); }
-		catch (KeyManagementException e) { throw new ic9exception("httpClient.performRequest(): Key management exception. " + e.getMessage()); }
-		catch (NoSuchAlgorithmException e) { throw new ic9exception("httpClient.performRequest(): No such algorithm exception. " + e.getMessage()); }
-		catch (KeyStoreException e) { throw new ic9exception("httpClient.performRequest(): Key store exception. " + e.getMessage()); }
-		catch (AuthenticationException e) { throw new ic9exception("httpClient.performRequest(): Authentication exception. " + e.getMessage()); }
+		catch (IOException e)
+		{
+			// A body handler may have acted on part of the body so don't retry once it's called.
+			if(rp != null && !bodyStarted && rp.canRetry(httpReq.getMethod(), e, Attempt) && httpRetryPolicy.acquireRetry())
+			{
+				ret.retryDelay = rp.getDelay(Attempt, -1);
+				return ret;
+			}
+			throw new ic9exception("httpClient.performRequest(): IO exception. " + e.getMessage());
+		}
+		catch (ic9exception e) { throw e; }
 		catch (Exception e) { e.printStackTrace(); throw new ic9exception("httpClient.performRequest(): Unhandled exception. " + e.getMessage()); }
 		finally
 		{
-			// Reset credentials
-			if(this.creds != null) { this.creds = null; this.atype = authType.NONE; }
+			// Every attempt allowed by the breaker records an outcome, failing if no status was received.
+			if(cb != null && !recorded) cb.recordFailure();
+			
 			if(resp != null)
 			{
 				try { resp.close(); } 
 				catch (IOException e) { }
 			}
-			if(reqType == httpReqType.POST || reqType == httpReqType.PUT) this.respEnt = null;
+			
+			// Release the connection.
+			httpReq.releaseConnection();
 		}
 		
-		// Release the connection.
-		httpReq.releaseConnection();
+		return ret;
+	}
+	
+	/**
+	 * Gets the host name and port of the provided request for the circuit breaker.
+	 * @param httpReq is the HttpRequestBase.
+	 * @return A String with the host and port.
+	 */
+	private static String getHostKey(HttpRequestBase httpReq)
+	{
+		URI uri = httpReq.getURI();
+		int port = uri.getPort();
+		if(port == -1) port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+		return uri.getHost() + ":" + port;
+	}
+	
+	/**
+	 * Gets the Retry-After header of the provided response in milliseconds.
+	 * Only the delay in seconds form is supported.
+	 * @param resp is the CloseableHttpResponse.
+	 * @return A long with the milliseconds or -1 if not set.
+	 */
+	private static long getRetryAfter(CloseableHttpResponse resp)
+	{
+		Header hdr = resp.getFirstHeader("Retry-After");
+		if(hdr == null) return -1;
+		try { return Long.parseLong(hdr.getValue().trim()) * 1000; }
+		catch (NumberFormatException e) { return -1; }
+	}
+	
+	/**
+	 * Creates the Javascript response object from the provided response and 
+	 * updates the cookies of the Javascript client object. This must be 
+	 * called on the script thread.
+	 * @param resp is the httpClientResponse object.
+	 * @param getString is a boolean flag with true for string and false for binary.
+	 * @return A Javascript object with the response.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	Map<String,Object> getResponseObj(httpClientResponse resp, boolean getString) throws ic9exception, NoSuchMethodException, ScriptException
+	{
+		Map<String,Object> ret = this.eng.newObj(null);
+		this.getResponseInfo(ret, resp);
+		
+		if (resp.body != null) {
+			if(getString) ret.put("content", getContentString(resp.body, resp.charset));
+			else
+			{
+				Map<String,Object> obj = this.eng.newObj("Buffer");
+				obj.put("data", resp.body);
+				ret.put("content", obj);
+			}
+		}
 		
 		return ret;
 	}
@@ -803,72 +1379,114 @@ public class httpClient
 	/**
 	 * Updates the Javascript response object.
 	 * @param info is the Javascript response object to update.
-	 * @param resp is a ClosableHttpResponse object with the actual response.
+	 * @param resp is a httpClientResponse object with the actual response.
 	 * @throws NoSuchMethodException Exception
 	 * @throws ScriptException Exception
 	 */
-	private void getResponseInfo(Map<String,Object> info, CloseableHttpResponse resp) throws NoSuchMethodException, ScriptException
+	private void getResponseInfo(Map<String,Object> info, httpClientResponse resp) throws NoSuchMethodException, ScriptException
 	{
-		// Locale
-		Locale jloc = resp.getLocale();
+		// Locale, responses created by the cache don't have one.
+		Locale jloc = resp.locale != null ? resp.locale : Locale.getDefault();
 		info.put("locale", jloc.toLanguageTag());
 		
-		info.put("protocol", resp.getProtocolVersion().toString());
-		info.put("protocolMajor", resp.getProtocolVersion().getMajor());
-		info.put("protocolMinor", resp.getProtocolVersion().getMinor());
-		info.put("statusLine", resp.getStatusLine().toString());
-		info.put("statusCode", resp.getStatusLine().getStatusCode());
-		info.put("statusReasonPhrase", resp.getStatusLine().getReasonPhrase());
+		info.put("protocol", resp.protocol.toString());
+		info.put("protocolMajor", resp.protocol.getMajor());
+		info.put("protocolMinor", resp.protocol.getMinor());
+		info.put("statusLine", resp.statusLine.toString());
+		info.put("statusCode", resp.statusLine.getStatusCode());
+		info.put("statusReasonPhrase", resp.statusLine.getReasonPhrase());
 		
 		// Headers.
 		Map<String,Object> hmap = this.eng.newObj(null);
-		Header hdrs[] = resp.getAllHeaders();
-		for(Header hdr : hdrs)
+		for(Header hdr : resp.headers)
 		{
 			hmap.put(hdr.getName(), hdr.getValue());
 		}
 		info.put("headers", hmap);
 		
-		// Cookies
-		Object clist = this.eng.newList();
-		this.jsobj.put("cookies", clist);
-		for(Cookie C : this.cs.getCookies())
+		// Cache status.
+		if(resp.cacheStatus != null) info.put("cacheStatus", resp.cacheStatus.name());
+	}
+	
+	/**
+	 * Decodes the result content as a string in one pass with the 
+	 * provided charset. Line endings are kept as they are.
+	 * @param body is a byte[] with the response body.
+	 * @param cs is the Charset of the response or null for UTF-8.
+	 * @return A String with the result content.
+	 */
+	private static String getContentString(byte[] body, Charset cs)
+	{
+		return new String(body, cs != null ? cs : StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Gets the charset from the Content-Type header of the provided entity.
+	 * @param ent is the HttpEntity of the response.
+	 * @return A Charset or null if the entity has no charset or it isn't 
+	 * supported.
+	 */
+	private static Charset getCharset(HttpEntity ent)
+	{
+		try
 		{
-			Object nc = this.getApacheCookie(C);
-			this.eng.invokeMethod(clist, "push", nc);
+			ContentType ct = ContentType.get(ent);
+			return ct != null ? ct.getCharset() : null;
 		}
+		catch (Exception e) { return null; }
 	}
 	
 	/**
-	 * Called from perform request method to get the result content 
-	 * as a string.
-	 * @param is an InputStream object with the stream of the response.
-	 * @return A String with the result content.
+	 * Reads from the provided stream until the buffer is full or the 
+	 * end of the stream is reached.
+	 * @param is is the InputStream to read from.
+	 * @param buff is a byte[] to read into.
+	 * @return An int with the number of bytes read. 0 at the end of the stream.
 	 * @throws IOException Exception
 	 */
-	private String getContentString(InputStream is) throws IOException
+	private static int readFully(InputStream is, byte[] buff) throws IOException
 	{
-		BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-		StringBuilder sb = new StringBuilder();
-		String line = null;
-		while ((line = reader.readLine()) != null) { sb.append(line); }
-		return sb.toString();
+		int total = 0;
+		int read = 0;
+		while(total < buff.length && (read = is.read(buff, total, buff.length - total)) != -1)
+		{
+			total += read;
+		}
+		return total;
 	}
 	
 	/**
 	 * Called from perform request method to get the result content
-	 * as a byte array.
+	 * as a byte array. When the content length is known the body is 
+	 * read directly into an array of that size.
 	 * @param is an InputStream object with the stream of the response.
+	 * @param len is a long with the content length or less than 0 if unknown.
 	 * @return A byte[] with the result content.
 	 * @throws IOException Exception
 	 * @throws ic9exception Exception
 	 */
-	private byte[] getContentBinary(InputStream is) throws IOException, ic9exception
+	private byte[] getContentBinary(InputStream is, long len) throws IOException, ic9exception
 	{
 		byte[] ret = null;
 		int read = -1;
-		byte buff[] = new byte[1024];
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte buff[] = null;
+		ByteArrayOutputStream bos = null;
+		
+		if(len >= 0 && len < Integer.MAX_VALUE - 8)
+		{
+			ret = new byte[(int)len];
+			int total = readFully(is, ret);
+			if(total < ret.length) return Arrays.copyOf(ret, total);
+			
+			// Content-Length was short, read the rest.
+			if((read = is.read()) == -1) return ret;
+			bos = new ByteArrayOutputStream(ret.length + BUFFER_SIZE);
+			bos.write(ret);
+			bos.write(read);
+		}
+		else bos = new ByteArrayOutputStream(BUFFER_SIZE);
+		
+		buff = new byte[BUFFER_SIZE];
 		
 		while((read = is.read(buff)) != -1)
 		{
@@ -920,8 +1538,9 @@ public class httpClient
 				C.setDomain("");
 			
 			// Expiry
-			if(jobj.containsKey("expiry") && ((int)jobj.get("expiry")) != -1)
-				C.setExpiryDate(new Date((int)jobj.get("expiry")));
+			// (Expiry read from a response cookie is a long.)
+			if(jobj.containsKey("expiry") && ((Number)jobj.get("expiry")).longValue() != -1)
+				C.setExpiryDate(new Date(((Number)jobj.get("expiry")).longValue()));
 			else
 				C.setExpiryDate(ic9util.addDays(new Date(), 1));
 			
@@ -932,7 +1551,7 @@ public class httpClient
 			if(jobj.containsKey("secure")) C.setSecure((boolean)jobj.get("secure"));
 			
 			// Version
-			if(jobj.containsKey("version")) C.setVersion((int)jobj.get("version"));
+			if(jobj.containsKey("version")) C.setVersion(((Number)jobj.get("version")).intValue());
 			
 			return C;
 		}
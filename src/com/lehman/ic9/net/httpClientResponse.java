@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.cache.CacheResponseStatus;
+
+/**
+ * Class httpClientResponse holds a HTTP response read by httpClient.
+ * It doesn't reference any script objects so it can be read on a
+ * worker thread and turned into the Javascript response object later
+ * on the script thread.
+ * @author Austin Lehman
+ */
+public class httpClientResponse
+{
+	public Locale locale = null;
+	public ProtocolVersion protocol = null;
+	public StatusLine statusLine = null;
+	public Header[] headers = null;
+
+	/** Response body or null if the response had no entity. */
+	public byte[] body = null;
+	
+	/** Charset from the Content-Type header or null if not set. */
+	public Charset charset = null;
+	
+	/** Cache status if the client uses the response cache. */
+	public CacheResponseStatus cacheStatus = null;
+	
+	/** Milliseconds to wait before retrying or -1 if not retrying. */
+	public long retryDelay = -1;
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContextBuilder;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpConnectionPool holds the process wide pooled connection
+ * managers used by httpClient objects that have the shared pool turned
+ * on. Keep alive connections are then reused across httpClient instances,
+ * engines and threads instead of each client opening its own. There is
+ * one manager for normal clients and one for clients that allow self
+ * signed certificates since the SSL socket factory belongs to the
+ * manager. Idle and expired connections are closed by a background
+ * evictor thread.
+ * @author Austin Lehman
+ */
+public class httpConnectionPool
+{
+	/** httpConnectionPool instance. */
+	private static httpConnectionPool instance = null;
+
+	/** Pool settings. */
+	private int maxTotal = 200;
+	private int maxPerRoute = 20;
+	private long idleTimeout = 30000;
+	private int validateAfterInactivity = 2000;
+
+	/** Connection managers. */
+	private PoolingHttpClientConnectionManager mgr = null;
+	private PoolingHttpClientConnectionManager selfSignedMgr = null;
+
+	/** Evictors for the connection managers. */
+	private IdleConnectionEvictor evictor = null;
+	private IdleConnectionEvictor selfSignedEvictor = null;
+
+	/**
+	 * Constructor is protected and exists to defeat instantiation.
+	 */
+	protected httpConnectionPool() { }
+
+	/**
+	 * Gets an instance of the httpConnectionPool object. If the
+	 * instance doesn't exist it is created. This method is
+	 * synchronized so as not to allow 2 instances of the
+	 * object to be created.
+	 * @return The instance of httpConnectionPool.
+	 */
+	public static synchronized httpConnectionPool getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new httpConnectionPool();
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the shared connection manager, creating it on first use.
+	 * @param AllowSelfSigned is a boolean with true to get the manager
+	 * that accepts self signed certificates.
+	 * @return A PoolingHttpClientConnectionManager object.
+	 * @throws ic9exception Exception
+	 */
+	public synchronized PoolingHttpClientConnectionManager getManager(boolean AllowSelfSigned) throws ic9exception
+	{
+		if(AllowSelfSigned)
+		{
+			if(this.selfSignedMgr == null)
+			{
+				this.selfSignedMgr = this.newManager(true);
+				this.selfSignedEvictor = this.newEvictor(this.selfSignedMgr);
+			}
+			return this.selfSignedMgr;
+		}
+		else
+		{
+			if(this.mgr == null)
+			{
+				this.mgr = this.newManager(false);
+				this.evictor = this.newEvictor(this.mgr);
+			}
+			return this.mgr;
+		}
+	}
+
+	/**
+	 * Sets the max number of connections across all routes.
+	 * @param MaxTotal is an int with the max total connections.
+	 */
+	public synchronized void setMaxTotal(int MaxTotal)
+	{
+		this.maxTotal = MaxTotal;
+		if(this.mgr != null) this.mgr.setMaxTotal(MaxTotal);
+		if(this.selfSignedMgr != null) this.selfSignedMgr.setMaxTotal(MaxTotal);
+	}
+
+	/**
+	 * Gets the max number of connections across all routes.
+	 * @return An int with the max total connections.
+	 */
+	public synchronized int getMaxTotal()
+	{
+		return this.maxTotal;
+	}
+
+	/**
+	 * Sets the max number of connections for a single route. (Host and port.)
+	 * @param MaxPerRoute is an int with the max connections per route.
+	 */
+	public synchronized void setMaxPerRoute(int MaxPerRoute)
+	{
+		this.maxPerRoute = MaxPerRoute;
+		if(this.mgr != null) this.mgr.setDefaultMaxPerRoute(MaxPerRoute);
+		if(this.selfSignedMgr != null) this.selfSignedMgr.setDefaultMaxPerRoute(MaxPerRoute);
+	}
+
+	/**
+	 * Gets the max number of connections for a single route.
+	 * @return An int with the max connections per route.
+	 */
+	public synchronized int getMaxPerRoute()
+	{
+		return this.maxPerRoute;
+	}
+
+	/**
+	 * Sets the number of milliseconds a connection can be idle before
+	 * the evictor closes it. This only applies to managers created after
+	 * it's set.
+	 * @param IdleTimeout is a long with the idle timeout in milliseconds.
+	 */
+	public synchronized void setIdleTimeout(long IdleTimeout)
+	{
+		this.idleTimeout = IdleTimeout;
+	}
+
+	/**
+	 * Gets the number of milliseconds a connection can be idle.
+	 * @return A long with the idle timeout in milliseconds.
+	 */
+	public synchronized long getIdleTimeout()
+	{
+		return this.idleTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds a connection can be inactive before
+	 * it's checked for staleness when it's leased.
+	 * @param ValidateAfterInactivity is an int with the milliseconds.
+	 */
+	public synchronized void setValidateAfterInactivity(int ValidateAfterInactivity)
+	{
+		this.validateAfterInactivity = ValidateAfterInactivity;
+		if(this.mgr != null) this.mgr.setValidateAfterInactivity(ValidateAfterInactivity);
+		if(this.selfSignedMgr != null) this.selfSignedMgr.setValidateAfterInactivity(ValidateAfterInactivity);
+	}
+
+	/**
+	 * Gets the total pool stats of the normal connection manager.
+	 * @return A PoolStats object or null if the manager hasn't been created.
+	 */
+	public synchronized PoolStats getStats()
+	{
+		return this.mgr != null ? this.mgr.getTotalStats() : null;
+	}
+
+	/**
+	 * Gets the total pool stats of the self signed connection manager.
+	 * @return A PoolStats object or null if the manager hasn't been created.
+	 */
+	public synchronized PoolStats getSelfSignedStats()
+	{
+		return this.selfSignedMgr != null ? this.selfSignedMgr.getTotalStats() : null;
+	}
+
+	/**
+	 * Closes all pooled connections and stops the evictors. The managers
+	 * are created again the next time they are used.
+	 */
+	public synchronized void shutdown()
+	{
+		if(this.evictor != null) this.evictor.shutdown();
+		if(this.selfSignedEvictor != null) this.selfSignedEvictor.shutdown();
+		if(this.mgr != null) this.mgr.shutdown();
+		if(this.selfSignedMgr != null) this.selfSignedMgr.shutdown();
+		this.evictor = null;
+		this.selfSignedEvictor = null;
+		this.mgr = null;
+		this.selfSignedMgr = null;
+	}
+
+	/**
+	 * Creates a new connection manager with the current settings.
+	 * @param AllowSelfSigned is a boolean with true to accept self signed
+	 * certificates.
+	 * @return A new PoolingHttpClientConnectionManager object.
+	 * @throws ic9exception Exception
+	 */
+	private PoolingHttpClientConnectionManager newManager(boolean AllowSelfSigned) throws ic9exception
+	{
+		PoolingHttpClientConnectionManager pm = null;
+		if(AllowSelfSigned)
+		{
+			try
+			{
+				SSLContextBuilder sslBuilder = new SSLContextBuilder();
+				sslBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
+				SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslBuilder.build(), NoopHostnameVerifier.INSTANCE);
+				Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory>create()
+						.register("http", PlainConnectionSocketFactory.getSocketFactory())
+						.register("https", sslsf)
+						.build();
+				pm = new PoolingHttpClientConnectionManager(reg);
+			}
+			catch (KeyManagementException e) { throw new ic9exception("httpConnectionPool.newManager(): Key management exception. " + e.getMessage()); }
+			catch (NoSuchAlgorithmException e) { throw new ic9exception("httpConnectionPool.newManager(): No such algorithm exception. " + e.getMessage()); }
+			catch (KeyStoreException e) { throw new ic9exception("httpConnectionPool.newManager(): Key store exception. " + e.getMessage()); }
+		}
+		else
+		{
+			pm = new PoolingHttpClientConnectionManager();
+		}
+
+		pm.setMaxTotal(this.maxTotal);
+		pm.setDefaultMaxPerRoute(this.maxPerRoute);
+		pm.setValidateAfterInactivity(this.validateAfterInactivity);
+		pm.setDefaultSocketConfig(SocketConfig.custom().setTcpNoDelay(true).build());
+		return pm;
+	}
+
+	/**
+	 * Creates and starts an idle connection evictor for the provided manager.
+	 * @param Mgr is the PoolingHttpClientConnectionManager to evict from.
+	 * @return A new IdleConnectionEvictor object or null if the idle
+	 * timeout is 0 or less.
+	 */
+	private IdleConnectionEvictor newEvictor(PoolingHttpClientConnectionManager Mgr)
+	{
+		if(this.idleTimeout <= 0) return null;
+		IdleConnectionEvictor ice = new IdleConnectionEvictor(Mgr, this.idleTimeout, TimeUnit.MILLISECONDS);
+		ice.start();
+		return ice;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.script.ScriptException;
+
+import com.lehman.ic9.ic9engine;
+import com.lehman.ic9.ic9exception;
+import com.lehman.ic9.scriptCache;
+import com.lehman.ic9.io.file;
+
+/**
+ * Class httpEnginePool holds a fixed number of ic9engine instances
+ * used by httpServer to handle requests. Each engine has its own
+ * global scope and evaluates the handler script once when the pool
+ * is initialized. A request borrows an engine, calls the global
+ * handle(req, res) function in it and then returns the engine to
+ * the pool so that no two requests run in the same engine at once. 
+ * A borrowed engine holds its engine lock, so callbacks that run in 
+ * the engine later from other threads, such as then callbacks or 
+ * stream callbacks, wait for the request to release it. Requests 
+ * wait up to the borrow timeout for an engine.
+ * @author Austin Lehman
+ */
+public class httpEnginePool
+{
+	/** Handler script file name. */
+	private String scriptFile = "";
+
+	/** Number of engines in the pool. */
+	private int size = 0;
+
+	/** Available engines. */
+	private BlockingQueue<ic9engine> engines = null;
+
+	/** Milliseconds to wait for an engine. */
+	private long borrowTimeout = 30000;
+
+	/**
+	 * Default constructor takes the pool size and the handler script file.
+	 * @param Size is an int with the number of engines. If 0 or less the
+	 * number of available processors is used.
+	 * @param ScriptFile is a String with the handler script file name.
+	 * @throws ic9exception Exception
+	 */
+	public httpEnginePool(int Size, String ScriptFile) throws ic9exception
+	{
+		if(!file.exists(ScriptFile)) { throw new ic9exception("httpEnginePool(): Handler script '" + ScriptFile + "' couldn't be found."); }
+
+		this.size = Size > 0 ? Size : Runtime.getRuntime().availableProcessors();
+		this.scriptFile = ScriptFile;
+		this.engines = new ArrayBlockingQueue<ic9engine>(this.size);
+	}
+
+	/**
+	 * Creates the engines and evaluates the handler script in each
+	 * of them. This is called from httpServer when the server starts.
+	 * @throws ic9exception Exception
+	 */
+	public void init() throws ic9exception
+	{
+		String contents = Pattern.compile("^#!/.*?$", Pattern.MULTILINE).matcher(scriptCache.getInstance().read(this.scriptFile)).replaceAll("");
+		try
+		{
+			for(int i = 0; i < this.size; i++)
+			{
+				String[] engArgs = {"-scripting"};
+				ic9engine eng = new ic9engine(engArgs);
+				eng.getEnv().include("net/HttpServerTransaction.js");
+				eng.eval(this.scriptFile, contents);
+				this.engines.add(eng);
+			}
+		}
+		catch (ScriptException e) { throw new ic9exception("httpEnginePool.init(): Script exception. " + e.getMessage()); }
+		catch (NoSuchMethodException e) { throw new ic9exception("httpEnginePool.init(): No such method exception. " + e.getMessage()); }
+	}
+
+	/**
+	 * Gets an engine from the pool and takes its engine lock. This blocks 
+	 * until one is available or the borrow timeout passes. The engine must 
+	 * be released on the same thread.
+	 * @return An ic9engine object or null if none was available in time.
+	 * @throws InterruptedException Exception
+	 */
+	public ic9engine borrow() throws InterruptedException
+	{
+		ic9engine eng = null;
+		if(this.borrowTimeout > 0) eng = this.engines.poll(this.borrowTimeout, TimeUnit.MILLISECONDS);
+		else eng = this.engines.take();
+		if(eng == null) return null;
+		
+		try
+		{
+			eng.getLock().lockInterruptibly();
+		}
+		catch (InterruptedException e)
+		{
+			this.engines.offer(eng);
+			throw e;
+		}
+		return eng;
+	}
+
+	/**
+	 * Releases the engine lock of the provided engine and returns it to 
+	 * the pool.
+	 * @param Eng is the ic9engine object to return.
+	 */
+	public void release(ic9engine Eng)
+	{
+		if(Eng.getLock().isHeldByCurrentThread()) Eng.getLock().unlock();
+		this.engines.offer(Eng);
+	}
+
+	/**
+	 * Sets the number of milliseconds a request waits for an engine 
+	 * before it gets a 503.
+	 * @param BorrowTimeout is a long with the timeout in milliseconds or 
+	 * 0 to wait until one is available.
+	 */
+	public void setBorrowTimeout(long BorrowTimeout)
+	{
+		this.borrowTimeout = BorrowTimeout;
+	}
+
+	/**
+	 * Gets the number of milliseconds a request waits for an engine.
+	 * @return A long with the timeout in milliseconds.
+	 */
+	public long getBorrowTimeout()
+	{
+		return this.borrowTimeout;
+	}
+
+	/**
+	 * Gets the number of engines in the pool.
+	 * @return An int with the pool size.
+	 */
+	public int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Gets the number of engines not currently handling a request.
+	 * @return An int with the number of idle engines.
+	 */
+	public int getIdle()
+	{
+		return this.engines.size();
+	}
+
+	/**
+	 * Gets the handler script file name.
+	 * @return A String with the script file name.
+	 */
+	public String getScriptFile()
+	{
+		return this.scriptFile;
+	}
+}
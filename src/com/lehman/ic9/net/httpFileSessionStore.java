@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpFileSessionStore keeps each session in its own file in a 
+ * directory so sessions survive a restart. Attribute values are written 
+ * with Java serialization and are deserialized only when they're read 
+ * (See httpSessionData.) Values that aren't serializable, such as JS 
+ * objects, are skipped with a warning, so store JS objects as JSON 
+ * strings. An index of session expiry times is built when the store is 
+ * opened so the count and expiry sweeps don't read the files.
+ * 
+ * A session is written when its attributes change. If only its last 
+ * accessed time changed it's written at most once per save interval.
+ * @author Austin Lehman
+ */
+public class httpFileSessionStore implements httpSessionStore
+{
+	/** File format magic number and version. */
+	private static final int MAGIC = 0x1c95e551;
+	
+	/** File name extension. */
+	private static final String EXT = ".session";
+	
+	/** Session directory. */
+	private File dir = null;
+	
+	/** Milliseconds between writes when only the accessed time changed. */
+	private long saveInterval = 60000;
+	
+	/** Session expiry times by ID. */
+	private ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<String, Long>();
+	
+	/** Classes already warned about as not serializable. */
+	private Map<String, Boolean> warned = new ConcurrentHashMap<String, Boolean>();
+	
+	/**
+	 * Default constructor takes the session directory.
+	 * @param Dir is a String with the directory to keep the session files in.
+	 */
+	public httpFileSessionStore(String Dir)
+	{
+		this.dir = new File(Dir).getAbsoluteFile();
+	}
+	
+	/**
+	 * Sets the milliseconds between writes of a session when only its last 
+	 * accessed time changed.
+	 * @param SaveInterval is a long with the milliseconds.
+	 */
+	public void setSaveInterval(long SaveInterval)
+	{
+		this.saveInterval = SaveInterval;
+	}
+	
+	/**
+	 * Creates the directory if needed and builds the index from the session 
+	 * files. Expired sessions and unreadable files are removed.
+	 * @throws ic9exception Exception
+	 */
+	@Override
+	public void open() throws ic9exception
+	{
+		if(!this.dir.exists() && !this.dir.mkdirs()) throw new ic9exception("httpFileSessionStore.open(): Failed to create directory '" + this.dir.getPath() + "'.");
+		File[] files = this.dir.listFiles();
+		if(files == null) throw new ic9exception("httpFileSessionStore.open(): Failed to list directory '" + this.dir.getPath() + "'.");
+		
+		long now = System.currentTimeMillis();
+		for(File f : files)
+		{
+			if(!f.getName().endsWith(EXT)) continue;
+			httpSessionData data = this.read(f, false);
+			if(data == null || data.isExpired(now)) f.delete();
+			else this.index.put(data.getId(), data.getExpiry());
+		}
+	}
+	
+	/**
+	 * Clears the index. The session files are kept.
+	 */
+	@Override
+	public void close()
+	{
+		this.index.clear();
+	}
+	
+	/**
+	 * Loads the session with the provided ID from its file.
+	 * @param Id is a String with the session ID.
+	 * @return A httpSessionData object or null if not found.
+	 */
+	@Override
+	public httpSessionData load(String Id)
+	{
+		if(!this.index.containsKey(Id)) return null;
+		httpSessionData data = this.read(this.getFile(Id), true);
+		if(data == null) this.index.remove(Id);
+		return data;
+	}
+	
+	/**
+	 * Writes the provided session to its file if it changed or if the save 
+	 * interval has passed.
+	 * @param Data is the httpSessionData to save.
+	 * @param IsNew is a boolean with true if the session was just created.
+	 */
+	@Override
+	public void save(httpSessionData Data, boolean IsNew)
+	{
+		long now = System.currentTimeMillis();
+		this.index.put(Data.getId(), Data.getExpiry());
+		if(!IsNew && !Data.isDirty() && now - Data.getSavedAt() < this.saveInterval) return;
+		
+		synchronized(Data)
+		{
+			File file = this.getFile(Data.getId());
+			File tmp = new File(file.getPath() + ".tmp");
+			try
+			{
+				this.write(tmp, Data);
+				try { Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+				catch (AtomicMoveNotSupportedException e) { Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING); }
+				Data.setSaved(now);
+			}
+			catch (IOException e)
+			{
+				tmp.delete();
+				System.err.println("httpFileSessionStore.save(): Failed to save session '" + Data.getId() + "': " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Removes the session with the provided ID and its file.
+	 * @param Id is a String with the session ID.
+	 * @return A boolean with true if it was removed and false if not found.
+	 */
+	@Override
+	public boolean delete(String Id)
+	{
+		boolean found = this.index.remove(Id) != null;
+		this.getFile(Id).delete();
+		return found;
+	}
+	
+	/**
+	 * Removes the sessions that have expired at the provided time.
+	 * @param Now is a long with milliseconds since epoch.
+	 * @return A List of Strings with the IDs of the removed sessions.
+	 */
+	@Override
+	public List<String> expire(long Now)
+	{
+		List<String> ret = new ArrayList<String>();
+		for(Map.Entry<String, Long> ent : this.index.entrySet())
+		{
+			if(ent.getValue() <= Now && this.index.remove(ent.getKey(), ent.getValue()))
+			{
+				this.getFile(ent.getKey()).delete();
+				ret.add(ent.getKey());
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the number of sessions in the store.
+	 * @return An int with the number of sessions.
+	 */
+	@Override
+	public int getCount()
+	{
+		return this.index.size();
+	}
+	
+	/**
+	 * Sessions are only removed when they expire so this is always 0.
+	 * @return A long with 0.
+	 */
+	@Override
+	public long getEvicted()
+	{
+		return 0;
+	}
+	
+	/**
+	 * Gets the session directory.
+	 * @return A String with the directory.
+	 */
+	public String getDir()
+	{
+		return this.dir.getPath();
+	}
+	
+	/**
+	 * Gets the file for the provided session ID. Characters other than 
+	 * letters, digits, '-' and '_' are replaced.
+	 * @param Id is a String with the session ID.
+	 * @return A File object.
+	 */
+	private File getFile(String Id)
+	{
+		StringBuilder sb = new StringBuilder(Id.length() + EXT.length());
+		for(int i = 0; i < Id.length(); i++)
+		{
+			char c = Id.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') sb.append(c);
+			else sb.append('_').append(Integer.toHexString(c)).append('_');
+		}
+		return new File(this.dir, sb.append(EXT).toString());
+	}
+	
+	/**
+	 * Writes the provided session to the provided file.
+	 * @param File is the File to write.
+	 * @param Data is the httpSessionData to write.
+	 * @throws IOException Exception
+	 */
+	private void write(File File, httpSessionData Data) throws IOException
+	{
+		// Serialize first so the count is known.
+		List<String> names = new ArrayList<String>();
+		List<byte[]> values = new ArrayList<byte[]>();
+		for(Map.Entry<String, Object> ent : Data.getRawAttributes().entrySet())
+		{
+			try
+			{
+				values.add(httpSessionData.serialize(ent.getValue()));
+				names.add(ent.getKey());
+			}
+			catch (IOException e)
+			{
+				String cls = ent.getValue().getClass().getName();
+				if(this.warned.put(cls, true) == null) System.err.println("httpFileSessionStore.write(): Attribute '" + ent.getKey() + "' not saved. " + e.getMessage());
+			}
+		}
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(File)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeUTF(Data.getId());
+			out.writeLong(Data.getCreated());
+			out.writeLong(Data.getAccessed());
+			out.writeLong(Data.getMaxInactiveMs());
+			out.writeInt(names.size());
+			for(int i = 0; i < names.size(); i++)
+			{
+				out.writeUTF(names.get(i));
+				out.writeInt(values.get(i).length);
+				out.write(values.get(i));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	/**
+	 * Reads a session from the provided file. Attribute values are kept 
+	 * serialized until they're read.
+	 * @param File is the File to read.
+	 * @param Attributes is a boolean with true to read the attributes and 
+	 * false to only read the session ID and times.
+	 * @return A httpSessionData object or null if the file is missing or 
+	 * can't be read.
+	 */
+	private httpSessionData read(File File, boolean Attributes)
+	{
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(File)));
+			if(in.readInt() != MAGIC) throw new IOException("Not a session file.");
+			httpSessionData data = new httpSessionData(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+			if(Attributes)
+			{
+				int count = in.readInt();
+				for(int i = 0; i < count; i++)
+				{
+					String name = in.readUTF();
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					data.putSerialized(name, bytes);
+				}
+			}
+			data.setSaved(System.currentTimeMillis());
+			return data;
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			System.err.println("httpFileSessionStore.read(): Failed to read '" + File.getPath() + "': " + e.getMessage());
+			return null;
+		}
+		finally
+		{
+			try { if(in != null) in.close(); }
+			catch (IOException e) { }
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.script.ScriptException;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpFuture is returned from httpClient.requestAsync() and
+ * holds the pending result of an async request. The Javascript
+ * response object is created on the thread that calls get().
+ * @author Austin Lehman
+ */
+public class httpFuture
+{
+	private httpClient cli = null;
+	private Future<httpClientResponse> fut = null;
+	private boolean getString = true;
+
+	/** Javascript response object once it has been created. */
+	private Map<String, Object> result = null;
+
+	/**
+	 * Default constructor takes the client, the executor future and the
+	 * content type flag.
+	 * @param Cli is the httpClient that made the request.
+	 * @param Fut is the Future of the request.
+	 * @param GetString is a boolean with true for String content and
+	 * false for Buffer content.
+	 */
+	public httpFuture(httpClient Cli, Future<httpClientResponse> Fut, boolean GetString)
+	{
+		this.cli = Cli;
+		this.fut = Fut;
+		this.getString = GetString;
+	}
+
+	/**
+	 * Waits for the request to complete and returns the response.
+	 * @return A Javascript object with the response.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	public Map<String, Object> get() throws ic9exception, NoSuchMethodException, ScriptException
+	{
+		return this.get(0);
+	}
+
+	/**
+	 * Waits up to the provided number of milliseconds for the request to
+	 * complete and returns the response.
+	 * @param TimeoutMills is a long with the milliseconds to wait. If 0
+	 * or less this waits until the request completes.
+	 * @return A Javascript object with the response.
+	 * @throws ic9exception Exception
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	public synchronized Map<String, Object> get(long TimeoutMills) throws ic9exception, NoSuchMethodException, ScriptException
+	{
+		if(this.result != null) return this.result;
+		try
+		{
+			httpClientResponse resp = TimeoutMills > 0 ? this.fut.get(TimeoutMills, TimeUnit.MILLISECONDS) : this.fut.get();
+			this.result = this.cli.getResponseObj(resp, this.getString);
+			return this.result;
+		}
+		catch (InterruptedException e) { throw new ic9exception("httpFuture.get(): Interrupted waiting for response."); }
+		catch (CancellationException e) { throw new ic9exception("httpFuture.get(): Request was cancelled."); }
+		catch (TimeoutException e) { throw new ic9exception("httpFuture.get(): Timed out after " + TimeoutMills + "ms waiting for response."); }
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof ic9exception) throw (ic9exception)cause;
+			throw new ic9exception("httpFuture.get(): " + (cause != null ? cause.getMessage() : e.getMessage()));
+		}
+	}
+
+	/**
+	 * Runs the provided listener once the request completes, or right 
+	 * away if it's already complete. The listener runs on the thread 
+	 * that completed the request so no thread waits on the result.
+	 * @param Listener is a Runnable to run once complete.
+	 */
+	public void onComplete(final Runnable Listener)
+	{
+		if(this.fut instanceof httpRetryFuture)
+		{
+			((httpRetryFuture)this.fut).addListener(Listener);
+			return;
+		}
+		httpAsync.getExecutor().submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// The listener gets the result or the error from get().
+				try { fut.get(); }
+				catch (Exception e) { }
+				Listener.run();
+			}
+		});
+	}
+
+	/**
+	 * Checks to see if the request has completed.
+	 * @return A boolean with true if done and false if not.
+	 */
+	public boolean isDone()
+	{
+		return this.fut.isDone();
+	}
+
+	/**
+	 * Cancels the request if it hasn't completed.
+	 * @return A boolean with true if it was cancelled and false if not.
+	 */
+	public boolean cancel()
+	{
+		return this.fut.cancel(true);
+	}
+
+	/**
+	 * Checks to see if the request was cancelled.
+	 * @return A boolean with true if cancelled and false if not.
+	 */
+	public boolean isCancelled()
+	{
+		return this.fut.isCancelled();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+
+/**
+ * Class httpGzipHandler is the Jetty GzipHandler used by httpServer
+ * to compress responses. It counts the compressed responses and the
+ * bytes before and after compression. The counts are taken from each
+ * deflater when Jetty returns it after a response is done.
+ * @author Austin Lehman
+ */
+public class httpGzipHandler extends GzipHandler
+{
+	/** Compression counters. */
+	private AtomicLong responses = new AtomicLong(0);
+	private AtomicLong bytesIn = new AtomicLong(0);
+	private AtomicLong bytesOut = new AtomicLong(0);
+
+	/**
+	 * Counts the deflater's bytes and then returns it to the pool.
+	 * @param D is the Deflater used for a response.
+	 */
+	@Override
+	public void recycle(Deflater D)
+	{
+		this.responses.incrementAndGet();
+		this.bytesIn.addAndGet(D.getBytesRead());
+		this.bytesOut.addAndGet(D.getBytesWritten());
+		super.recycle(D);
+	}
+
+	/**
+	 * Gets the number of compressed responses.
+	 * @return A long with the number of responses.
+	 */
+	public long getResponses()
+	{
+		return this.responses.get();
+	}
+
+	/**
+	 * Gets the number of bytes before compression.
+	 * @return A long with the number of bytes.
+	 */
+	public long getBytesIn()
+	{
+		return this.bytesIn.get();
+	}
+
+	/**
+	 * Gets the number of bytes after compression.
+	 * @return A long with the number of bytes.
+	 */
+	public long getBytesOut()
+	{
+		return this.bytesOut.get();
+	}
+
+	/**
+	 * Gets the number of bytes saved by compression.
+	 * @return A long with the number of bytes saved.
+	 */
+	public long getBytesSaved()
+	{
+		return this.bytesIn.get() - this.bytesOut.get();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class httpHistogram is a lock free latency histogram in the style of 
+ * HdrHistogram. Values are kept in microseconds. Values below 16 have 
+ * their own bucket and each power of two above that is split into 16 
+ * buckets, so a bucket is within 1/16th of the values in it. Values up 
+ * to 2^40 microseconds are recorded and larger ones are counted in the 
+ * last bucket. Recording is a few atomic increments so it can be used 
+ * on the request path.
+ * @author Austin Lehman
+ */
+public class httpHistogram
+{
+	/** Sub bucket layout. */
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+	private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+	
+	/** Counts by bucket. */
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	/** Totals in microseconds. */
+	private AtomicLong count = new AtomicLong(0);
+	private AtomicLong sum = new AtomicLong(0);
+	private AtomicLong max = new AtomicLong(0);
+	
+	/**
+	 * Records a value.
+	 * @param Nanos is a long with the value in nanoseconds.
+	 */
+	public void record(long Nanos)
+	{
+		long us = Math.min(Math.max(Nanos / 1000, 0), MAX_VALUE);
+		this.counts.incrementAndGet(index(us));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(us);
+		
+		long cur = this.max.get();
+		while(us > cur && !this.max.compareAndSet(cur, us)) cur = this.max.get();
+	}
+	
+	/**
+	 * Gets the number of values recorded.
+	 * @return A long with the count.
+	 */
+	public long getCount()
+	{
+		return this.count.get();
+	}
+	
+	/**
+	 * Gets the sum of the values recorded.
+	 * @return A double with the sum in seconds.
+	 */
+	public double getSum()
+	{
+		return this.sum.get() / 1000000.0;
+	}
+	
+	/**
+	 * Gets the mean of the values recorded.
+	 * @return A double with the mean in milliseconds.
+	 */
+	public double getMean()
+	{
+		long cnt = this.count.get();
+		return cnt == 0 ? 0.0 : (this.sum.get() / 1000.0) / cnt;
+	}
+	
+	/**
+	 * Gets the max value recorded.
+	 * @return A double with the max in milliseconds.
+	 */
+	public double getMax()
+	{
+		return this.max.get() / 1000.0;
+	}
+	
+	/**
+	 * Gets the value at the provided percentile. The value is the upper 
+	 * bound of the bucket the percentile falls in.
+	 * @param Percentile is a double from 0 to 100.
+	 * @return A double with the value in milliseconds.
+	 */
+	public double getPercentile(double Percentile)
+	{
+		long cnt = this.count.get();
+		if(cnt == 0) return 0.0;
+		long rank = Math.max(1, (long)Math.ceil(Math.min(Percentile, 100.0) / 100.0 * cnt));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += this.counts.get(i);
+			if(seen >= rank) return Math.min(upperBound(i), this.max.get()) / 1000.0;
+		}
+		return this.getMax();
+	}
+	
+	/**
+	 * Gets the number of values less than or equal to the provided value. 
+	 * Buckets that span the value aren't counted.
+	 * @param Seconds is a double with the value in seconds.
+	 * @return A long with the count.
+	 */
+	public long getCountAtOrBelow(double Seconds)
+	{
+		long us = (long)(Seconds * 1000000.0);
+		long ret = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			if(upperBound(i) - 1 > us) break;
+			ret += this.counts.get(i);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the bucket index for the provided value.
+	 * @param Us is a long with the value in microseconds.
+	 * @return An int with the index.
+	 */
+	private static int index(long Us)
+	{
+		if(Us < SUB_BUCKETS) return (int)Us;
+		int bits = 63 - Long.numberOfLeadingZeros(Us);
+		int shift = bits - SUB_BITS;
+		int sub = (int)(Us >> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Gets the exclusive upper bound of the provided bucket.
+	 * @param Idx is an int with the bucket index.
+	 * @return A long with the upper bound in microseconds.
+	 */
+	private static long upperBound(int Idx)
+	{
+		if(Idx < SUB_BUCKETS) return Idx + 1;
+		int shift = Idx / SUB_BUCKETS - 1;
+		int sub = Idx % SUB_BUCKETS;
+		return (long)(SUB_BUCKETS + sub + 1) << shift;
+	}
+}
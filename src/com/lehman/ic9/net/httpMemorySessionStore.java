@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class httpMemorySessionStore keeps sessions in memory with a max 
+ * number of sessions. Sessions are kept in least recently used order 
+ * and once the max is reached the least recently used session is 
+ * removed to make room for a new one. Expired sessions are removed 
+ * when the manager sweeps the store. Sessions don't survive a restart.
+ * @author Austin Lehman
+ */
+public class httpMemorySessionStore implements httpSessionStore
+{
+	/** Max number of sessions or 0 for no limit. */
+	private int maxSessions = 0;
+	
+	/** Sessions in least recently used order. */
+	private LinkedHashMap<String, httpSessionData> sessions = null;
+	
+	/** Number of sessions removed to stay within the max. */
+	private long evicted = 0;
+	
+	/**
+	 * Default constructor takes the max number of sessions.
+	 * @param MaxSessions is an int with the max number of sessions or 0 
+	 * for no limit.
+	 */
+	public httpMemorySessionStore(int MaxSessions)
+	{
+		this.maxSessions = MaxSessions;
+		this.sessions = new LinkedHashMap<String, httpSessionData>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, httpSessionData> Eldest)
+			{
+				if(maxSessions > 0 && this.size() > maxSessions)
+				{
+					evicted++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Does nothing, the store is ready when created.
+	 */
+	@Override
+	public void open() { }
+	
+	/**
+	 * Removes all the sessions.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		this.sessions.clear();
+	}
+	
+	/**
+	 * Gets the session with the provided ID.
+	 * @param Id is a String with the session ID.
+	 * @return A httpSessionData object or null if not found.
+	 */
+	@Override
+	public synchronized httpSessionData load(String Id)
+	{
+		return this.sessions.get(Id);
+	}
+	
+	/**
+	 * Puts the provided session in the store.
+	 * @param Data is the httpSessionData to save.
+	 * @param IsNew is a boolean with true if the session was just created.
+	 */
+	@Override
+	public synchronized void save(httpSessionData Data, boolean IsNew)
+	{
+		this.sessions.put(Data.getId(), Data);
+		Data.setSaved(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Removes the session with the provided ID.
+	 * @param Id is a String with the session ID.
+	 * @return A boolean with true if it was removed and false if not found.
+	 */
+	@Override
+	public synchronized boolean delete(String Id)
+	{
+		return this.sessions.remove(Id) != null;
+	}
+	
+	/**
+	 * Removes the sessions that have expired at the provided time.
+	 * @param Now is a long with milliseconds since epoch.
+	 * @return A List of Strings with the IDs of the removed sessions.
+	 */
+	@Override
+	public synchronized List<String> expire(long Now)
+	{
+		List<String> ret = new ArrayList<String>();
+		Iterator<httpSessionData> it = this.sessions.values().iterator();
+		while(it.hasNext())
+		{
+			httpSessionData data = it.next();
+			if(data.isExpired(Now))
+			{
+				ret.add(data.getId());
+				it.remove();
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the number of sessions in the store.
+	 * @return An int with the number of sessions.
+	 */
+	@Override
+	public synchronized int getCount()
+	{
+		return this.sessions.size();
+	}
+	
+	/**
+	 * Gets the number of sessions removed to stay within the max.
+	 * @return A long with the number of sessions.
+	 */
+	@Override
+	public synchronized long getEvicted()
+	{
+		return this.evicted;
+	}
+	
+	/**
+	 * Gets the max number of sessions.
+	 * @return An int with the max or 0 for no limit.
+	 */
+	public int getMaxSessions()
+	{
+		return this.maxSessions;
+	}
+}
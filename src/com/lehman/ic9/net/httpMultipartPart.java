@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpMultipartPart is a single part read by httpMultipartReader. 
+ * The part's headers are read when the part is reached and its content 
+ * is read from the request body as it's consumed. The content can only 
+ * be read once and only until the reader moves on to the next part.
+ * @author Austin Lehman
+ */
+public class httpMultipartPart
+{
+	private httpMultipartReader reader = null;
+	private Map<String, String> headers = null;
+	private int index = 0;
+	
+	/** Content-Disposition parameters. */
+	private String name = null;
+	private String fileName = null;
+	
+	/** Number of content bytes read. */
+	private long size = 0;
+	
+	/** Content stream bounded by the next boundary. */
+	private InputStream stream = new InputStream()
+	{
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int n = this.read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] B, int Off, int Len) throws IOException
+		{
+			if(Len == 0) return 0;
+			if(!reader.isCurrent(httpMultipartPart.this)) throw new IOException("Part '" + name + "' can't be read after moving to the next part.");
+			int n = reader.readBody(B, Off, Len);
+			if(n > 0)
+			{
+				size += n;
+				long max = reader.getMaxPartSize();
+				if(max >= 0 && size > max) throw reader.limitError("Part '" + name + "' exceeds the max size of " + max + " bytes.");
+			}
+			return n;
+		}
+	};
+	
+	/**
+	 * Default constructor takes the reader, the part headers and the part index.
+	 * @param Reader is the httpMultipartReader reading the request.
+	 * @param Headers is a case insensitive Map with the part headers.
+	 * @param Index is an int with the index of the part.
+	 */
+	public httpMultipartPart(httpMultipartReader Reader, Map<String, String> Headers, int Index)
+	{
+		this.reader = Reader;
+		this.headers = Headers;
+		this.index = Index;
+		
+		String disp = Headers.get("Content-Disposition");
+		this.name = httpMultipartReader.getParam(disp, "name");
+		this.fileName = httpMultipartReader.getParam(disp, "filename");
+		
+		// Some browsers send the full client path.
+		if(this.fileName != null)
+		{
+			int idx = Math.max(this.fileName.lastIndexOf('/'), this.fileName.lastIndexOf('\\'));
+			if(idx >= 0) this.fileName = this.fileName.substring(idx + 1);
+		}
+	}
+	
+	/**
+	 * Gets the part name from the Content-Disposition header.
+	 * @return A String with the name or null if not set.
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	/**
+	 * Gets the submitted file name from the Content-Disposition header 
+	 * without any directories.
+	 * @return A String with the file name or null if the part isn't a file.
+	 */
+	public String getFileName()
+	{
+		return this.fileName;
+	}
+	
+	/**
+	 * Gets the part content type.
+	 * @return A String with the content type or null if not set.
+	 */
+	public String getContentType()
+	{
+		return this.headers.get("Content-Type");
+	}
+	
+	/**
+	 * Gets the value of the provided header.
+	 * @param Name is a String with the header name.
+	 * @return A String with the value or null if not set.
+	 */
+	public String getHeader(String Name)
+	{
+		return this.headers.get(Name);
+	}
+	
+	/**
+	 * Gets the part header names.
+	 * @return A String[] with the header names.
+	 */
+	public String[] getHeaderNames()
+	{
+		return this.headers.keySet().toArray(new String[this.headers.size()]);
+	}
+	
+	/**
+	 * Gets the index of the part in the request.
+	 * @return An int with the index starting at 0.
+	 */
+	public int getIndex()
+	{
+		return this.index;
+	}
+	
+	/**
+	 * Gets the number of content bytes read so far.
+	 * @return A long with the number of bytes.
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Gets the content stream. The stream ends at the end of the part.
+	 * @return An InputStream with the part content.
+	 */
+	public InputStream getInputStream()
+	{
+		return this.stream;
+	}
+	
+	/**
+	 * Writes the part content to the provided file as it's read from the 
+	 * request. The file is replaced if it exists and removed if reading 
+	 * fails, such as when the part exceeds the max part size.
+	 * @param FileName is a String with the file to write.
+	 * @return A long with the number of bytes written.
+	 * @throws ic9exception Exception
+	 */
+	public long saveTo(String FileName) throws ic9exception
+	{
+		Path path = Paths.get(FileName);
+		try
+		{
+			return Files.copy(this.stream, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e)
+		{
+			try { Files.deleteIfExists(path); }
+			catch (IOException de) { }
+			throw new ic9exception("httpMultipartPart.saveTo(): " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Reads the part content into memory. Use saveTo or getInputStream 
+	 * for large parts.
+	 * @return A byte[] with the content.
+	 * @throws ic9exception Exception
+	 */
+	public byte[] readBytes() throws ic9exception
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] b = new byte[8192];
+		try
+		{
+			int n;
+			while((n = this.stream.read(b, 0, b.length)) >= 0) bos.write(b, 0, n);
+		}
+		catch (IOException e) { throw new ic9exception("httpMultipartPart.readBytes(): " + e.getMessage()); }
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Reads the part content into a String using the charset of the part 
+	 * content type or UTF-8 if not set.
+	 * @return A String with the content.
+	 * @throws ic9exception Exception
+	 */
+	public String readString() throws ic9exception
+	{
+		String cs = httpMultipartReader.getParam(this.getContentType(), "charset");
+		Charset charset;
+		try { charset = cs != null ? Charset.forName(cs) : Charset.forName("UTF-8"); }
+		catch (IllegalArgumentException e) { throw new ic9exception("httpMultipartPart.readString(): Unsupported charset '" + cs + "'."); }
+		return new String(this.readBytes(), charset);
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.server.Request;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpMultipartReader reads multipart form data from the request 
+ * body one part at a time as it arrives. Each part's content is read 
+ * from a stream bounded by the next boundary, so a part can be written 
+ * straight to a file without holding it in memory or spooling the whole 
+ * request to a temp file first. Only a fixed size buffer is used no 
+ * matter how large the parts are.
+ * 
+ * The max part size and max total size are enforced while reading. When 
+ * a limit is exceeded reading fails with an ic9exception and 
+ * isLimitExceeded() returns true so the handler can respond with a 413.
+ * @author Austin Lehman
+ */
+public class httpMultipartReader
+{
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	
+	/** Max length of a part header line. */
+	private static final int MAX_LINE = 8192;
+	
+	private InputStream in = null;
+	
+	/** Boundary delimiter with the leading CRLF. */
+	private byte[] delim = null;
+	
+	/** Read buffer. Bytes before safe are known not to start a delimiter. */
+	private byte[] buf = new byte[64 * 1024];
+	private int pos = 0;
+	private int lim = 0;
+	private int safe = 0;
+	private boolean eof = false;
+	
+	/** Limits with -1 for no limit. */
+	private long maxPartSize = -1;
+	private long maxTotalSize = -1;
+	
+	/** Reader state. */
+	private long total = 0;
+	private int count = 0;
+	private boolean started = false;
+	private boolean bodyDone = false;
+	private boolean finished = false;
+	private boolean limitExceeded = false;
+	private httpMultipartPart current = null;
+	
+	/**
+	 * Default constructor takes the request body and its content type.
+	 * @param In is the InputStream with the request body.
+	 * @param ContentType is a String with the multipart content type 
+	 * including the boundary parameter.
+	 * @param MaxPartSize is a long with the max size of a part's content 
+	 * in bytes or -1 for no limit.
+	 * @param MaxTotalSize is a long with the max size of the request body 
+	 * in bytes or -1 for no limit.
+	 * @throws ic9exception Exception
+	 */
+	public httpMultipartReader(InputStream In, String ContentType, long MaxPartSize, long MaxTotalSize) throws ic9exception
+	{
+		String boundary = getParam(ContentType, "boundary");
+		if(boundary == null || boundary.length() == 0) throw new ic9exception("httpMultipartReader(): Content type '" + ContentType + "' has no boundary.");
+		
+		this.in = In;
+		this.delim = ("\r\n--" + boundary).getBytes(ISO_8859_1);
+		this.maxPartSize = MaxPartSize;
+		this.maxTotalSize = MaxTotalSize;
+		
+		// The first boundary has no leading CRLF so one is put in the buffer.
+		this.buf[0] = '\r';
+		this.buf[1] = '\n';
+		this.lim = 2;
+	}
+	
+	/**
+	 * Creates a reader for the provided request. Limits less than 0 are 
+	 * taken from the request's multipart config which is set by httpServer. 
+	 * A request with a content length over the max total size fails before 
+	 * any of the body is read.
+	 * @param Req is the HttpServletRequest.
+	 * @param MaxPartSize is a long with the max size of a part's content 
+	 * in bytes or -1 for the server setting.
+	 * @param MaxTotalSize is a long with the max size of the request body 
+	 * in bytes or -1 for the server setting.
+	 * @return A new httpMultipartReader object.
+	 * @throws ic9exception Exception
+	 */
+	public static httpMultipartReader open(HttpServletRequest Req, long MaxPartSize, long MaxTotalSize) throws ic9exception
+	{
+		String ct = Req.getContentType();
+		if(ct == null || !ct.toLowerCase().startsWith("multipart/")) throw new ic9exception("httpMultipartReader.open(): Request isn't multipart.");
+		
+		MultipartConfigElement cfg = (MultipartConfigElement)Req.getAttribute(Request.__MULTIPART_CONFIG_ELEMENT);
+		if(MaxPartSize < 0 && cfg != null) MaxPartSize = cfg.getMaxFileSize();
+		if(MaxTotalSize < 0 && cfg != null) MaxTotalSize = cfg.getMaxRequestSize();
+		
+		httpMultipartReader ret;
+		try { ret = new httpMultipartReader(Req.getInputStream(), ct, MaxPartSize, MaxTotalSize); }
+		catch (IOException e) { throw new ic9exception("httpMultipartReader.open(): " + e.getMessage()); }
+		
+		long len = Req.getContentLengthLong();
+		if(MaxTotalSize >= 0 && len > MaxTotalSize)
+		{
+			ret.limitExceeded = true;
+			throw new ic9exception("httpMultipartReader.open(): Request size of " + len + " bytes exceeds the max of " + MaxTotalSize + " bytes.");
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the next part. The rest of the current part's content is skipped.
+	 * @return A httpMultipartPart object or null if there are no more parts.
+	 * @throws ic9exception Exception
+	 */
+	public httpMultipartPart next() throws ic9exception
+	{
+		if(this.finished) return null;
+		try
+		{
+			// Skip the preamble or the rest of the current part.
+			if(!this.started || this.current != null) this.skipBody();
+			this.started = true;
+			this.current = null;
+			
+			// Closing boundary or the CRLF ending the boundary line.
+			this.ensure(2);
+			if(this.lim - this.pos >= 2 && this.buf[this.pos] == '-' && this.buf[this.pos + 1] == '-')
+			{
+				this.finished = true;
+				return null;
+			}
+			this.readLine();
+			
+			Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			String line;
+			while((line = this.readLine()).length() > 0)
+			{
+				int idx = line.indexOf(':');
+				if(idx > 0) headers.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+			}
+			
+			this.bodyDone = false;
+			this.current = new httpMultipartPart(this, headers, this.count++);
+			return this.current;
+		}
+		catch (IOException e)
+		{
+			this.finished = true;
+			throw new ic9exception("httpMultipartReader.next(): " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Checks if reading failed because a size limit was exceeded.
+	 * @return A boolean with true if a limit was exceeded.
+	 */
+	public boolean isLimitExceeded()
+	{
+		return this.limitExceeded;
+	}
+	
+	/**
+	 * Gets the number of request body bytes read so far.
+	 * @return A long with the number of bytes.
+	 */
+	public long getBytesRead()
+	{
+		return this.total;
+	}
+	
+	/**
+	 * Gets the max size of a part's content.
+	 * @return A long with the size in bytes or -1 for no limit.
+	 */
+	public long getMaxPartSize()
+	{
+		return this.maxPartSize;
+	}
+	
+	/**
+	 * Gets the max size of the request body.
+	 * @return A long with the size in bytes or -1 for no limit.
+	 */
+	public long getMaxTotalSize()
+	{
+		return this.maxTotalSize;
+	}
+	
+	/**
+	 * Checks if the provided part is the current part.
+	 * @param Part is a httpMultipartPart object.
+	 * @return A boolean with true if it's the current part.
+	 */
+	boolean isCurrent(httpMultipartPart Part)
+	{
+		return this.current == Part;
+	}
+	
+	/**
+	 * Sets the limit exceeded flag and returns an exception to throw.
+	 * @param Msg is a String with the error message.
+	 * @return An IOException with the message.
+	 */
+	IOException limitError(String Msg)
+	{
+		this.limitExceeded = true;
+		this.finished = true;
+		return new IOException(Msg);
+	}
+	
+	/**
+	 * Reads the current part's content up to the next boundary.
+	 * @param B is a byte[] to read into.
+	 * @param Off is an int with the offset to read into.
+	 * @param Len is an int with the max number of bytes to read.
+	 * @return An int with the number of bytes read or -1 at the end of the part.
+	 * @throws IOException Exception
+	 */
+	int readBody(byte[] B, int Off, int Len) throws IOException
+	{
+		if(this.bodyDone) return -1;
+		if(this.pos >= this.safe)
+		{
+			this.ensure(this.delim.length);
+			int idx = this.indexOfDelim();
+			if(idx == this.pos)
+			{
+				this.pos += this.delim.length;
+				this.bodyDone = true;
+				return -1;
+			}
+			else if(idx > 0) this.safe = idx;
+			else if(!this.eof) this.safe = this.lim - this.delim.length + 1;
+			else throw new IOException("Unexpected end of multipart data.");
+		}
+		
+		int n = Math.min(Len, this.safe - this.pos);
+		System.arraycopy(this.buf, this.pos, B, Off, n);
+		this.pos += n;
+		return n;
+	}
+	
+	/**
+	 * Skips the content up to the next boundary.
+	 * @throws IOException Exception
+	 */
+	private void skipBody() throws IOException
+	{
+		byte[] tmp = new byte[8192];
+		while(this.readBody(tmp, 0, tmp.length) >= 0);
+	}
+	
+	/**
+	 * Finds the delimiter in the buffered bytes.
+	 * @return An int with the index of the delimiter or -1 if not found.
+	 */
+	private int indexOfDelim()
+	{
+		byte first = this.delim[0];
+		int last = this.lim - this.delim.length;
+		for(int i = this.pos; i <= last; i++)
+		{
+			if(this.buf[i] != first) continue;
+			int j = 1;
+			while(j < this.delim.length && this.buf[i + j] == this.delim[j]) j++;
+			if(j == this.delim.length) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reads a CRLF terminated header line.
+	 * @return A String with the line without the CRLF.
+	 * @throws IOException Exception
+	 */
+	private String readLine() throws IOException
+	{
+		int start = this.pos;
+		int i = start;
+		while(true)
+		{
+			if(i + 1 >= this.lim)
+			{
+				if(this.eof) throw new IOException("Unexpected end of multipart data.");
+				int read = i - this.pos;
+				this.ensure(read + 2);
+				start = this.pos;
+				i = start + read;
+				continue;
+			}
+			if(this.buf[i] == '\r' && this.buf[i + 1] == '\n') break;
+			if(++i - start > MAX_LINE) throw new IOException("Part header line exceeds " + MAX_LINE + " bytes.");
+		}
+		String line = new String(this.buf, start, i - start, ISO_8859_1);
+		this.pos = i + 2;
+		return line;
+	}
+	
+	/**
+	 * Reads from the request body until at least the provided number of 
+	 * bytes are buffered or the end of the body is reached. Buffered bytes 
+	 * are moved to the start of the buffer first.
+	 * @param Count is an int with the number of bytes.
+	 * @throws IOException Exception
+	 */
+	private void ensure(int Count) throws IOException
+	{
+		if(this.lim - this.pos >= Count || this.eof) return;
+		if(this.pos > 0)
+		{
+			System.arraycopy(this.buf, this.pos, this.buf, 0, this.lim - this.pos);
+			this.lim -= this.pos;
+			this.safe = Math.max(0, this.safe - this.pos);
+			this.pos = 0;
+		}
+		while(this.lim < Count && !this.eof)
+		{
+			int n = this.in.read(this.buf, this.lim, this.buf.length - this.lim);
+			if(n < 0)
+			{
+				this.eof = true;
+				break;
+			}
+			this.lim += n;
+			this.total += n;
+			if(this.maxTotalSize >= 0 && this.total > this.maxTotalSize) throw this.limitError("Request exceeds the max size of " + this.maxTotalSize + " bytes.");
+		}
+	}
+	
+	/**
+	 * Gets a parameter from a header value such as the boundary from a 
+	 * content type or the name from a content disposition. Quoted values 
+	 * are unquoted.
+	 * @param Value is a String with the header value.
+	 * @param Name is a String with the parameter name.
+	 * @return A String with the parameter value or null if not found.
+	 */
+	static String getParam(String Value, String Name)
+	{
+		if(Value == null) return null;
+		int i = Value.indexOf(';');
+		while(i >= 0 && i < Value.length())
+		{
+			int eq = Value.indexOf('=', i);
+			if(eq < 0) return null;
+			String key = Value.substring(i + 1, eq).trim();
+			int start = eq + 1;
+			while(start < Value.length() && Value.charAt(start) == ' ') start++;
+			String val;
+			int end;
+			if(start < Value.length() && Value.charAt(start) == '"')
+			{
+				StringBuilder sb = new StringBuilder();
+				end = start + 1;
+				while(end < Value.length() && Value.charAt(end) != '"')
+				{
+					// Only quotes and backslashes are escaped so Windows paths are kept.
+					if(Value.charAt(end) == '\\' && end + 1 < Value.length() && (Value.charAt(end + 1) == '"' || Value.charAt(end + 1) == '\\')) end++;
+					sb.append(Value.charAt(end++));
+				}
+				val = sb.toString();
+				end = Value.indexOf(';', end);
+			}
+			else
+			{
+				end = Value.indexOf(';', start);
+				val = (end < 0 ? Value.substring(start) : Value.substring(start, end)).trim();
+			}
+			if(key.equalsIgnoreCase(Name)) return val;
+			i = end;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Class httpRetryFuture runs an async httpClient request including its
+ * retries. Each attempt runs on the executor and the wait before a retry
+ * is scheduled on the httpAsync scheduler, so no worker thread is held
+ * while backing off.
+ * @author Austin Lehman
+ */
+public class httpRetryFuture implements Future<httpClientResponse>
+{
+	private httpClient cli = null;
+	private HttpRequestBase httpReq = null;
+	private ExecutorService exec = null;
+
+	/** Completion state. */
+	private CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean cancelled = false;
+	private httpClientResponse result = null;
+	private Throwable error = null;
+
+	/** Listeners to run once complete. */
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+	/**
+	 * Default constructor takes the client, the prepared request and the
+	 * executor to run attempts on.
+	 * @param Cli is the httpClient making the request.
+	 * @param HttpReq is the HttpRequestBase to execute.
+	 * @param Exec is the ExecutorService to run attempts on.
+	 */
+	public httpRetryFuture(httpClient Cli, HttpRequestBase HttpReq, ExecutorService Exec)
+	{
+		this.cli = Cli;
+		this.httpReq = HttpReq;
+		this.exec = Exec;
+	}
+
+	/**
+	 * Starts the first attempt.
+	 * @return This object.
+	 */
+	public httpRetryFuture start()
+	{
+		this.submit(0);
+		return this;
+	}
+
+	/**
+	 * Submits the provided attempt to the executor.
+	 * @param Attempt is an int with the attempt number starting at 0.
+	 */
+	private void submit(final int Attempt)
+	{
+		if(this.cancelled) return;
+		try
+		{
+			this.exec.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					attempt(Attempt);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) { this.complete(null, e); }
+	}
+
+	/**
+	 * Runs the provided attempt and completes or schedules the next one.
+	 * @param Attempt is an int with the attempt number starting at 0.
+	 */
+	private void attempt(final int Attempt)
+	{
+		if(this.cancelled) return;
+		try
+		{
+			httpClientResponse resp = this.cli.tryRequest(this.httpReq, null, Attempt);
+			if(resp.retryDelay < 0)
+			{
+				this.complete(resp, null);
+				return;
+			}
+
+			this.httpReq.reset();
+			httpAsync.getScheduler().schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					submit(Attempt + 1);
+				}
+			}, resp.retryDelay, TimeUnit.MILLISECONDS);
+		}
+		catch (Throwable e) { this.complete(null, e); }
+	}
+
+	/**
+	 * Sets the result and releases waiting threads.
+	 * @param Result is the httpClientResponse or null on error.
+	 * @param Error is the Throwable the request failed with or null.
+	 */
+	private void complete(httpClientResponse Result, Throwable Error)
+	{
+		synchronized(this)
+		{
+			if(this.done.getCount() == 0) return;
+			this.result = Result;
+			this.error = Error;
+			this.done.countDown();
+		}
+		this.runListeners();
+	}
+
+	/**
+	 * Adds a listener that is run on the thread that completes the request,
+	 * or right away on this thread if it's already complete. Listeners run
+	 * in the order they were added.
+	 * @param Listener is a Runnable to run once complete.
+	 */
+	public void addListener(Runnable Listener)
+	{
+		synchronized(this)
+		{
+			if(this.done.getCount() > 0)
+			{
+				this.listeners.add(Listener);
+				return;
+			}
+		}
+		Listener.run();
+	}
+
+	/**
+	 * Runs and removes the listeners.
+	 */
+	private void runListeners()
+	{
+		List<Runnable> toRun;
+		synchronized(this)
+		{
+			toRun = this.listeners;
+			this.listeners = new ArrayList<Runnable>();
+		}
+		for(Runnable r : toRun)
+		{
+			try { r.run(); }
+			catch (Throwable e) { e.printStackTrace(); }
+		}
+	}
+
+	/**
+	 * Cancels the request and aborts an attempt in progress.
+	 * @param MayInterruptIfRunning is ignored, the attempt is aborted.
+	 * @return A boolean with true if cancelled and false if already done.
+	 */
+	@Override
+	public boolean cancel(boolean MayInterruptIfRunning)
+	{
+		synchronized(this)
+		{
+			if(this.done.getCount() == 0) return false;
+			this.cancelled = true;
+			this.done.countDown();
+		}
+		this.httpReq.abort();
+		this.runListeners();
+		return true;
+	}
+
+	/**
+	 * Checks if the request was cancelled.
+	 * @return A boolean with true if cancelled.
+	 */
+	@Override
+	public boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+
+	/**
+	 * Checks if the request has completed.
+	 * @return A boolean with true if done.
+	 */
+	@Override
+	public boolean isDone()
+	{
+		return this.done.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the request to complete.
+	 * @return A httpClientResponse object.
+	 * @throws InterruptedException Exception
+	 * @throws ExecutionException Exception
+	 */
+	@Override
+	public httpClientResponse get() throws InterruptedException, ExecutionException
+	{
+		this.done.await();
+		return this.getResult();
+	}
+
+	/**
+	 * Waits up to the provided time for the request to complete.
+	 * @param Timeout is a long with the time to wait.
+	 * @param Unit is the TimeUnit of the timeout.
+	 * @return A httpClientResponse object.
+	 * @throws InterruptedException Exception
+	 * @throws ExecutionException Exception
+	 * @throws TimeoutException Exception
+	 */
+	@Override
+	public httpClientResponse get(long Timeout, TimeUnit Unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if(!this.done.await(Timeout, Unit)) throw new TimeoutException();
+		return this.getResult();
+	}
+
+	/**
+	 * Gets the result once complete.
+	 * @return A httpClientResponse object.
+	 * @throws ExecutionException Exception
+	 */
+	private synchronized httpClientResponse getResult() throws ExecutionException
+	{
+		if(this.cancelled) throw new CancellationException();
+		if(this.error != null) throw new ExecutionException(this.error);
+		return this.result;
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Class httpRetryPolicy defines when and how long to wait before a
+ * failed httpClient request is tried again. Delays grow exponentially
+ * from the base delay up to the max delay with random jitter so that
+ * many clients don't retry in lock step. Requests that failed to
+ * connect are always safe to retry. Other failures and retryable
+ * status codes are only retried for idempotent methods unless
+ * non-idempotent retries are turned on.
+ *
+ * Retries are also limited by a process wide retry budget so that a
+ * failing service doesn't get a multiple of its normal load. Within
+ * each budget window retries are allowed up to the min retries plus
+ * the budget ratio times the number of requests.
+ * @author Austin Lehman
+ */
+public class httpRetryPolicy
+{
+	/** Retry settings. */
+	private int maxRetries = 3;
+	private long baseDelay = 100;
+	private long maxDelay = 10000;
+	private double multiplier = 2.0;
+	private double jitter = 0.5;
+	private boolean retryNonIdempotent = false;
+	private Set<Integer> retryStatus = new HashSet<Integer>();
+
+	/** Retry budget settings. */
+	private static double budgetRatio = 0.2;
+	private static int budgetMinRetries = 10;
+	private static long budgetWindow = 10000;
+
+	/** Retry budget window state. */
+	private static long windowStart = 0;
+	private static long windowRequests = 0;
+	private static long windowRetries = 0;
+
+	/** Retry counters. */
+	private static long totalRetries = 0;
+	private static long budgetExhausted = 0;
+
+	/**
+	 * Default constructor sets the retry status codes to 429, 502,
+	 * 503 and 504.
+	 */
+	public httpRetryPolicy()
+	{
+		this.retryStatus.add(429);
+		this.retryStatus.add(502);
+		this.retryStatus.add(503);
+		this.retryStatus.add(504);
+	}
+
+	/**
+	 * Sets the max number of retries after the first attempt.
+	 * @param MaxRetries is an int with the max retries.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setMaxRetries(int MaxRetries)
+	{
+		this.maxRetries = MaxRetries;
+		return this;
+	}
+
+	/**
+	 * Gets the max number of retries after the first attempt.
+	 * @return An int with the max retries.
+	 */
+	public int getMaxRetries()
+	{
+		return this.maxRetries;
+	}
+
+	/**
+	 * Sets the delay in milliseconds before the first retry.
+	 * @param BaseDelay is a long with the delay in milliseconds.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setBaseDelay(long BaseDelay)
+	{
+		this.baseDelay = BaseDelay;
+		return this;
+	}
+
+	/**
+	 * Gets the delay in milliseconds before the first retry.
+	 * @return A long with the delay in milliseconds.
+	 */
+	public long getBaseDelay()
+	{
+		return this.baseDelay;
+	}
+
+	/**
+	 * Sets the max delay in milliseconds between retries.
+	 * @param MaxDelay is a long with the max delay in milliseconds.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setMaxDelay(long MaxDelay)
+	{
+		this.maxDelay = MaxDelay;
+		return this;
+	}
+
+	/**
+	 * Gets the max delay in milliseconds between retries.
+	 * @return A long with the max delay in milliseconds.
+	 */
+	public long getMaxDelay()
+	{
+		return this.maxDelay;
+	}
+
+	/**
+	 * Sets the multiplier applied to the delay after each retry.
+	 * @param Multiplier is a double with the multiplier.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setMultiplier(double Multiplier)
+	{
+		this.multiplier = Multiplier;
+		return this;
+	}
+
+	/**
+	 * Gets the multiplier applied to the delay after each retry.
+	 * @return A double with the multiplier.
+	 */
+	public double getMultiplier()
+	{
+		return this.multiplier;
+	}
+
+	/**
+	 * Sets the jitter as the fraction of each delay that is random. With
+	 * 0.5 the delay is between half and all of the computed delay.
+	 * @param Jitter is a double between 0 and 1.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setJitter(double Jitter)
+	{
+		this.jitter = Math.max(0.0, Math.min(1.0, Jitter));
+		return this;
+	}
+
+	/**
+	 * Gets the jitter fraction.
+	 * @return A double with the jitter.
+	 */
+	public double getJitter()
+	{
+		return this.jitter;
+	}
+
+	/**
+	 * Sets whether requests with non-idempotent methods such as POST are
+	 * retried after the request may have reached the server.
+	 * @param RetryNonIdempotent is a boolean with true to retry them.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setRetryNonIdempotent(boolean RetryNonIdempotent)
+	{
+		this.retryNonIdempotent = RetryNonIdempotent;
+		return this;
+	}
+
+	/**
+	 * Gets whether requests with non-idempotent methods are retried.
+	 * @return A boolean with true if they are retried.
+	 */
+	public boolean getRetryNonIdempotent()
+	{
+		return this.retryNonIdempotent;
+	}
+
+	/**
+	 * Sets the response status codes that are retried.
+	 * @param RetryStatus is an int[] with the status codes.
+	 * @return This object.
+	 */
+	public httpRetryPolicy setRetryStatus(int[] RetryStatus)
+	{
+		this.retryStatus.clear();
+		for(int status : RetryStatus) this.retryStatus.add(status);
+		return this;
+	}
+
+	/**
+	 * Checks if the provided status code is retried.
+	 * @param Status is an int with the status code.
+	 * @return A boolean with true if retried.
+	 */
+	public boolean isRetryStatus(int Status)
+	{
+		return this.retryStatus.contains(Status);
+	}
+
+	/**
+	 * Checks if a response with the provided status can be retried.
+	 * @param Method is a String with the request method.
+	 * @param Status is an int with the response status code.
+	 * @param Attempt is an int with the number of the attempt that failed
+	 * starting at 0.
+	 * @return A boolean with true if it can be retried.
+	 */
+	public boolean canRetry(String Method, int Status, int Attempt)
+	{
+		if(Attempt >= this.maxRetries || !this.retryStatus.contains(Status)) return false;
+		return this.retryNonIdempotent || isIdempotent(Method);
+	}
+
+	/**
+	 * Checks if a request that failed with the provided exception can be
+	 * retried. Connect failures are retried for all methods since the
+	 * request wasn't sent. Other IO failures are only retried for
+	 * idempotent methods.
+	 * @param Method is a String with the request method.
+	 * @param E is the IOException the request failed with.
+	 * @param Attempt is an int with the number of the attempt that failed
+	 * starting at 0.
+	 * @return A boolean with true if it can be retried.
+	 */
+	public boolean canRetry(String Method, IOException E, int Attempt)
+	{
+		if(Attempt >= this.maxRetries) return false;
+		if(E instanceof ConnectException || E instanceof ConnectTimeoutException) return true;
+		if(E instanceof NoHttpResponseException || E instanceof InterruptedIOException)
+			return this.retryNonIdempotent || isIdempotent(Method);
+		return false;
+	}
+
+	/**
+	 * Gets the delay in milliseconds before the next retry.
+	 * @param Attempt is an int with the number of the attempt that failed
+	 * starting at 0.
+	 * @param RetryAfter is a long with the milliseconds from a Retry-After
+	 * header or less than 0 if not set.
+	 * @return A long with the delay in milliseconds.
+	 */
+	public long getDelay(int Attempt, long RetryAfter)
+	{
+		double delay = this.baseDelay * Math.pow(this.multiplier, Attempt);
+		delay = Math.min(delay, this.maxDelay);
+		delay -= delay * this.jitter * ThreadLocalRandom.current().nextDouble();
+		if(RetryAfter > delay) delay = Math.min(RetryAfter, this.maxDelay);
+		return (long)delay;
+	}
+
+	/**
+	 * Checks if the provided method is idempotent.
+	 * @param Method is a String with the request method.
+	 * @return A boolean with true if idempotent.
+	 */
+	public static boolean isIdempotent(String Method)
+	{
+		return Method.equals("GET") || Method.equals("HEAD") || Method.equals("PUT")
+				|| Method.equals("DELETE") || Method.equals("OPTIONS") || Method.equals("TRACE");
+	}
+
+	/**
+	 * Counts a request against the retry budget. This is called once for
+	 * the first attempt of each request.
+	 */
+	public static synchronized void recordRequest()
+	{
+		rollWindow();
+		windowRequests++;
+	}
+
+	/**
+	 * Takes a retry from the retry budget.
+	 * @return A boolean with true if the retry is allowed and false if
+	 * the budget is used up.
+	 */
+	public static synchronized boolean acquireRetry()
+	{
+		rollWindow();
+		if(windowRetries >= budgetMinRetries + (long)(budgetRatio * windowRequests))
+		{
+			budgetExhausted++;
+			return false;
+		}
+		windowRetries++;
+		totalRetries++;
+		return true;
+	}
+
+	/**
+	 * Sets the retry budget.
+	 * @param Ratio is a double with the retries allowed per request.
+	 * @param MinRetries is an int with the retries always allowed in a window.
+	 * @param Window is a long with the budget window in milliseconds.
+	 */
+	public static synchronized void setBudget(double Ratio, int MinRetries, long Window)
+	{
+		budgetRatio = Ratio;
+		budgetMinRetries = MinRetries;
+		budgetWindow = Window;
+	}
+
+	/**
+	 * Gets the total number of retries.
+	 * @return A long with the number of retries.
+	 */
+	public static synchronized long getTotalRetries()
+	{
+		return totalRetries;
+	}
+
+	/**
+	 * Gets the number of retries that weren't made because the retry
+	 * budget was used up.
+	 * @return A long with the number of denied retries.
+	 */
+	public static synchronized long getBudgetExhausted()
+	{
+		return budgetExhausted;
+	}
+
+	/**
+	 * Starts a new budget window if the current one has passed.
+	 */
+	private static void rollWindow()
+	{
+		long now = System.currentTimeMillis();
+		if(now - windowStart >= budgetWindow)
+		{
+			windowStart = now;
+			windowRequests = 0;
+			windowRetries = 0;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpRouter is the routing table used by httpServer to find the
+ * handler for a request before calling into the script engine. Routes
+ * are stored in a trie of path segments. A segment is either a literal,
+ * a named parameter such as ':id' that matches any single segment, or
+ * '*' as the last segment which matches the rest of the path and is
+ * set as the '*' parameter. Literal segments take precedence over
+ * parameters which take precedence over '*'. If the preferred branch
+ * has no route for the request method, the next one is tried, so a
+ * 405 is only returned when no branch has a route for the method.
+ * Each trie node is visited at most once, so finding a route is
+ * linear in the length of the path when there's one branch to follow
+ * and at worst linear in the number of trie nodes.
+ * <br><br>
+ * Routes can be added while requests are being served. The trie is 
+ * copy-on-write: add copies the nodes along the new route's path and 
+ * then replaces the root, so find never sees a node that's changing 
+ * and needs no lock.
+ * @author Austin Lehman
+ */
+public class httpRouter
+{
+	/**
+	 * Trie node for a single path segment.
+	 */
+	private static class node
+	{
+		/** Literal child segments. */
+		public Map<String, node> children = new HashMap<String, node>();
+
+		/** Named parameter child and its name. */
+		public node paramChild = null;
+		public String paramName = null;
+
+		/** Wildcard child that matches the rest of the path. */
+		public node wildChild = null;
+
+		/** Handlers by method for routes ending at this node. */
+		public Map<String, Object> handlers = new LinkedHashMap<String, Object>();
+
+		/** Pattern of the routes ending at this node. */
+		public String pattern = null;
+
+		/**
+		 * Default constructor.
+		 */
+		public node() { }
+
+		/**
+		 * Copy constructor. The child nodes are shared with the 
+		 * provided node.
+		 * @param Other is the node to copy.
+		 */
+		public node(node Other)
+		{
+			this.children.putAll(Other.children);
+			this.paramChild = Other.paramChild;
+			this.paramName = Other.paramName;
+			this.wildChild = Other.wildChild;
+			this.handlers.putAll(Other.handlers);
+			this.pattern = Other.pattern;
+		}
+	}
+
+	/**
+	 * Class match is the result of finding a route.
+	 */
+	public static class match
+	{
+		/** HTTP status with 200 if found, 404 if no path matched or 405 if the method isn't allowed. */
+		public int status = 404;
+
+		/** The handler or null if not found. */
+		public Object handler = null;
+
+		/** Path parameters by name. */
+		public Map<String, String> params = new HashMap<String, String>();
+
+		/** Comma separated list of allowed methods for a 405. */
+		public String allow = null;
+
+		/** Method and pattern of the route such as 'GET /users/:id' if found. */
+		public String name = null;
+	}
+
+	/** Root node. Nodes reachable from it are never changed. */
+	private volatile node root = new node();
+
+	/** Number of routes. */
+	private int size = 0;
+
+	/**
+	 * Adds a route. Adding a route with the same method and pattern as
+	 * an existing one replaces its handler. The nodes along the path 
+	 * are copied and the new root is published once the route is added.
+	 * @param Method is a String with the HTTP method or '*' for any method.
+	 * @param Pattern is a String with the path pattern such as '/users/:id'.
+	 * @param Handler is the handler Object.
+	 * @throws ic9exception Exception
+	 */
+	public synchronized void add(String Method, String Pattern, Object Handler) throws ic9exception
+	{
+		String[] segs = split(Pattern);
+		node newRoot = new node(this.root);
+		node cur = newRoot;
+		for(int i = 0; i < segs.length; i++)
+		{
+			String seg = segs[i];
+			if(seg.equals("*"))
+			{
+				if(i != segs.length - 1) throw new ic9exception("httpRouter.add(): Wildcard '*' must be the last segment in pattern '" + Pattern + "'.");
+				cur.wildChild = cur.wildChild == null ? new node() : new node(cur.wildChild);
+				cur = cur.wildChild;
+			}
+			else if(seg.startsWith(":"))
+			{
+				String name = seg.substring(1);
+				if(name.length() == 0) throw new ic9exception("httpRouter.add(): Parameter without a name in pattern '" + Pattern + "'.");
+				if(cur.paramChild == null)
+				{
+					cur.paramChild = new node();
+					cur.paramName = name;
+				}
+				else if(!cur.paramName.equals(name))
+				{
+					throw new ic9exception("httpRouter.add(): Parameter ':" + name + "' in pattern '" + Pattern + "' conflicts with existing parameter ':" + cur.paramName + "'.");
+				}
+				else
+				{
+					cur.paramChild = new node(cur.paramChild);
+				}
+				cur = cur.paramChild;
+			}
+			else
+			{
+				node next = cur.children.get(seg);
+				next = next == null ? new node() : new node(next);
+				cur.children.put(seg, next);
+				cur = next;
+			}
+		}
+
+		if(cur.handlers.put(Method.toUpperCase(), Handler) == null) this.size++;
+		cur.pattern = Pattern;
+		this.root = newRoot;
+	}
+
+	/**
+	 * Finds the route for the provided method and path.
+	 * @param Method is a String with the HTTP method.
+	 * @param Path is a String with the request path.
+	 * @return A match object with the result.
+	 */
+	public match find(String Method, String Path)
+	{
+		match ret = new match();
+		String[] segs = split(Path);
+		TreeSet<String> allow = new TreeSet<String>();
+		node n = this.find(this.root, segs, 0, Method, ret.params, allow);
+
+		if(n != null)
+		{
+			String method = handlerMethod(n, Method);
+			ret.status = 200;
+			ret.handler = n.handlers.get(method);
+			ret.name = method + " " + n.pattern;
+		}
+		else if(!allow.isEmpty())
+		{
+			ret.status = 405;
+			if(allow.contains("GET")) allow.add("HEAD");
+			StringBuilder sb = new StringBuilder();
+			for(String m : allow)
+			{
+				if(sb.length() > 0) sb.append(", ");
+				sb.append(m);
+			}
+			ret.allow = sb.toString();
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the number of routes.
+	 * @return An int with the number of routes.
+	 */
+	public synchronized int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Gets the routes.
+	 * @return A Map with the handlers by route name such as
+	 * 'GET /users/:id'.
+	 */
+	public Map<String, Object> getRoutes()
+	{
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		this.getRoutes(this.root, ret);
+		return ret;
+	}
+
+	/**
+	 * Finds the node with a handler for the provided method for the
+	 * provided segments starting at the provided index. Literal children
+	 * are tried first, then the parameter child and then the wildcard
+	 * child. Parameters are set as they're matched and removed again if
+	 * the branch doesn't match. Nodes that match the path but have no
+	 * handler for the method add their methods to the allowed set.
+	 * @param Cur is the current node.
+	 * @param Segs is a String[] with the path segments.
+	 * @param Idx is an int with the index of the next segment.
+	 * @param Method is a String with the HTTP method.
+	 * @param Params is a Map with the matched parameters.
+	 * @param Allow is a Set with the methods of path matches.
+	 * @return The node or null if no route matched.
+	 */
+	private node find(node Cur, String[] Segs, int Idx, String Method, Map<String, String> Params, Set<String> Allow)
+	{
+		if(Idx == Segs.length)
+		{
+			if(accepts(Cur, Method, Allow)) return Cur;
+			if(Cur.wildChild != null && accepts(Cur.wildChild, Method, Allow))
+			{
+				Params.put("*", "");
+				return Cur.wildChild;
+			}
+			return null;
+		}
+
+		String seg = Segs[Idx];
+		node child = Cur.children.get(seg);
+		if(child != null)
+		{
+			node n = this.find(child, Segs, Idx + 1, Method, Params, Allow);
+			if(n != null) return n;
+		}
+
+		if(Cur.paramChild != null)
+		{
+			Params.put(Cur.paramName, seg);
+			node n = this.find(Cur.paramChild, Segs, Idx + 1, Method, Params, Allow);
+			if(n != null) return n;
+			Params.remove(Cur.paramName);
+		}
+
+		if(Cur.wildChild != null && accepts(Cur.wildChild, Method, Allow))
+		{
+			StringBuilder sb = new StringBuilder();
+			for(int i = Idx; i < Segs.length; i++)
+			{
+				if(i > Idx) sb.append("/");
+				sb.append(Segs[i]);
+			}
+			Params.put("*", sb.toString());
+			return Cur.wildChild;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds the routes of the provided node and its children to the
+	 * provided map.
+	 * @param Cur is the current node.
+	 * @param Routes is a Map with the handlers by route name.
+	 */
+	private void getRoutes(node Cur, Map<String, Object> Routes)
+	{
+		for(Map.Entry<String, Object> ent : Cur.handlers.entrySet())
+		{
+			Routes.put(ent.getKey() + " " + Cur.pattern, ent.getValue());
+		}
+		for(node child : Cur.children.values()) this.getRoutes(child, Routes);
+		if(Cur.paramChild != null) this.getRoutes(Cur.paramChild, Routes);
+		if(Cur.wildChild != null) this.getRoutes(Cur.wildChild, Routes);
+	}
+
+	/**
+	 * Checks if the provided node has a handler for the provided method.
+	 * If it has handlers but none for the method they're added to the
+	 * allowed set.
+	 * @param N is the node to check.
+	 * @param Method is a String with the HTTP method.
+	 * @param Allow is a Set with the methods of path matches.
+	 * @return A boolean with true if it has a handler for the method.
+	 */
+	private static boolean accepts(node N, String Method, Set<String> Allow)
+	{
+		if(N.handlers.isEmpty()) return false;
+		if(handlerMethod(N, Method) != null) return true;
+		Allow.addAll(N.handlers.keySet());
+		return false;
+	}
+
+	/**
+	 * Gets the key of the handler of the provided node for the provided
+	 * method. HEAD requests use the GET handler if there's no HEAD
+	 * handler and '*' handlers match any method.
+	 * @param N is the node.
+	 * @param Method is a String with the HTTP method.
+	 * @return A String with the handler method key or null if none.
+	 */
+	private static String handlerMethod(node N, String Method)
+	{
+		if(N.handlers.containsKey(Method)) return Method;
+		if(Method.equals("HEAD") && N.handlers.containsKey("GET")) return "GET";
+		if(N.handlers.containsKey("*")) return "*";
+		return null;
+	}
+
+	/**
+	 * Splits the provided path into segments ignoring empty segments.
+	 * @param Path is a String with the path.
+	 * @return A String[] with the segments.
+	 */
+	private static String[] split(String Path)
+	{
+		List<String> ret = new ArrayList<String>();
+		int start = 0;
+		int len = Path.length();
+		for(int i = 0; i <= len; i++)
+		{
+			if(i == len || Path.charAt(i) == '/')
+			{
+				if(i > start) ret.add(Path.substring(start, i));
+				start = i + 1;
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+}
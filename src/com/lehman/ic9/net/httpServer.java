@@ -16,13 +16,19 @@
 
 package com.lehman.ic9.net;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -41,14 +47,22 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.server.session.HashSessionIdManager;
-import org.eclipse.jetty.server.session.HashSessionManager;
 import org.eclipse.jetty.server.session.SessionHandler;
+import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
 import com.lehman.ic9.ic9engine;
 import com.lehman.ic9.ic9exception;
 import com.lehman.ic9.net.httpWebsocketServlet.httpWebsocketCreator;
@@ -71,8 +85,11 @@ enum authTypes
  */
 public class httpServer extends AbstractHandler
 {
-	/** Tell Jetty to allow multipart form data. */
-	private static final MultipartConfigElement MULTI_PART_CONFIG = new MultipartConfigElement(System.getProperty("java.io.tmpdir"));
+	/** Server logger, set by httpServerLogger.initLogger() before the server is created. */
+	private static final Logger log = Log.getLogger(httpServer.class);
+	
+	/** Tell Jetty to allow multipart form data. Also holds the multipart size limits. */
+	private MultipartConfigElement multipartConfig = new MultipartConfigElement(System.getProperty("java.io.tmpdir"), -1, -1, 65536);
 	
 	private ic9engine eng = null;
 	private Server srv = null;
@@ -91,6 +108,9 @@ public class httpServer extends AbstractHandler
 	
 	private httpWebsocketCreator wsCreator = null;
 	
+	/** Engine pool for handling requests or null to use the server engine. */
+	private httpEnginePool enginePool = null;
+	
 	/** Flag to use SSL. */
 	private boolean useSsl = false;
 	
@@ -100,6 +120,43 @@ public class httpServer extends AbstractHandler
 	/** Keystore password. */
 	private String keyStorePass = "";
 	
+	/** Routing table. */
+	private httpRouter router = new httpRouter();
+	
+	/** Call the handle method for requests that don't match a route. */
+	private boolean routeFallback = false;
+	
+	/** Milliseconds before an async request times out. */
+	private long asyncTimeout = 30000;
+	
+	/** Request metrics or null if metrics are off. */
+	private httpServerMetrics metrics = null;
+	
+	/** Publish the metrics over JMX. */
+	private boolean metricsJmx = false;
+	
+	/** Path of the metrics endpoint or null for none. */
+	private String metricsPath = null;
+	
+	/** Response compression handler or null if compression is off. */
+	private httpGzipHandler gzip = null;
+	
+	/** Access log or null if access logging is off. */
+	private httpAccessLog accessLog = null;
+	
+	/** Session store or null for the default memory store. */
+	private httpSessionStore sessionStore = null;
+	
+	/** Seconds a session is kept after its last request and seconds between expiry sweeps. */
+	private int sessionTimeout = 1800;
+	private int sessionSweepInterval = 60;
+	
+	/** Session manager created when the server starts. */
+	private httpSessionManager sessionManager = null;
+	
+	/** Static content contexts served ahead of the script handler. */
+	private List<ServletContextHandler> staticContexts = new ArrayList<ServletContextHandler>();
+	
 	/*
 	 * Configuration.
 	 */
@@ -184,30 +241,388 @@ public class httpServer extends AbstractHandler
 			// Allow multipart form data submissions.
 			if (request.getContentType() != null && request.getContentType().startsWith("multipart/form-data"))
 			{
-				baseRequest.setAttribute(Request.__MULTIPART_CONFIG_ELEMENT, MULTI_PART_CONFIG);
+				baseRequest.setAttribute(Request.__MULTIPART_CONFIG_ELEMENT, this.multipartConfig);
 			}
 			
 			baseRequest.setHandled(true);
+			long start = System.nanoTime();
+			
+			if(this.metricsPath != null && target.equals(this.metricsPath))
+			{
+				response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+				response.getWriter().print(this.metrics.toPrometheus());
+				return;
+			}
+			
+			// Resolve the route before entering the engine.
+			httpRouter.match route = null;
+			if(this.router.getSize() > 0)
+			{
+				route = this.router.find(request.getMethod(), target);
+				if(route.status != 200)
+				{
+					if(!this.routeFallback)
+					{
+						if(route.status == 405) response.setHeader("Allow", route.allow);
+						response.sendError(route.status);
+						return;
+					}
+					route = null;
+				}
+			}
+			
+			if(this.enginePool != null)
+			{
+				this.handlePooled(target, request, response, route, start);
+				return;
+			}
 			
 			try
 			{
-				ScriptEngine se = this.eng.getScriptEngine();
-				Invocable inv = (Invocable) se;
-				inv.invokeMethod(this.jsServer, "handle", this.setRequest(this.eng, request, target), this.setResponse(this.eng, response));
+				Object req = this.setRequest(this.eng, request, target);
+				Object res = this.setResponse(this.eng, request, response);
+				Object ret = null;
+				long jsStart = System.nanoTime();
+				if(route != null)
+				{
+					ret = this.invokeRoute(this.eng, route, req, res);
+				}
+				else
+				{
+					ScriptEngine se = this.eng.getScriptEngine();
+					Invocable inv = (Invocable) se;
+					ret = inv.invokeMethod(this.jsServer, "handle", req, res);
+				}
+				long jsTime = System.nanoTime() - jsStart;
+				this.awaitResult(this.eng, request, res, ret);
+				this.recordTimes(request, route, start, jsTime);
 			}
 			catch (ScriptException e)
 			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				this.handlerFailed(request, response, target, e);
 			}
 			catch (NoSuchMethodException e)
 			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				this.handlerFailed(request, response, target, e);
+			}
+			catch (RuntimeException e)
+			{
+				// Function handlers throw JS errors unwrapped.
+				this.handlerFailed(request, response, target, e);
+			}
+		}
+	}
+	
+	/**
+	 * Handles the request with an engine borrowed from the engine pool. The 
+	 * global handle(req, res) function defined by the pool handler script is 
+	 * called with request and response objects created in that engine. The 
+	 * engine is returned to the pool once the handler returns, even if it 
+	 * returned a thenable or started a stream. Callbacks that run in the 
+	 * engine later take the engine lock when they run. If no engine is 
+	 * available within the pool borrow timeout the request gets a 503.
+	 * @param target is a String with the target request.
+	 * @param request is a HttpServletRequest object.
+	 * @param response is a HttpServletResponse object.
+	 * @param route is the matched route or null to call handle.
+	 * @param start is a long with the System.nanoTime() the request started at.
+	 */
+	private void handlePooled(String target, HttpServletRequest request, HttpServletResponse response, httpRouter.match route, long start)
+	{
+		ic9engine peng = null;
+		try
+		{
+			peng = this.enginePool.borrow();
+			if(peng == null)
+			{
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+			Object req = this.setRequest(peng, request, target);
+			Object res = this.setResponse(peng, request, response);
+			Object ret = null;
+			long jsStart = System.nanoTime();
+			if(route != null) ret = this.invokeRoute(peng, route, req, res);
+			else ret = peng.invokeFunction("handle", req, res);
+			long jsTime = System.nanoTime() - jsStart;
+			this.awaitResult(peng, request, res, ret);
+			this.recordTimes(request, route, start, jsTime);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			// The client is gone.
+		}
+		catch (ScriptException e)
+		{
+			this.handlerFailed(request, response, target, e);
+		}
+		catch (NoSuchMethodException e)
+		{
+			this.handlerFailed(request, response, target, e);
+		}
+		catch (RuntimeException e)
+		{
+			// Function handlers throw JS errors unwrapped.
+			this.handlerFailed(request, response, target, e);
+		}
+		finally
+		{
+			if(peng != null) { this.enginePool.release(peng); }
+		}
+	}
+	
+	/**
+	 * Logs an exception thrown by a request handler with the server logger 
+	 * and sends a 500 if nothing has been sent yet. If the handler had put 
+	 * the request in async mode, it's completed so the client isn't left 
+	 * waiting for the async timeout.
+	 * @param request is a HttpServletRequest object.
+	 * @param response is a HttpServletResponse object.
+	 * @param target is a String with the target request.
+	 * @param e is the Exception thrown by the handler.
+	 */
+	private void handlerFailed(HttpServletRequest request, HttpServletResponse response, String target, Exception e)
+	{
+		log.warn("httpServer.handle(): Handler failed for " + request.getMethod() + " " + target, e);
+		try
+		{
+			if(!response.isCommitted())
+			{
+				response.reset();
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			if(request.isAsyncStarted()) request.getAsyncContext().complete();
+		}
+		catch (IOException ex)
+		{
+			// The client is gone.
+		}
+		catch (IllegalStateException ex)
+		{
+			// The async request already completed.
+		}
+	}
+	
+	/**
+	 * Records the route times of a request if metrics are on. If the 
+	 * request is async, because the handler returned a thenable or started 
+	 * a stream, the times are recorded once the async response completes 
+	 * so the total time includes the async part.
+	 * @param request is a HttpServletRequest object.
+	 * @param route is the matched route or null if handled by handle.
+	 * @param start is a long with the System.nanoTime() the request started at.
+	 * @param jsTime is a long with the nanoseconds spent in the JS handler.
+	 */
+	private void recordTimes(HttpServletRequest request, httpRouter.match route, final long start, final long jsTime)
+	{
+		if(this.metrics == null) return;
+		final String name = route != null ? route.name : httpServerMetrics.HANDLE_ROUTE;
+		final httpServerMetrics mets = this.metrics;
+		if(request.isAsyncStarted())
+		{
+			try
+			{
+				request.getAsyncContext().addListener(new AsyncListener()
+				{
+					@Override
+					public void onComplete(AsyncEvent Event) throws IOException
+					{
+						mets.record(name, jsTime, System.nanoTime() - start);
+					}
+					
+					@Override
+					public void onTimeout(AsyncEvent Event) throws IOException { }
+					
+					@Override
+					public void onError(AsyncEvent Event) throws IOException { }
+					
+					@Override
+					public void onStartAsync(AsyncEvent Event) throws IOException { }
+				});
+				return;
+			}
+			catch (IllegalStateException e)
+			{
+				// Already complete.
+			}
+		}
+		mets.record(name, jsTime, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Turns on request metrics. Jetty request statistics are collected for 
+	 * the whole handler chain and each route gets latency histograms of its 
+	 * JS handler time and total time. (See httpServerMetrics.) This method 
+	 * must be called before calling startServer() method.
+	 * @param Jmx is a boolean with true to publish the metrics over JMX.
+	 * @param Path is a String with the path to serve the metrics on in the 
+	 * Prometheus text format or null for none.
+	 */
+	public void setMetrics(boolean Jmx, String Path)
+	{
+		this.metrics = new httpServerMetrics();
+		this.metricsJmx = Jmx;
+		this.metricsPath = Path;
+	}
+	
+	/**
+	 * Gets the request metrics.
+	 * @return A httpServerMetrics object or null if metrics are off.
+	 */
+	public httpServerMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Calls the handler of the provided route with the provided request and 
+	 * response objects. The path parameters are set on the params member of 
+	 * the request. A String handler is the name of a global 
+	 * function in the provided engine. A function handler is called in the 
+	 * server engine with the JS server object as this, which is only allowed 
+	 * without an engine pool.
+	 * @param eng is the ic9engine handling the request.
+	 * @param route is the matched route.
+	 * @param req is the JS request object.
+	 * @param res is the JS response object.
+	 * @return The Object returned by the handler.
+	 * @throws NoSuchMethodException Exception
+	 * @throws ScriptException Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private Object invokeRoute(ic9engine eng, httpRouter.match route, Object req, Object res) throws NoSuchMethodException, ScriptException
+	{
+		if(!route.params.isEmpty())
+		{
+			Map<String, Object> params = (Map<String, Object>)((Map<String, Object>)req).get("params");
+			params.putAll(route.params);
+		}
+		
+		if(route.handler instanceof String) return eng.invokeFunction((String)route.handler, req, res);
+		return ((ScriptObjectMirror)route.handler).call(this.jsServer, req, res);
+	}
+	
+	/**
+	 * Puts the request in async mode if the handler returned a thenable, 
+	 * which is any JS object with a then function such as a HttpFuture. 
+	 * The Jetty worker thread is released when the handler returns and the 
+	 * response is completed when the thenable resolves or rejects. A 
+	 * request that isn't complete after the async timeout gets a 503.
+	 * @param eng is the ic9engine handling the request.
+	 * @param request is a HttpServletRequest object.
+	 * @param res is the JS response object.
+	 * @param ret is the Object returned by the handler.
+	 * @return A boolean with true if the request is now async.
+	 */
+	private boolean awaitResult(ic9engine eng, HttpServletRequest request, Object res, Object ret)
+	{
+		Object then = ret instanceof ScriptObjectMirror ? ((ScriptObjectMirror)ret).getMember("then") : null;
+		if(!(then instanceof ScriptObjectMirror) || !((ScriptObjectMirror)then).isFunction())
+		{
+			return false;
+		}
+		
+		AsyncContext actx = request.startAsync();
+		actx.setTimeout(this.asyncTimeout);
+		httpServerAsync async = new httpServerAsync(actx);
+		actx.addListener(async);
+		try
+		{
+			eng.invokeMethod(res, "awaitResult", ret, async);
+		}
+		catch (NoSuchMethodException e)
+		{
+			async.reject(e.getMessage());
+		}
+		catch (ScriptException e)
+		{
+			async.reject(e.getMessage());
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets the number of milliseconds an async request can take before it's 
+	 * completed with a 503. See awaitResult for async requests.
+	 * @param AsyncTimeout is a long with the timeout in milliseconds or 0 
+	 * for no timeout.
+	 */
+	public void setAsyncTimeout(long AsyncTimeout)
+	{
+		this.asyncTimeout = AsyncTimeout;
+	}
+	
+	/**
+	 * Gets the number of milliseconds an async request can take.
+	 * @return A long with the timeout in milliseconds.
+	 */
+	public long getAsyncTimeout()
+	{
+		return this.asyncTimeout;
+	}
+	
+	/**
+	 * Adds a route. Requests matching a route call its handler instead of 
+	 * the handle method. Once a route is added, requests that don't match 
+	 * any route get a 404, or a 405 with the Allow header if only the 
+	 * method didn't match, without calling into the engine unless route 
+	 * fallback is set. HEAD requests use the GET route if there's no 
+	 * HEAD route.
+	 * @param Method is a String with the HTTP method or '*' for any method.
+	 * @param Pattern is a String with the path pattern. Segments starting 
+	 * with ':' are parameters and a last segment of '*' matches the rest of 
+	 * the path. For example '/users/:id' or '/files/*'.
+	 * @param Handler is a JS function called with (req, res) or a String 
+	 * with the name of a global function. When using an engine pool the 
+	 * handler must be a function name and the global function is called 
+	 * in the pool engine handling the request.
+	 * @throws ic9exception Exception
+	 */
+	public void route(String Method, String Pattern, Object Handler) throws ic9exception
+	{
+		if(!(Handler instanceof String) && !(Handler instanceof ScriptObjectMirror && ((ScriptObjectMirror)Handler).isFunction()))
+		{
+			throw new ic9exception("httpServer.route(): Expecting handler to be a function or function name.");
+		}
+		if(this.enginePool != null && !(Handler instanceof String))
+		{
+			throw new ic9exception("httpServer.route(): Route '" + Method + " " + Pattern + "' handler must be a global function name when using an engine pool.");
+		}
+		this.router.add(Method, Pattern, Handler);
+	}
+	
+	/**
+	 * Checks that all routes have function name handlers, which is 
+	 * required with an engine pool. A function handler belongs to the 
+	 * server engine and can't be called in a pool engine.
+	 * @param Method is a String with the calling method name.
+	 * @throws ic9exception Exception
+	 */
+	private void checkPoolRoutes(String Method) throws ic9exception
+	{
+		for(Map.Entry<String, Object> ent : this.router.getRoutes().entrySet())
+		{
+			if(!(ent.getValue() instanceof String))
+			{
+				throw new ic9exception("httpServer." + Method + "(): Route '" + ent.getKey() + "' handler must be a global function name when using an engine pool.");
 			}
 		}
 	}
 	
+	/**
+	 * Sets whether requests that don't match a route are passed to the 
+	 * handle method instead of getting a 404 or 405.
+	 * @param RouteFallback is a boolean with true to call handle.
+	 */
+	public void setRouteFallback(boolean RouteFallback)
+	{
+		this.routeFallback = RouteFallback;
+	}
+	
 	/**
 	 * Initializes the server prior to starting the server. This 
 	 * method handles applying any configuration including setting 
@@ -216,6 +631,11 @@ public class httpServer extends AbstractHandler
 	 */
 	private void initServer() throws Exception
 	{
+		if(this.enginePool != null)
+		{
+			this.enginePool.init();
+		}
+		
 		if(this.maxThreads > 0)
 		{
 			QueuedThreadPool threadPool = new QueuedThreadPool(this.maxThreads, this.minThreads);
@@ -294,7 +714,34 @@ public class httpServer extends AbstractHandler
 	    ServletContextHandler ctx = new ServletContextHandler(ServletContextHandler.SESSIONS);
 		ctx.setContextPath("/");
 		ctx.addServlet(httpWebsocketServlet.class, "/");
-        this.srv.setHandler(ctx);
+		
+		// Static content contexts are matched by prefix before the script context.
+		org.eclipse.jetty.server.Handler root = ctx;
+		if(this.staticContexts.size() > 0)
+		{
+			ContextHandlerCollection contexts = new ContextHandlerCollection();
+			for(ServletContextHandler sctx : this.staticContexts) contexts.addHandler(sctx);
+			contexts.addHandler(ctx);
+			root = contexts;
+		}
+		
+		// Wrapping handlers apply to all contexts.
+		root = this.wrapHandler(this.gzip, root);
+		if(this.metrics != null)
+		{
+			StatisticsHandler stats = this.metrics.getStatisticsHandler();
+			root = this.wrapHandler(stats, root);
+			if(this.srv.getThreadPool() instanceof QueuedThreadPool) this.metrics.setThreadPool((QueuedThreadPool)this.srv.getThreadPool());
+			if(this.metricsJmx) this.metrics.registerJmx(this.host + ":" + this.port);
+		}
+		this.srv.setHandler(root);
+		
+		// Access log is written by its own thread.
+		if(this.accessLog != null)
+		{
+			this.accessLog.start();
+			this.srv.setRequestLog(this.accessLog);
+		}
 	    
 		// Websockets
 		if(this.useWebsockets)
@@ -305,12 +752,140 @@ public class httpServer extends AbstractHandler
 			this.wsfact.setCreator(this.wsCreator);
 		}
 		
-		HashSessionManager hsm = new HashSessionManager();
-        SessionHandler sessions = new SessionHandler(hsm);
+		// Sessions are kept in a bounded memory store unless another store is set.
+		if(this.sessionStore == null) this.sessionStore = new httpMemorySessionStore(100000);
+		this.sessionManager = new httpSessionManager(this.sessionStore, this.sessionTimeout, this.sessionSweepInterval);
+		if(this.metrics != null) this.metrics.setSessionManager(this.sessionManager);
+        SessionHandler sessions = new SessionHandler(this.sessionManager);
         ctx.setHandler(sessions);
         sessions.setHandler(this);
 	}
 	
+	/**
+	 * Sets the provided handler wrapper to wrap the provided handler.
+	 * @param Wrapper is a HandlerWrapper or null to not wrap.
+	 * @param Inner is the Handler to wrap.
+	 * @return The wrapper or the inner handler if the wrapper is null.
+	 */
+	private org.eclipse.jetty.server.Handler wrapHandler(HandlerWrapper Wrapper, org.eclipse.jetty.server.Handler Inner)
+	{
+		if(Wrapper == null) return Inner;
+		Wrapper.setHandler(Inner);
+		return Wrapper;
+	}
+	
+	/**
+	 * Turns on gzip compression of responses for clients that accept it. 
+	 * Responses that already have a Content-Encoding, such as precompressed 
+	 * static files, aren't compressed again. This method must be called 
+	 * before calling startServer() method.
+	 * @param MinSize is an int with the min response size in bytes to compress.
+	 * @param Level is an int with the compression level from 1 to 9 or -1 
+	 * for the default.
+	 * @param MimeTypes is a String[] with the mime types to compress or null 
+	 * for all types except Jetty's defaults of images, audio, video and 
+	 * already compressed formats.
+	 */
+	public void setCompression(int MinSize, int Level, String[] MimeTypes)
+	{
+		this.gzip = new httpGzipHandler();
+		this.gzip.setMinGzipSize(MinSize);
+		this.gzip.setCompressionLevel(Level);
+		if(MimeTypes != null && MimeTypes.length > 0) this.gzip.setIncludedMimeTypes(MimeTypes);
+		
+		// Events have to reach the client as they're flushed.
+		this.gzip.addExcludedMimeTypes("text/event-stream");
+	}
+	
+	/**
+	 * Gets the response compression handler.
+	 * @return A httpGzipHandler or null if compression is off.
+	 */
+	public httpGzipHandler getCompression()
+	{
+		return this.gzip;
+	}
+	
+	/**
+	 * Sets the session store and session settings. By default sessions are 
+	 * kept in a httpMemorySessionStore of up to 100000 sessions. This method 
+	 * must be called before calling startServer() method.
+	 * @param Store is the httpSessionStore to keep sessions in.
+	 * @param Timeout is an int with the seconds a session is kept after its 
+	 * last request or 0 or less to never expire.
+	 * @param SweepInterval is an int with the seconds between expiry sweeps.
+	 */
+	public void setSessionStore(httpSessionStore Store, int Timeout, int SweepInterval)
+	{
+		this.sessionStore = Store;
+		this.sessionTimeout = Timeout;
+		this.sessionSweepInterval = SweepInterval;
+	}
+	
+	/**
+	 * Gets the session manager.
+	 * @return A httpSessionManager object or null if the server hasn't started.
+	 */
+	public httpSessionManager getSessionManager()
+	{
+		return this.sessionManager;
+	}
+	
+	/**
+	 * Sets the multipart size limits. The limits apply to parts read with 
+	 * the request parts member and to parts streamed with httpMultipartReader. 
+	 * This method must be called before calling startServer() method.
+	 * @param MaxPartSize is a long with the max size of a part in bytes or 
+	 * -1 for no limit.
+	 * @param MaxTotalSize is a long with the max size of a multipart request 
+	 * in bytes or -1 for no limit.
+	 * @param FileSizeThreshold is an int with the size in bytes after which 
+	 * parts read with the request parts member are written to a temp file. 
+	 * Jetty keeps parts in memory if this is 0.
+	 */
+	public void setMultipartLimits(long MaxPartSize, long MaxTotalSize, int FileSizeThreshold)
+	{
+		this.multipartConfig = new MultipartConfigElement(System.getProperty("java.io.tmpdir"), MaxPartSize, MaxTotalSize, FileSizeThreshold);
+	}
+	
+	/**
+	 * Turns on the access log. Each request is queued when it completes and 
+	 * written in batches by a background thread. (See httpAccessLog.) This 
+	 * method must be called before calling startServer() method.
+	 * @param FileName is a String with the log file name.
+	 * @param Format is a String with 'ncsa' for the NCSA combined format or 
+	 * 'json' for a JSON object per line.
+	 * @param MaxSize is a long with the size in bytes to rotate the file at 
+	 * or 0 to not rotate on size.
+	 * @param Daily is a boolean with true to rotate the file when the day changes.
+	 * @param MaxFiles is an int with the number of rotated files to keep or 
+	 * 0 to keep all of them.
+	 * @param BufferSize is an int with the number of entries that can be 
+	 * queued before new entries are dropped.
+	 * @param FlushInterval is a long with the max milliseconds an entry is 
+	 * queued before it's written.
+	 * @throws ic9exception Exception
+	 */
+	public void setAccessLog(String FileName, String Format, long MaxSize, boolean Daily, int MaxFiles, int BufferSize, long FlushInterval) throws ic9exception
+	{
+		httpAccessLog.logFormat fmt;
+		if(Format.equalsIgnoreCase("ncsa")) fmt = httpAccessLog.logFormat.NCSA;
+		else if(Format.equalsIgnoreCase("json")) fmt = httpAccessLog.logFormat.JSON;
+		else throw new ic9exception("httpServer.setAccessLog(): Unknown access log format '" + Format + "'.");
+		
+		this.accessLog = new httpAccessLog(FileName, fmt, MaxSize, Daily, MaxFiles, BufferSize);
+		this.accessLog.setFlushInterval(FlushInterval);
+	}
+	
+	/**
+	 * Gets the access log.
+	 * @return A httpAccessLog object or null if access logging is off.
+	 */
+	public httpAccessLog getAccessLog()
+	{
+		return this.accessLog;
+	}
+	
 	/**
 	 * Sets the SSL key store information and sets the use SSL flag 
 	 * for the server. This method must be called before calling 
@@ -332,6 +907,96 @@ public class httpServer extends AbstractHandler
 		this.keyStorePass = KeyStorePassword;
 	}
 	
+	/**
+	 * Serves the files in the provided directory under the provided URL 
+	 * prefix without calling into the script engine. Files are served by 
+	 * Jetty's DefaultServlet which sends them from memory mapped buffers 
+	 * and caches small files, sets ETag and Last-Modified headers and 
+	 * answers conditional requests with 304, and supports range requests. 
+	 * If gzip is set and the client accepts gzip, a precompressed 'name.gz' 
+	 * file next to the requested file is sent in its place. This method 
+	 * must be called before calling startServer() method.
+	 * @param Prefix is a String with the URL prefix such as '/static'.
+	 * @param Dir is a String with the directory to serve.
+	 * @param Etags is a boolean with true to set ETag headers.
+	 * @param AcceptRanges is a boolean with true to support range requests.
+	 * @param Gzip is a boolean with true to serve precompressed .gz files.
+	 * @param DirAllowed is a boolean with true to list directories.
+	 * @param CacheControl is a String with the Cache-Control header to set 
+	 * or null to not set it.
+	 * @throws ic9exception Exception
+	 */
+	public void serveStatic(String Prefix, String Dir, boolean Etags, boolean AcceptRanges, boolean Gzip, boolean DirAllowed, String CacheControl) throws ic9exception
+	{
+		File dir = new File(Dir);
+		if(!dir.isDirectory()) throw new ic9exception("httpServer.serveStatic(): Directory '" + Dir + "' couldn't be found.");
+		
+		String prefix = Prefix.startsWith("/") ? Prefix : "/" + Prefix;
+		while(prefix.length() > 1 && prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+		
+		ServletContextHandler sctx = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		sctx.setContextPath(prefix);
+		sctx.setResourceBase(dir.getAbsolutePath());
+		
+		ServletHolder holder = new ServletHolder("static" + prefix, DefaultServlet.class);
+		holder.setInitParameter("etags", Boolean.toString(Etags));
+		holder.setInitParameter("acceptRanges", Boolean.toString(AcceptRanges));
+		holder.setInitParameter("gzip", Boolean.toString(Gzip));
+		holder.setInitParameter("dirAllowed", Boolean.toString(DirAllowed));
+		holder.setInitParameter("useFileMappedBuffer", "true");
+		if(CacheControl != null) holder.setInitParameter("cacheControl", CacheControl);
+		sctx.addServlet(holder, "/");
+		
+		this.staticContexts.add(sctx);
+	}
+	
+	/**
+	 * Sets the server to handle requests with a pool of engines instead of 
+	 * the engine the server was created in. Each engine in the pool has its 
+	 * own global scope and evaluates the provided handler script once when 
+	 * the server starts. The handler script must define a global 
+	 * handle(req, res) function which is then called for each request. Only 
+	 * one request runs in an engine at a time, so the size of the pool is 
+	 * the number of requests that can be handled concurrently. Websocket 
+	 * upgrade requests are still handled by the server engine. This method 
+	 * must be called before calling startServer() method.
+	 * @param Size is an int with the number of engines. If 0 or less the 
+	 * number of available processors is used.
+	 * @param ScriptFile is a String with the handler script file name.
+	 * @throws ic9exception Exception
+	 */
+	public void setEnginePool(int Size, String ScriptFile) throws ic9exception
+	{
+		this.checkPoolRoutes("setEnginePool");
+		this.enginePool = new httpEnginePool(Size, ScriptFile);
+	}
+	
+	/**
+	 * Sets the server to handle requests with a pool of engines and sets 
+	 * the number of milliseconds a request waits for an engine before it 
+	 * gets a 503. (See setEnginePool(int, String).)
+	 * @param Size is an int with the number of engines. If 0 or less the 
+	 * number of available processors is used.
+	 * @param ScriptFile is a String with the handler script file name.
+	 * @param BorrowTimeout is a long with the timeout in milliseconds or 
+	 * 0 to wait until an engine is available.
+	 * @throws ic9exception Exception
+	 */
+	public void setEnginePool(int Size, String ScriptFile, long BorrowTimeout) throws ic9exception
+	{
+		this.setEnginePool(Size, ScriptFile);
+		this.enginePool.setBorrowTimeout(BorrowTimeout);
+	}
+	
+	/**
+	 * Gets the engine pool or null if not set.
+	 * @return A httpEnginePool object or null.
+	 */
+	public httpEnginePool getEnginePool()
+	{
+		return this.enginePool;
+	}
+	
 	/**
 	 * Sets the flag to use websockets.
 	 */
@@ -355,15 +1020,15 @@ public class httpServer extends AbstractHandler
 		Object ret = null;
 		try
 		{
-			ret = this.eng.invokeMethod(this.jsServer, "onAccept", this.setRequest(this.eng, request, target), this.setResponse(this.eng, response));
+			ret = this.eng.invokeMethod(this.jsServer, "onAccept", this.setRequest(this.eng, request, target), this.setResponse(this.eng, request, response));
 		}
 		catch (NoSuchMethodException e)
 		{
-			e.printStackTrace();
+			log.warn("httpServer.callOnAcceptWs(): onAccept failed", e);
 		}
 		catch (ScriptException e)
 		{
-			e.printStackTrace();
+			log.warn("httpServer.callOnAcceptWs(): onAccept failed", e);
 		}
 		if(ret instanceof Boolean) { accept = (Boolean)ret; }
 		else { System.err.println("httpServer.callOnAcceptWs(): Expecting result from onAccept method to be a boolean."); }
@@ -391,18 +1056,20 @@ public class httpServer extends AbstractHandler
 	
 	/**
 	 * Creates a new JS HTTP response object and then calls init 
-	 * on it providing the native HttpServletResponse instance.
+	 * on it providing the native HttpServletResponse instance and 
+	 * the request it's for.
 	 * @param eng is the ic9engine instance.
 	 * @param request is a HttpServletRequest object to handle.
+	 * @param response is a HttpServletResponse object.
 	 * @return A JS HTTP response object.
 	 * @throws NoSuchMethodException Exception
 	 * @throws ScriptException Exception
 	 */
-	private Object setResponse(ic9engine eng, HttpServletResponse response) throws NoSuchMethodException, ScriptException
+	private Object setResponse(ic9engine eng, HttpServletRequest request, HttpServletResponse response) throws NoSuchMethodException, ScriptException
 	{
         Invocable inv = (Invocable) eng.getScriptEngine();
         Object obj = inv.invokeFunction("newHttpServerResponse");
-        inv.invokeMethod(obj, "init", response);
+        inv.invokeMethod(obj, "init", response, request);
         return obj;
 	}
 	
@@ -417,6 +1084,8 @@ public class httpServer extends AbstractHandler
 	    this.srv.setStopAtShutdown(true);
 	    this.srv.setStopTimeout(TimeMills);
         this.srv.stop();
+        if(this.metrics != null) this.metrics.unregisterJmx();
+        if(this.accessLog != null) this.accessLog.stop();
     }
 	
 	/**
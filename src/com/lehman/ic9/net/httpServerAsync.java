@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Class httpServerAsync is a httpServer request that was put in async 
+ * mode because its handler returned a thenable. The Jetty worker thread 
+ * is released when the handler returns and the response is completed 
+ * when the thenable resolves or rejects, or when the async timeout 
+ * passes. Only the first of these completes the request. An engine 
+ * from the engine pool isn't kept while waiting, it's returned to the 
+ * pool when the handler returns.
+ * @author Austin Lehman
+ */
+public class httpServerAsync implements AsyncListener
+{
+	/** Servlet async context. */
+	private AsyncContext actx = null;
+	
+	/** Set once the request is complete. */
+	private AtomicBoolean done = new AtomicBoolean(false);
+	
+	/**
+	 * Default constructor takes the async context.
+	 * @param Actx is the AsyncContext of the request.
+	 */
+	public httpServerAsync(AsyncContext Actx)
+	{
+		this.actx = Actx;
+	}
+	
+	/**
+	 * Completes the response as written by the handler.
+	 */
+	public void resolve()
+	{
+		this.finish(0, null);
+	}
+	
+	/**
+	 * Completes the response with a 500 status if nothing has been sent yet.
+	 * @param Message is a String with the error message to log.
+	 */
+	public void reject(String Message)
+	{
+		this.finish(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "httpServerAsync.reject(): " + Message);
+	}
+	
+	/**
+	 * Checks if the request is complete.
+	 * @return A boolean with true if complete.
+	 */
+	public boolean isDone()
+	{
+		return this.done.get();
+	}
+	
+	/**
+	 * Completes the request with a 503 status once the async timeout passes.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onTimeout(AsyncEvent Event) throws IOException
+	{
+		this.finish(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+	}
+	
+	/**
+	 * Completes the request if the connection fails.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onError(AsyncEvent Event) throws IOException
+	{
+		this.finish(0, null);
+	}
+	
+	/**
+	 * Marks the request as complete if it completed without calling 
+	 * resolve or reject.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onComplete(AsyncEvent Event) throws IOException
+	{
+		this.done.set(true);
+	}
+	
+	/**
+	 * Does nothing, the request is put in async mode once.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onStartAsync(AsyncEvent Event) throws IOException { }
+	
+	/**
+	 * Completes the request once.
+	 * @param ErrorStatus is an int with the status to send if nothing has 
+	 * been sent or 0 to send the response as is.
+	 * @param Message is a String with an error message to log or null.
+	 */
+	private void finish(int ErrorStatus, String Message)
+	{
+		if(!this.done.compareAndSet(false, true)) return;
+		if(Message != null) System.err.println(Message);
+		try
+		{
+			HttpServletResponse response = (HttpServletResponse)this.actx.getResponse();
+			if(ErrorStatus > 0 && !response.isCommitted())
+			{
+				response.reset();
+				response.sendError(ErrorStatus);
+			}
+		}
+		// The client is gone or the response was already completed.
+		catch (IOException e) { }
+		catch (IllegalStateException e) { }
+		finally
+		{
+			try { this.actx.complete(); }
+			catch (IllegalStateException e) { }
+		}
+	}
+}
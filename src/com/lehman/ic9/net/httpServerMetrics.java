@@ -0,0 +1,499 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpServerMetrics collects the request metrics of a httpServer. 
+ * Request counts, status classes, in flight requests and request times 
+ * come from a Jetty StatisticsHandler wrapping the whole handler chain. 
+ * Each route also gets a latency histogram of the time spent in the JS 
+ * handler and one of the total time spent in httpServer, which also 
+ * includes waiting for a pool engine and creating the request and 
+ * response objects. For async requests the route times end when the 
+ * handler returns. Requests that don't match a route are recorded as 
+ * 'handle'.
+ * 
+ * The metrics can be published over JMX and written in the Prometheus 
+ * text format.
+ * @author Austin Lehman
+ */
+public class httpServerMetrics implements httpServerMetricsMBean
+{
+	/** Route name for requests handled by the handle method. */
+	public static final String HANDLE_ROUTE = "handle";
+	
+	/** Prometheus histogram buckets in seconds. */
+	private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0 };
+	
+	/** Request statistics of the whole handler chain. */
+	private StatisticsHandler stats = new StatisticsHandler();
+	
+	/** Server thread pool or null. */
+	private QueuedThreadPool threadPool = null;
+	
+	/** Session manager or null if not set. */
+	private httpSessionManager sessions = null;
+	
+	/** Handler and total time histograms by route. */
+	private ConcurrentHashMap<String, httpHistogram[]> routes = new ConcurrentHashMap<String, httpHistogram[]>();
+	
+	/** JMX name or null if not registered. */
+	private ObjectName jmxName = null;
+	
+	/**
+	 * Gets the StatisticsHandler to wrap the handler chain with.
+	 * @return A StatisticsHandler object.
+	 */
+	public StatisticsHandler getStatisticsHandler()
+	{
+		return this.stats;
+	}
+	
+	/**
+	 * Sets the server thread pool to report on.
+	 * @param ThreadPool is a QueuedThreadPool or null.
+	 */
+	public void setThreadPool(QueuedThreadPool ThreadPool)
+	{
+		this.threadPool = ThreadPool;
+	}
+	
+	/**
+	 * Sets the session manager to report on.
+	 * @param Sessions is a httpSessionManager or null.
+	 */
+	public void setSessionManager(httpSessionManager Sessions)
+	{
+		this.sessions = Sessions;
+	}
+	
+	/**
+	 * Records the times of a request.
+	 * @param Route is a String with the route name.
+	 * @param HandlerNanos is a long with the nanoseconds spent in the JS handler.
+	 * @param TotalNanos is a long with the nanoseconds spent in httpServer.
+	 */
+	public void record(String Route, long HandlerNanos, long TotalNanos)
+	{
+		httpHistogram[] hists = this.routes.get(Route);
+		if(hists == null)
+		{
+			httpHistogram[] nhists = new httpHistogram[] { new httpHistogram(), new httpHistogram() };
+			hists = this.routes.putIfAbsent(Route, nhists);
+			if(hists == null) hists = nhists;
+		}
+		hists[0].record(HandlerNanos);
+		hists[1].record(TotalNanos);
+	}
+	
+	/**
+	 * Gets the JS handler time histogram of the provided route.
+	 * @param Route is a String with the route name.
+	 * @return A httpHistogram or null if nothing was recorded.
+	 */
+	public httpHistogram getHandlerTime(String Route)
+	{
+		httpHistogram[] hists = this.routes.get(Route);
+		return hists != null ? hists[0] : null;
+	}
+	
+	/**
+	 * Gets the total time histogram of the provided route.
+	 * @param Route is a String with the route name.
+	 * @return A httpHistogram or null if nothing was recorded.
+	 */
+	public httpHistogram getTotalTime(String Route)
+	{
+		httpHistogram[] hists = this.routes.get(Route);
+		return hists != null ? hists[1] : null;
+	}
+	
+	/**
+	 * Registers the metrics with the platform MBean server.
+	 * @param Name is a String with the name of the server such as 'localhost:8080'.
+	 * @throws ic9exception Exception
+	 */
+	public void registerJmx(String Name) throws ic9exception
+	{
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("com.lehman.ic9:type=httpServer,name=" + ObjectName.quote(Name));
+			if(mbs.isRegistered(name)) mbs.unregisterMBean(name);
+			mbs.registerMBean(this, name);
+			this.jmxName = name;
+		}
+		catch (Exception e) { throw new ic9exception("httpServerMetrics.registerJmx(): " + e.getMessage()); }
+	}
+	
+	/**
+	 * Removes the metrics from the platform MBean server if registered.
+	 */
+	public void unregisterJmx()
+	{
+		if(this.jmxName == null) return;
+		try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.jmxName); }
+		catch (Exception e) { }
+		this.jmxName = null;
+	}
+	
+	/**
+	 * Writes the metrics in the Prometheus text format.
+	 * @return A String with the metrics.
+	 */
+	public String toPrometheus()
+	{
+		StringBuilder sb = new StringBuilder();
+		
+		metric(sb, "ic9_http_requests_total", "counter", "Requests received.");
+		sb.append("ic9_http_requests_total ").append(this.getRequests()).append("\n");
+		
+		metric(sb, "ic9_http_responses_total", "counter", "Responses by status class.");
+		sb.append("ic9_http_responses_total{code=\"1xx\"} ").append(this.getResponses1xx()).append("\n");
+		sb.append("ic9_http_responses_total{code=\"2xx\"} ").append(this.getResponses2xx()).append("\n");
+		sb.append("ic9_http_responses_total{code=\"3xx\"} ").append(this.getResponses3xx()).append("\n");
+		sb.append("ic9_http_responses_total{code=\"4xx\"} ").append(this.getResponses4xx()).append("\n");
+		sb.append("ic9_http_responses_total{code=\"5xx\"} ").append(this.getResponses5xx()).append("\n");
+		
+		metric(sb, "ic9_http_response_bytes_total", "counter", "Response bytes sent.");
+		sb.append("ic9_http_response_bytes_total ").append(this.getResponsesBytesTotal()).append("\n");
+		
+		metric(sb, "ic9_http_requests_active", "gauge", "Requests in flight.");
+		sb.append("ic9_http_requests_active ").append(this.getRequestsActive()).append("\n");
+		
+		metric(sb, "ic9_http_async_requests_waiting", "gauge", "Async requests waiting to complete.");
+		sb.append("ic9_http_async_requests_waiting ").append(this.getAsyncRequestsWaiting()).append("\n");
+		
+		metric(sb, "ic9_http_request_seconds_total", "counter", "Total time of completed requests.");
+		sb.append("ic9_http_request_seconds_total ").append(this.stats.getRequestTimeTotal() / 1000.0).append("\n");
+		
+		if(this.threadPool != null)
+		{
+			metric(sb, "ic9_http_threads", "gauge", "Server threads by state.");
+			sb.append("ic9_http_threads{state=\"busy\"} ").append(this.threadPool.getBusyThreads()).append("\n");
+			sb.append("ic9_http_threads{state=\"idle\"} ").append(this.threadPool.getIdleThreads()).append("\n");
+			
+			metric(sb, "ic9_http_thread_queue_size", "gauge", "Jobs waiting for a server thread.");
+			sb.append("ic9_http_thread_queue_size ").append(this.threadPool.getQueueSize()).append("\n");
+		}
+		
+		if(this.sessions != null)
+		{
+			metric(sb, "ic9_http_sessions", "gauge", "Sessions in the session store.");
+			sb.append("ic9_http_sessions ").append(this.sessions.getSessionCount()).append("\n");
+			
+			metric(sb, "ic9_http_sessions_created_total", "counter", "Sessions created.");
+			sb.append("ic9_http_sessions_created_total ").append(this.sessions.getCreated()).append("\n");
+			
+			metric(sb, "ic9_http_sessions_removed_total", "counter", "Sessions removed by the store by reason.");
+			sb.append("ic9_http_sessions_removed_total{reason=\"expired\"} ").append(this.sessions.getExpired()).append("\n");
+			sb.append("ic9_http_sessions_removed_total{reason=\"evicted\"} ").append(this.sessions.getEvicted()).append("\n");
+		}
+		
+		Map<String, httpHistogram[]> sorted = new TreeMap<String, httpHistogram[]>(this.routes);
+		if(!sorted.isEmpty())
+		{
+			metric(sb, "ic9_http_route_seconds", "histogram", "Route time by phase where handler is the JS handler and total is all of httpServer.");
+			for(Map.Entry<String, httpHistogram[]> ent : sorted.entrySet())
+			{
+				String route = escape(ent.getKey());
+				histogram(sb, "ic9_http_route_seconds", "route=\"" + route + "\",phase=\"handler\"", ent.getValue()[0]);
+				histogram(sb, "ic9_http_route_seconds", "route=\"" + route + "\",phase=\"total\"", ent.getValue()[1]);
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Gets the number of requests.
+	 * @return An int with the number of requests.
+	 */
+	@Override
+	public int getRequests()
+	{
+		return this.stats.getRequests();
+	}
+	
+	/**
+	 * Gets the number of requests in flight.
+	 * @return An int with the number of requests.
+	 */
+	@Override
+	public int getRequestsActive()
+	{
+		return this.stats.getRequestsActive();
+	}
+	
+	/**
+	 * Gets the max number of requests in flight at once.
+	 * @return An int with the number of requests.
+	 */
+	@Override
+	public int getRequestsActiveMax()
+	{
+		return this.stats.getRequestsActiveMax();
+	}
+	
+	/**
+	 * Gets the number of async requests waiting to complete.
+	 * @return An int with the number of requests.
+	 */
+	@Override
+	public int getAsyncRequestsWaiting()
+	{
+		return this.stats.getAsyncRequestsWaiting();
+	}
+	
+	/**
+	 * Gets the mean request time.
+	 * @return A double with the mean in milliseconds.
+	 */
+	@Override
+	public double getRequestTimeMean()
+	{
+		return this.stats.getRequestTimeMean();
+	}
+	
+	/**
+	 * Gets the max request time.
+	 * @return A long with the max in milliseconds.
+	 */
+	@Override
+	public long getRequestTimeMax()
+	{
+		return this.stats.getRequestTimeMax();
+	}
+	
+	/**
+	 * Gets the number of 1xx responses.
+	 * @return An int with the number of responses.
+	 */
+	@Override
+	public int getResponses1xx()
+	{
+		return this.stats.getResponses1xx();
+	}
+	
+	/**
+	 * Gets the number of 2xx responses.
+	 * @return An int with the number of responses.
+	 */
+	@Override
+	public int getResponses2xx()
+	{
+		return this.stats.getResponses2xx();
+	}
+	
+	/**
+	 * Gets the number of 3xx responses.
+	 * @return An int with the number of responses.
+	 */
+	@Override
+	public int getResponses3xx()
+	{
+		return this.stats.getResponses3xx();
+	}
+	
+	/**
+	 * Gets the number of 4xx responses.
+	 * @return An int with the number of responses.
+	 */
+	@Override
+	public int getResponses4xx()
+	{
+		return this.stats.getResponses4xx();
+	}
+	
+	/**
+	 * Gets the number of 5xx responses.
+	 * @return An int with the number of responses.
+	 */
+	@Override
+	public int getResponses5xx()
+	{
+		return this.stats.getResponses5xx();
+	}
+	
+	/**
+	 * Gets the number of response bytes sent.
+	 * @return A long with the number of bytes.
+	 */
+	@Override
+	public long getResponsesBytesTotal()
+	{
+		return this.stats.getResponsesBytesTotal();
+	}
+	
+	/**
+	 * Gets the number of server threads.
+	 * @return An int with the number of threads.
+	 */
+	@Override
+	public int getThreads()
+	{
+		return this.threadPool != null ? this.threadPool.getThreads() : 0;
+	}
+	
+	/**
+	 * Gets the number of busy server threads.
+	 * @return An int with the number of threads.
+	 */
+	@Override
+	public int getBusyThreads()
+	{
+		return this.threadPool != null ? this.threadPool.getBusyThreads() : 0;
+	}
+	
+	/**
+	 * Gets the number of jobs waiting for a server thread.
+	 * @return An int with the queue size.
+	 */
+	@Override
+	public int getThreadQueueSize()
+	{
+		return this.threadPool != null ? this.threadPool.getQueueSize() : 0;
+	}
+	
+	/**
+	 * Gets the number of sessions in the session store.
+	 * @return An int with the number of sessions.
+	 */
+	@Override
+	public int getSessions()
+	{
+		return this.sessions != null ? this.sessions.getSessionCount() : 0;
+	}
+	
+	/**
+	 * Gets the number of sessions removed because they expired.
+	 * @return A long with the number of sessions.
+	 */
+	@Override
+	public long getSessionsExpired()
+	{
+		return this.sessions != null ? this.sessions.getExpired() : 0;
+	}
+	
+	/**
+	 * Gets the number of sessions removed to keep the store within its size limit.
+	 * @return A long with the number of sessions.
+	 */
+	@Override
+	public long getSessionsEvicted()
+	{
+		return this.sessions != null ? this.sessions.getEvicted() : 0;
+	}
+	
+	/**
+	 * Gets the route names with recorded times.
+	 * @return A String[] with the route names.
+	 */
+	@Override
+	public String[] getRouteNames()
+	{
+		List<String> names = new ArrayList<String>(new TreeMap<String, httpHistogram[]>(this.routes).keySet());
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * Gets a summary of the recorded times of each route.
+	 * @return A String[] with a line per route.
+	 */
+	@Override
+	public String[] getRouteSummary()
+	{
+		String[] names = this.getRouteNames();
+		String[] ret = new String[names.length];
+		for(int i = 0; i < names.length; i++)
+		{
+			httpHistogram h = this.getHandlerTime(names[i]);
+			httpHistogram t = this.getTotalTime(names[i]);
+			ret[i] = String.format("%s count=%d handler(p50=%.3fms p99=%.3fms max=%.3fms) total(p50=%.3fms p99=%.3fms max=%.3fms)", 
+					names[i], t.getCount(), h.getPercentile(50), h.getPercentile(99), h.getMax(), t.getPercentile(50), t.getPercentile(99), t.getMax());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Resets the request statistics and route times.
+	 */
+	@Override
+	public void reset()
+	{
+		this.stats.statsReset();
+		this.routes.clear();
+	}
+	
+	/**
+	 * Writes the HELP and TYPE lines of a metric.
+	 * @param Sb is the StringBuilder to write to.
+	 * @param Name is a String with the metric name.
+	 * @param Type is a String with the metric type.
+	 * @param Help is a String with the help text.
+	 */
+	private static void metric(StringBuilder Sb, String Name, String Type, String Help)
+	{
+		Sb.append("# HELP ").append(Name).append(" ").append(Help).append("\n");
+		Sb.append("# TYPE ").append(Name).append(" ").append(Type).append("\n");
+	}
+	
+	/**
+	 * Writes the bucket, sum and count lines of a histogram.
+	 * @param Sb is the StringBuilder to write to.
+	 * @param Name is a String with the metric name.
+	 * @param Labels is a String with the labels.
+	 * @param Hist is the httpHistogram to write.
+	 */
+	private static void histogram(StringBuilder Sb, String Name, String Labels, httpHistogram Hist)
+	{
+		long count = Hist.getCount();
+		for(double le : BUCKETS)
+		{
+			Sb.append(Name).append("_bucket{").append(Labels).append(",le=\"").append(BigDecimal.valueOf(le).toPlainString()).append("\"} ").append(Hist.getCountAtOrBelow(le)).append("\n");
+		}
+		Sb.append(Name).append("_bucket{").append(Labels).append(",le=\"+Inf\"} ").append(count).append("\n");
+		Sb.append(Name).append("_sum{").append(Labels).append("} ").append(Hist.getSum()).append("\n");
+		Sb.append(Name).append("_count{").append(Labels).append("} ").append(count).append("\n");
+	}
+	
+	/**
+	 * Escapes a Prometheus label value.
+	 * @param Value is a String with the value.
+	 * @return A String with the escaped value.
+	 */
+	private static String escape(String Value)
+	{
+		return Value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+/**
+ * Interface httpServerMetricsMBean defines the httpServer metrics 
+ * attributes published over JMX.
+ * @author Austin Lehman
+ */
+public interface httpServerMetricsMBean
+{
+	/**
+	 * Gets the number of requests.
+	 * @return An int with the number of requests.
+	 */
+	public int getRequests();
+	
+	/**
+	 * Gets the number of requests in flight.
+	 * @return An int with the number of requests.
+	 */
+	public int getRequestsActive();
+	
+	/**
+	 * Gets the max number of requests in flight at once.
+	 * @return An int with the number of requests.
+	 */
+	public int getRequestsActiveMax();
+	
+	/**
+	 * Gets the number of async requests waiting to complete.
+	 * @return An int with the number of requests.
+	 */
+	public int getAsyncRequestsWaiting();
+	
+	/**
+	 * Gets the mean request time.
+	 * @return A double with the mean in milliseconds.
+	 */
+	public double getRequestTimeMean();
+	
+	/**
+	 * Gets the max request time.
+	 * @return A long with the max in milliseconds.
+	 */
+	public long getRequestTimeMax();
+	
+	/**
+	 * Gets the number of 1xx responses.
+	 * @return An int with the number of responses.
+	 */
+	public int getResponses1xx();
+	
+	/**
+	 * Gets the number of 2xx responses.
+	 * @return An int with the number of responses.
+	 */
+	public int getResponses2xx();
+	
+	/**
+	 * Gets the number of 3xx responses.
+	 * @return An int with the number of responses.
+	 */
+	public int getResponses3xx();
+	
+	/**
+	 * Gets the number of 4xx responses.
+	 * @return An int with the number of responses.
+	 */
+	public int getResponses4xx();
+	
+	/**
+	 * Gets the number of 5xx responses.
+	 * @return An int with the number of responses.
+	 */
+	public int getResponses5xx();
+	
+	/**
+	 * Gets the number of response bytes sent.
+	 * @return A long with the number of bytes.
+	 */
+	public long getResponsesBytesTotal();
+	
+	/**
+	 * Gets the number of server threads.
+	 * @return An int with the number of threads.
+	 */
+	public int getThreads();
+	
+	/**
+	 * Gets the number of busy server threads.
+	 * @return An int with the number of threads.
+	 */
+	public int getBusyThreads();
+	
+	/**
+	 * Gets the number of jobs waiting for a server thread.
+	 * @return An int with the queue size.
+	 */
+	public int getThreadQueueSize();
+	
+	/**
+	 * Gets the number of sessions in the session store.
+	 * @return An int with the number of sessions.
+	 */
+	public int getSessions();
+	
+	/**
+	 * Gets the number of sessions removed because they expired.
+	 * @return A long with the number of sessions.
+	 */
+	public long getSessionsExpired();
+	
+	/**
+	 * Gets the number of sessions removed to keep the store within its size limit.
+	 * @return A long with the number of sessions.
+	 */
+	public long getSessionsEvicted();
+	
+	/**
+	 * Gets the route names with recorded times.
+	 * @return A String[] with the route names.
+	 */
+	public String[] getRouteNames();
+	
+	/**
+	 * Gets a summary of the recorded times of each route.
+	 * @return A String[] with a line per route.
+	 */
+	public String[] getRouteSummary();
+	
+	/**
+	 * Resets the request statistics.
+	 */
+	public void reset();
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Class httpServerStream is a streaming httpServer response that stays 
+ * open after the handler returns. The request is put in async mode and 
+ * the output stream in non-blocking mode, so no thread is held while 
+ * the connection is open. Writes are queued and sent as the connection 
+ * is ready for them. When the client is slower than the writes, the 
+ * queue grows and isReady() returns false until it's sent, at which 
+ * point the on writable callback is called. Once the output stream 
+ * isn't ready, Jetty calls onWritePossible when it is and nothing may 
+ * be written before then, so writes from other threads are only 
+ * queued while waiting. If the queued bytes would pass the max queued 
+ * bytes while waiting, the write is dropped and the stream is closed 
+ * so a client that stopped reading can't use up the heap.
+ * 
+ * An event stream sends Server-Sent Events. Events get increasing 
+ * numeric IDs, starting after the Last-Event-ID header sent by a 
+ * reconnecting client, unless an ID is provided.
+ * @author Austin Lehman
+ */
+public class httpServerStream implements WriteListener, AsyncListener
+{
+	/** Default max bytes queued while waiting for the client. (4MB) */
+	public static final long DEFAULT_MAX_QUEUED_BYTES = 4L * 1024L * 1024L;
+	
+	/** Queue markers. */
+	private static final Object FLUSH = new Object();
+	private static final Object CLOSE = new Object();
+	
+	private AsyncContext actx = null;
+	private ServletOutputStream out = null;
+	private Charset charset = null;
+	
+	/** Queued byte[] chunks and markers. */
+	private LinkedList<Object> queue = new LinkedList<Object>();
+	private long queuedBytes = 0;
+	private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+	
+	/** Set when a write was dropped because the queue was full. */
+	private boolean overflowed = false;
+	
+	/** Set while waiting for onWritePossible. */
+	private boolean waiting = true;
+	
+	/** Set when the connection wasn't ready for a write, until the queue is sent. */
+	private boolean blocked = true;
+	
+	/** Set once close is called or the connection is done. */
+	private boolean closed = false;
+	
+	/** Set once the connection is done. */
+	private boolean done = false;
+	
+	/** Callbacks. */
+	private Runnable onWritable = null;
+	private Runnable onClose = null;
+	
+	/** Last event ID sent. */
+	private long lastEventId = 0;
+	
+	/** Keep alive task and the time of the last write. */
+	private ScheduledFuture<?> keepAlive = null;
+	private long lastWrite = System.currentTimeMillis();
+	
+	/**
+	 * Default constructor takes the async context and the output stream.
+	 * @param Actx is the AsyncContext of the request.
+	 * @param Out is the ServletOutputStream of the response.
+	 * @param Cs is the Charset to encode strings with.
+	 */
+	private httpServerStream(AsyncContext Actx, ServletOutputStream Out, Charset Cs)
+	{
+		this.actx = Actx;
+		this.out = Out;
+		this.charset = Cs;
+	}
+	
+	/**
+	 * Starts a stream for the provided request. The headers set so far are 
+	 * sent with the first flush.
+	 * @param Request is the HttpServletRequest.
+	 * @param Response is the HttpServletResponse.
+	 * @param ContentType is a String with the content type or null to leave 
+	 * it as is.
+	 * @param Events is a boolean with true for an event stream. This sets 
+	 * the content type to text/event-stream and turns off caching.
+	 * @return A new httpServerStream object.
+	 * @throws ic9exception Exception
+	 */
+	public static httpServerStream start(HttpServletRequest Request, HttpServletResponse Response, String ContentType, boolean Events) throws ic9exception
+	{
+		if(Response.isCommitted()) throw new ic9exception("httpServerStream.start(): Response has already been sent.");
+		if(Events)
+		{
+			Response.setContentType("text/event-stream;charset=UTF-8");
+			Response.setHeader("Cache-Control", "no-cache");
+			Response.setHeader("X-Accel-Buffering", "no");
+		}
+		else if(ContentType != null)
+		{
+			Response.setContentType(ContentType);
+		}
+		
+		try
+		{
+			AsyncContext actx = Request.isAsyncStarted() ? Request.getAsyncContext() : Request.startAsync();
+			actx.setTimeout(0);
+			
+			String enc = Response.getCharacterEncoding();
+			httpServerStream st = new httpServerStream(actx, Response.getOutputStream(), Charset.forName(enc != null ? enc : "UTF-8"));
+			if(Events) st.lastEventId = parseId(Request.getHeader("Last-Event-ID"));
+			actx.addListener(st);
+			st.out.setWriteListener(st);
+			
+			// Send the headers right away so the client knows it's connected.
+			st.flush();
+			return st;
+		}
+		catch (IOException e) { throw new ic9exception("httpServerStream.start(): " + e.getMessage()); }
+		catch (IllegalStateException e) { throw new ic9exception("httpServerStream.start(): " + e.getMessage()); }
+	}
+	
+	/**
+	 * Writes the provided string.
+	 * @param Str is a String to write.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	public boolean write(String Str)
+	{
+		return this.writeBytes(Str.getBytes(this.charset));
+	}
+	
+	/**
+	 * Writes the provided bytes.
+	 * @param Data is a byte[] to write.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	public boolean writeBytes(byte[] Data)
+	{
+		return this.enqueue(Data, false);
+	}
+	
+	/**
+	 * Sends the data written so far to the client.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	public boolean flush()
+	{
+		return this.enqueue(FLUSH, false);
+	}
+	
+	/**
+	 * Sends a Server-Sent Event and flushes it.
+	 * @param Event is a String with the event name or null for a message event.
+	 * @param Data is a String with the event data. Each line is sent as 
+	 * a data field.
+	 * @param Id is a String with the event ID or null to use the next 
+	 * numeric ID.
+	 * @return A String with the event ID or null if the stream is closed.
+	 */
+	public String sendEvent(String Event, String Data, String Id)
+	{
+		StringBuilder sb = new StringBuilder();
+		String id;
+		boolean queued;
+		
+		// The ID is assigned and the event queued under one lock so events 
+		// are sent in ID order.
+		synchronized(this)
+		{
+			if(this.closed) return null;
+			if(Id == null) id = String.valueOf(this.lastEventId + 1);
+			else id = Id;
+			
+			sb.append("id: ").append(oneLine(id, "")).append("\n");
+			if(Event != null) sb.append("event: ").append(oneLine(Event, "")).append("\n");
+			for(String line : (Data != null ? Data : "").split("\r\n|\r|\n", -1))
+			{
+				sb.append("data: ").append(line).append("\n");
+			}
+			sb.append("\n");
+			
+			queued = this.offer(sb.toString().getBytes(this.charset), true);
+			if(queued)
+			{
+				long num = Id == null ? this.lastEventId + 1 : parseId(Id);
+				if(num > 0) this.lastEventId = num;
+			}
+		}
+		
+		if(!this.queued(queued)) return null;
+		return id;
+	}
+	
+	/**
+	 * Sends a Server-Sent Events comment and flushes it. Clients ignore 
+	 * comments so they are used to keep the connection open.
+	 * @param Text is a String with the comment.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	public boolean sendComment(String Text)
+	{
+		return this.enqueue((": " + oneLine(Text, " ") + "\n\n").getBytes(this.charset), true);
+	}
+	
+	/**
+	 * Sends the Server-Sent Events reconnect time to the client.
+	 * @param Mills is a long with the milliseconds the client waits before 
+	 * reconnecting.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	public boolean sendRetry(long Mills)
+	{
+		return this.enqueue(("retry: " + Mills + "\n\n").getBytes(this.charset), true);
+	}
+	
+	/**
+	 * Sends a comment whenever nothing has been written for the provided 
+	 * time so that proxies don't close an idle connection.
+	 * @param Mills is a long with the milliseconds or 0 to turn it off.
+	 */
+	public synchronized void setKeepAlive(final long Mills)
+	{
+		if(this.keepAlive != null) this.keepAlive.cancel(false);
+		this.keepAlive = null;
+		if(Mills <= 0 || this.closed) return;
+		
+		this.keepAlive = httpAsync.getScheduler().scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if(System.currentTimeMillis() - getLastWrite() >= Mills) sendComment("keep-alive");
+			}
+		}, Mills, Mills, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Closes the stream once the queued writes are sent.
+	 */
+	public void close()
+	{
+		this.enqueue(CLOSE, false);
+	}
+	
+	/**
+	 * Checks if the stream can take more writes without queueing them.
+	 * @return A boolean with true if ready.
+	 */
+	public synchronized boolean isReady()
+	{
+		return !this.closed && !this.waiting && this.queue.isEmpty();
+	}
+	
+	/**
+	 * Checks if the stream is closed.
+	 * @return A boolean with true if closed.
+	 */
+	public synchronized boolean isClosed()
+	{
+		return this.closed;
+	}
+	
+	/**
+	 * Gets the number of bytes waiting to be sent.
+	 * @return A long with the number of bytes.
+	 */
+	public synchronized long getQueuedBytes()
+	{
+		return this.queuedBytes;
+	}
+	
+	/**
+	 * Sets the max number of bytes queued while waiting for the client. 
+	 * A write that would pass it is dropped and the stream is closed.
+	 * @param MaxQueuedBytes is a long with the number of bytes or 0 for 
+	 * no limit.
+	 */
+	public synchronized void setMaxQueuedBytes(long MaxQueuedBytes)
+	{
+		this.maxQueuedBytes = MaxQueuedBytes;
+	}
+	
+	/**
+	 * Gets the max number of bytes queued while waiting for the client.
+	 * @return A long with the number of bytes or 0 for no limit.
+	 */
+	public synchronized long getMaxQueuedBytes()
+	{
+		return this.maxQueuedBytes;
+	}
+	
+	/**
+	 * Checks if the stream was closed because the max queued bytes was 
+	 * reached.
+	 * @return A boolean with true if it was.
+	 */
+	public synchronized boolean isOverflowed()
+	{
+		return this.overflowed;
+	}
+	
+	/**
+	 * Gets the last event ID sent, or the Last-Event-ID sent by the 
+	 * client if no event has been sent yet.
+	 * @return A long with the ID.
+	 */
+	public synchronized long getLastEventId()
+	{
+		return this.lastEventId;
+	}
+	
+	/**
+	 * Gets the time of the last write.
+	 * @return A long with the time in milliseconds.
+	 */
+	public synchronized long getLastWrite()
+	{
+		return this.lastWrite;
+	}
+	
+	/**
+	 * Sets the callback called when the queued writes have been sent after 
+	 * the connection wasn't ready for them.
+	 * @param OnWritable is a Runnable to call.
+	 */
+	public synchronized void setOnWritable(Runnable OnWritable)
+	{
+		this.onWritable = OnWritable;
+	}
+	
+	/**
+	 * Sets the callback called once when the stream is closed or the 
+	 * client disconnects.
+	 * @param OnClose is a Runnable to call.
+	 */
+	public synchronized void setOnClose(Runnable OnClose)
+	{
+		this.onClose = OnClose;
+	}
+	
+	/**
+	 * Sends the queued writes now that the connection is ready.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onWritePossible() throws IOException
+	{
+		synchronized(this) { this.waiting = false; }
+		this.drain();
+	}
+	
+	/**
+	 * Ends the stream when a write fails.
+	 * @param T is the Throwable the write failed with.
+	 */
+	@Override
+	public void onError(Throwable T)
+	{
+		this.end(true);
+	}
+	
+	/**
+	 * Ends the stream once the request is complete.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onComplete(AsyncEvent Event) throws IOException
+	{
+		this.end(false);
+	}
+	
+	/**
+	 * Ends the stream if the request times out.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onTimeout(AsyncEvent Event) throws IOException
+	{
+		this.end(true);
+	}
+	
+	/**
+	 * Ends the stream if the connection fails.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onError(AsyncEvent Event) throws IOException
+	{
+		this.end(true);
+	}
+	
+	/**
+	 * Does nothing, the request is put in async mode once.
+	 * @param Event is the AsyncEvent.
+	 * @throws IOException Exception
+	 */
+	@Override
+	public void onStartAsync(AsyncEvent Event) throws IOException { }
+	
+	/**
+	 * Adds the provided item to the queue and sends what the connection 
+	 * is ready for.
+	 * @param Item is a byte[] or a queue marker.
+	 * @param Flush is a boolean with true to flush after the item.
+	 * @return A boolean with true if queued and false if the stream is closed.
+	 */
+	private boolean enqueue(Object Item, boolean Flush)
+	{
+		boolean queued;
+		synchronized(this)
+		{
+			queued = this.offer(Item, Flush);
+		}
+		return this.queued(queued);
+	}
+	
+	/**
+	 * Adds the provided item to the queue. Must be called holding the 
+	 * stream lock. If the item would pass the max queued bytes while 
+	 * waiting for the client, it's dropped and the stream is marked as 
+	 * overflowed. (See queued.)
+	 * @param Item is a byte[] or a queue marker.
+	 * @param Flush is a boolean with true to flush after the item.
+	 * @return A boolean with true if queued and false if not.
+	 */
+	private boolean offer(Object Item, boolean Flush)
+	{
+		if(this.closed) return false;
+		if(Item instanceof byte[])
+		{
+			int len = ((byte[])Item).length;
+			if(this.waiting && this.maxQueuedBytes > 0 && this.queuedBytes + len > this.maxQueuedBytes)
+			{
+				this.overflowed = true;
+				this.closed = true;
+				return false;
+			}
+			this.queuedBytes += len;
+		}
+		this.queue.add(Item);
+		if(Flush) this.queue.add(FLUSH);
+		if(Item == CLOSE) this.closed = true;
+		return true;
+	}
+	
+	/**
+	 * Called without the stream lock after offer. Sends what the 
+	 * connection is ready for if the item was queued or ends the stream 
+	 * if the queue overflowed.
+	 * @param Queued is a boolean with the result of offer.
+	 * @return A boolean with the provided result.
+	 */
+	private boolean queued(boolean Queued)
+	{
+		if(Queued) this.drain();
+		else if(this.isOverflowed()) this.end(true);
+		return Queued;
+	}
+	
+	/**
+	 * Writes queued items while the connection is ready. If it isn't ready 
+	 * the output stream calls onWritePossible once it is. The on writable 
+	 * callback is called once the queue is sent after the connection 
+	 * wasn't ready.
+	 */
+	private void drain()
+	{
+		Runnable writable = null;
+		boolean failed = false;
+		synchronized(this)
+		{
+			if(this.done || this.waiting) return;
+			try
+			{
+				while(!this.queue.isEmpty())
+				{
+					if(!this.out.isReady())
+					{
+						this.waiting = true;
+						this.blocked = true;
+						return;
+					}
+					
+					Object item = this.queue.poll();
+					if(item == FLUSH)
+					{
+						this.out.flush();
+					}
+					else if(item == CLOSE)
+					{
+						this.queue.clear();
+						this.queuedBytes = 0;
+						this.actx.complete();
+						return;
+					}
+					else
+					{
+						byte[] data = (byte[])item;
+						this.queuedBytes -= data.length;
+						this.out.write(data);
+						this.lastWrite = System.currentTimeMillis();
+					}
+				}
+				
+				if(this.blocked)
+				{
+					this.blocked = false;
+					writable = this.onWritable;
+				}
+			}
+			catch (IOException e) { failed = true; }
+			catch (IllegalStateException e) { failed = true; }
+		}
+		
+		if(failed) this.end(true);
+		else if(writable != null) run(writable);
+	}
+	
+	/**
+	 * Marks the stream as done and calls the on close callback once.
+	 * @param Complete is a boolean with true to complete the request.
+	 */
+	private void end(boolean Complete)
+	{
+		Runnable closeCb = null;
+		synchronized(this)
+		{
+			if(this.done) return;
+			this.done = true;
+			this.closed = true;
+			this.queue.clear();
+			this.queuedBytes = 0;
+			if(this.keepAlive != null) this.keepAlive.cancel(false);
+			this.keepAlive = null;
+			closeCb = this.onClose;
+		}
+		
+		if(Complete)
+		{
+			try { this.actx.complete(); }
+			catch (IllegalStateException e) { }
+		}
+		if(closeCb != null) run(closeCb);
+	}
+	
+	/**
+	 * Runs the provided callback and prints any exception it throws.
+	 * @param Cb is the Runnable to run.
+	 */
+	private static void run(Runnable Cb)
+	{
+		try { Cb.run(); }
+		catch (Throwable e) { e.printStackTrace(); }
+	}
+	
+	/**
+	 * Replaces the line breaks in the provided text so it can't end its 
+	 * Server-Sent Events field. CR, LF and CRLF all end a line.
+	 * @param Text is a String with the text.
+	 * @param With is a String to replace each line break with.
+	 * @return A String with the text on one line.
+	 */
+	private static String oneLine(String Text, String With)
+	{
+		return Text.replaceAll("\\r\\n|\\r|\\n", With);
+	}
+	
+	/**
+	 * Parses the provided event ID as a number.
+	 * @param Id is a String with the ID or null.
+	 * @return A long with the ID or 0 if it isn't a number.
+	 */
+	private static long parseId(String Id)
+	{
+		if(Id == null) return 0;
+		try { return Long.parseLong(Id.trim()); }
+		catch (NumberFormatException e) { return 0; }
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.server.session.AbstractSession;
+
+/**
+ * Class httpSession is the Jetty session used by httpSessionManager. It 
+ * wraps a httpSessionData object that holds the attributes and times 
+ * kept in the httpSessionStore. Attributes are deserialized when they're 
+ * first read.
+ * @author Austin Lehman
+ */
+public class httpSession extends AbstractSession
+{
+	private volatile httpSessionData data = null;
+	
+	private httpSessionManager manager = null;
+	
+	/**
+	 * Constructor for a new session created by the provided request.
+	 * @param Manager is the httpSessionManager.
+	 * @param Req is the HttpServletRequest creating the session.
+	 */
+	public httpSession(httpSessionManager Manager, HttpServletRequest Req)
+	{
+		super(Manager, Req);
+		this.manager = Manager;
+		int secs = this.getMaxInactiveInterval();
+		this.data = new httpSessionData(this.getClusterId(), this.getCreationTime(), this.getAccessed(), secs > 0 ? secs * 1000L : -1);
+		this.data.addUsers(1);
+	}
+	
+	/**
+	 * Constructor for a session loaded from the store.
+	 * @param Manager is the httpSessionManager.
+	 * @param Data is the httpSessionData from the store.
+	 */
+	public httpSession(httpSessionManager Manager, httpSessionData Data)
+	{
+		super(Manager, Data.getCreated(), Data.getAccessed(), Data.getId());
+		this.manager = Manager;
+		this.data = Data;
+		long ms = Data.getMaxInactiveMs();
+		super.setMaxInactiveInterval(ms > 0 ? (int)(ms / 1000L) : -1);
+		this.setRequests(0);
+	}
+	
+	/**
+	 * Gets the session data.
+	 * @return A httpSessionData object.
+	 */
+	public httpSessionData getData()
+	{
+		return this.data;
+	}
+	
+	/**
+	 * Sets the session data. This is used when the session is made live 
+	 * again after it was released, so it uses the data of the live session 
+	 * object with the same ID or the data reloaded from the store.
+	 * @param Data is the httpSessionData to use.
+	 */
+	void setData(httpSessionData Data)
+	{
+		this.data = Data;
+	}
+	
+	/**
+	 * Changes the session ID.
+	 * @param ClusterId is a String with the new cluster ID.
+	 * @param NodeId is a String with the new node ID.
+	 */
+	public void changeId(String ClusterId, String NodeId)
+	{
+		this.setClusterId(ClusterId);
+		this.setNodeId(NodeId);
+		this.setIdChanged(true);
+		this.data.setId(ClusterId);
+	}
+	
+	/**
+	 * Marks the session as accessed and updates the accessed time of the 
+	 * data. The manager then counts the request and makes the session live 
+	 * again, since it may have been released between getSession and this 
+	 * call. (See httpSessionManager.accessed.)
+	 * @param Time is a long with milliseconds since epoch.
+	 * @return A boolean with true if the session is valid.
+	 */
+	@Override
+	protected boolean access(long Time)
+	{
+		if(!super.access(Time)) return false;
+		this.manager.accessed(this);
+		this.data.setAccessed(Time);
+		return true;
+	}
+	
+	/**
+	 * Sets the max inactive interval of the session and its data.
+	 * @param Secs is an int with the number of seconds or 0 or less to 
+	 * never time out.
+	 */
+	@Override
+	public void setMaxInactiveInterval(int Secs)
+	{
+		super.setMaxInactiveInterval(Secs);
+		if(this.data != null) this.data.setMaxInactiveMs(Secs > 0 ? Secs * 1000L : -1);
+	}
+	
+	/**
+	 * Gets a map of the attributes. All attributes are deserialized.
+	 * @return A Map with the attributes.
+	 */
+	@Override
+	public Map<String, Object> getAttributeMap()
+	{
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for(String name : this.data.getAttributeNames())
+		{
+			Object val = this.data.getAttribute(name);
+			if(val != null) ret.put(name, val);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the number of attributes.
+	 * @return An int with the number of attributes.
+	 */
+	@Override
+	public int getAttributes()
+	{
+		return this.data.getAttributeNames().size();
+	}
+	
+	/**
+	 * Gets the attribute names.
+	 * @return A Set of Strings with the names.
+	 */
+	@Override
+	public Set<String> getNames()
+	{
+		return new HashSet<String>(this.data.getAttributeNames());
+	}
+	
+	/**
+	 * Removes all the attributes and notifies the attribute listeners.
+	 */
+	@Override
+	public void clearAttributes()
+	{
+		List<String> names = new ArrayList<String>(this.data.getAttributeNames());
+		for(String name : names)
+		{
+			Object val;
+			synchronized(this)
+			{
+				val = this.doPutOrRemove(name, null);
+			}
+			this.unbindValue(name, val);
+			((httpSessionManager)this.getSessionManager()).doSessionAttributeListeners(this, name, val, null);
+		}
+	}
+	
+	/**
+	 * Sets or removes an attribute.
+	 * @param Name is a String with the attribute name.
+	 * @param Value is the value Object or null to remove it.
+	 * @return The old value Object or null if not set.
+	 */
+	@Override
+	public Object doPutOrRemove(String Name, Object Value)
+	{
+		return this.data.putAttribute(Name, Value);
+	}
+	
+	/**
+	 * Gets an attribute, deserializing it on first access.
+	 * @param Name is a String with the attribute name.
+	 * @return The value Object or null if not set.
+	 */
+	@Override
+	public Object doGet(String Name)
+	{
+		return this.data.getAttribute(Name);
+	}
+	
+	/**
+	 * Gets the attribute names.
+	 * @return An Enumeration of Strings with the names.
+	 */
+	@Override
+	public Enumeration<String> doGetAttributeNames()
+	{
+		return Collections.enumeration(new ArrayList<String>(this.data.getAttributeNames()));
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class httpSessionData holds the state of a session that's kept in a 
+ * httpSessionStore. Attributes loaded from a persistent store are kept 
+ * in their serialized form and are only deserialized when they are first 
+ * read, so a request that uses one attribute doesn't pay for the rest. 
+ * Attributes that were never read are written back to the store as the 
+ * same bytes.
+ * @author Austin Lehman
+ */
+public class httpSessionData
+{
+	/**
+	 * Class serialized holds an attribute value that hasn't been deserialized yet.
+	 */
+	public static class serialized
+	{
+		public byte[] bytes = null;
+		
+		/**
+		 * Default constructor takes the serialized bytes.
+		 * @param Bytes is a byte[] with the serialized value.
+		 */
+		public serialized(byte[] Bytes)
+		{
+			this.bytes = Bytes;
+		}
+	}
+	
+	private volatile String id = null;
+	private long created = 0;
+	private volatile long accessed = 0;
+	private volatile long maxInactiveMs = -1;
+	private Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+	
+	/** True if attributes changed since the session was last saved. */
+	private volatile boolean dirty = true;
+	
+	/** Time the session was last saved. */
+	private volatile long savedAt = 0;
+	
+	/** Counter of deserialized attributes or null. */
+	private AtomicLong deserialized = null;
+	
+	/** Requests using the session. Guarded by the manager's ID lock. */
+	private int users = 0;
+	
+	/**
+	 * Default constructor takes the session ID, the times and the max 
+	 * inactive time.
+	 * @param Id is a String with the session ID.
+	 * @param Created is a long with the creation time in milliseconds since epoch.
+	 * @param Accessed is a long with the last accessed time in milliseconds since epoch.
+	 * @param MaxInactiveMs is a long with the max inactive time in milliseconds 
+	 * or less than 1 to never expire.
+	 */
+	public httpSessionData(String Id, long Created, long Accessed, long MaxInactiveMs)
+	{
+		this.id = Id;
+		this.created = Created;
+		this.accessed = Accessed;
+		this.maxInactiveMs = MaxInactiveMs;
+	}
+	
+	/**
+	 * Gets the session ID.
+	 * @return A String with the ID.
+	 */
+	public String getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * Sets the session ID.
+	 * @param Id is a String with the ID.
+	 */
+	public void setId(String Id)
+	{
+		this.id = Id;
+		this.dirty = true;
+	}
+	
+	/**
+	 * Gets the creation time.
+	 * @return A long with milliseconds since epoch.
+	 */
+	public long getCreated()
+	{
+		return this.created;
+	}
+	
+	/**
+	 * Gets the last accessed time.
+	 * @return A long with milliseconds since epoch.
+	 */
+	public long getAccessed()
+	{
+		return this.accessed;
+	}
+	
+	/**
+	 * Sets the last accessed time.
+	 * @param Accessed is a long with milliseconds since epoch.
+	 */
+	public void setAccessed(long Accessed)
+	{
+		this.accessed = Accessed;
+	}
+	
+	/**
+	 * Gets the max inactive time.
+	 * @return A long with milliseconds or less than 1 to never expire.
+	 */
+	public long getMaxInactiveMs()
+	{
+		return this.maxInactiveMs;
+	}
+	
+	/**
+	 * Sets the max inactive time.
+	 * @param MaxInactiveMs is a long with milliseconds or less than 1 to never expire.
+	 */
+	public void setMaxInactiveMs(long MaxInactiveMs)
+	{
+		if(this.maxInactiveMs == MaxInactiveMs) return;
+		this.maxInactiveMs = MaxInactiveMs;
+		this.dirty = true;
+	}
+	
+	/**
+	 * Gets the time the session expires.
+	 * @return A long with milliseconds since epoch or Long.MAX_VALUE if it never expires.
+	 */
+	public long getExpiry()
+	{
+		return this.maxInactiveMs > 0 ? this.accessed + this.maxInactiveMs : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Checks if the session has expired at the provided time.
+	 * @param Now is a long with milliseconds since epoch.
+	 * @return A boolean with true if expired.
+	 */
+	public boolean isExpired(long Now)
+	{
+		return this.getExpiry() <= Now;
+	}
+	
+	/**
+	 * Gets an attribute value, deserializing it on first access.
+	 * @param Name is a String with the attribute name.
+	 * @return The value Object or null if not set.
+	 */
+	public Object getAttribute(String Name)
+	{
+		Object val = this.attributes.get(Name);
+		if(val instanceof serialized)
+		{
+			if(this.deserialized != null) this.deserialized.incrementAndGet();
+			Object obj = deserialize(((serialized)val).bytes);
+			if(obj == null)
+			{
+				this.attributes.remove(Name, val);
+				return null;
+			}
+			if(this.attributes.replace(Name, val, obj)) return obj;
+			return this.getAttribute(Name);
+		}
+		return val;
+	}
+	
+	/**
+	 * Sets or removes an attribute.
+	 * @param Name is a String with the attribute name.
+	 * @param Value is the value Object or null to remove the attribute.
+	 * @return The old value Object or null if not set.
+	 */
+	public Object putAttribute(String Name, Object Value)
+	{
+		Object old = this.getAttribute(Name);
+		if(Value == null) this.attributes.remove(Name);
+		else this.attributes.put(Name, Value);
+		this.dirty = true;
+		return old;
+	}
+	
+	/**
+	 * Sets an attribute that hasn't been deserialized. Used by stores 
+	 * when loading a session.
+	 * @param Name is a String with the attribute name.
+	 * @param Bytes is a byte[] with the serialized value.
+	 */
+	public void putSerialized(String Name, byte[] Bytes)
+	{
+		this.attributes.put(Name, new serialized(Bytes));
+	}
+	
+	/**
+	 * Gets the attribute names.
+	 * @return A Set of Strings with the attribute names.
+	 */
+	public Set<String> getAttributeNames()
+	{
+		return this.attributes.keySet();
+	}
+	
+	/**
+	 * Gets the raw attribute map. Values that haven't been read yet are 
+	 * serialized objects.
+	 * @return A Map with the attributes.
+	 */
+	public Map<String, Object> getRawAttributes()
+	{
+		return this.attributes;
+	}
+	
+	/**
+	 * Removes all the attributes.
+	 */
+	public void clearAttributes()
+	{
+		this.attributes.clear();
+		this.dirty = true;
+	}
+	
+	/**
+	 * Checks if the attributes changed since the session was last saved. 
+	 * @return A boolean with true if changed.
+	 */
+	public boolean isDirty()
+	{
+		return this.dirty;
+	}
+	
+	/**
+	 * Gets the time the session was last saved.
+	 * @return A long with milliseconds since epoch or 0 if never saved.
+	 */
+	public long getSavedAt()
+	{
+		return this.savedAt;
+	}
+	
+	/**
+	 * Marks the session as saved.
+	 * @param Now is a long with milliseconds since epoch.
+	 */
+	public void setSaved(long Now)
+	{
+		this.savedAt = Now;
+		this.dirty = false;
+	}
+	
+	/**
+	 * Adds to the count of requests using the session. Called by 
+	 * httpSessionManager holding the lock of the session ID.
+	 * @param Delta is an int with the number to add.
+	 * @return An int with the new count.
+	 */
+	int addUsers(int Delta)
+	{
+		this.users += Delta;
+		return this.users;
+	}
+	
+	/**
+	 * Sets the counter to increment when an attribute is deserialized.
+	 * @param Counter is an AtomicLong or null for none.
+	 */
+	public void setDeserializedCounter(AtomicLong Counter)
+	{
+		this.deserialized = Counter;
+	}
+	
+	/**
+	 * Serializes the provided value. Values that were never deserialized 
+	 * are returned as is.
+	 * @param Value is the value Object.
+	 * @return A byte[] with the serialized value.
+	 * @throws IOException Exception if the value isn't serializable.
+	 */
+	public static byte[] serialize(Object Value) throws IOException
+	{
+		if(Value instanceof serialized) return ((serialized)Value).bytes;
+		if(!(Value instanceof Serializable)) throw new IOException("Value of type '" + Value.getClass().getName() + "' isn't serializable.");
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(Value);
+		oos.close();
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Deserializes the provided bytes using the thread context class 
+	 * loader so classes loaded by the engine are found.
+	 * @param Bytes is a byte[] with the serialized value.
+	 * @return The value Object or null if it can't be deserialized.
+	 */
+	private static Object deserialize(byte[] Bytes)
+	{
+		try
+		{
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Bytes))
+			{
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass Desc) throws IOException, ClassNotFoundException
+				{
+					ClassLoader cl = Thread.currentThread().getContextClassLoader();
+					if(cl != null)
+					{
+						try { return Class.forName(Desc.getName(), false, cl); }
+						catch (ClassNotFoundException e) { }
+					}
+					return super.resolveClass(Desc);
+				}
+			};
+			Object ret = ois.readObject();
+			ois.close();
+			return ret;
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			System.err.println("httpSessionData.deserialize(): " + e.getMessage());
+			return null;
+		}
+	}
+}
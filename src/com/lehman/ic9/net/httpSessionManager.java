@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.server.session.AbstractSession;
+import org.eclipse.jetty.server.session.AbstractSessionManager;
+
+/**
+ * Class httpSessionManager is the Jetty session manager used by httpServer. 
+ * Sessions are kept in a pluggable httpSessionStore such as the bounded 
+ * httpMemorySessionStore or the persistent httpFileSessionStore. Only 
+ * sessions used by requests in flight are held by the manager. A session 
+ * is loaded from the store when a request references it and saved back 
+ * when the last request using it completes. Expired sessions are swept 
+ * from the store on the httpAsync scheduler. Swept sessions are removed 
+ * without calling session listeners.
+ * @author Austin Lehman
+ */
+public class httpSessionManager extends AbstractSessionManager
+{
+	private httpSessionStore store = null;
+	
+	/** Sessions used by requests in flight. */
+	private ConcurrentHashMap<String, httpSession> live = new ConcurrentHashMap<String, httpSession>();
+	
+	/** 
+	 * Striped locks by session ID. Loading a session and releasing it are 
+	 * done holding the lock of its ID so a load never reads the store 
+	 * before the save of a release it raced with.
+	 */
+	private final Object[] idLocks = new Object[64];
+	
+	/** Seconds between expiry sweeps. */
+	private int sweepInterval = 60;
+	private ScheduledFuture<?> sweeper = null;
+	
+	/** Counters. */
+	private AtomicLong created = new AtomicLong(0);
+	private AtomicLong expired = new AtomicLong(0);
+	private AtomicLong loaded = new AtomicLong(0);
+	private AtomicLong deserialized = new AtomicLong(0);
+	
+	/**
+	 * Default constructor takes the store and the session settings.
+	 * @param Store is the httpSessionStore to keep sessions in.
+	 * @param MaxInactiveInterval is an int with the seconds a session is kept 
+	 * after its last request or 0 or less to never expire.
+	 * @param SweepInterval is an int with the seconds between expiry sweeps.
+	 */
+	public httpSessionManager(httpSessionStore Store, int MaxInactiveInterval, int SweepInterval)
+	{
+		this.store = Store;
+		for(int i = 0; i < this.idLocks.length; i++) this.idLocks[i] = new Object();
+		this.sweepInterval = Math.max(1, SweepInterval);
+		this.setMaxInactiveInterval(MaxInactiveInterval);
+	}
+	
+	/**
+	 * Opens the store and starts the expiry sweeps.
+	 * @throws Exception Exception
+	 */
+	@Override
+	public void doStart() throws Exception
+	{
+		this.store.open();
+		super.doStart();
+		this.sweeper = httpAsync.getScheduler().scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				sweep();
+			}
+		}, this.sweepInterval, this.sweepInterval, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stops the sweeps, saves the sessions in use and closes the store.
+	 * @throws Exception Exception
+	 */
+	@Override
+	public void doStop() throws Exception
+	{
+		if(this.sweeper != null) this.sweeper.cancel(false);
+		super.doStop();
+		this.store.close();
+	}
+	
+	/**
+	 * Removes the expired sessions from the store.
+	 */
+	public void sweep()
+	{
+		try
+		{
+			List<String> ids = this.store.expire(System.currentTimeMillis());
+			this.expired.addAndGet(ids.size());
+		}
+		catch (Throwable e) { System.err.println("httpSessionManager.sweep(): " + e.getMessage()); }
+	}
+	
+	/**
+	 * Adds a new session to the store.
+	 * @param Session is the new AbstractSession.
+	 */
+	@Override
+	protected void addSession(AbstractSession Session)
+	{
+		httpSession s = (httpSession)Session;
+		s.getData().setDeserializedCounter(this.deserialized);
+		this.live.put(s.getClusterId(), s);
+		this.store.save(s.getData(), true);
+		this.created.incrementAndGet();
+	}
+	
+	/**
+	 * Gets the session with the provided ID, loading it from the store 
+	 * if it's not in use.
+	 * @param IdInCluster is a String with the session ID.
+	 * @return A httpSession object or null if not found or expired.
+	 */
+	@Override
+	public AbstractSession getSession(String IdInCluster)
+	{
+		httpSession s = this.live.get(IdInCluster);
+		if(s != null) return s;
+		
+		synchronized(this.lockFor(IdInCluster))
+		{
+			s = this.live.get(IdInCluster);
+			if(s != null) return s;
+			
+			httpSessionData data = this.store.load(IdInCluster);
+			if(data == null) return null;
+			if(data.isExpired(System.currentTimeMillis()))
+			{
+				if(this.store.delete(IdInCluster)) this.expired.incrementAndGet();
+				return null;
+			}
+			
+			data.setDeserializedCounter(this.deserialized);
+			s = new httpSession(this, data);
+			httpSession prev = this.live.putIfAbsent(IdInCluster, s);
+			if(prev != null) return prev;
+			this.loaded.incrementAndGet();
+			return s;
+		}
+	}
+	
+	/**
+	 * Gets the lock for the provided session ID.
+	 * @param Id is a String with the session ID.
+	 * @return The lock Object.
+	 */
+	private Object lockFor(String Id)
+	{
+		return this.idLocks[(Id.hashCode() & 0x7fffffff) % this.idLocks.length];
+	}
+	
+	/**
+	 * Counts a request using the provided session and makes it live again 
+	 * if it was released after the request got it from getSession. A 
+	 * released session reloads its data from the store, since another 
+	 * session object with the same ID may have been loaded, changed and 
+	 * saved in between. If another session object is live, the provided 
+	 * session uses its data. The count of requests is kept on the data, so 
+	 * the session is only saved and released once no request uses either 
+	 * object. Called from httpSession.access.
+	 * @param S is the httpSession being accessed.
+	 */
+	void accessed(httpSession S)
+	{
+		String id = S.getClusterId();
+		synchronized(this.lockFor(id))
+		{
+			httpSession cur = this.live.get(id);
+			if(cur == null)
+			{
+				httpSessionData data = this.store.load(id);
+				if(data != null && data != S.getData())
+				{
+					data.setDeserializedCounter(this.deserialized);
+					S.setData(data);
+					this.loaded.incrementAndGet();
+				}
+				this.live.put(id, S);
+			}
+			else if(cur != S) S.setData(cur.getData());
+			S.getData().addUsers(1);
+		}
+	}
+	
+	/**
+	 * Completes a request using the provided session. Once no requests are 
+	 * using it, the session is saved to the store and released. This runs 
+	 * under the ID lock, the same lock accessed holds while it counts the 
+	 * request, so getSession can't load the session from the store until 
+	 * it's saved.
+	 * @param Session is the HttpSession.
+	 */
+	@Override
+	public void complete(HttpSession Session)
+	{
+		super.complete(Session);
+		httpSession s = (httpSession)((SessionIf)Session).getSession();
+		synchronized(this.lockFor(s.getClusterId()))
+		{
+			httpSessionData data = s.getData();
+			if(data.addUsers(-1) > 0 || !s.isValid()) return;
+			this.store.save(data, false);
+			httpSession cur = this.live.get(s.getClusterId());
+			if(cur != null && cur.getData() == data) this.live.remove(s.getClusterId(), cur);
+		}
+	}
+	
+	/**
+	 * Saves the sessions in use to the store. Called when stopping.
+	 */
+	@Override
+	protected void shutdownSessions()
+	{
+		for(httpSession s : this.live.values()) this.store.save(s.getData(), false);
+		this.live.clear();
+	}
+	
+	/**
+	 * Creates a new session for the provided request.
+	 * @param Req is the HttpServletRequest.
+	 * @return A new httpSession object.
+	 */
+	@Override
+	protected AbstractSession newSession(HttpServletRequest Req)
+	{
+		return new httpSession(this, Req);
+	}
+	
+	/**
+	 * Removes the session with the provided ID from the store.
+	 * @param IdInCluster is a String with the session ID.
+	 * @return A boolean with true if removed.
+	 */
+	@Override
+	protected boolean removeSession(String IdInCluster)
+	{
+		this.live.remove(IdInCluster);
+		return this.store.delete(IdInCluster);
+	}
+	
+	/**
+	 * Changes the ID of a session in use and notifies the ID listeners.
+	 * @param OldClusterId is a String with the old cluster ID.
+	 * @param OldNodeId is a String with the old node ID.
+	 * @param NewClusterId is a String with the new cluster ID.
+	 * @param NewNodeId is a String with the new node ID.
+	 */
+	@Override
+	public void renewSessionId(String OldClusterId, String OldNodeId, String NewClusterId, String NewNodeId)
+	{
+		httpSession s = this.live.remove(OldClusterId);
+		if(s == null) return;
+		this.store.delete(OldClusterId);
+		s.changeId(NewClusterId, NewNodeId);
+		this.live.put(NewClusterId, s);
+		this.store.save(s.getData(), true);
+		super.renewSessionId(OldClusterId, OldNodeId, NewClusterId, NewNodeId);
+	}
+	
+	/**
+	 * Gets the session store.
+	 * @return A httpSessionStore object.
+	 */
+	public httpSessionStore getStore()
+	{
+		return this.store;
+	}
+	
+	/**
+	 * Gets the number of sessions in the store.
+	 * @return An int with the number of sessions.
+	 */
+	public int getSessionCount()
+	{
+		return this.store.getCount();
+	}
+	
+	/**
+	 * Gets the number of sessions used by requests in flight.
+	 * @return An int with the number of sessions.
+	 */
+	public int getLiveCount()
+	{
+		return this.live.size();
+	}
+	
+	/**
+	 * Gets the number of sessions created.
+	 * @return A long with the number of sessions.
+	 */
+	public long getCreated()
+	{
+		return this.created.get();
+	}
+	
+	/**
+	 * Gets the number of sessions removed because they expired.
+	 * @return A long with the number of sessions.
+	 */
+	public long getExpired()
+	{
+		return this.expired.get();
+	}
+	
+	/**
+	 * Gets the number of sessions removed by the store to stay within its 
+	 * size limit.
+	 * @return A long with the number of sessions.
+	 */
+	public long getEvicted()
+	{
+		return this.store.getEvicted();
+	}
+	
+	/**
+	 * Gets the number of sessions loaded from the store by requests.
+	 * @return A long with the number of sessions.
+	 */
+	public long getLoaded()
+	{
+		return this.loaded.get();
+	}
+	
+	/**
+	 * Gets the number of session attributes deserialized.
+	 * @return A long with the number of attributes.
+	 */
+	public long getDeserialized()
+	{
+		return this.deserialized.get();
+	}
+}
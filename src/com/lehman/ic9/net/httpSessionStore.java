@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9.net;
+
+import java.util.List;
+
+import com.lehman.ic9.ic9exception;
+
+/**
+ * Interface httpSessionStore is implemented by the stores httpSessionManager 
+ * keeps sessions in. A store holds the sessions between requests. The 
+ * manager loads a session when a request references it and saves it again 
+ * when the last request using it completes. Stores must be safe to call 
+ * from multiple threads.
+ * @author Austin Lehman
+ */
+public interface httpSessionStore
+{
+	/**
+	 * Opens the store. Called when the server starts.
+	 * @throws ic9exception Exception
+	 */
+	public void open() throws ic9exception;
+	
+	/**
+	 * Closes the store. Called when the server stops after the sessions 
+	 * in use have been saved.
+	 */
+	public void close();
+	
+	/**
+	 * Loads the session with the provided ID.
+	 * @param Id is a String with the session ID.
+	 * @return A httpSessionData object or null if not found.
+	 */
+	public httpSessionData load(String Id);
+	
+	/**
+	 * Saves the provided session.
+	 * @param Data is the httpSessionData to save.
+	 * @param IsNew is a boolean with true if the session was just created.
+	 */
+	public void save(httpSessionData Data, boolean IsNew);
+	
+	/**
+	 * Removes the session with the provided ID.
+	 * @param Id is a String with the session ID.
+	 * @return A boolean with true if it was removed and false if not found.
+	 */
+	public boolean delete(String Id);
+	
+	/**
+	 * Removes the sessions that have expired at the provided time.
+	 * @param Now is a long with milliseconds since epoch.
+	 * @return A List of Strings with the IDs of the removed sessions.
+	 */
+	public List<String> expire(long Now);
+	
+	/**
+	 * Gets the number of sessions in the store.
+	 * @return An int with the number of sessions.
+	 */
+	public int getCount();
+	
+	/**
+	 * Gets the number of sessions removed to keep the store within its 
+	 * size limit.
+	 * @return A long with the number of sessions.
+	 */
+	public long getEvicted();
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ic9;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lehman.ic9.io.file;
+
+/**
+ * Class scriptCache holds the contents of included script files
+ * for all ic9engine instances in the JVM so that creating a new
+ * engine doesn't read jsenv.js, javaenv.js and the stdjslib modules
+ * from disk again. Entries are keyed by the canonical file path and
+ * are validated against the file modified time and length on each
+ * lookup.
+ * <br><br>
+ * The compiled code itself is cached through the Nashorn persistent
+ * code cache. It's opt-in and is enabled by setting the
+ * ic9.codeCache system property to a directory. (ic9 -Dic9.codeCache=$HOME/.ic9cache script.js)
+ * The directory is created readable and writable only by the owner,
+ * and an existing directory is only used if it's owned by the current
+ * user and can't be written by anyone else, since Nashorn loads the
+ * classes in it.
+ * @author Austin Lehman
+ */
+public class scriptCache
+{
+	/** System property with the persistent code cache directory. */
+	public static final String CODE_CACHE_PROP = "ic9.codeCache";
+
+	/** Set once a code cache directory problem was printed. */
+	private static volatile boolean warned = false;
+
+	/** scriptCache instance. */
+	private static scriptCache instance = null;
+
+	/** Cached scripts by canonical path. */
+	private Map<String, cacheEntry> entries = new ConcurrentHashMap<String, cacheEntry>();
+
+	/** Cache hit count. */
+	private AtomicLong hits = new AtomicLong(0);
+
+	/** Cache miss count. */
+	private AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * Single cached script file.
+	 */
+	private static class cacheEntry
+	{
+		public long modified = 0;
+		public long length = 0;
+		public String contents = null;
+
+		public cacheEntry(long Modified, long Length, String Contents)
+		{
+			this.modified = Modified;
+			this.length = Length;
+			this.contents = Contents;
+		}
+	}
+
+	/**
+	 * Constructor is protected and exists to defeat instantiation.
+	 */
+	protected scriptCache() { }
+
+	/**
+	 * Gets an instance of the scriptCache object. If the
+	 * instance doesn't exist it is created. This method is
+	 * synchronized so as not to allow 2 instances of the
+	 * object to be created.
+	 * @return The instance of scriptCache.
+	 */
+	public static synchronized scriptCache getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new scriptCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Reads the script with the provided file name. If the script is
+	 * cached and the file hasn't been modified since, the cached
+	 * contents are returned. Otherwise the file is read and cached.
+	 * @param FileName is a String with the script file name to read.
+	 * @return A String with the script contents.
+	 * @throws ic9exception Exception
+	 */
+	public String read(String FileName) throws ic9exception
+	{
+		File f = new File(FileName);
+		String key;
+		try { key = f.getCanonicalPath(); }
+		catch (IOException e) { key = f.getAbsolutePath(); }
+
+		long modified = f.lastModified();
+		long length = f.length();
+
+		cacheEntry ce = this.entries.get(key);
+		if(ce != null && ce.modified == modified && ce.length == length)
+		{
+			this.hits.incrementAndGet();
+			return ce.contents;
+		}
+
+		this.misses.incrementAndGet();
+		String contents = file.read(FileName);
+		this.entries.put(key, new cacheEntry(modified, length, contents));
+		return contents;
+	}
+
+	/**
+	 * Removes all cached scripts.
+	 */
+	public void clear()
+	{
+		this.entries.clear();
+	}
+
+	/**
+	 * Gets the number of cached scripts.
+	 * @return An int with the number of cached scripts.
+	 */
+	public int size()
+	{
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets the number of cache hits.
+	 * @return A long with the number of hits.
+	 */
+	public long getHits()
+	{
+		return this.hits.get();
+	}
+
+	/**
+	 * Gets the number of cache misses.
+	 * @return A long with the number of misses.
+	 */
+	public long getMisses()
+	{
+		return this.misses.get();
+	}
+
+	/**
+	 * Gets the persistent code cache directory from the ic9.codeCache
+	 * system property. The directory is created with owner only
+	 * permissions if needed. On file systems with POSIX permissions an
+	 * existing directory must be owned by the current user and must not
+	 * be writable by the group or others.
+	 * @return A String with the code cache directory or null if it isn't
+	 * set or can't be used.
+	 */
+	public static String getCodeCacheDir()
+	{
+		String dir = System.getProperty(CODE_CACHE_PROP);
+		if(dir == null || dir.trim().equals("")) return null;
+
+		Path path = Paths.get(dir).toAbsolutePath();
+		boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+		try
+		{
+			if(!Files.isDirectory(path))
+			{
+				if(posix) Files.createDirectories(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+				else Files.createDirectories(path);
+			}
+
+			if(posix)
+			{
+				String owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+				Set<PosixFilePermission> perms = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+				if(!owner.equals(System.getProperty("user.name")) || perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE))
+				{
+					warn("scriptCache.getCodeCacheDir(): Code cache directory '" + path + "' isn't owned by the current user or is writable by others, not using it.");
+					return null;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			warn("scriptCache.getCodeCacheDir(): Failed to use code cache directory '" + path + "': " + e.getMessage());
+			return null;
+		}
+
+		if(!Files.isWritable(path)) return null;
+		return path.toString();
+	}
+
+	/**
+	 * Prints the provided code cache warning the first time only, since
+	 * the directory is checked for each new engine.
+	 * @param Msg is a String with the warning.
+	 */
+	private static void warn(String Msg)
+	{
+		if(warned) return;
+		warned = true;
+		System.err.println(Msg);
+	}
+
+	/**
+	 * Adds the Nashorn persistent code cache options to the provided
+	 * engine arguments if the ic9.codeCache system property is set.
+	 * Compiled classes are then stored in that directory and reused
+	 * by every engine and later runs for unchanged scripts.
+	 * @param Args is an array of Strings with the engine arguments.
+	 * @return An array of Strings with the engine arguments to use.
+	 */
+	public static String[] getEngineArgs(String[] Args)
+	{
+		String dir = getCodeCacheDir();
+		if(dir == null) return Args;
+
+		System.setProperty("nashorn.persistent.code.cache", dir);
+		String[] ret = Arrays.copyOf(Args, Args.length + 1);
+		ret[Args.length] = "--persistent-code-cache=true";
+		return ret;
+	}
+}
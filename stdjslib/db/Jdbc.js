@@ -15,7 +15,7 @@
  */
 
 "use strict";
-/*global Java, getEngine, BaseObj, setDef */
+/*global Java, getEngine, BaseObj, setDef, isFunct */
 
 /**
  * Holdability options.
@@ -71,6 +71,80 @@ function newSavePoint(Name, Id) {
 }
 
 
+/**
+ * Forward only cursor returned from Jdbc.openCursor(). Rows are 
+ * read one at a time with next().
+ * @constructor
+ * @param NativeCursor is the native jdbcCursor object.
+ */
+function JdbcCursor(NativeCursor) {
+    BaseObj.call(this);
+    this.native = NativeCursor;
+}
+JdbcCursor.prototype = new BaseObj();
+
+/**
+ * Gets the next row or null if there are no more rows. The 
+ * cursor is closed once the last row has been read.
+ * @return A Javascript object with the row or null.
+ */
+JdbcCursor.prototype.next = function () {
+    return this.native.next();
+};
+
+/**
+ * Calls the provided function for each remaining row with the 
+ * row object and row index. Return false from the callback to 
+ * stop reading rows. The cursor is closed when done.
+ * @param RowCallback is a function to call for each row.
+ * @return Object instance.
+ */
+JdbcCursor.prototype.forEach = function (RowCallback) {
+    var row;
+    try {
+        while ((row = this.native.next()) !== null) {
+            if (RowCallback(row, Number(this.native.getRowCount()) - 1) === false) { break; }
+        }
+    } finally {
+        this.native.close();
+    }
+    return this;
+};
+
+/**
+ * Gets the number of rows read so far.
+ * @return An integer with the number of rows read.
+ */
+JdbcCursor.prototype.getRowCount = function () {
+    return Number(this.native.getRowCount());
+};
+
+/**
+ * Gets the column names of the result.
+ * @return A list of strings with the column names.
+ */
+JdbcCursor.prototype.getColumnNames = function () {
+    return Java.from(this.native.getColumnNames());
+};
+
+/**
+ * Checks to see if the cursor is closed.
+ * @return A boolean with true for closed and false for not.
+ */
+JdbcCursor.prototype.isClosed = function () {
+    return this.native.isClosed();
+};
+
+/**
+ * Closes the cursor. It's safe to call this more than once.
+ * @return Object instance.
+ */
+JdbcCursor.prototype.close = function () {
+    this.native.close();
+    return this;
+};
+JdbcCursor.prototype.constructor = JdbcCursor;
+
 /**
  * Jdbc object implements generic Java JDBC functionality. This 
  * object can be extended to implement more specific connectors or 
@@ -321,6 +395,61 @@ Jdbc.prototype.disconnect = function () {
     return this;
 };
 
+/**
+ * Sets whether rows returned from select queries and cursors have 
+ * each field set by index as well as by column name. Index keys are 
+ * on by default. Turning them off halves the number of keys set on 
+ * each row for large selects.
+ * @param IndexKeys is a boolean with true to set index keys and 
+ * false for column names only.
+ * @return Object instance.
+ */
+Jdbc.prototype.setIndexKeys = function (IndexKeys) {
+    this.native.setIndexKeys(IndexKeys);
+    return this;
+};
+
+/**
+ * Gets whether rows have each field set by index as well as by 
+ * column name.
+ * @return A boolean with true for index keys and false for not.
+ */
+Jdbc.prototype.getIndexKeys = function () {
+    return this.native.getIndexKeys();
+};
+
+/**
+ * Sets the max number of prepared statements cached for this 
+ * connection. Statements used by selectQuery, updateQuery and 
+ * updateBatch are cached by SQL text so that queries run often 
+ * aren't prepared again each time. The default size is 32 and 
+ * cached statements are closed on disconnect.
+ * @param Size is an integer with the max number of statements. Set 
+ * to 0 to disable the cache.
+ * @return Object instance.
+ */
+Jdbc.prototype.setStatementCacheSize = function (Size) {
+    this.native.setStatementCacheSize(Size);
+    return this;
+};
+
+/**
+ * Gets the prepared statement cache information.
+ * @return A Javascript object with maxSize, size, hits and misses.
+ */
+Jdbc.prototype.getStatementCacheInfo = function () {
+    return this.native.getStatementCacheInfo();
+};
+
+/**
+ * Closes and removes all cached prepared statements.
+ * @return Object instance.
+ */
+Jdbc.prototype.clearStatementCache = function () {
+    this.native.clearStatementCache();
+    return this;
+};
+
 /**
  * Sets the auto commit flag.
  * @param AutoCommit is a boolean with true for auto commit and false for not.
@@ -449,6 +578,71 @@ Jdbc.prototype.selectQuery = function (QueryString, ParameterList) {
     return this.native.selectQuery(QueryString, ParameterList);
 };
 
+/**
+ * Opens a forward only cursor for the provided SELECT query and 
+ * parameter list. Rows are fetched from the database in batches of 
+ * FetchSize as the cursor is read, so large results can be processed 
+ * in constant memory. Call close() on the cursor if it isn't read to 
+ * the end. Note that some drivers only stream results when auto commit 
+ * is off. (PostgreSQL for example.)
+ * @param QueryString is a String with the query to execute.
+ * @param ParamsList is a Javascript list of parameters to use in the prepared 
+ * statement query. (Optional)
+ * @param FetchSize is an integer with the number of rows to fetch at a 
+ * time. (Optional, default is 1000.)
+ * @return A new JdbcCursor object.
+ */
+Jdbc.prototype.openCursor = function (QueryString, ParameterList, FetchSize) {
+    ParameterList = setDef(ParameterList, []);
+    FetchSize = setDef(FetchSize, 1000);
+    return new JdbcCursor(this.native.openCursor(QueryString, ParameterList, FetchSize));
+};
+
+/**
+ * Makes a SELECT query with the provided query string and parameter 
+ * list and calls RowCallback for each row as it's read from the database 
+ * instead of building a list of all rows. The callback is called with the 
+ * row object and the row index. Return false from the callback to stop 
+ * reading rows.
+ * @param QueryString is a String with the query to execute.
+ * @param ParamsList is a Javascript list of parameters to use in the prepared 
+ * statement query.
+ * @param RowCallback is a function to call for each row.
+ * @param FetchSize is an integer with the number of rows to fetch at a 
+ * time. (Optional, default is 1000.)
+ * @return An integer with the number of rows read.
+ */
+Jdbc.prototype.queryEach = function (QueryString, ParameterList, RowCallback, FetchSize) {
+    ParameterList = setDef(ParameterList, []);
+    FetchSize = setDef(FetchSize, 1000);
+    if (!isFunct(RowCallback)) { throw ("Jdbc.queryEach(): Expecting RowCallback argument to be a function."); }
+    return Number(this.native.queryEach(QueryString, ParameterList, RowCallback, FetchSize));
+};
+
+/**
+ * Makes a SELECT query with the provided query string and 
+ * parameter list and returns the result by column instead of 
+ * by row. Each column is a single Java array which uses much 
+ * less memory than a list of row objects for large numeric 
+ * results. Integer columns are int[] (long[] for BIGINT), 
+ * floating point and decimal columns are double[], boolean 
+ * columns are boolean[], date and time columns are double[] 
+ * with milliseconds since epoch and all others are String[]. 
+ * Null values read as 0, false or null in the arrays and are 
+ * marked in the nulls BitSet for the column. Note that long[] 
+ * values are Java Long objects in Javascript.
+ * @param QueryString is a String with the query to execute.
+ * @param ParamsList is a Javascript list of parameters to use in the prepared 
+ * statement query.
+ * @return An object with names (list of column names), rowCount, 
+ * columns (array by column name), nulls (java.util.BitSet by column 
+ * name) and types (type name by column name).
+ */
+Jdbc.prototype.selectColumns = function (QueryString, ParameterList) {
+    ParameterList = setDef(ParameterList, []);
+    return this.native.selectColumns(QueryString, ParameterList);
+};
+
 /**
  * Makes an UPDATE query with the provided query string and 
  * parameter list. This method uses the Java JDBC prepared 
@@ -463,6 +657,23 @@ Jdbc.prototype.updateQuery = function (QueryString, ParameterList) {
     return this;
 };
 
+/**
+ * Makes a batch of UPDATE queries with the provided query string and 
+ * list of parameter lists using a single prepared statement. Rows are 
+ * sent to the database BatchSize at a time. Turning off auto commit 
+ * and committing after the batch is usually much faster than committing 
+ * every row.
+ * @param QueryString is a String with the query to execute.
+ * @param BatchList is a list of parameter lists, one for each row.
+ * @param BatchSize is an integer with the number of rows to send 
+ * at a time. (Optional, default is 1000.)
+ * @return A list of integers with the update count for each row.
+ */
+Jdbc.prototype.updateBatch = function (QueryString, BatchList, BatchSize) {
+    BatchSize = setDef(BatchSize, 1000);
+    return this.native.updateBatch(QueryString, BatchList, BatchSize);
+};
+
 /**
  * Makes an UPDATE query with the provided query string. This 
  * method is not secure and it's recommended in most cases to use 
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, Java, BaseObj, setDef, isDef, isFunct, Jdbc */
+
+include("db/Jdbc.js");
+
+/**
+ * JdbcPool object implements a bounded pool of JDBC connections
+ * that can be shared by scripts and request threads. Connections
+ * are borrowed with getConnection() and returned to the pool by
+ * calling disconnect() on the returned Jdbc object.
+ *
+ * Pool settings must be set before the pool is started. The pool
+ * is started with start() or on the first getConnection() call.
+ * @constructor
+ *
+ * @param Driver is a string with the JDBC driver.
+ * @param Url is a string with the database url to connect to.
+ * @param UserName is a string with the user name to connect with.
+ * @param Password is a string with the password to connect with.
+ */
+function JdbcPool(Driver, Url, UserName, Password) {
+    BaseObj.call(this);
+    if (isDef(Driver)) {
+        var NativeJdbcPool = Java.type("com.lehman.ic9.db.jdbcPool");
+        this.native = new NativeJdbcPool(Driver, Url, UserName, Password);
+    }
+}
+JdbcPool.prototype = new BaseObj();
+
+/**
+ * Gets the pool registered with the provided name. Pools
+ * are shared by all engines in the JVM so this can be used
+ * from httpServer engine pool handlers.
+ * @param Name is a string with the pool name.
+ * @return A JdbcPool object or null if not found.
+ */
+JdbcPool.get = function (Name) {
+    var NativeJdbcPool = Java.type("com.lehman.ic9.db.jdbcPool"), npool, pool;
+    npool = NativeJdbcPool.getPool(Name);
+    if (npool === null) { return null; }
+    pool = new JdbcPool();
+    pool.native = npool;
+    return pool;
+};
+
+/**
+ * Registers the pool with the provided name so that it can be
+ * found with JdbcPool.get().
+ * @param Name is a string with the pool name.
+ * @return Object instance.
+ */
+JdbcPool.prototype.register = function (Name) {
+    var NativeJdbcPool = Java.type("com.lehman.ic9.db.jdbcPool");
+    NativeJdbcPool.registerPool(Name, this.native);
+    return this;
+};
+
+/**
+ * Sets the min number of connections to keep open.
+ * @param MinSize is an integer with the min pool size. (Default is 1.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setMinSize = function (MinSize) {
+    this.native.setMinSize(MinSize);
+    return this;
+};
+
+/**
+ * Sets the max number of connections that can be open.
+ * @param MaxSize is an integer with the max pool size. (Default is 10.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setMaxSize = function (MaxSize) {
+    this.native.setMaxSize(MaxSize);
+    return this;
+};
+
+/**
+ * Sets the number of milliseconds a connection can be idle
+ * before it's closed. Connections aren't closed below the min size.
+ * @param IdleTimeout is an integer with the milliseconds. Set to
+ * 0 to keep idle connections open. (Default is 600000.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setIdleTimeout = function (IdleTimeout) {
+    this.native.setIdleTimeout(IdleTimeout);
+    return this;
+};
+
+/**
+ * Sets the number of milliseconds getConnection() waits for a
+ * connection when all connections are in use.
+ * @param BorrowTimeout is an integer with the milliseconds. (Default is 30000.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setBorrowTimeout = function (BorrowTimeout) {
+    this.native.setBorrowTimeout(BorrowTimeout);
+    return this;
+};
+
+/**
+ * Sets the number of milliseconds a connection can be held before
+ * it's reported on stderr as a possible leak.
+ * @param LeakTimeout is an integer with the milliseconds. Set to 0
+ * to turn off leak detection. (Default is 0.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setLeakTimeout = function (LeakTimeout) {
+    this.native.setLeakTimeout(LeakTimeout);
+    return this;
+};
+
+/**
+ * Sets the number of seconds to wait when validating a connection
+ * before it's handed out.
+ * @param ValidationTimeout is an integer with the seconds. (Default is 5.)
+ * @return Object instance.
+ */
+JdbcPool.prototype.setValidationTimeout = function (ValidationTimeout) {
+    this.native.setValidationTimeout(ValidationTimeout);
+    return this;
+};
+
+/**
+ * Opens the min number of connections and starts idle eviction
+ * and leak detection.
+ * @return Object instance.
+ */
+JdbcPool.prototype.start = function () {
+    this.native.start();
+    return this;
+};
+
+/**
+ * Borrows a connection from the pool. Call disconnect() on the
+ * returned object to return the connection to the pool.
+ * @return A connected Jdbc object.
+ */
+JdbcPool.prototype.getConnection = function () {
+    var con = new Jdbc(this.native.getDriver(), this.native.getUrl(), this.native.getUserName(), this.native.getPassword());
+    con.native.setPool(this.native);
+    con.connect();
+    return con;
+};
+
+/**
+ * Borrows a connection, calls the provided function with it and
+ * returns the connection to the pool when the function returns
+ * or throws.
+ * @param Callback is a function to call with the Jdbc object.
+ * @return The value returned from the callback.
+ */
+JdbcPool.prototype.withConnection = function (Callback) {
+    if (!isFunct(Callback)) { throw ("JdbcPool.withConnection(): Expecting Callback argument to be a function."); }
+    var con = this.getConnection();
+    try {
+        return Callback(con);
+    } finally {
+        con.disconnect();
+    }
+};
+
+/**
+ * Gets the pool usage information.
+ * @return A Javascript object with idle, active, open, waiting, minSize 
+ * and maxSize.
+ */
+JdbcPool.prototype.getInfo = function () {
+    return {
+        idle: this.native.getIdle(),
+        active: this.native.getActive(),
+        open: this.native.getOpen(),
+        waiting: this.native.getWaiting(),
+        minSize: this.native.getMinSize(),
+        maxSize: this.native.getMaxSize()
+    };
+};
+
+/**
+ * Checks to see if the pool is closed.
+ * @return A boolean with true for closed and false for not.
+ */
+JdbcPool.prototype.isClosed = function () {
+    return this.native.isClosed();
+};
+
+/**
+ * Closes the pool. Idle connections are closed now and borrowed
+ * connections are closed when they are returned.
+ * @return Object instance.
+ */
+JdbcPool.prototype.close = function () {
+    this.native.close();
+    return this;
+};
+
+JdbcPool.prototype.constructor = JdbcPool;
@@ -15,7 +15,7 @@
  */
 
 "use strict";
-/*global Java, isDef, include, getEngine, BaseObj */
+/*global Java, isDef, setDef, include, getEngine, BaseObj */
 
 
 // Include for handling cookies.
@@ -37,6 +37,95 @@ var postType = {
     "custom" : "custom"
 };
 
+/**
+ * Pending result of an async HTTP request. This is returned 
+ * from the HttpClient async methods.
+ * @constructor
+ * @param NativeFuture is the native httpFuture object.
+ */
+function HttpFuture(NativeFuture) {
+    BaseObj.call(this);
+    this.native = NativeFuture;
+
+    // Error from the request or a then callback.
+    this.error = undefined;
+}
+HttpFuture.prototype = new BaseObj();
+
+/**
+ * Waits for the request to complete and returns the response. An 
+ * exception is thrown if the request failed.
+ * @param TimeoutMills is an integer with the max milliseconds to 
+ * wait. (Optional, default waits until complete.)
+ * @return A Javascript object with the response.
+ */
+HttpFuture.prototype.get = function (TimeoutMills) {
+    TimeoutMills = setDef(TimeoutMills, 0);
+    return this.native.get(TimeoutMills);
+};
+
+/**
+ * Calls OnDone with the response once the request completes, or 
+ * OnError with the error if it failed, without waiting for it. The 
+ * callbacks run on the thread that completed the request while holding 
+ * the engine lock, so they don't run in the engine at the same time as 
+ * other callbacks or a request handled by a pool engine. Callbacks 
+ * run in the order they were added. If an OnDone callback throws, the 
+ * OnError callbacks added after it are called with the error instead, 
+ * so a HttpFuture returned from a HttpServer handler fails the response.
+ * @param OnDone is a function called with the response object.
+ * @param OnError is a function called with the error. (Optional)
+ * @return Object instance.
+ */
+HttpFuture.prototype.then = function (OnDone, OnError) {
+    var self = this;
+    this.native.onComplete(getEngine().locked(function () {
+        var resp;
+        if (!isDef(self.error)) {
+            try {
+                resp = self.native.get(0);
+            } catch (e) {
+                self.error = e;
+            }
+        }
+        try {
+            if (isDef(self.error)) {
+                if (isDef(OnError)) { OnError(self.error); }
+            } else if (isDef(OnDone)) {
+                OnDone(resp);
+            }
+        } catch (e2) {
+            self.error = e2;
+        }
+    }));
+    return this;
+};
+
+/**
+ * Checks to see if the request has completed.
+ * @return A boolean with true if done and false if not.
+ */
+HttpFuture.prototype.isDone = function () {
+    return this.native.isDone();
+};
+
+/**
+ * Cancels the request if it hasn't completed.
+ * @return A boolean with true if it was cancelled and false if not.
+ */
+HttpFuture.prototype.cancel = function () {
+    return this.native.cancel();
+};
+
+/**
+ * Checks to see if the request was cancelled.
+ * @return A boolean with true if cancelled and false if not.
+ */
+HttpFuture.prototype.isCancelled = function () {
+    return this.native.isCancelled();
+};
+HttpFuture.prototype.constructor = HttpFuture;
+
 /**
  * HTTP client class implements a HTTP client managing 
  * HTTP connections.
@@ -45,8 +134,20 @@ var postType = {
 function HttpClient(UrlString) {
     BaseObj.call(this);
 
-    // Container for cookies.
-    this.cookies = [];
+    // Cookies are kept in the native cookie store and the cookies 
+    // list is only built when it's read.
+    var cookies = [];
+    Object.defineProperty(this, "cookies", {
+        enumerable: true,
+        get: function () {
+            if (this.native !== null) { return this.native.getCookieList(); }
+            return cookies;
+        },
+        set: function (CookieList) {
+            if (this.native !== null) { this.native.setCookieList(CookieList); }
+            else { cookies = CookieList; }
+        }
+    });
     
     // Container for headers.
     this.headers = {};
@@ -242,6 +343,95 @@ HttpClient.prototype.deleteBinary = function () {
     return this.native.deleteBinary();
 };
 
+/**
+ * Performs a HTTP GET call and streams the response body straight 
+ * to the provided file instead of reading it into memory. The body 
+ * is written to DestPath + '.part' and renamed to DestPath once 
+ * complete, and only for 2xx responses. The response object has 
+ * 'file' set to the file path, 'bytes' set to the number of bytes 
+ * written and if a checksum algorithm is provided 'checksum' set to 
+ * the hex encoded digest of the body.
+ * @param DestPath is a string with the file to write.
+ * @param ChecksumAlg is a string with the digest algorithm to compute 
+ * while writing such as 'SHA-256' or 'MD5'. (Optional)
+ * @return A Javascript object with the response.
+ */
+HttpClient.prototype.download = function (DestPath, ChecksumAlg) {
+    return this.native.download(DestPath, setDef(ChecksumAlg, null));
+};
+
+/**
+ * Performs a HTTP GET call and calls the provided callback with 
+ * each chunk of the response body as it's read instead of reading 
+ * the whole body into memory. The callback is called with a Buffer 
+ * object with the chunk data and the offset of the chunk in the 
+ * body. Return false from the callback to stop reading the body. 
+ * The response object has 'bytes' set to the number of bytes read.
+ * @param Callback is a function to call for each chunk.
+ * @param ChunkSize is an integer with the max chunk size in bytes. 
+ * (Optional, default is 65536.)
+ * @return A Javascript object with the response.
+ */
+HttpClient.prototype.getChunked = function (Callback, ChunkSize) {
+    return this.native.getChunked(Callback, setDef(ChunkSize, 65536));
+};
+
+/**
+ * Starts a HTTP GET call on a worker thread and returns a HttpFuture 
+ * for the response. Headers and cookies are read when the call is 
+ * started. Async calls use the connection manager of the client which 
+ * allows two concurrent connections per host. Call setSharedPool(true) 
+ * before the first request to use the shared pool limits instead. 
+ * (See HttpClient.configureSharedPool.)
+ * @param Binary is a boolean with true to get the content as a 
+ * Buffer object. (Optional, default is false for a string.)
+ * @return A HttpFuture object.
+ */
+HttpClient.prototype.getAsync = function (Binary) {
+    return new HttpFuture(this.native.requestAsync("GET", !setDef(Binary, false), null, null, null, null));
+};
+
+/**
+ * Starts a HTTP POST call on a worker thread and returns a HttpFuture 
+ * for the response. See postString for the post types and getAsync 
+ * for details on async calls.
+ * @param PostTypeStr A String with the post type. (See postType for options.)
+ * @param Obj Is an Object. (See postString for details.)
+ * @param ContentType is a String with the request content type.
+ * @param Binary is a boolean with true to get the content as a 
+ * Buffer object. (Optional, default is false for a string.)
+ * @return A HttpFuture object.
+ */
+HttpClient.prototype.postAsync = function (PostTypeStr, Obj, ContentType, Binary) {
+    return new HttpFuture(this.native.requestAsync("POST", !setDef(Binary, false), PostTypeStr, Obj, ContentType, null));
+};
+
+/**
+ * Starts a HTTP PUT call on a worker thread and returns a HttpFuture 
+ * for the response. See postString for the post types and getAsync 
+ * for details on async calls.
+ * @param PostTypeStr A String with the post type. (See postType for options.)
+ * @param Obj Is an Object. (See postString for details.)
+ * @param ContentType is a String with the request content type.
+ * @param Binary is a boolean with true to get the content as a 
+ * Buffer object. (Optional, default is false for a string.)
+ * @return A HttpFuture object.
+ */
+HttpClient.prototype.putAsync = function (PostTypeStr, Obj, ContentType, Binary) {
+    return new HttpFuture(this.native.requestAsync("PUT", !setDef(Binary, false), PostTypeStr, Obj, ContentType, null));
+};
+
+/**
+ * Starts a HTTP DELETE call on a worker thread and returns a HttpFuture 
+ * for the response. See getAsync for details on async calls.
+ * @param Binary is a boolean with true to get the content as a 
+ * Buffer object. (Optional, default is false for a string.)
+ * @return A HttpFuture object.
+ */
+HttpClient.prototype.deleteAsync = function (Binary) {
+    return new HttpFuture(this.native.requestAsync("DELETE", !setDef(Binary, false), null, null, null, null));
+};
+
 
 
 
@@ -392,7 +582,8 @@ HttpClient.prototype.setBasicCredentials = function (UserName, Password) {
  * @param Cookie is a Javascript cookie object to add.
  */
 HttpClient.prototype.setCookie = function (Cookie) {
-    this.cookies.push(Cookie);
+    if (this.native !== null) { this.native.addCookie(Cookie); }
+    else { this.cookies.push(Cookie); }
     return this;
 };
 
@@ -405,6 +596,131 @@ HttpClient.prototype.setAllowSelfSigned = function (AllowSelfSigned) {
     return this;
 };
 
+/**
+ * Sets whether the client uses the process wide pooled connection 
+ * manager. When set, keep alive connections are reused across 
+ * HttpClient objects, engines and threads instead of each client 
+ * doing its own TCP and TLS handshake. This must be set before the 
+ * first request. The pool is configured with HttpClient.configureSharedPool().
+ * @param SharedPool is a boolean with true to use the shared pool.
+ */
+HttpClient.prototype.setSharedPool = function (SharedPool) {
+    this.native.setSharedPool(SharedPool);
+    return this;
+};
+
+/**
+ * Gets whether the client uses the process wide pooled connection 
+ * manager.
+ * @return A boolean with true if using the shared pool.
+ */
+HttpClient.prototype.getSharedPool = function () {
+    return this.native.getSharedPool();
+};
+
+/**
+ * Sets the retry policy for failed requests. Requests that fail to 
+ * connect or get one of the retry status codes are tried again after 
+ * an exponential backoff delay with jitter. Other IO failures and POST 
+ * requests are only retried if retryNonIdempotent is set. Retries across 
+ * all clients are limited by the retry budget. (See HttpClient.setRetryBudget.) 
+ * This works for both sync and async requests.
+ * @param Options is an object with any of the following properties or 
+ * null to turn retries off. 
+ * maxRetries - Max retries after the first attempt. (Default 3) 
+ * baseDelay - Milliseconds before the first retry. (Default 100) 
+ * maxDelay - Max milliseconds between retries. (Default 10000) 
+ * multiplier - Delay multiplier for each retry. (Default 2) 
+ * jitter - Fraction of each delay that is random, 0 to 1. (Default 0.5) 
+ * retryStatus - List of status codes to retry. (Default [429, 502, 503, 504]) 
+ * retryNonIdempotent - True to retry POST requests. (Default false)
+ * @return Object instance.
+ */
+HttpClient.prototype.setRetry = function (Options) {
+    var Policy, rp = null;
+    if (isDef(Options) && Options !== null) {
+        Policy = Java.type("com.lehman.ic9.net.httpRetryPolicy");
+        rp = new Policy();
+        if (isDef(Options.maxRetries)) { rp.setMaxRetries(Options.maxRetries); }
+        if (isDef(Options.baseDelay)) { rp.setBaseDelay(Options.baseDelay); }
+        if (isDef(Options.maxDelay)) { rp.setMaxDelay(Options.maxDelay); }
+        if (isDef(Options.multiplier)) { rp.setMultiplier(Options.multiplier); }
+        if (isDef(Options.jitter)) { rp.setJitter(Options.jitter); }
+        if (isDef(Options.retryStatus)) { rp.setRetryStatus(Java.to(Options.retryStatus, "int[]")); }
+        if (isDef(Options.retryNonIdempotent)) { rp.setRetryNonIdempotent(Options.retryNonIdempotent); }
+    }
+    this.native.setRetryPolicy(rp);
+    return this;
+};
+
+/**
+ * Sets whether requests go through the per host circuit breaker. After 
+ * a number of consecutive failures to a host the breaker opens and 
+ * requests to it fail right away until the open timeout passes. (See 
+ * HttpClient.configureCircuitBreaker.)
+ * @param CircuitBreaker is a boolean with true to use the circuit breaker.
+ * @return Object instance.
+ */
+HttpClient.prototype.setCircuitBreaker = function (CircuitBreaker) {
+    this.native.setCircuitBreaker(CircuitBreaker);
+    return this;
+};
+
+/**
+ * Gets whether requests go through the per host circuit breaker.
+ * @return A boolean with true if using the circuit breaker.
+ */
+HttpClient.prototype.getCircuitBreaker = function () {
+    return this.native.getCircuitBreaker();
+};
+
+/**
+ * Sets whether the client uses the process wide response cache. Cached 
+ * GET responses are returned without contacting the server while fresh 
+ * per their Cache-Control or Expires headers. Stale entries with an ETag 
+ * or Last-Modified header are revalidated with a conditional GET. The 
+ * response object has a cacheStatus property with CACHE_HIT, CACHE_MISS, 
+ * VALIDATED or CACHE_MODULE_RESPONSE. This must be set before the first 
+ * request. The cache is configured with HttpClient.configureCache().
+ * @param Cache is a boolean with true to use the cache.
+ * @return Object instance.
+ */
+HttpClient.prototype.setCache = function (Cache) {
+    this.native.setCache(Cache);
+    return this;
+};
+
+/**
+ * Gets whether the client uses the process wide response cache.
+ * @return A boolean with true if using the cache.
+ */
+HttpClient.prototype.getCache = function () {
+    return this.native.getCache();
+};
+
+/**
+ * Sets whether the client requests compressed responses with the 
+ * Accept-Encoding header and transparently decompresses gzip and 
+ * deflate bodies. This is on by default and must be set before the 
+ * first request. Decompressed responses don't have the Content-Encoding 
+ * and Content-Length headers.
+ * @param ContentCompression is a boolean with true to enable and false 
+ * to disable.
+ * @return Object instance.
+ */
+HttpClient.prototype.setContentCompression = function (ContentCompression) {
+    this.native.setContentCompression(ContentCompression);
+    return this;
+};
+
+/**
+ * Gets whether the client requests and decompresses compressed responses.
+ * @return A boolean with true if enabled and false if not.
+ */
+HttpClient.prototype.getContentCompression = function () {
+    return this.native.getContentCompression();
+};
+
 /**
  * Sets the client URL.
  * @param Url is a string with the URL to set.
@@ -488,4 +804,218 @@ HttpClient.prototype.setSocketTimeout = function (Timeout) {
     return this;
 };
 
-HttpClient.prototype.constructor = HttpClient;
\ No newline at end of file
+HttpClient.prototype.constructor = HttpClient;
+
+/**
+ * Configures the process wide pooled connection manager used by 
+ * clients with setSharedPool(true). The options object can have 
+ * maxTotal (default 200), maxPerRoute (default 20), idleTimeout in 
+ * milliseconds (default 30000, only applies before first use) and 
+ * validateAfterInactivity in milliseconds (default 2000).
+ * @param Options is an object with the pool options.
+ */
+HttpClient.configureSharedPool = function (Options) {
+    var pool = Java.type("com.lehman.ic9.net.httpConnectionPool").getInstance();
+    if (isDef(Options.maxTotal)) { pool.setMaxTotal(Options.maxTotal); }
+    if (isDef(Options.maxPerRoute)) { pool.setMaxPerRoute(Options.maxPerRoute); }
+    if (isDef(Options.idleTimeout)) { pool.setIdleTimeout(Options.idleTimeout); }
+    if (isDef(Options.validateAfterInactivity)) { pool.setValidateAfterInactivity(Options.validateAfterInactivity); }
+};
+
+/**
+ * Gets the connection stats of the process wide pooled connection 
+ * manager.
+ * @return An object with leased, available, pending and max or null 
+ * if the shared pool hasn't been used.
+ */
+HttpClient.getSharedPoolStats = function () {
+    var stats = Java.type("com.lehman.ic9.net.httpConnectionPool").getInstance().getStats();
+    if (stats === null) { return null; }
+    return {
+        leased: stats.getLeased(),
+        available: stats.getAvailable(),
+        pending: stats.getPending(),
+        max: stats.getMax()
+    };
+};
+
+/**
+ * Closes all connections in the process wide pooled connection manager.
+ */
+HttpClient.shutdownSharedPool = function () {
+    Java.type("com.lehman.ic9.net.httpConnectionPool").getInstance().shutdown();
+};
+
+/**
+ * Configures the process wide response cache used by clients with 
+ * setCache(true). Except for maxEntries, maxMemory, cacheDir and 
+ * maxDiskSize the settings only apply to clients that haven't made a 
+ * request yet. Least recently used entries are dropped from memory 
+ * or deleted from disk past the limits.
+ * @param Options is an object with any of the following properties. 
+ * maxEntries - Max number of entries held in memory. (Default 1000) 
+ * maxMemory - Max estimated bytes of the entries held in memory or 0 for no limit. (Default 67108864) 
+ * maxObjectSize - Max size in bytes of a cached body. (Default 1048576) 
+ * cacheDir - Directory to keep entries in across restarts. (Default null for memory only) 
+ * maxDiskSize - Max bytes of the entry files in cacheDir or 0 for no limit. (Default 268435456) 
+ * sharedCache - True to not store private responses. (Default false) 
+ * heuristicCaching - True to cache responses with only a Last-Modified header. (Default false)
+ */
+HttpClient.configureCache = function (Options) {
+    var cache = Java.type("com.lehman.ic9.net.httpCache").getInstance();
+    if (isDef(Options.maxEntries)) { cache.setMaxEntries(Options.maxEntries); }
+    if (isDef(Options.maxMemory)) { cache.setMaxMemory(Options.maxMemory); }
+    if (isDef(Options.maxDiskSize)) { cache.setMaxDiskSize(Options.maxDiskSize); }
+    if (isDef(Options.maxObjectSize)) { cache.setMaxObjectSize(Options.maxObjectSize); }
+    if (isDef(Options.cacheDir)) { cache.setCacheDir(Options.cacheDir); }
+    if (isDef(Options.sharedCache)) { cache.setSharedCache(Options.sharedCache); }
+    if (isDef(Options.heuristicCaching)) { cache.setHeuristicCaching(Options.heuristicCaching); }
+};
+
+/**
+ * Gets the counters of the process wide response cache.
+ * @return An object with hits, misses, validated, moduleResponses, 
+ * size, memoryBytes and diskBytes.
+ */
+HttpClient.getCacheStats = function () {
+    var cache = Java.type("com.lehman.ic9.net.httpCache").getInstance();
+    return {
+        hits: Number(cache.getHits()),
+        misses: Number(cache.getMisses()),
+        validated: Number(cache.getValidated()),
+        moduleResponses: Number(cache.getModuleResponses()),
+        size: cache.getSize(),
+        memoryBytes: Number(cache.getMemoryBytes()),
+        diskBytes: Number(cache.getDiskBytes())
+    };
+};
+
+/**
+ * Removes all entries from the process wide response cache and resets 
+ * the counters.
+ */
+HttpClient.clearCache = function () {
+    Java.type("com.lehman.ic9.net.httpCache").getInstance().clear();
+};
+
+/**
+ * Sets the process wide retry budget. Within each window retries are 
+ * allowed up to minRetries plus ratio times the number of requests.
+ * @param Options is an object with any of the following properties. 
+ * ratio - Retries allowed per request. (Default 0.2) 
+ * minRetries - Retries always allowed in a window. (Default 10) 
+ * window - Budget window in milliseconds. (Default 10000)
+ */
+HttpClient.setRetryBudget = function (Options) {
+    Java.type("com.lehman.ic9.net.httpRetryPolicy").setBudget(setDef(Options.ratio, 0.2), setDef(Options.minRetries, 10), setDef(Options.window, 10000));
+};
+
+/**
+ * Gets the process wide retry counters.
+ * @return An object with retries and budgetExhausted.
+ */
+HttpClient.getRetryStats = function () {
+    var Policy = Java.type("com.lehman.ic9.net.httpRetryPolicy");
+    return {
+        retries: Number(Policy.getTotalRetries()),
+        budgetExhausted: Number(Policy.getBudgetExhausted())
+    };
+};
+
+/**
+ * Configures the per host circuit breakers. The settings apply to 
+ * existing and new breakers.
+ * @param Options is an object with any of the following properties. 
+ * failureThreshold - Consecutive failures that open the breaker. (Default 5) 
+ * openTimeout - Milliseconds the breaker stays open. (Default 30000) 
+ * halfOpenRequests - Trial requests allowed when half open. (Default 1)
+ */
+HttpClient.configureCircuitBreaker = function (Options) {
+    Java.type("com.lehman.ic9.net.httpCircuitBreaker").configure(setDef(Options.failureThreshold, 5), setDef(Options.openTimeout, 30000), setDef(Options.halfOpenRequests, 1));
+};
+
+/**
+ * Gets the circuit breaker state and counters for each host.
+ * @return An object with a property for each host with state, 
+ * successes, failures, rejected and opened.
+ */
+HttpClient.getCircuitBreakerStats = function () {
+    var breakers = Java.type("com.lehman.ic9.net.httpCircuitBreaker").getBreakers(), ret = {}, i, cb;
+    for (i = 0; i < breakers.size(); i += 1) {
+        cb = breakers.get(i);
+        ret[cb.getHost()] = {
+            state: cb.getState().name(),
+            successes: Number(cb.getSuccesses()),
+            failures: Number(cb.getFailures()),
+            rejected: Number(cb.getRejected()),
+            opened: Number(cb.getOpened())
+        };
+    }
+    return ret;
+};
+
+/**
+ * Removes all the circuit breakers so every host starts closed.
+ */
+HttpClient.resetCircuitBreakers = function () {
+    Java.type("com.lehman.ic9.net.httpCircuitBreaker").reset();
+};
+
+/**
+ * Downloads the provided URL to a file. See HttpClient.prototype.download() 
+ * for details.
+ * @param Url is a string with the URL to download.
+ * @param DestPath is a string with the file to write.
+ * @param ChecksumAlg is a string with the digest algorithm to compute 
+ * while writing such as 'SHA-256' or 'MD5'. (Optional)
+ * @return A Javascript object with the response.
+ */
+HttpClient.download = function (Url, DestPath, ChecksumAlg) {
+    return new HttpClient(Url).download(DestPath, ChecksumAlg);
+};
+
+/**
+ * Sets the number of worker threads used for async calls. This is 
+ * the max number of async requests in flight at once for the process. 
+ * (Default is 16.)
+ * @param Concurrency is an integer with the number of worker threads.
+ */
+HttpClient.setAsyncConcurrency = function (Concurrency) {
+    Java.type("com.lehman.ic9.net.httpAsync").setConcurrency(Concurrency);
+};
+
+/**
+ * Runs the provided requests concurrently with at most Concurrency 
+ * requests in flight and returns the responses in the same order. 
+ * Each request is either a URL string, a HttpClient object (GET) or 
+ * an object with url or client, method ('GET', 'POST', 'PUT' or 
+ * 'DELETE'), postType, data, contentType and binary properties. If a 
+ * request fails its entry in the result list is an object with the 
+ * error message set as 'error'.
+ * @param Requests is a list of requests.
+ * @param Concurrency is an integer with the max requests in flight. 
+ * (Optional, default is 16.)
+ * @return A list of response objects.
+ */
+HttpClient.all = function (Requests, Concurrency) {
+    var httpAsync = Java.type("com.lehman.ic9.net.httpAsync"), exec, futs = [], ret = [], i, req, cli;
+    exec = httpAsync.newExecutor(setDef(Concurrency, httpAsync.DEFAULT_CONCURRENCY));
+    try {
+        for (i = 0; i < Requests.length; i += 1) {
+            req = Requests[i];
+            if (typeof req === 'string') { req = { url: req }; } else if (req instanceof HttpClient) { req = { client: req }; }
+            cli = isDef(req.client) ? req.client : new HttpClient(req.url);
+            futs.push(cli.native.requestAsync(setDef(req.method, "GET"), !setDef(req.binary, false), setDef(req.postType, null), setDef(req.data, null), setDef(req.contentType, null), exec));
+        }
+        for (i = 0; i < futs.length; i += 1) {
+            try {
+                ret.push(futs[i].get());
+            } catch (e) {
+                ret.push({ error: e.message });
+            }
+        }
+    } finally {
+        exec.shutdown();
+    }
+    return ret;
+};
@@ -15,11 +15,13 @@
  */
 
 "use strict";
-/*global BaseObj */
+/*global Java, BaseObj, Buffer, file, isDef, java */
 
 /**
  * Object that holds a HTTP part data from a multipart 
- * form submission.
+ * form submission. The data member is read from the native 
+ * part the first time it's accessed, so a part that is only 
+ * saved with saveTo is never loaded into memory.
  * @constructor
  */
 function HttpPart() {
@@ -29,7 +31,46 @@ function HttpPart() {
     this.headers = {};
     this.name = "";
     this.size = -1;
-    this.data = null;
 }
 HttpPart.prototype = new BaseObj();
+
+/**
+ * Part content. A Buffer object for application/octet-stream 
+ * parts and a string otherwise, or null if the native part 
+ * isn't set.
+ */
+Object.defineProperty(HttpPart.prototype, "data", {
+    get: function () {
+        var val = null;
+        if (isDef(this.native)) {
+            if (this.contentType === "application/octet-stream") {
+                val = new Buffer(0);
+                val.data = file.inStreamToBuffer(this.native.getInputStream());
+            } else {
+                val = new java.lang.String(file.inStreamToBuffer(this.native.getInputStream()));
+            }
+        }
+        this.data = val;
+        return val;
+    },
+    set: function (Value) {
+        Object.defineProperty(this, "data", { value: Value, writable: true, enumerable: true, configurable: true });
+    },
+    enumerable: false,
+    configurable: true
+});
+
+/**
+ * Writes the part content to the provided file. The file is 
+ * replaced if it exists.
+ * @param FileName is a string with the file to write.
+ * @return Object instance.
+ */
+HttpPart.prototype.saveTo = function (FileName) {
+    var Files = Java.type("java.nio.file.Files"), StandardCopyOption = Java.type("java.nio.file.StandardCopyOption");
+    if (!isDef(this.native)) { throw ("HttpPart.saveTo(): Part has no content to save."); }
+    Files.copy(this.native.getInputStream(), new java.io.File(FileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return this;
+};
+
 HttpPart.prototype.constructor = HttpPart;
\ No newline at end of file
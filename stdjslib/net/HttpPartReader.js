@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global BaseObj, Buffer */
+
+/**
+ * Streaming multipart reader returned from HttpServerRequest.readParts(). 
+ * Parts are read from the request in order as they arrive. Moving to 
+ * the next part skips any content of the current part that wasn't read. 
+ * If a part or the request exceeds the max size, reading throws and 
+ * isLimitExceeded() returns true so the handler can respond with a 413.
+ * @param NativeReader is the native httpMultipartReader object.
+ * @constructor
+ */
+function HttpPartReader(NativeReader) {
+    BaseObj.call(this);
+    this.native = NativeReader;
+}
+HttpPartReader.prototype = new BaseObj();
+
+/**
+ * Gets the next part.
+ * @return A HttpStreamPart object or null if there are no more parts.
+ */
+HttpPartReader.prototype.next = function () {
+    var part = this.native.next();
+    if (part === null) { return null; }
+    return new HttpStreamPart(part);
+};
+
+/**
+ * Calls the provided function with each remaining part.
+ * @param Callback is a function called with each HttpStreamPart object.
+ * @return Object instance.
+ */
+HttpPartReader.prototype.each = function (Callback) {
+    var part;
+    while ((part = this.next()) !== null) {
+        Callback(part);
+    }
+    return this;
+};
+
+/**
+ * Checks if reading failed because a size limit was exceeded.
+ * @return A boolean with true if a limit was exceeded.
+ */
+HttpPartReader.prototype.isLimitExceeded = function () {
+    return this.native.isLimitExceeded();
+};
+
+/**
+ * Gets the number of request bytes read so far.
+ * @return A number with the bytes read.
+ */
+HttpPartReader.prototype.getBytesRead = function () {
+    return Number(this.native.getBytesRead());
+};
+
+HttpPartReader.prototype.constructor = HttpPartReader;
+
+/**
+ * Single part from a HttpPartReader. The name, fileName, contentType 
+ * and headers members are set from the part headers. The content is 
+ * read from the request as it's consumed and can only be read once 
+ * with one of saveTo, read, readString or getInputStream, and only 
+ * before moving to the next part.
+ * @param NativePart is the native httpMultipartPart object.
+ * @constructor
+ */
+function HttpStreamPart(NativePart) {
+    var hnames, i;
+    BaseObj.call(this);
+    this.native = NativePart;
+
+    this.name = NativePart.getName();
+    this.fileName = NativePart.getFileName();
+    this.contentType = NativePart.getContentType();
+    this.headers = {};
+    hnames = NativePart.getHeaderNames();
+    for (i = 0; i < hnames.length; i += 1) {
+        this.headers[hnames[i]] = NativePart.getHeader(hnames[i]);
+    }
+}
+HttpStreamPart.prototype = new BaseObj();
+
+/**
+ * Writes the part content to the provided file as it's received. The 
+ * file is replaced if it exists and removed if the part exceeds the 
+ * max part size or the request fails.
+ * @param FileName is a string with the file to write.
+ * @return A number with the bytes written.
+ */
+HttpStreamPart.prototype.saveTo = function (FileName) {
+    return Number(this.native.saveTo(FileName));
+};
+
+/**
+ * Reads the part content into a Buffer object.
+ * @return A Buffer object with the content.
+ */
+HttpStreamPart.prototype.read = function () {
+    var buff = new Buffer(0);
+    buff.data = this.native.readBytes();
+    return buff;
+};
+
+/**
+ * Reads the part content into a string using the charset of the part 
+ * content type or UTF-8 if not set.
+ * @return A string with the content.
+ */
+HttpStreamPart.prototype.readString = function () {
+    return "" + this.native.readString();
+};
+
+/**
+ * Gets the native input stream with the part content.
+ * @return A java.io.InputStream object.
+ */
+HttpStreamPart.prototype.getInputStream = function () {
+    return this.native.getInputStream();
+};
+
+/**
+ * Gets the number of content bytes read so far.
+ * @return A number with the bytes read.
+ */
+HttpStreamPart.prototype.getSize = function () {
+    return Number(this.native.getSize());
+};
+
+HttpStreamPart.prototype.constructor = HttpStreamPart;
@@ -112,6 +112,297 @@ HttpServer.prototype.setSsl = function (JavaKeyStoreFile, KeyStorePassword) {
     return this;
 };
 
+/**
+ * Sets the server to handle requests with a pool of engines instead of 
+ * the engine the server was created in. Each engine in the pool has its 
+ * own global scope and evaluates the provided handler script once when 
+ * the server starts. The handler script must define a global 
+ * handle(req, res) function which is then called for each request. Only 
+ * one request runs in an engine at a time, so the size of the pool is 
+ * the number of requests that can be handled concurrently. Websocket 
+ * upgrade requests are still handled by this object. This method must 
+ * be called before calling start().
+ * @param Size is an integer with the number of engines. (Optional, default 
+ * is the number of available processors.)
+ * @param ScriptFile is a string with the handler script file name.
+ * @param BorrowTimeout is an integer with the milliseconds a request waits 
+ * for an engine before it gets a 503, or 0 to wait until one is available. 
+ * (Optional, default is 30000.)
+ * @return Object instance.
+ */
+HttpServer.prototype.setEnginePool = function (Size, ScriptFile, BorrowTimeout) {
+    if (!isDef(ScriptFile)) { throw ("HttpServer.setEnginePool(): Expecting ScriptFile argument."); }
+    Size = setDef(Size, 0);
+    BorrowTimeout = setDef(BorrowTimeout, 30000);
+    this.native.setEnginePool(Size, ScriptFile, BorrowTimeout);
+    return this;
+};
+
+/**
+ * Serves the files in the provided directory under the provided URL 
+ * prefix without calling into the script engine. Files are sent from 
+ * memory mapped buffers with ETag and Last-Modified headers, conditional 
+ * requests get a 304 and range requests are supported. If gzip is set 
+ * and the client accepts gzip, a precompressed 'name.gz' file next to 
+ * the requested file is sent in its place. This method must be called 
+ * before calling start().
+ * @param Prefix is a string with the URL prefix such as '/static'.
+ * @param Dir is a string with the directory to serve.
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * etags - Set ETag headers. (Default true) 
+ * acceptRanges - Support range requests. (Default true) 
+ * gzip - Serve precompressed .gz files. (Default true) 
+ * dirAllowed - List directories. (Default false) 
+ * cacheControl - Cache-Control header value. (Default not set)
+ * @return Object instance.
+ */
+HttpServer.prototype.serveStatic = function (Prefix, Dir, Opts) {
+    Opts = setDef(Opts, {});
+    this.native.serveStatic(Prefix, Dir, setDef(Opts.etags, true), setDef(Opts.acceptRanges, true), setDef(Opts.gzip, true), setDef(Opts.dirAllowed, false), setDef(Opts.cacheControl, null));
+    return this;
+};
+
+/**
+ * Turns on gzip compression of responses for clients that accept it. 
+ * Responses that already have a Content-Encoding, such as precompressed 
+ * static files, aren't compressed again. This method must be called 
+ * before calling start().
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * minSize - Min response size in bytes to compress. (Default 256) 
+ * level - Compression level from 1 to 9. (Default -1 for the zlib default) 
+ * mimeTypes - List of mime types to compress. (Default all but images, 
+ * audio, video and already compressed formats)
+ * @return Object instance.
+ */
+HttpServer.prototype.setCompression = function (Opts) {
+    Opts = setDef(Opts, {});
+    var mimeTypes = isDef(Opts.mimeTypes) ? Java.to(Opts.mimeTypes, "java.lang.String[]") : null;
+    this.native.setCompression(setDef(Opts.minSize, 256), setDef(Opts.level, -1), mimeTypes);
+    return this;
+};
+
+/**
+ * Gets the response compression counters.
+ * @return An object with responses, bytesIn, bytesOut and bytesSaved 
+ * or null if compression is off.
+ */
+HttpServer.prototype.getCompressionStats = function () {
+    var gz = this.native.getCompression();
+    if (gz === null) { return null; }
+    return {
+        responses: Number(gz.getResponses()),
+        bytesIn: Number(gz.getBytesIn()),
+        bytesOut: Number(gz.getBytesOut()),
+        bytesSaved: Number(gz.getBytesSaved())
+    };
+};
+
+/**
+ * Turns on request metrics. Request counts, status classes, in flight 
+ * requests and request times are collected for all requests, and each 
+ * route gets latency histograms of the time spent in its JS handler and 
+ * the total time spent in the server. Requests handled by the handle 
+ * method are recorded as 'handle'. Server thread counts and the thread 
+ * queue size are also reported. This method must be called before 
+ * calling start().
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * jmx - Publish the metrics over JMX as com.lehman.ic9:type=httpServer. (Default true) 
+ * path - Path to serve the metrics on in the Prometheus text format or 
+ * null for none. (Default '/metrics')
+ * @return Object instance.
+ */
+HttpServer.prototype.setMetrics = function (Opts) {
+    Opts = setDef(Opts, {});
+    this.native.setMetrics(setDef(Opts.jmx, true), setDef(Opts.path, "/metrics"));
+    return this;
+};
+
+/**
+ * Gets the request metrics. Times are in milliseconds.
+ * @return An object with the request metrics and a routes object with 
+ * the handler and total times of each route, or null if metrics are off.
+ */
+HttpServer.prototype.getMetrics = function () {
+    var m = this.native.getMetrics(), ret, names, i, hist;
+    if (m === null) { return null; }
+    hist = function (H) {
+        return { count: Number(H.getCount()), mean: H.getMean(), p50: H.getPercentile(50), p90: H.getPercentile(90), p99: H.getPercentile(99), max: H.getMax() };
+    };
+    ret = {
+        requests: m.getRequests(),
+        requestsActive: m.getRequestsActive(),
+        requestsActiveMax: m.getRequestsActiveMax(),
+        asyncRequestsWaiting: m.getAsyncRequestsWaiting(),
+        requestTimeMean: m.getRequestTimeMean(),
+        requestTimeMax: Number(m.getRequestTimeMax()),
+        responses: { "1xx": m.getResponses1xx(), "2xx": m.getResponses2xx(), "3xx": m.getResponses3xx(), "4xx": m.getResponses4xx(), "5xx": m.getResponses5xx() },
+        responseBytes: Number(m.getResponsesBytesTotal()),
+        threads: m.getThreads(),
+        busyThreads: m.getBusyThreads(),
+        threadQueueSize: m.getThreadQueueSize(),
+        routes: {}
+    };
+    names = m.getRouteNames();
+    for (i = 0; i < names.length; i++) {
+        ret.routes[names[i]] = { handler: hist(m.getHandlerTime(names[i])), total: hist(m.getTotalTime(names[i])) };
+    }
+    return ret;
+};
+
+/**
+ * Sets where sessions are kept and how long. Only sessions used by 
+ * requests in flight are held by the server, the rest are kept in the 
+ * store. This method must be called before calling start().
+ * @param Opts is an object with any of the following properties. (Optional)
+ * store - 'memory' for a bounded in memory store, 'file' for a store 
+ * that keeps each session in a file in dir so sessions survive a 
+ * restart, or a Java object implementing com.lehman.ic9.net.httpSessionStore. (Default 'memory') 
+ * maxSessions - Max sessions in the memory store. The least recently 
+ * used session is evicted to make room. (Default 100000) 
+ * dir - Directory for the file store. 
+ * timeout - Seconds a session is kept after its last request or 0 to 
+ * never expire. (Default 1800) 
+ * sweepInterval - Seconds between removing expired sessions. (Default 60)
+ * @return Object instance.
+ */
+HttpServer.prototype.setSessions = function (Opts) {
+    var store, StoreType;
+    Opts = setDef(Opts, {});
+    store = setDef(Opts.store, "memory");
+    if (store === "memory") {
+        StoreType = Java.type("com.lehman.ic9.net.httpMemorySessionStore");
+        store = new StoreType(setDef(Opts.maxSessions, 100000));
+    } else if (store === "file") {
+        if (!isDef(Opts.dir)) { throw ("HttpServer.setSessions(): Expecting dir option for the file store."); }
+        StoreType = Java.type("com.lehman.ic9.net.httpFileSessionStore");
+        store = new StoreType(Opts.dir);
+    }
+    this.native.setSessionStore(store, setDef(Opts.timeout, 1800), setDef(Opts.sweepInterval, 60));
+    return this;
+};
+
+/**
+ * Gets the session counters.
+ * @return An object with sessions, live, created, loaded, expired, evicted
+ * and deserialized, or null if the server hasn't started.
+ */
+HttpServer.prototype.getSessionStats = function () {
+    var sm = this.native.getSessionManager();
+    if (sm === null) { return null; }
+    return {
+        sessions: sm.getSessionCount(),
+        live: sm.getLiveCount(),
+        created: Number(sm.getCreated()),
+        loaded: Number(sm.getLoaded()),
+        expired: Number(sm.getExpired()),
+        evicted: Number(sm.getEvicted()),
+        deserialized: Number(sm.getDeserialized())
+    };
+};
+
+/**
+ * Sets the multipart size limits. The limits apply to the request 
+ * parts member and to parts streamed with readParts. This method must 
+ * be called before calling start().
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * maxPartSize - Max size of a part in bytes or -1 for none. (Default -1) 
+ * maxTotalSize - Max size of a multipart request in bytes or -1 for none. (Default -1) 
+ * fileSizeThreshold - Size in bytes after which parts read with the 
+ * parts member are written to a temp file, or 0 to keep them in 
+ * memory. (Default 65536)
+ * @return Object instance.
+ */
+HttpServer.prototype.setMultipartLimits = function (Opts) {
+    Opts = setDef(Opts, {});
+    this.native.setMultipartLimits(setDef(Opts.maxPartSize, -1), setDef(Opts.maxTotalSize, -1), setDef(Opts.fileSizeThreshold, 65536));
+    return this;
+};
+
+/**
+ * Turns on the access log. Each request is logged once it completes, 
+ * including static and async requests. Requests are queued and written 
+ * in batches by a background thread so logging doesn't slow down 
+ * requests. If the queue is full new entries are dropped and counted. 
+ * This method must be called before calling start().
+ * @param FileName is a string with the log file name.
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * format - 'ncsa' for the NCSA combined format followed by the request 
+ * time in milliseconds or 'json' for a JSON object per line. (Default 'ncsa') 
+ * maxSize - Size in bytes to rotate the file at or 0 for none. (Default 0) 
+ * daily - Rotate the file when the day changes. (Default true) 
+ * maxFiles - Number of rotated files to keep or 0 for all. (Default 0) 
+ * bufferSize - Number of entries that can be queued. (Default 65536) 
+ * flushInterval - Max milliseconds an entry is queued before it's written. (Default 500)
+ * @return Object instance.
+ */
+HttpServer.prototype.setAccessLog = function (FileName, Opts) {
+    Opts = setDef(Opts, {});
+    this.native.setAccessLog(FileName, setDef(Opts.format, "ncsa"), setDef(Opts.maxSize, 0), setDef(Opts.daily, true), setDef(Opts.maxFiles, 0), setDef(Opts.bufferSize, 65536), setDef(Opts.flushInterval, 500));
+    return this;
+};
+
+/**
+ * Gets the access log counters.
+ * @return An object with written, dropped, pending and rotations or
+ * null if the access log is off.
+ */
+HttpServer.prototype.getAccessLogStats = function () {
+    var al = this.native.getAccessLog();
+    if (al === null) { return null; }
+    return {
+        written: Number(al.getWritten()),
+        dropped: Number(al.getDropped()),
+        pending: Number(al.getPending()),
+        rotations: Number(al.getRotations())
+    };
+};
+
+/**
+ * Adds a route. Routes are matched in Java before calling into the 
+ * engine. Requests matching a route call its handler instead of the 
+ * handle method, with the path parameters set in req.params. Once a 
+ * route is added, requests that don't match any route get a 404, or a 
+ * 405 if only the method didn't match, without calling into the engine. 
+ * (See setRouteFallback.)
+ * @param Method is a string with the HTTP method or '*' for any method.
+ * @param Pattern is a string with the path pattern. Segments starting 
+ * with ':' are parameters and a last segment of '*' matches the rest 
+ * of the path. For example '/users/:id' or '/files/*'.
+ * @param Handler is a function called with (req, res) and this set to 
+ * the server, or a string with the name of a global function. When 
+ * using an engine pool the handler must be a function name, and the 
+ * named function is called in the pool engine handling the request.
+ * @return Object instance.
+ */
+HttpServer.prototype.route = function (Method, Pattern, Handler) {
+    this.native.route(Method, Pattern, Handler);
+    return this;
+};
+
+/**
+ * Sets whether requests that don't match a route are passed to the 
+ * handle method instead of getting a 404 or 405.
+ * @param RouteFallback is a boolean with true to call handle.
+ * @return Object instance.
+ */
+HttpServer.prototype.setRouteFallback = function (RouteFallback) {
+    this.native.setRouteFallback(RouteFallback);
+    return this;
+};
+
+/**
+ * Sets the number of milliseconds an async request can take before 
+ * it's completed with a 503. A handler makes the request async by 
+ * returning a thenable. (See handle.)
+ * @param TimeoutMills is an integer with the timeout in milliseconds or 
+ * 0 for no timeout. (Default 30000)
+ * @return Object instance.
+ */
+HttpServer.prototype.setAsyncTimeout = function (TimeoutMills) {
+    this.native.setAsyncTimeout(setDef(TimeoutMills, 30000));
+    return this;
+};
+
 /**
  * Sets the flag to use websockets.
  */
@@ -147,9 +438,20 @@ HttpServer.prototype.onHandle = function (target) {
 
 /*jslint unparam: true*/
 /**
- * Override this method to handle HTTP requests.
+ * Override this method to handle HTTP requests. Route handlers work the 
+ * same way. If the handler returns a thenable, which is any object with 
+ * a then(onDone, onError) function such as a HttpFuture, the request is 
+ * async. The server thread is released when the handler returns and the 
+ * response is sent once the thenable calls onDone. If it calls onError 
+ * the client gets a 500 unless the response was already sent. (See 
+ * setAsyncTimeout.) With an engine pool the engine is returned to the 
+ * pool when the handler returns. HttpFuture then callbacks take the 
+ * engine lock when they run so they don't run in the engine at the same 
+ * time as another request. They must only use the response until 
+ * onDone or onError is called.
  * @param req is a httpServerRequest object.
  * @param res is a httpServerResponse object.
+ * @return Nothing or a thenable for an async request.
  */
 HttpServer.prototype.handle = function (req, res) {
     res.println("It works! Override the handle() method to handle requests.");
@@ -15,7 +15,7 @@
  */
 
 "use strict";
-/*global Java, include, Cookie, file, HttpPart, setDef, startsWith, isDef, javax, isNumber, HttpSession, BaseObj */
+/*global Java, include, Cookie, file, HttpPart, HttpPartReader, setDef, startsWith, isDef, javax, isNumber, HttpSession, HttpServerStream, BaseObj, getEngine */
 
 /**
  * HttpServerTransaction defines the HttpServerRequest and HttpServerResponse objects 
@@ -32,6 +32,9 @@ include("net/Cookie.js");
 // Include HttpPart for multipart form POST support.
 include("net/HttpPart.js");
 
+// Include HttpPartReader for streaming multipart form POST support.
+include("net/HttpPartReader.js");
+
 /**
  * Request methods.
  * @namespace
@@ -54,7 +57,16 @@ var httpMethod = {
 };
 
 /**
- * Wrapped HttpServletRequest object passed to handle method.
+ * Wrapped HttpServletRequest object passed to handle method. Only 
+ * the request and method members are set when the request is 
+ * initialized. The rest of the members such as headers, queryParams, 
+ * cookies and parts are read from the native request the first time 
+ * they are accessed and are then kept on the object, so handlers 
+ * only pay for what they use. They are still own enumerable members, 
+ * so for..in, hasOwnProperty and JSON.stringify see the same members 
+ * as before. When the handler returns a thenable or starts a stream, 
+ * the native request stays valid until the response is complete, so 
+ * members can still be read from callbacks until then.
  * @constructor
  */
 function HttpServerRequest() {
@@ -62,86 +74,90 @@ function HttpServerRequest() {
 
     this.request = "";
     this.method = "";
-    this.queryString = "";
-    this.headers = {};
-    this.queryParams = {};
-
-    this.requestUri = "";
-
-    this.contentLength = -1;
-    this.contentType = "";
-    this.localAddress = "";
-    this.localName = "";
-    this.localPort = -1;
-    this.remoteAddress = "";
-    this.remoteHost = "";
-    this.remotePort = -1;
-    this.protocol = "";
-    this.scheme = "";
-    this.serverName = "";
-    this.serverPort = -1;
-    this.secure = false;
-
-    this.locales = [];
-    this.cookies = [];
-
-    this.isMultipart = false;
-    this.parts = {};
-
-    this.remoteUser = "";
+
+    // Path parameters of the matched route.
+    this.params = {};
+
+    // Lazy members.
+    Object.defineProperties(this, HttpServerRequest.members);
 }
 HttpServerRequest.prototype = new BaseObj();
 
+/**
+ * Property descriptors of the lazy members by name.
+ */
+HttpServerRequest.members = {};
+
+/**
+ * Defines a lazy member of HttpServerRequest objects. Each object 
+ * gets the member as an own enumerable getter. On first access the 
+ * provided function is called with the request object as this and its 
+ * result replaces the getter. If the native request isn't set the 
+ * default value is returned instead.
+ * @param Name is a string with the member name.
+ * @param Default is the value to use when the native request isn't set.
+ * @param InitFunct is a function that returns the member value.
+ */
+HttpServerRequest.lazy = function (Name, Default, InitFunct) {
+    var setMember = function (Obj, Value) {
+        Object.defineProperty(Obj, Name, { value: Value, writable: true, enumerable: true, configurable: true });
+    };
+
+    HttpServerRequest.members[Name] = {
+        get: function () {
+            var val;
+            if (!isDef(this.native)) {
+                if (Array.isArray(Default)) { return []; }
+                if (Default !== null && typeof Default === "object") { return {}; }
+                return Default;
+            }
+            val = InitFunct.call(this);
+            setMember(this, val);
+            return val;
+        },
+        set: function (Value) { setMember(this, Value); },
+        enumerable: true,
+        configurable: true
+    };
+};
+
+HttpServerRequest.lazy("queryString", "", function () { return setDef(this.native.getQueryString(), ""); });
+HttpServerRequest.lazy("headers", {}, function () { return this.initHeaders(); });
+HttpServerRequest.lazy("queryParams", {}, function () { return this.initQueryParams(); });
+HttpServerRequest.lazy("requestUri", "", function () { return this.native.getRequestURI(); });
+HttpServerRequest.lazy("contentLength", -1, function () { return this.native.getContentLength(); });
+HttpServerRequest.lazy("contentType", "", function () { return setDef(this.native.getContentType(), ""); });
+HttpServerRequest.lazy("localAddress", "", function () { return this.native.getLocalAddr(); });
+HttpServerRequest.lazy("localName", "", function () { return this.native.getLocalName(); });
+HttpServerRequest.lazy("localPort", -1, function () { return this.native.getLocalPort(); });
+HttpServerRequest.lazy("remoteAddress", "", function () { return this.native.getRemoteAddr(); });
+HttpServerRequest.lazy("remoteHost", "", function () { return this.native.getRemoteHost(); });
+HttpServerRequest.lazy("remotePort", -1, function () { return this.native.getRemotePort(); });
+HttpServerRequest.lazy("protocol", "", function () { return this.native.getProtocol(); });
+HttpServerRequest.lazy("scheme", "", function () { return this.native.getScheme(); });
+HttpServerRequest.lazy("serverName", "", function () { return this.native.getServerName(); });
+HttpServerRequest.lazy("serverPort", -1, function () { return this.native.getServerPort(); });
+HttpServerRequest.lazy("secure", false, function () { return this.native.isSecure(); });
+HttpServerRequest.lazy("locales", [], function () { return this.initLocaleList(); });
+HttpServerRequest.lazy("cookies", [], function () { return this.initCookies(); });
+HttpServerRequest.lazy("isMultipart", false, function () { return startsWith(this.contentType, "multipart/form-data"); });
+HttpServerRequest.lazy("parts", {}, function () { return this.getParts(); });
+HttpServerRequest.lazy("remoteUser", "", function () {
+    if (isDef(this.native.getRemoteUser)) { return this.native.getRemoteUser(); }
+    return "";
+});
+
 /**
  * Called from httpServer with the native object to set and 
  * the requested resource. This method sets those items and 
- * also sets the request, method, queryString and headers 
- * members.
+ * also sets the request and method members. All other members 
+ * are read from the native object when first accessed.
  */
 HttpServerRequest.prototype.init = function (NativeRequestObject, ReqStr) {
-    var qstr;
-
     this.native = NativeRequestObject;
 
     this.request = ReqStr;
     this.method = this.native.getMethod();
-    qstr = this.native.getQueryString();
-    if (qstr) { this.queryString = qstr; }
-
-    // Get headers
-    this.initHeaders();
-
-    // Get query params.
-    this.initQueryParams();
-
-    if (isDef(this.native.getRemoteUser)) {
-        this.remoteUser = this.native.getRemoteUser();
-    }
-    this.requestUri = this.native.getRequestURI();
-
-    this.contentType = setDef(this.native.getContentType(), "");
-    this.contentLength = this.native.getContentLength();
-
-    this.localAddress = this.native.getLocalAddr();
-    this.localName = this.native.getLocalName();
-    this.localPort = this.native.getLocalPort();
-    this.remoteAddress = this.native.getRemoteAddr();
-    this.remoteHost = this.native.getRemoteHost();
-    this.remotePort = this.native.getRemotePort();
-    this.protocol = this.native.getProtocol();
-    this.scheme = this.native.getScheme();
-    this.serverName = this.native.getServerName();
-    this.serverPort = this.native.getServerPort();
-    this.secure = this.native.isSecure();
-
-    // Get locales.
-    this.initLocaleList();
-
-    // Get cookies.
-    this.initCookies();
-
-    // Get parts. (Multipart form data.)
-    this.getParts();
 };
 
 /**
@@ -221,11 +237,12 @@ HttpServerRequest.prototype.getBasicAuth = function () {
  */
 
 /**
- * Method called from init() this initializes the 
- * HTTP headers.
+ * Reads the HTTP headers from the native request. This is 
+ * called on first access of the headers member.
+ * @return An object with the header names and values.
  */
 HttpServerRequest.prototype.initHeaders = function () {
-    var headerNames, hname, hdrs, hval;
+    var headerNames, hname, hdrs, hval, ret = {};
 
     if (isDef(this.native.getHeaderNames)) {
         headerNames = this.native.getHeaderNames();
@@ -234,18 +251,20 @@ HttpServerRequest.prototype.initHeaders = function () {
             hdrs = this.native.getHeaders(hname);
             while (hdrs.hasMoreElements()) {
                 hval = hdrs.nextElement();
-                this.headers[hname] = hval;
+                ret[hname] = hval;
             }
         }
     }
+    return ret;
 };
 
 /**
- * Method called from init() this initializes the 
- * HTTP query params.
+ * Reads the HTTP query params from the native request. This is 
+ * called on first access of the queryParams member.
+ * @return An object with the query param names and values.
  */
 HttpServerRequest.prototype.initQueryParams = function () {
-    var queryMap, queryKeys, key, vals, val, i, j;
+    var queryMap, queryKeys, key, vals, val, i, j, ret = {};
 
     queryMap = this.native.getParameterMap();
     queryKeys = queryMap.keySet().toArray();
@@ -259,29 +278,33 @@ HttpServerRequest.prototype.initQueryParams = function () {
         } else {
             val = vals[0];
         }
-        this.queryParams[key] = val;
+        ret[key] = val;
     }
+    return ret;
 };
 
 /**
- * Method called from init() this initializes the 
- * HTTP locale list.
+ * Reads the HTTP locale list from the native request. This is 
+ * called on first access of the locales member.
+ * @return A list of locale language tag strings.
  */
 HttpServerRequest.prototype.initLocaleList = function () {
-    var locList, loc;
+    var locList, loc, ret = [];
     locList = this.native.getLocales();
     while (locList.hasMoreElements()) {
         loc = locList.nextElement();
-        this.locales.push(loc.toLanguageTag());
+        ret.push(loc.toLanguageTag());
     }
+    return ret;
 };
 
 /**
- * Method called from init() this initializes the 
- * HTTP cookies.
+ * Reads the HTTP cookies from the native request. This is 
+ * called on first access of the cookies member.
+ * @return A list of Cookie objects.
  */
 HttpServerRequest.prototype.initCookies = function () {
-    var jcookies, jc, cc, i;
+    var jcookies, jc, cc, i, ret = [];
     jcookies = this.native.getCookies();
     if (jcookies !== null) {
         for (i = 0; i < jcookies.length; i += 1) {
@@ -296,20 +319,25 @@ HttpServerRequest.prototype.initCookies = function () {
             cc.value = jc.getValue();
             cc.version = jc.getVersion();
             cc.httpOnly = jc.isHttpOnly();
-            this.cookies.push(cc);
+            ret.push(cc);
         }
     }
+    return ret;
 };
 
 /**
- * Method called from init() this initializes the 
- * HTTP parts. (Multipart form data.)
+ * Reads the HTTP parts (Multipart form data.) from the native 
+ * request. This is called on first access of the parts member. 
+ * The whole request is received before the handler gets the parts, 
+ * with parts over the server's file size threshold written to temp 
+ * files. Each part's data is read into memory when first accessed. 
+ * (See readParts for streaming large uploads.)
+ * @return An object with part names and lists of HttpPart objects.
  */
 HttpServerRequest.prototype.getParts = function () {
-    var pts, part, hp, hnames, hkey, hval, i, j;
+    var pts, part, hp, hnames, hkey, hval, i, j, ret = {};
 
-    if (startsWith(this.contentType, "multipart/form-data")) {
-        this.isMultipart = true;
+    if (this.isMultipart) {
         pts = this.native.getParts();
         for (i = 0; i < pts.length; i += 1) {
             part = pts[i];
@@ -326,19 +354,45 @@ HttpServerRequest.prototype.getParts = function () {
 
             hp.name = part.getName();
             hp.size = part.getSize();
-            if (hp.contentType === "application/octet-stream") {
-                hp.data = new Buffer(0);
-                hp.data.data = file.inStreamToBuffer(part.getInputStream());
-            } else {
-                hp.data  = new java.lang.String(file.inStreamToBuffer(part.getInputStream()));
-            }
-            if (this.parts.hasOwnProperty(hp.name)) {
-                this.parts[hp.name].push(hp);
+            hp.native = part;
+            if (ret.hasOwnProperty(hp.name)) {
+                ret[hp.name].push(hp);
             } else {
-                this.parts[hp.name] = [hp];
+                ret[hp.name] = [hp];
             }
         }
     }
+    return ret;
+};
+
+/**
+ * Reads the HTTP parts (Multipart form data.) one at a time as they 
+ * arrive. Each part's content is streamed from the request, so it can 
+ * be written straight to a file with saveTo without holding the part 
+ * in memory or waiting for the rest of the request. Don't use this 
+ * and the parts member on the same request.
+ * @param Opts is an object with any of the following properties. (Optional) 
+ * maxPartSize - Max size of a part in bytes. (Default the server setting) 
+ * maxTotalSize - Max size of the request in bytes. (Default the server setting)
+ * @return A HttpPartReader object.
+ */
+HttpServerRequest.prototype.readParts = function (Opts) {
+    var NativeReader = Java.type("com.lehman.ic9.net.httpMultipartReader");
+    Opts = setDef(Opts, {});
+    return new HttpPartReader(NativeReader.open(this.native, setDef(Opts.maxPartSize, -1), setDef(Opts.maxTotalSize, -1)));
+};
+
+/**
+ * Reads the HTTP parts (Multipart form data.) one at a time as they 
+ * arrive and calls the provided function with each part. (See readParts.)
+ * @param Callback is a function called with each HttpStreamPart object.
+ * @param Opts is an object with the readParts options. (Optional)
+ * @return The HttpPartReader object.
+ */
+HttpServerRequest.prototype.eachPart = function (Callback, Opts) {
+    var reader = this.readParts(Opts);
+    reader.each(Callback);
+    return reader;
 };
 
 HttpServerRequest.prototype.constructor = HttpServerRequest;
@@ -353,10 +407,12 @@ function HttpServerResponse() {
 HttpServerResponse.prototype = new BaseObj();
 
 /**
- * Called from httpServer with the native object to set.
+ * Called from httpServer with the native object to set and 
+ * the native request it's for.
  */
-HttpServerResponse.prototype.init = function (NativeResponseObject) {
+HttpServerResponse.prototype.init = function (NativeResponseObject, NativeRequestObject) {
     this.native = NativeResponseObject;
+    this.nativeRequest = NativeRequestObject;
 };
 
 /**
@@ -390,6 +446,40 @@ HttpServerResponse.prototype.write = function (Buff) {
     return this;
 };
 
+/**
+ * Sends the output written so far to the client. Without a 
+ * Content-Length header the response is sent chunked.
+ * @return Object instance.
+ */
+HttpServerResponse.prototype.flush = function () {
+    this.native.flushBuffer();
+    return this;
+};
+
+/**
+ * Starts a streaming response that stays open after the handler 
+ * returns, without holding a server thread. Headers must be set 
+ * before calling this and print/write must not be used after. 
+ * (See HttpServerStream.)
+ * @param ContentType is a string with the content type. (Optional)
+ * @return A new HttpServerStream object.
+ */
+HttpServerResponse.prototype.startStream = function (ContentType) {
+    var NativeStream = Java.type("com.lehman.ic9.net.httpServerStream");
+    return new HttpServerStream(NativeStream.start(this.nativeRequest, this.native, setDef(ContentType, null), false));
+};
+
+/**
+ * Starts a Server-Sent Events stream. This is the same as startStream 
+ * with the content type set to text/event-stream and caching turned off. 
+ * (See HttpServerStream.send.)
+ * @return A new HttpServerStream object.
+ */
+HttpServerResponse.prototype.startEvents = function () {
+    var NativeStream = Java.type("com.lehman.ic9.net.httpServerStream");
+    return new HttpServerStream(NativeStream.start(this.nativeRequest, this.native, null, true));
+};
+
 /**
  * Adds the provided cookie object to the response.
  * @param CookieObj is a cookie object to add.
@@ -488,6 +578,20 @@ HttpServerResponse.prototype.setBasicAuth = function (Realm) {
     return this;
 };
 
+/**
+ * Called from httpServer when the handler returned a thenable to 
+ * complete the async response once the thenable is done.
+ * @param Thenable is the object returned by the handler.
+ * @param NativeAsync is the native httpServerAsync object.
+ */
+HttpServerResponse.prototype.awaitResult = function (Thenable, NativeAsync) {
+    Thenable.then(function () {
+        NativeAsync.resolve();
+    }, function (Err) {
+        NativeAsync.reject(String(Err));
+    });
+};
+
 /**
  * Object to string method.
  * @param Pretty is a bool with true for pretty print and false for not.
@@ -500,6 +604,196 @@ HttpServerResponse.prototype.toString = function (Pretty) {
 
 HttpServerResponse.prototype.constructor = HttpServerResponse;
 
+/**
+ * Streaming response returned from HttpServerResponse.startStream() and 
+ * startEvents(). Writes are queued and sent as the connection is ready 
+ * for them so they never block. The methods can be called from any 
+ * thread, such as a timer, after the handler has returned. When the 
+ * client reads slower than the writes, isReady() returns false and the 
+ * onWritable callback is called once the queued data has been sent. 
+ * If the queue passes the max queued bytes the stream is closed. 
+ * (See setMaxQueuedBytes.) 
+ * The onWritable and onClose callbacks hold the engine lock while they 
+ * run, so with an engine pool they don't run while the engine is 
+ * handling another request.
+ * @param NativeStream is the native httpServerStream object.
+ * @constructor
+ */
+function HttpServerStream(NativeStream) {
+    BaseObj.call(this);
+    this.native = NativeStream;
+}
+HttpServerStream.prototype = new BaseObj();
+
+/**
+ * Writes the provided string. Call flush() to send it.
+ * @param Str is a string to write.
+ * @return A boolean with true if written and false if the stream is closed.
+ */
+HttpServerStream.prototype.print = function (Str) {
+    return this.native.write("" + Str);
+};
+
+/**
+ * Writes the provided buffer. Call flush() to send it.
+ * @param Buff is a buffer object to write.
+ * @return A boolean with true if written and false if the stream is closed.
+ */
+HttpServerStream.prototype.write = function (Buff) {
+    return this.native.writeBytes(Buff.data);
+};
+
+/**
+ * Sends the data written so far to the client.
+ * @return A boolean with true if sent and false if the stream is closed.
+ */
+HttpServerStream.prototype.flush = function () {
+    return this.native.flush();
+};
+
+/**
+ * Sends a Server-Sent Event. Events get increasing numeric IDs starting 
+ * after the Last-Event-ID of a reconnecting client unless one is provided.
+ * @param Data is the event data. Objects are sent as JSON.
+ * @param Event is a string with the event name. (Optional, default is a 
+ * message event.)
+ * @param Id is a string with the event ID. (Optional)
+ * @return A string with the event ID or null if the stream is closed.
+ */
+HttpServerStream.prototype.send = function (Data, Event, Id) {
+    if (typeof Data === "object" && Data !== null) { Data = JSON.stringify(Data); }
+    var id = this.native.sendEvent(setDef(Event, null), "" + setDef(Data, ""), isDef(Id) && Id !== null ? "" + Id : null);
+    return id === null ? null : "" + id;
+};
+
+/**
+ * Sends a Server-Sent Events comment which clients ignore.
+ * @param Text is a string with the comment.
+ * @return A boolean with true if sent and false if the stream is closed.
+ */
+HttpServerStream.prototype.comment = function (Text) {
+    return this.native.sendComment("" + setDef(Text, ""));
+};
+
+/**
+ * Sets the time a Server-Sent Events client waits before reconnecting.
+ * @param TimeMills is an integer with the time in milliseconds.
+ * @return Object instance.
+ */
+HttpServerStream.prototype.setRetry = function (TimeMills) {
+    this.native.sendRetry(TimeMills);
+    return this;
+};
+
+/**
+ * Sends a keep-alive comment whenever nothing has been written for the 
+ * provided time so proxies don't close an idle connection.
+ * @param TimeMills is an integer with the time in milliseconds or 0 to 
+ * turn it off. (Default 15000)
+ * @return Object instance.
+ */
+HttpServerStream.prototype.setKeepAlive = function (TimeMills) {
+    this.native.setKeepAlive(setDef(TimeMills, 15000));
+    return this;
+};
+
+/**
+ * Sets the function called when the queued data has been sent after 
+ * the connection wasn't ready for it.
+ * @param Callback is a function called with this stream.
+ * @return Object instance.
+ */
+HttpServerStream.prototype.onWritable = function (Callback) {
+    var self = this;
+    this.native.setOnWritable(getEngine().locked(function () { Callback(self); }));
+    return this;
+};
+
+/**
+ * Sets the function called once when the stream is closed or the 
+ * client disconnects.
+ * @param Callback is a function called with this stream.
+ * @return Object instance.
+ */
+HttpServerStream.prototype.onClose = function (Callback) {
+    var self = this;
+    this.native.setOnClose(getEngine().locked(function () { Callback(self); }));
+    return this;
+};
+
+/**
+ * Checks if the stream can take more data without queueing it.
+ * @return A boolean with true if ready.
+ */
+HttpServerStream.prototype.isReady = function () {
+    return this.native.isReady();
+};
+
+/**
+ * Checks if the stream is closed.
+ * @return A boolean with true if closed.
+ */
+HttpServerStream.prototype.isClosed = function () {
+    return this.native.isClosed();
+};
+
+/**
+ * Gets the number of bytes waiting to be sent.
+ * @return A number with the queued bytes.
+ */
+HttpServerStream.prototype.getQueuedBytes = function () {
+    return Number(this.native.getQueuedBytes());
+};
+
+/**
+ * Sets the max number of bytes queued while the client isn't reading. 
+ * A write that would pass it is dropped and the stream is closed, 
+ * so writes to a client that stopped reading don't use up the heap. 
+ * An event stream client reconnects with the Last-Event-ID header.
+ * @param MaxBytes is an integer with the number of bytes or 0 for no 
+ * limit. (Default is 4MB)
+ * @return Object instance.
+ */
+HttpServerStream.prototype.setMaxQueuedBytes = function (MaxBytes) {
+    this.native.setMaxQueuedBytes(MaxBytes);
+    return this;
+};
+
+/**
+ * Gets the max number of bytes queued while the client isn't reading.
+ * @return A number with the bytes or 0 for no limit.
+ */
+HttpServerStream.prototype.getMaxQueuedBytes = function () {
+    return Number(this.native.getMaxQueuedBytes());
+};
+
+/**
+ * Checks if the stream was closed because the max queued bytes was 
+ * reached.
+ * @return A boolean with true if it was.
+ */
+HttpServerStream.prototype.isOverflowed = function () {
+    return this.native.isOverflowed();
+};
+
+/**
+ * Gets the last event ID sent, or the Last-Event-ID of a reconnecting 
+ * client if no event has been sent yet.
+ * @return A number with the ID.
+ */
+HttpServerStream.prototype.getLastEventId = function () {
+    return Number(this.native.getLastEventId());
+};
+
+/**
+ * Closes the stream once the queued data has been sent.
+ */
+HttpServerStream.prototype.close = function () {
+    this.native.close();
+};
+
+HttpServerStream.prototype.constructor = HttpServerStream;
+
 /**
  * HTTP session object is acquired from the httpServerRequest 
  * object getSession() call.
@@ -561,7 +855,7 @@ HttpSession.prototype.getMaxInactiveInterval = function () {
  * @return A JS object with attribute names and values.
  */
 HttpSession.prototype.getAttributes = function () {
-    var anames = this.name.getAttributeNames(), ret = {}, name;
+    var anames = this.native.getAttributeNames(), ret = {}, name;
     while (anames.hasMoreElements()) {
         name = anames.nextElement();
         ret[name] = this.native.getAttribute(name);
@@ -569,6 +863,16 @@ HttpSession.prototype.getAttributes = function () {
     return ret;
 };
 
+/**
+ * Gets the value of the attribute with the provided key.
+ * @param Key is a string with the key.
+ * @return The value or null if not set.
+ */
+HttpSession.prototype.getAttribute = function (Key) {
+    if (!isDef(Key)) { throw ("HttpSession.getAttribute(): Expecting Key argument."); }
+    return this.native.getAttribute(Key);
+};
+
 /**
  * Invalidates the session.
  * @return Object instance.
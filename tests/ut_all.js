@@ -15,7 +15,7 @@
  */
 
 "use strict";
-/*global include, TestRunner, Ut_ic9engine, Ut_hex, Ut_base64, Ut_uuid, Ut_thread, Ut_timer, Ut_html, Ut_xml, Ut_jdbc, Ut_sqlite */
+/*global include, TestRunner, Ut_ic9engine, Ut_hex, Ut_base64, Ut_uuid, Ut_thread, Ut_timer, Ut_html, Ut_xml, Ut_jdbc, Ut_jdbcpool, Ut_sqlite, Ut_httprouter, Ut_httphistogram, Ut_httpmultipart, Ut_httpretry, Ut_httpsession */
 
 include("TestRunner.js");
 
@@ -29,7 +29,13 @@ include("ut_timer.js");
 include("ut_html.js");
 include("ut_xml.js");
 include("ut_jdbc.js");
+include("ut_jdbcpool.js");
 include("ut_sqlite.js");
+include("ut_httprouter.js");
+include("ut_httphistogram.js");
+include("ut_httpmultipart.js");
+include("ut_httpretry.js");
+include("ut_httpsession.js");
 
 function Ut_all() {
     TestRunner.call(this);
@@ -45,7 +51,13 @@ function Ut_all() {
         .add(Ut_html)
         .add(Ut_xml)
         .add(Ut_jdbc)
-        .add(Ut_sqlite);
+        .add(Ut_jdbcpool)
+        .add(Ut_sqlite)
+        .add(Ut_httprouter)
+        .add(Ut_httphistogram)
+        .add(Ut_httpmultipart)
+        .add(Ut_httpretry)
+        .add(Ut_httpsession);
 }
 Ut_all.prototype = new TestRunner();
 Ut_all.prototype.constructor = Ut_all;
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, Java, assert */
+
+include("TestSet.js");
+
+/**
+ * httpHistogram tests. Values are recorded in nanoseconds, percentiles 
+ * are in milliseconds and bucket counts take seconds. Run this file 
+ * with the ic9 -t to invoke the test() function.
+ */
+function Ut_httphistogram() {
+    TestSet.call(this, "ut_httphistogram.js");
+
+    this.Histogram = Java.type("com.lehman.ic9.net.httpHistogram");
+    this.hist = undefined;
+
+    // Add tests to set.
+    this
+        .add(this.histEmpty, "Empty histogram.")
+        .add(this.histRecord, "Record values.")
+        .add(this.histStats, "Count, sum, mean and max.")
+        .add(this.histPercentiles, "Percentiles within bucket precision.")
+        .add(this.histSmallBuckets, "Values below 16us have their own bucket.")
+        .add(this.histCountAtOrBelow, "Count at or below a value.")
+        .add(this.histClamp, "Out of range values are clamped.");
+}
+Ut_httphistogram.prototype = new TestSet();
+
+/*
+ * Tests
+ */
+Ut_httphistogram.prototype.histEmpty = function () {
+    var h = new this.Histogram();
+    assert(Number(h.getCount()) === 0);
+    assert(h.getMean() === 0);
+    assert(h.getMax() === 0);
+    assert(h.getPercentile(50) === 0);
+    assert(Number(h.getCountAtOrBelow(1)) === 0);
+};
+
+Ut_httphistogram.prototype.histRecord = function () {
+    var i;
+    this.hist = new this.Histogram();
+
+    // 1ms to 100ms.
+    for (i = 1; i <= 100; i += 1) { this.hist.record(i * 1000000); }
+    assert(Number(this.hist.getCount()) === 100);
+};
+
+Ut_httphistogram.prototype.histStats = function () {
+    assert(Math.abs(this.hist.getSum() - 5.05) < 0.000001);
+    assert(Math.abs(this.hist.getMean() - 50.5) < 0.000001);
+    assert(this.hist.getMax() === 100);
+};
+
+Ut_httphistogram.prototype.histPercentiles = function () {
+    var p50 = this.hist.getPercentile(50), p90 = this.hist.getPercentile(90), p99 = this.hist.getPercentile(99);
+
+    // A bucket is within 1/16th of the values in it.
+    assert(p50 >= 50 && p50 <= 50 * 17 / 16);
+    assert(p90 >= 90 && p90 <= 90 * 17 / 16);
+    assert(p99 >= 99 && p99 <= 100);
+    assert(p50 <= p90 && p90 <= p99);
+
+    // The top percentile is the max, not the bucket bound.
+    assert(this.hist.getPercentile(100) === 100);
+    assert(this.hist.getPercentile(0) === this.hist.getPercentile(1));
+};
+
+Ut_httphistogram.prototype.histSmallBuckets = function () {
+    var h = new this.Histogram(), i;
+    for (i = 0; i < 16; i += 1) { h.record(i * 1000); }
+    assert(Number(h.getCount()) === 16);
+    assert(h.getPercentile(50) === 0.008);
+    assert(h.getMax() === 0.015);
+};
+
+Ut_httphistogram.prototype.histCountAtOrBelow = function () {
+    var h = new this.Histogram(), i;
+    for (i = 0; i < 10; i += 1) { h.record(10000); }
+    for (i = 0; i < 5; i += 1) { h.record(1000000); }
+    for (i = 0; i < 2; i += 1) { h.record(1000000000); }
+
+    assert(Number(h.getCountAtOrBelow(0.000009)) === 0);
+    assert(Number(h.getCountAtOrBelow(0.00001)) === 10);
+    assert(Number(h.getCountAtOrBelow(0.5)) === 15);
+    assert(Number(h.getCountAtOrBelow(2)) === 17);
+};
+
+Ut_httphistogram.prototype.histClamp = function () {
+    var h = new this.Histogram(), max = (Math.pow(2, 40) - 1) / 1000;
+    h.record(-5000);
+    h.record(Math.pow(2, 50) * 1000);
+    assert(Number(h.getCount()) === 2);
+    assert(h.getMax() === max);
+    assert(h.getPercentile(50) === 0.001);
+    assert(h.getPercentile(100) === max);
+};
+
+Ut_httphistogram.prototype.constructor = Ut_httphistogram;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_httphistogram();
+    t.run();
+}
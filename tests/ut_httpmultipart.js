@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, HttpPartReader, Java, java, assert */
+
+include("TestSet.js");
+include("net/HttpPartReader.js");
+
+/**
+ * httpMultipartReader tests. The request body is read from an input 
+ * stream made of fixed size chunks so boundaries can be split across 
+ * reads without a server. Run this file with the ic9 -t to invoke 
+ * the test() function.
+ */
+function Ut_httpmultipart() {
+    TestSet.call(this, "ut_httpmultipart.js");
+
+    this.contentType = "multipart/form-data; boundary=XyZ";
+    this.fileContent = "line one\r\nline -\r\n--Xy two --XyZ end";
+    this.body = "preamble\r\n"
+        + "--XyZ\r\n"
+        + "Content-Disposition: form-data; name=\"title\"\r\n"
+        + "\r\n"
+        + "Hello\r\n"
+        + "--XyZ\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"C:\\docs\\notes.txt\"\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "\r\n"
+        + this.fileContent + "\r\n"
+        + "--XyZ--\r\n";
+
+    // Add tests to set.
+    this
+        .add(this.multipartParse, "Parse parts.")
+        .add(this.multipartSplit, "Boundary split across reads.")
+        .add(this.multipartSkip, "Skip unread parts.")
+        .add(this.multipartPartLimit, "Max part size.")
+        .add(this.multipartTotalLimit, "Max total size.")
+        .add(this.multipartNoBoundary, "Content type without a boundary.")
+        .add(this.multipartTruncated, "Truncated body.");
+}
+Ut_httpmultipart.prototype = new TestSet();
+
+/**
+ * Creates a reader for the provided body read in chunks of the 
+ * provided size.
+ * @param Body is a string with the request body.
+ * @param ChunkSize is an integer with the max bytes per read.
+ * @param MaxPartSize is an integer with the max part size or -1.
+ * @param MaxTotalSize is an integer with the max total size or -1.
+ * @return A HttpPartReader object.
+ */
+Ut_httpmultipart.prototype.reader = function (Body, ChunkSize, MaxPartSize, MaxTotalSize) {
+    var NativeReader = Java.type("com.lehman.ic9.net.httpMultipartReader");
+    var Arrays = Java.type("java.util.Arrays");
+    var bytes = new java.lang.String(Body).getBytes("ISO-8859-1");
+    var chunks = new java.util.Vector(), i;
+    for (i = 0; i < bytes.length; i += ChunkSize) {
+        chunks.add(new java.io.ByteArrayInputStream(Arrays.copyOfRange(bytes, i, Math.min(i + ChunkSize, bytes.length))));
+    }
+    var ins = new java.io.SequenceInputStream(chunks.elements());
+    return new HttpPartReader(new NativeReader(ins, this.contentType, MaxPartSize, MaxTotalSize));
+};
+
+/**
+ * Reads all parts with the provided reader and checks them.
+ * @param Reader is a HttpPartReader object.
+ */
+Ut_httpmultipart.prototype.checkParts = function (Reader) {
+    var part = Reader.next();
+    assert(part.name === "title");
+    assert(part.fileName === null);
+    assert(part.readString() === "Hello");
+    assert(part.getSize() === 5);
+
+    part = Reader.next();
+    assert(part.name === "file");
+    assert(part.fileName === "notes.txt");
+    assert(part.contentType === "text/plain");
+    assert(part.readString() === this.fileContent);
+
+    assert(Reader.next() === null);
+    assert(Reader.next() === null);
+
+    // The CRLF after the closing boundary isn't needed so it may not be read.
+    assert(Reader.getBytesRead() >= this.body.length - 2 && Reader.getBytesRead() <= this.body.length);
+};
+
+/*
+ * Tests
+ */
+Ut_httpmultipart.prototype.multipartParse = function () {
+    this.checkParts(this.reader(this.body, 64 * 1024, -1, -1));
+};
+
+Ut_httpmultipart.prototype.multipartSplit = function () {
+    var size;
+    // Every split point of the '\r\n--XyZ' delimiter is covered.
+    for (size = 1; size <= 9; size += 1) {
+        this.checkParts(this.reader(this.body, size, -1, -1));
+    }
+};
+
+Ut_httpmultipart.prototype.multipartSkip = function () {
+    var rdr = this.reader(this.body, 3, -1, -1), first, part, failed = false;
+    first = rdr.next();
+    part = rdr.next();
+    assert(part.name === "file");
+    assert(part.readString() === this.fileContent);
+
+    // A skipped part can't be read after moving on.
+    try { first.readString(); } catch (e) { failed = true; }
+    assert(failed);
+};
+
+Ut_httpmultipart.prototype.multipartPartLimit = function () {
+    var rdr = this.reader(this.body, 7, 5, -1), part, failed = false;
+
+    // A part of exactly the max size is allowed.
+    part = rdr.next();
+    assert(part.readString() === "Hello");
+    assert(!rdr.isLimitExceeded());
+
+    part = rdr.next();
+    try { part.readString(); } catch (e) { failed = true; }
+    assert(failed);
+    assert(rdr.isLimitExceeded());
+    assert(rdr.next() === null);
+};
+
+Ut_httpmultipart.prototype.multipartTotalLimit = function () {
+    var rdr = this.reader(this.body, 16, -1, 100), part, failed = false;
+    try {
+        while ((part = rdr.next()) !== null) { part.readString(); }
+    } catch (e) {
+        failed = true;
+    }
+    assert(failed);
+    assert(rdr.isLimitExceeded());
+    assert(rdr.getBytesRead() <= 100 + 16);
+
+    // The whole body fits with a max total size of its length.
+    this.checkParts(this.reader(this.body, 16, -1, this.body.length));
+};
+
+Ut_httpmultipart.prototype.multipartNoBoundary = function () {
+    var failed = false;
+    this.contentType = "multipart/form-data";
+    try { this.reader(this.body, 16, -1, -1); } catch (e) { failed = true; }
+    this.contentType = "multipart/form-data; boundary=XyZ";
+    assert(failed);
+};
+
+Ut_httpmultipart.prototype.multipartTruncated = function () {
+    var rdr = this.reader(this.body.substring(0, this.body.length - 20), 8, -1, -1), part, failed = false;
+    try {
+        while ((part = rdr.next()) !== null) { part.readString(); }
+    } catch (e) {
+        failed = true;
+    }
+    assert(failed);
+    assert(!rdr.isLimitExceeded());
+};
+
+Ut_httpmultipart.prototype.constructor = Ut_httpmultipart;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_httpmultipart();
+    t.run();
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, Java, java, assert */
+
+include("TestSet.js");
+
+/**
+ * httpRetryPolicy and httpCircuitBreaker tests. These use the native 
+ * objects directly so no requests are made. Run this file with the 
+ * ic9 -t to invoke the test() function.
+ */
+function Ut_httpretry() {
+    TestSet.call(this, "ut_httpretry.js");
+
+    this.Policy = Java.type("com.lehman.ic9.net.httpRetryPolicy");
+    this.Breaker = Java.type("com.lehman.ic9.net.httpCircuitBreaker");
+
+    // Add tests to set.
+    this
+        .add(this.retryStatus, "Retry on status.")
+        .add(this.retryException, "Retry on exception.")
+        .add(this.retryNonIdempotent, "Non-idempotent methods aren't retried.")
+        .add(this.retryDelay, "Backoff delay within jitter bounds.")
+        .add(this.retryAfter, "Retry-After delay is capped.")
+        .add(this.retryBudget, "Retry budget exhaustion.")
+        .add(this.breakerOpen, "Breaker opens on consecutive failures.")
+        .add(this.breakerHalfOpen, "Breaker half opens after the timeout.")
+        .add(this.breakerReopen, "Failure when half open reopens.");
+}
+Ut_httpretry.prototype = new TestSet();
+
+/*
+ * Tests
+ */
+Ut_httpretry.prototype.retryStatus = function () {
+    var p = new this.Policy();
+    assert(p.canRetry("GET", 503, 0));
+    assert(p.canRetry("GET", 429, 2));
+    assert(!p.canRetry("GET", 500, 0));
+    assert(!p.canRetry("GET", 404, 0));
+
+    // Attempts are counted from 0 so 3 retries are attempts 0 to 2.
+    assert(!p.canRetry("GET", 503, 3));
+
+    p.setRetryStatus([500]);
+    assert(p.canRetry("GET", 500, 0));
+    assert(!p.canRetry("GET", 503, 0));
+};
+
+Ut_httpretry.prototype.retryException = function () {
+    var p = new this.Policy();
+    var ConnectException = Java.type("java.net.ConnectException");
+    var NoHttpResponseException = Java.type("org.apache.http.NoHttpResponseException");
+    var IOException = Java.type("java.io.IOException");
+
+    // The request wasn't sent, so any method can be retried.
+    assert(p.canRetry("POST", new ConnectException("refused"), 0));
+    assert(!p.canRetry("POST", new ConnectException("refused"), 3));
+
+    // The request may have been processed.
+    assert(p.canRetry("GET", new NoHttpResponseException("no response"), 0));
+    assert(!p.canRetry("POST", new NoHttpResponseException("no response"), 0));
+
+    assert(!p.canRetry("GET", new IOException("other"), 0));
+};
+
+Ut_httpretry.prototype.retryNonIdempotent = function () {
+    var p = new this.Policy();
+    assert(this.Policy.isIdempotent("PUT"));
+    assert(this.Policy.isIdempotent("DELETE"));
+    assert(!this.Policy.isIdempotent("POST"));
+    assert(!this.Policy.isIdempotent("PATCH"));
+
+    assert(!p.canRetry("POST", 503, 0));
+    assert(!p.canRetry("PATCH", 503, 0));
+    assert(p.canRetry("PUT", 503, 0));
+
+    p.setRetryNonIdempotent(true);
+    assert(p.canRetry("POST", 503, 0));
+};
+
+Ut_httpretry.prototype.retryDelay = function () {
+    var p = new this.Policy().setBaseDelay(100).setMaxDelay(1000).setMultiplier(2).setJitter(0.5);
+    var attempt, i, exp, delay;
+    for (attempt = 0; attempt < 6; attempt += 1) {
+        exp = Math.min(100 * Math.pow(2, attempt), 1000);
+        for (i = 0; i < 200; i += 1) {
+            delay = Number(p.getDelay(attempt, 0));
+            assert(delay >= Math.floor(exp / 2) && delay <= exp);
+        }
+    }
+
+    // Without jitter the delay is the backoff.
+    p.setJitter(0);
+    assert(Number(p.getDelay(0, 0)) === 100);
+    assert(Number(p.getDelay(2, 0)) === 400);
+    assert(Number(p.getDelay(10, 0)) === 1000);
+
+    // Jitter is clamped to 0 to 1.
+    p.setJitter(5);
+    assert(p.getJitter() === 1);
+};
+
+Ut_httpretry.prototype.retryAfter = function () {
+    var p = new this.Policy().setBaseDelay(100).setMaxDelay(1000).setJitter(0);
+    assert(Number(p.getDelay(0, 500)) === 500);
+    assert(Number(p.getDelay(0, 50)) === 100);
+    assert(Number(p.getDelay(0, 5000)) === 1000);
+};
+
+Ut_httpretry.prototype.retryBudget = function () {
+    var Policy = this.Policy, i, retries = Number(Policy.getTotalRetries()), exhausted = Number(Policy.getBudgetExhausted());
+    try {
+        // Start a new window, then keep it open for the test.
+        Policy.setBudget(0.5, 2, 1);
+        java.lang.Thread.sleep(5);
+        Policy.recordRequest();
+        Policy.setBudget(0.5, 2, 60000);
+        for (i = 0; i < 3; i += 1) { Policy.recordRequest(); }
+
+        // 2 retries plus half of the 4 requests.
+        for (i = 0; i < 4; i += 1) { assert(Policy.acquireRetry()); }
+        assert(!Policy.acquireRetry());
+        assert(Number(Policy.getTotalRetries()) === retries + 4);
+        assert(Number(Policy.getBudgetExhausted()) === exhausted + 1);
+
+        // More requests add to the budget.
+        Policy.recordRequest();
+        Policy.recordRequest();
+        assert(Policy.acquireRetry());
+        assert(!Policy.acquireRetry());
+    } finally {
+        Policy.setBudget(0.2, 10, 10000);
+    }
+};
+
+Ut_httpretry.prototype.breakerOpen = function () {
+    var cb = new this.Breaker("localhost:1", 3, 50, 1);
+    assert(String(cb.getState()) === "CLOSED");
+
+    // A success resets the consecutive failures.
+    cb.recordFailure();
+    cb.recordFailure();
+    cb.recordSuccess();
+    cb.recordFailure();
+    cb.recordFailure();
+    assert(String(cb.getState()) === "CLOSED");
+    assert(cb.allowRequest());
+
+    cb.recordFailure();
+    assert(String(cb.getState()) === "OPEN");
+    assert(!cb.allowRequest());
+    assert(Number(cb.getRejected()) === 1);
+    assert(Number(cb.getOpened()) === 1);
+    assert(Number(cb.getFailures()) === 5);
+    assert(Number(cb.getSuccesses()) === 1);
+};
+
+Ut_httpretry.prototype.breakerHalfOpen = function () {
+    var cb = new this.Breaker("localhost:1", 1, 50, 1);
+    cb.recordFailure();
+    assert(!cb.allowRequest());
+
+    java.lang.Thread.sleep(60);
+
+    // One trial request is allowed.
+    assert(cb.allowRequest());
+    assert(String(cb.getState()) === "HALF_OPEN");
+    assert(!cb.allowRequest());
+
+    cb.recordSuccess();
+    assert(String(cb.getState()) === "CLOSED");
+    assert(cb.allowRequest());
+    assert(cb.allowRequest());
+};
+
+Ut_httpretry.prototype.breakerReopen = function () {
+    var cb = new this.Breaker("localhost:1", 2, 50, 1);
+    cb.recordFailure();
+    cb.recordFailure();
+    java.lang.Thread.sleep(60);
+    assert(cb.allowRequest());
+    assert(String(cb.getState()) === "HALF_OPEN");
+
+    // A single failure when half open reopens it.
+    cb.recordFailure();
+    assert(String(cb.getState()) === "OPEN");
+    assert(!cb.allowRequest());
+    assert(Number(cb.getOpened()) === 2);
+};
+
+Ut_httpretry.prototype.constructor = Ut_httpretry;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_httpretry();
+    t.run();
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, Java, assert */
+
+include("TestSet.js");
+
+/**
+ * httpRouter tests. These use the native routing table directly so 
+ * no server is started. Run this file with the ic9 -t to invoke 
+ * the test() function.
+ */
+function Ut_httprouter() {
+    TestSet.call(this, "ut_httprouter.js");
+
+    this.router = undefined;
+
+    // Add tests to set.
+    this
+        .add(this.routerInstantiate, "Instantiate httpRouter object.")
+        .add(this.routerAdd, "Add routes.")
+        .add(this.routerStatic, "Static segment takes precedence.")
+        .add(this.routerParam, "Parameter segment sets params.")
+        .add(this.routerWildcard, "Wildcard matches the rest of the path.")
+        .add(this.routerBacktrack, "Method aware backtracking.")
+        .add(this.routerHead, "HEAD uses the GET handler.")
+        .add(this.routerAnyMethod, "Any method route.")
+        .add(this.routerNotFound, "Not found is a 404.")
+        .add(this.routerNotAllowed, "Wrong method is a 405 with Allow.")
+        .add(this.routerBadPattern, "Invalid patterns are rejected.")
+        .add(this.routerRoutes, "Get the routes.");
+}
+Ut_httprouter.prototype = new TestSet();
+
+/*
+ * Tests
+ */
+Ut_httprouter.prototype.routerInstantiate = function () {
+    var Router = Java.type("com.lehman.ic9.net.httpRouter");
+    this.router = new Router();
+    assert(this.router.getSize() === 0);
+};
+
+Ut_httprouter.prototype.routerAdd = function () {
+    this.router.add("GET", "/users/me", "me");
+    this.router.add("GET", "/users/:id", "getUser");
+    this.router.add("DELETE", "/users/:id", "deleteUser");
+    this.router.add("GET", "/users/:id/posts", "getPosts");
+    this.router.add("GET", "/files/*", "getFile");
+    this.router.add("*", "/any", "any");
+    assert(this.router.getSize() === 6);
+
+    // Same method and pattern replaces the handler.
+    this.router.add("GET", "/users/me", "me");
+    assert(this.router.getSize() === 6);
+};
+
+Ut_httprouter.prototype.routerStatic = function () {
+    var m = this.router.find("GET", "/users/me");
+    assert(m.status === 200);
+    assert(m.handler === "me");
+    assert(m.params.isEmpty());
+    assert(m.name === "GET /users/me");
+};
+
+Ut_httprouter.prototype.routerParam = function () {
+    var m = this.router.find("GET", "/users/42");
+    assert(m.status === 200);
+    assert(m.handler === "getUser");
+    assert(m.params.get("id") === "42");
+
+    m = this.router.find("GET", "/users/42/posts");
+    assert(m.handler === "getPosts");
+    assert(m.params.get("id") === "42");
+};
+
+Ut_httprouter.prototype.routerWildcard = function () {
+    var m = this.router.find("GET", "/files/a/b/c.txt");
+    assert(m.status === 200);
+    assert(m.handler === "getFile");
+    assert(m.name === "GET /files/*");
+};
+
+Ut_httprouter.prototype.routerBacktrack = function () {
+    // The static /users/me has no DELETE so /users/:id is used.
+    var m = this.router.find("DELETE", "/users/me");
+    assert(m.status === 200);
+    assert(m.handler === "deleteUser");
+    assert(m.params.get("id") === "me");
+};
+
+Ut_httprouter.prototype.routerHead = function () {
+    var m = this.router.find("HEAD", "/users/42");
+    assert(m.status === 200);
+    assert(m.handler === "getUser");
+};
+
+Ut_httprouter.prototype.routerAnyMethod = function () {
+    var m = this.router.find("PATCH", "/any");
+    assert(m.status === 200);
+    assert(m.handler === "any");
+};
+
+Ut_httprouter.prototype.routerNotFound = function () {
+    var m = this.router.find("GET", "/nothing/here");
+    assert(m.status === 404);
+    assert(m.handler === null);
+
+    m = this.router.find("GET", "/users/42/comments");
+    assert(m.status === 404);
+};
+
+Ut_httprouter.prototype.routerNotAllowed = function () {
+    var m = this.router.find("POST", "/users/42");
+    assert(m.status === 405);
+    assert(m.handler === null);
+    assert(m.allow === "DELETE, GET, HEAD");
+
+    m = this.router.find("PUT", "/users/me");
+    assert(m.status === 405);
+    assert(m.allow === "DELETE, GET, HEAD");
+};
+
+Ut_httprouter.prototype.routerBadPattern = function () {
+    var router = this.router, failed = 0;
+    try { router.add("GET", "/files/*/meta", "bad"); } catch (e) { failed += 1; }
+    try { router.add("GET", "/users/:", "bad"); } catch (e) { failed += 1; }
+    try { router.add("GET", "/users/:name/likes", "bad"); } catch (e) { failed += 1; }
+    assert(failed === 3);
+    assert(router.getSize() === 6);
+};
+
+Ut_httprouter.prototype.routerRoutes = function () {
+    var routes = this.router.getRoutes();
+    assert(routes.size() === 6);
+    assert(routes.get("DELETE /users/:id") === "deleteUser");
+    assert(routes.get("* /any") === "any");
+};
+
+Ut_httprouter.prototype.constructor = Ut_httprouter;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_httprouter();
+    t.run();
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, Thread, Java, java, assert */
+
+include("TestSet.js");
+include("Thread.js");
+
+/**
+ * httpMemorySessionStore, httpFileSessionStore and httpSessionManager 
+ * tests. The stores are used directly and the manager is started with 
+ * a session handler that isn't part of a running server, so no server 
+ * is started. Run this file with the ic9 -t to invoke the test() 
+ * function.
+ */
+function Ut_httpsession() {
+    TestSet.call(this, "ut_httpsession.js");
+
+    this.Data = Java.type("com.lehman.ic9.net.httpSessionData");
+    this.MemoryStore = Java.type("com.lehman.ic9.net.httpMemorySessionStore");
+    this.FileStore = Java.type("com.lehman.ic9.net.httpFileSessionStore");
+    this.dir = undefined;
+
+    // Add tests to set.
+    this
+        .add(this.memoryLru, "Memory store evicts the least recently used.")
+        .add(this.memoryExpire, "Memory store expiry.")
+        .add(this.fileSaveLoad, "File store save and load after re-open.")
+        .add(this.fileLazy, "File store attributes are deserialized on read.")
+        .add(this.fileExpire, "File store expiry sweep.")
+        .add(this.fileOpenExpired, "File store removes expired files on open.")
+        .add(this.managerMemory, "Concurrent requests with the memory store.")
+        .add(this.managerFile, "Concurrent requests with the file store.")
+        .add(this.cleanup, "Remove the session directory.");
+}
+Ut_httpsession.prototype = new TestSet();
+
+/**
+ * Creates session data last accessed at the provided time.
+ * @param Id is a string with the session ID.
+ * @param Accessed is a number with the accessed time in milliseconds.
+ * @param MaxInactiveMs is a number with the max inactive milliseconds 
+ * or -1 to never expire.
+ * @return A httpSessionData object.
+ */
+Ut_httpsession.prototype.data = function (Id, Accessed, MaxInactiveMs) {
+    return new this.Data(Id, Accessed, Accessed, MaxInactiveMs);
+};
+
+/**
+ * Gets the session directory, creating it on first use.
+ * @return A string with the directory path.
+ */
+Ut_httpsession.prototype.getDir = function () {
+    if (this.dir === undefined) {
+        this.dir = String(java.nio.file.Files.createTempDirectory("ut_httpsession").toString());
+    }
+    return this.dir;
+};
+
+/**
+ * Gets the number of session files in the session directory.
+ * @return An integer with the number of files.
+ */
+Ut_httpsession.prototype.fileCount = function () {
+    var files = new java.io.File(this.getDir()).listFiles(), i, ret = 0;
+    for (i = 0; i < files.length; i += 1) {
+        if (files[i].getName().endsWith(".session")) { ret += 1; }
+    }
+    return ret;
+};
+
+/**
+ * Runs 40 threads that each make requests incrementing a counter in 
+ * one session through a started session manager using the provided 
+ * store. Each request gets the session, accesses it, changes the 
+ * counter and completes, the way the session handler calls the 
+ * manager for a request.
+ * @param Store is the httpSessionStore to use.
+ */
+Ut_httpsession.prototype.concurrentRequests = function (Store) {
+    var Manager = Java.type("com.lehman.ic9.net.httpSessionManager");
+    var SessionHandler = Java.type("org.eclipse.jetty.server.session.SessionHandler");
+    var Server = Java.type("org.eclipse.jetty.server.Server");
+    var Request = Java.type("org.eclipse.jetty.server.Request");
+    var AtomicInteger = Java.type("java.util.concurrent.atomic.AtomicInteger");
+    var mgr = new Manager(Store, 60, 60), sh = new SessionHandler(mgr), threads = [], i, id, s, run;
+
+    sh.setServer(new Server());
+    sh.start();
+    try {
+        s = mgr.newHttpSession(new Request(null, null));
+        s.setAttribute("count", new AtomicInteger(0));
+        mgr.complete(s);
+        id = s.getId();
+
+        run = function () {
+            var j, ss;
+            for (j = 0; j < 25; j += 1) {
+                ss = mgr.getSession(id);
+                mgr.access(ss, false);
+                ss.getAttribute("count").incrementAndGet();
+                ss.setAttribute("count", ss.getAttribute("count"));
+                mgr.complete(ss);
+            }
+        };
+        for (i = 0; i < 40; i += 1) {
+            threads.push(new Thread().setOnRun(run).start());
+        }
+        for (i = 0; i < 40; i += 1) { threads[i].join(); }
+
+        // Every request released the session, so it's saved.
+        assert(mgr.getLiveCount() === 0);
+        assert(Store.load(id).getAttribute("count").get() === 1000);
+    } finally {
+        sh.stop();
+    }
+};
+
+/*
+ * Tests
+ */
+Ut_httpsession.prototype.memoryLru = function () {
+    var store = new this.MemoryStore(2), now = Number(java.lang.System.currentTimeMillis());
+    store.save(this.data("a", now, -1), true);
+    store.save(this.data("b", now, -1), true);
+
+    // Loading a makes b the least recently used.
+    assert(store.load("a") !== null);
+    store.save(this.data("c", now, -1), true);
+    assert(store.getCount() === 2);
+    assert(Number(store.getEvicted()) === 1);
+    assert(store.load("b") === null);
+    assert(store.load("a") !== null);
+    assert(store.load("c") !== null);
+};
+
+Ut_httpsession.prototype.memoryExpire = function () {
+    var store = new this.MemoryStore(0), now = Number(java.lang.System.currentTimeMillis()), ids;
+    store.save(this.data("short", now, 1000), true);
+    store.save(this.data("long", now, 60000), true);
+    store.save(this.data("never", now, -1), true);
+
+    assert(store.expire(now + 999).isEmpty());
+    ids = store.expire(now + 1000);
+    assert(ids.size() === 1);
+    assert(ids.get(0) === "short");
+    assert(store.load("short") === null);
+
+    store.expire(now + 60000);
+    assert(store.getCount() === 1);
+    assert(store.load("never") !== null);
+};
+
+Ut_httpsession.prototype.fileSaveLoad = function () {
+    var store = new this.FileStore(this.getDir()), now = Number(java.lang.System.currentTimeMillis()), data, list;
+    store.open();
+    data = this.data("file-1", now, 60000);
+    list = new java.util.ArrayList();
+    list.add("one");
+    list.add("two");
+    data.putAttribute("name", "value");
+    data.putAttribute("list", list);
+    store.save(data, true);
+    assert(!data.isDirty());
+    store.close();
+
+    store = new this.FileStore(this.getDir());
+    store.open();
+    assert(store.getCount() === 1);
+    data = store.load("file-1");
+    assert(data.getId() === "file-1");
+    assert(Number(data.getAccessed()) === now);
+    assert(Number(data.getMaxInactiveMs()) === 60000);
+    assert(data.getAttribute("name") === "value");
+    assert(data.getAttribute("list").equals(list));
+    assert(store.load("missing") === null);
+    store.close();
+};
+
+Ut_httpsession.prototype.fileLazy = function () {
+    var Serialized = Java.type("com.lehman.ic9.net.httpSessionData$serialized");
+    var store = new this.FileStore(this.getDir()), counter = new java.util.concurrent.atomic.AtomicLong(0), data;
+    store.open();
+    data = store.load("file-1");
+    data.setDeserializedCounter(counter);
+
+    // Nothing is deserialized until an attribute is read.
+    assert(data.getRawAttributes().get("name") instanceof Serialized);
+    assert(data.getRawAttributes().get("list") instanceof Serialized);
+    assert(Number(counter.get()) === 0);
+
+    assert(data.getAttribute("name") === "value");
+    assert(Number(counter.get()) === 1);
+    assert(data.getRawAttributes().get("name") === "value");
+    assert(data.getRawAttributes().get("list") instanceof Serialized);
+
+    // A value is only deserialized once.
+    data.getAttribute("name");
+    assert(Number(counter.get()) === 1);
+    assert(!data.isDirty());
+    store.close();
+};
+
+Ut_httpsession.prototype.fileExpire = function () {
+    var store = new this.FileStore(this.getDir()), now = Number(java.lang.System.currentTimeMillis()), ids;
+    store.open();
+    store.save(this.data("file-2", now, 1000), true);
+    store.save(this.data("file-3", now, -1), true);
+    assert(store.getCount() === 3);
+    assert(this.fileCount() === 3);
+
+    assert(store.expire(now + 999).isEmpty());
+    ids = store.expire(now + 1000);
+    assert(ids.size() === 1);
+    assert(ids.get(0) === "file-2");
+    assert(store.load("file-2") === null);
+    assert(this.fileCount() === 2);
+
+    // The session expiring in a minute from file-1 goes next.
+    ids = store.expire(now + 120000);
+    assert(ids.size() === 1);
+    assert(ids.get(0) === "file-1");
+    assert(store.getCount() === 1);
+    assert(this.fileCount() === 1);
+    store.close();
+};
+
+Ut_httpsession.prototype.fileOpenExpired = function () {
+    var store = new this.FileStore(this.getDir()), now = Number(java.lang.System.currentTimeMillis());
+    store.open();
+    store.save(this.data("file-4", now - 2000, 1000), true);
+    store.close();
+    assert(this.fileCount() === 2);
+
+    store = new this.FileStore(this.getDir());
+    store.open();
+    assert(store.getCount() === 1);
+    assert(store.load("file-4") === null);
+    assert(this.fileCount() === 1);
+    store.close();
+};
+
+Ut_httpsession.prototype.managerMemory = function () {
+    this.concurrentRequests(new this.MemoryStore(0));
+};
+
+Ut_httpsession.prototype.managerFile = function () {
+    this.concurrentRequests(new this.FileStore(this.getDir() + "/manager"));
+};
+
+Ut_httpsession.prototype.cleanup = function () {
+    var dir = new java.io.File(this.getDir()), manager = new java.io.File(dir, "manager");
+    var dirs = [manager, dir], i, j, files;
+    for (i = 0; i < dirs.length; i += 1) {
+        files = dirs[i].listFiles();
+        for (j = 0; files !== null && j < files.length; j += 1) { files[j].delete(); }
+        dirs[i].delete();
+    }
+    assert(!dir.exists());
+};
+
+Ut_httpsession.prototype.constructor = Ut_httpsession;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_httpsession();
+    t.run();
+}
@@ -15,7 +15,7 @@
  */
 
 "use strict";
-/*global include, TestSet, Ic9Engine, assert, assertObject, assertArray */
+/*global Java, include, TestSet, Ic9Engine, assert, assertObject, assertArray */
 
 include("TestSet.js");
 include("Ic9Engine.js");
@@ -36,7 +36,8 @@ function Ut_ic9engine() {
         .add(this.testInvokeMethod, "Invoke a member function.")
         .add(this.testPutGet, "Put and get functions.")
         .add(this.testNewObject, "Instantiate a new object in the engine.")
-        .add(this.testNewList, "Instantiate a new list in the engine.");
+        .add(this.testNewList, "Instantiate a new list in the engine.")
+        .add(this.testScriptCache, "Engine includes are read from the script cache.");
 }
 Ut_ic9engine.prototype = new TestSet();
 
@@ -84,6 +85,12 @@ Ut_ic9engine.prototype.testNewList = function () {
     assertArray(ret);
 };
 
+Ut_ic9engine.prototype.testScriptCache = function () {
+    var cache = Java.type("com.lehman.ic9.scriptCache").getInstance(), hits = cache.getHits();
+    this.eng = new Ic9Engine();
+    assert(cache.getHits() > hits);
+};
+
 // Test method ...
 Ut_ic9engine.prototype.testMeth = function () {
     return 'ran';
@@ -40,6 +40,12 @@ function Ut_jdbc() {
         .add(this.jdbcUpdateQueryPrepared, "Update query prepared.")
         .add(this.jdbcSelectQueryRaw, "Select query raw.")
         .add(this.jdbcSelectQueryPrepared, "Select query prepared.")
+        .add(this.jdbcOpenCursor, "Read rows with a cursor.")
+        .add(this.jdbcUpdateBatch, "Batch update query.")
+        .add(this.jdbcStatementCache, "Prepared statement cache.")
+        .add(this.jdbcIndexKeys, "Select query without index keys.")
+        .add(this.jdbcSelectColumns, "Select query by column.")
+        .add(this.jdbcQueryEach, "Read rows with a row callback.")
         .add(this.jdbcDisconnect, "Disconnect from database.");
 }
 Ut_jdbc.prototype = new TestSet();
@@ -85,6 +91,79 @@ Ut_jdbc.prototype.jdbcSelectQueryPrepared = function () {
     assert(rows.length === 1);
 };
 
+Ut_jdbc.prototype.jdbcOpenCursor = function () {
+    var q = "SELECT * FROM characters WHERE id > ? ORDER BY id;", cur, row, names = [];
+    cur = this.con.openCursor(q, [0], 2);
+    while ((row = cur.next()) !== null) { names.push(row.firstName); }
+    assert(names.length === 5);
+    assert(names[0] === 'Tyler');
+    assert(cur.isClosed());
+};
+
+Ut_jdbc.prototype.jdbcUpdateBatch = function () {
+    var q = "INSERT INTO characters (firstName, lastName) VALUES (?, ?);", rows = [], i, counts, res;
+    for (i = 0; i < 25; i += 1) {
+        rows.push(['Batch' + i, 'Row']);
+    }
+    counts = this.con.updateBatch(q, rows, 10);
+    assert(counts.length === 25);
+    assert(counts[0] === 1);
+    res = this.con.selectQuery("SELECT count(*) AS cnt FROM characters WHERE lastName = ?;", ['Row']);
+    assert(Number(res[0].cnt) === 25);
+    this.con.updateQuery("DELETE FROM characters WHERE lastName = ?;", ['Row']);
+};
+
+Ut_jdbc.prototype.jdbcStatementCache = function () {
+    var q = "SELECT * FROM characters WHERE id = ?;", info, hits, i;
+    this.con.selectQuery(q, [1]);
+    hits = this.con.getStatementCacheInfo().hits;
+    for (i = 0; i < 5; i += 1) {
+        assert(this.con.selectQuery(q, [1])[0].firstName === 'Tyler');
+    }
+    info = this.con.getStatementCacheInfo();
+    assert(info.hits === hits + 5);
+    assert(info.size > 0);
+    this.con.setStatementCacheSize(0);
+    assert(this.con.getStatementCacheInfo().size === 0);
+    this.con.setStatementCacheSize(32);
+};
+
+Ut_jdbc.prototype.jdbcIndexKeys = function () {
+    var q = "SELECT firstName, lastName FROM characters WHERE id = ?;", rows;
+    rows = this.con.selectQuery(q, [1]);
+    assert(rows[0].firstName === 'Tyler' && rows[0][0] === 'Tyler');
+    this.con.setIndexKeys(false);
+    rows = this.con.selectQuery(q, [1]);
+    assert(Array.isArray(rows) && rows.length === 1);
+    assert(rows[0].firstName === 'Tyler');
+    assert(rows[0][0] === undefined);
+    assert(Object.keys(rows[0]).length === 2);
+    this.con.setIndexKeys(true);
+};
+
+Ut_jdbc.prototype.jdbcSelectColumns = function () {
+    var q = "SELECT id, firstName FROM characters WHERE id > ? ORDER BY id;", res, i, sum = 0;
+    res = this.con.selectColumns(q, [0]);
+    assert(res.rowCount === 5);
+    assert(res.names.length === 2 && res.names[1] === 'firstName');
+    assert(res.types.id === 'int' && res.types.firstName === 'string');
+    assert(res.columns.id.length === 5);
+    for (i = 0; i < res.rowCount; i += 1) { sum += res.columns.id[i]; }
+    assert(sum === 15);
+    assert(res.columns.firstName[0] === 'Tyler');
+    assert(res.nulls.id.cardinality() === 0);
+};
+
+Ut_jdbc.prototype.jdbcQueryEach = function () {
+    var q = "SELECT * FROM characters ORDER BY id;", seen = 0, cnt;
+    cnt = this.con.queryEach(q, [], function (row, idx) {
+        seen += 1;
+        return idx < 2;
+    });
+    assert(seen === 3);
+    assert(cnt === 3);
+};
+
 Ut_jdbc.prototype.jdbcDisconnect = function () {
     this.con.disconnect();
     // remove the dbfile
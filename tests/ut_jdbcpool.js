@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Austin Lehman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+"use strict";
+/*global include, TestSet, JdbcPool, Jdbc, file, assert */
+
+include("TestSet.js");
+include("db/JdbcPool.js");
+include("io/file.js");
+
+/**
+ * JdbcPool tests. Run this file with the ic9 -t to invoke 
+ * the test() function.
+ */
+function Ut_jdbcpool() {
+    TestSet.call(this, "ut_jdbcpool.js");
+
+    this.pool = undefined;
+
+    // Add tests to set.
+    this
+        .add(this.poolInstantiate, "Instantiate JdbcPool object.")
+        .add(this.poolStart, "Start pool.")
+        .add(this.poolGetConnection, "Borrow and return connection.")
+        .add(this.poolWithConnection, "Run query with connection.")
+        .add(this.poolBorrowTimeout, "Borrow timeout when pool is exhausted.")
+        .add(this.poolRegister, "Register and get pool by name.")
+        .add(this.poolClose, "Close pool.");
+}
+Ut_jdbcpool.prototype = new TestSet();
+
+/*
+ * Tests
+ */
+Ut_jdbcpool.prototype.poolInstantiate = function () {
+    this.pool = new JdbcPool('org.sqlite.JDBC', 'jdbc:sqlite:unit_test_pool.db');
+    this.pool.setMinSize(1).setMaxSize(2).setBorrowTimeout(200);
+    assert(this.pool instanceof JdbcPool);
+};
+
+Ut_jdbcpool.prototype.poolStart = function () {
+    this.pool.start();
+    var info = this.pool.getInfo();
+    assert(info.idle === 1);
+    assert(info.active === 0);
+};
+
+Ut_jdbcpool.prototype.poolGetConnection = function () {
+    var con = this.pool.getConnection();
+    assert(con instanceof Jdbc);
+    assert(con.connected());
+    assert(this.pool.getInfo().active === 1);
+    con.updateQueryRaw("CREATE TABLE characters (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, firstName TEXT NOT NULL);");
+    con.disconnect();
+    assert(!con.connected());
+    assert(this.pool.getInfo().active === 0);
+    assert(this.pool.getInfo().idle === 1);
+};
+
+Ut_jdbcpool.prototype.poolWithConnection = function () {
+    var res = this.pool.withConnection(function (con) {
+        con.updateQuery("INSERT INTO characters (firstName) VALUES (?);", ['Tyler']);
+        return con.selectQuery("SELECT * FROM characters;");
+    });
+    assert(res.length === 1);
+    assert(this.pool.getInfo().active === 0);
+};
+
+Ut_jdbcpool.prototype.poolBorrowTimeout = function () {
+    var c1 = this.pool.getConnection(), c2 = this.pool.getConnection(), timedOut = false;
+    try {
+        this.pool.getConnection();
+    } catch (e) {
+        timedOut = true;
+    }
+    c1.disconnect();
+    c2.disconnect();
+    assert(timedOut);
+    assert(this.pool.getInfo().idle === 2);
+    assert(this.pool.getInfo().open === 2);
+};
+
+Ut_jdbcpool.prototype.poolRegister = function () {
+    this.pool.register('ut_jdbcpool');
+    var pool = JdbcPool.get('ut_jdbcpool');
+    assert(pool !== null);
+    assert(pool.getInfo().maxSize === 2);
+    assert(JdbcPool.get('ut_jdbcpool_missing') === null);
+};
+
+Ut_jdbcpool.prototype.poolClose = function () {
+    this.pool.close();
+    assert(this.pool.isClosed());
+    assert(this.pool.getInfo().idle === 0);
+    assert(this.pool.getInfo().open === 0);
+    assert(JdbcPool.get('ut_jdbcpool') === null);
+    file.unlink('unit_test_pool.db');
+};
+
+Ut_jdbcpool.prototype.constructor = Ut_jdbcpool;
+
+/**
+ * Entry point to run the test.
+ */
+function test() {
+    var t = new Ut_jdbcpool();
+    t.run();
+}